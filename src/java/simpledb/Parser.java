@@ -5,6 +5,8 @@ import java.io.*;
 import java.lang.reflect.InvocationTargetException;
 import java.nio.charset.StandardCharsets;
 import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
 
 import jline.ArgumentCompletor;
 import jline.ConsoleReader;
@@ -108,7 +110,7 @@ public class Parser {
 
                 if (!op2const) { // right op is a nested query
                     LogicalPlan sublp = parseQueryLogicalPlan(tid,
-                            (ZQuery) ops.get(1));
+                            (ZQuery) ops.get(1), lp.getWorkers());
                     OpIterator pp = sublp.physicalPlan(tid,
                             TableStats.getStatsMap(), explain);
                     lp.addJoin(tab1field, pp, op);
@@ -119,18 +121,22 @@ public class Parser {
 
             } else { // select node
                 String column;
-                String compValue;
+                ZConstant value;
                 ZConstant op1 = (ZConstant) ops.get(0);
                 ZConstant op2 = (ZConstant) ops.get(1);
                 if (op1.getType() == ZConstant.COLUMNNAME) {
                     column = op1.getValue();
-                    compValue = op2.getValue();
+                    value = op2;
                 } else {
                     column = op2.getValue();
-                    compValue = op1.getValue();
+                    value = op1;
                 }
 
-                lp.addFilter(column, op, compValue);
+                int param = parameterOf(value);
+                if (param >= 0)
+                    lp.addParameterFilter(column, op, param);
+                else
+                    lp.addFilter(column, op, value.getValue());
 
             }
         }
@@ -139,10 +145,18 @@ public class Parser {
 
     public LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q)
             throws IOException, Zql.ParseException, simpledb.ParsingException {
+        return parseQueryLogicalPlan(tid, q, workers);
+    }
+
+    // queries whose result feeds an Insert or a Delete scan with one worker
+    private LogicalPlan parseQueryLogicalPlan(TransactionId tid, ZQuery q,
+            int workers)
+            throws IOException, Zql.ParseException, simpledb.ParsingException {
         @SuppressWarnings("unchecked")
         List<ZFromItem> from = q.getFrom();
         LogicalPlan lp = new LogicalPlan();
         lp.setQuery(q.toString());
+        lp.setWorkers(workers);
         // walk through tables in the FROM clause
         for (int i = 0; i < from.size(); i++) {
             ZFromItem fromIt = from.get(i);
@@ -187,23 +201,19 @@ public class Parser {
 
         // now look for group by fields
         ZGroupBy gby = q.getGroupBy();
-        String groupByField = null;
+        List<String> groupByFields = new ArrayList<>();
         if (gby != null) {
             @SuppressWarnings("unchecked")
             List<ZExp> gbs = gby.getGroupBy();
-            if (gbs.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "At most one grouping field expression supported.");
-            }
-            if (gbs.size() == 1) {
-                ZExp gbe = gbs.get(0);
+            for (ZExp gbe : gbs) {
                 if (!(gbe instanceof ZConstant)) {
                     throw new simpledb.ParsingException(
                             "Complex grouping expressions (" + gbe
                                     + ") not supported.");
                 }
-                groupByField = ((ZConstant) gbe).getValue();
+                String groupByField = ((ZConstant) gbe).getValue();
                 System.out.println("GROUP BY FIELD : " + groupByField);
+                groupByFields.add(groupByField);
             }
 
         }
@@ -234,9 +244,9 @@ public class Parser {
                         + ", agg fun is : " + aggFun);
                 lp.addProjectField(aggField, aggFun);
             } else {
-                if (groupByField != null
-                        && !(groupByField.equals(si.getTable() + "."
-                                + si.getColumn()) || groupByField.equals(si
+                if (!groupByFields.isEmpty()
+                        && !(groupByFields.contains(si.getTable() + "."
+                                + si.getColumn()) || groupByFields.contains(si
                                 .getColumn()))) {
                     throw new simpledb.ParsingException("Non-aggregate field "
                             + si.getColumn()
@@ -246,30 +256,27 @@ public class Parser {
             }
         }
 
-        if (groupByField != null && aggFun == null) {
+        if (!groupByFields.isEmpty() && aggFun == null) {
             throw new simpledb.ParsingException("GROUP BY without aggregation.");
         }
 
         if (aggFun != null) {
-            lp.addAggregate(aggFun, aggField, groupByField);
+            lp.addAggregate(aggFun, aggField, groupByFields);
         }
         // sort the data
 
         if (q.getOrderBy() != null) {
             @SuppressWarnings("unchecked")
             List<ZOrderBy> obys = q.getOrderBy();
-            if (obys.size() > 1) {
-                throw new simpledb.ParsingException(
-                        "Multi-attribute ORDER BY is not supported.");
-            }
-            ZOrderBy oby = obys.get(0);
-            if (!(oby.getExpression() instanceof ZConstant)) {
-                throw new simpledb.ParsingException(
-                        "Complex ORDER BY's are not supported");
-            }
-            ZConstant f = (ZConstant) oby.getExpression();
+            for (ZOrderBy oby : obys) {
+                if (!(oby.getExpression() instanceof ZConstant)) {
+                    throw new simpledb.ParsingException(
+                            "Complex ORDER BY's are not supported");
+                }
+                ZConstant f = (ZConstant) oby.getExpression();
 
-            lp.addOrderBy(f.getValue(), oby.getAscOrder());
+                lp.addOrderBy(f.getValue(), oby.getAscOrder());
+            }
 
         }
         return lp;
@@ -278,12 +285,204 @@ public class Parser {
     private Transaction curtrans = null;
     private boolean inUserTrans = false;
 
+    // how many workers queries scan large heap files with
+    private int workers = Exchange.DEFAULT_WORKERS;
+
+    // the plans of prepared statements, shared by all parsers
+    private static final StatementCache statements = new StatementCache(StatementCache.DEFAULT_CAPACITY);
+
+    // the number of parameters of the statement being prepared; in it, the
+    // string constant '?n' stands for parameter n, from 1
+    private int parameters = 0;
+    private static final Pattern PARAMETER = Pattern.compile("\\?([1-9][0-9]*)");
+
+    /**
+     * @return the number of the parameter, from 0, that a constant of the
+     *         statement being prepared stands for, or -1 if it is a constant
+     */
+    private int parameterOf(ZConstant c) {
+        if (parameters == 0 || c.getType() != ZConstant.STRING)
+            return -1;
+        Matcher m = PARAMETER.matcher(c.getValue());
+        if (!m.matches())
+            return -1;
+        int n = Integer.parseInt(m.group(1));
+        return n <= parameters ? n - 1 : -1;
+    }
+
+    /** @return the cache of the plans of prepared statements */
+    public static StatementCache getStatementCache() {
+        return statements;
+    }
+
+    /**
+     * Prepare a SELECT statement to be executed many times, with
+     * {@link PreparedQuery#bind}. The constant of a filter in the WHERE
+     * clause may be a ?, a parameter whose value is given each time.
+     * Statements that differ only in white space outside string constants
+     * share one plan in the {@link StatementCache}.
+     *
+     * @param sql
+     *            the statement
+     * @return the prepared statement
+     * @throws ParsingException
+     *             if the statement is not a valid SELECT statement without
+     *             subqueries
+     */
+    public PreparedQuery prepare(String sql) throws ParsingException {
+        String normalized = normalize(sql);
+        return new PreparedQuery(normalized, template(normalized).parameters);
+    }
+
+    /**
+     * @return the plan of a normalized statement, from the cache if it is
+     *         there and current, else made now and added to it
+     */
+    static StatementCache.Template template(String sql) throws ParsingException {
+        StatementCache.Template t = statements.get(sql);
+        if (t != null)
+            return t;
+        // read the versions first, so that a plan made while they change is
+        // not current
+        long catalogVersion = Database.getCatalog().getVersion();
+        long statsVersion = TableStats.getVersion();
+        Parser p = new Parser();
+        LogicalPlan lp = p.parseTemplate(sql);
+        t = new StatementCache.Template(lp, p.parameters, catalogVersion, statsVersion);
+        statements.put(sql, t);
+        return t;
+    }
+
+    /**
+     * Parse a normalized statement with parameters into a logical plan whose
+     * join order is chosen once
+     */
+    private LogicalPlan parseTemplate(String sql) throws ParsingException {
+        // replace the ?s with constants that the parser accepts
+        StringBuilder text = new StringBuilder();
+        parameters = 0;
+        boolean quoted = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'' && !quoted) {
+                int end = sql.indexOf('\'', i + 1);
+                if (end > 0 && PARAMETER.matcher(sql.substring(i + 1, end)).matches())
+                    throw new ParsingException("String constant " + sql.substring(i, end + 1)
+                            + " cannot be told apart from a parameter");
+            }
+            if (c == '\'')
+                quoted = !quoted;
+            if (c == '?' && !quoted)
+                text.append("'?").append(++parameters).append('\'');
+            else
+                text.append(c);
+        }
+        text.append(';');
+
+        try {
+            ZqlParser zp = new ZqlParser(new ByteArrayInputStream(
+                    stripLimit(text.toString()).getBytes(StandardCharsets.UTF_8)));
+            ZStatement stmt = zp.readStatement();
+            if (!(stmt instanceof ZQuery))
+                throw new ParsingException("Only SELECT statements can be prepared: " + sql);
+            LogicalPlan lp = parseQueryLogicalPlan(null, (ZQuery) stmt);
+            applyLimit(lp);
+            if (lp.hasSubqueries())
+                throw new ParsingException("Statements with subqueries cannot be prepared: " + sql);
+            lp.setReuseJoinOrder(true);
+            return lp;
+        } catch (IOException | Zql.ParseException | TokenMgrError e) {
+            throw new ParsingException("Invalid SQL expression: \n \t " + e);
+        }
+    }
+
+    /**
+     * @return a statement with each run of white space outside string
+     *         constants replaced by one space, and without white space or a
+     *         semicolon at its end
+     */
+    static String normalize(String sql) {
+        StringBuilder out = new StringBuilder(sql.length());
+        boolean quoted = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'')
+                quoted = !quoted;
+            if (!quoted && Character.isWhitespace(c)) {
+                if (out.length() > 0 && out.charAt(out.length() - 1) != ' ')
+                    out.append(' ');
+            } else {
+                out.append(c);
+            }
+        }
+        int end = out.length();
+        while (end > 0 && (out.charAt(end - 1) == ' ' || out.charAt(end - 1) == ';'))
+            end--;
+        return out.substring(0, end);
+    }
+
+    // LIMIT n [OFFSET m] at the end of a SELECT, which Zql cannot parse
+    private static final Pattern LIMIT_CLAUSE = Pattern.compile(
+            "\\s+LIMIT\\s+(\\d+)(?:\\s+OFFSET\\s+(\\d+))?\\s*;?\\s*$", Pattern.CASE_INSENSITIVE);
+    private int limit = -1, offset = 0;
+
+    /**
+     * Remove a LIMIT clause from the end of a SELECT statement, and remember
+     * it for the statement's logical plan
+     *
+     * @return the statement without its LIMIT clause, ending in a semicolon
+     */
+    private String stripLimit(String s) throws simpledb.ParsingException {
+        limit = -1;
+        offset = 0;
+        if (!s.trim().toUpperCase().startsWith("SELECT"))
+            return s;
+        Matcher m = LIMIT_CLAUSE.matcher(s);
+        if (!m.find())
+            return s;
+        try {
+            limit = Integer.parseInt(m.group(1));
+            offset = m.group(2) == null ? 0 : Integer.parseInt(m.group(2));
+        } catch (NumberFormatException e) {
+            throw new simpledb.ParsingException("Invalid LIMIT clause: " + m.group().trim());
+        }
+        return s.substring(0, m.start()) + ";";
+    }
+
+    /**
+     * @return the first statement of a script: its text up to and including
+     *         the first semicolon outside a string constant, or all of it if
+     *         there is none. Only this statement is parsed, so only its LIMIT
+     *         clause may be stripped.
+     */
+    static String firstStatement(String s) {
+        boolean quoted = false;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c == '\'')
+                quoted = !quoted;
+            else if (c == ';' && !quoted)
+                return s.substring(0, i + 1);
+        }
+        return s;
+    }
+
+    /**
+     * Apply the LIMIT clause of the statement being parsed to its plan
+     */
+    private void applyLimit(LogicalPlan lp) {
+        lp.setLimit(limit, offset);
+        limit = -1;
+        offset = 0;
+    }
+
     public Query handleQueryStatement(ZQuery s, TransactionId tId)
             throws IOException,
             simpledb.ParsingException, Zql.ParseException {
         Query query = new Query(tId);
 
         LogicalPlan lp = parseQueryLogicalPlan(tId, s);
+        applyLimit(lp);
         OpIterator physicalPlan = lp.physicalPlan(tId,
                 TableStats.getStatsMap(), explain);
         query.setPhysicalPlan(physicalPlan);
@@ -382,7 +581,7 @@ public class Parser {
 
         } else {
             ZQuery zq = s.getQuery();
-            LogicalPlan lp = parseQueryLogicalPlan(tId, zq);
+            LogicalPlan lp = parseQueryLogicalPlan(tId, zq, 1);
             newTups = lp.physicalPlan(tId, TableStats.getStatsMap(), explain);
         }
         Query insertQ = new Query(tId);
@@ -409,6 +608,7 @@ public class Parser {
 
         LogicalPlan lp = new LogicalPlan();
         lp.setQuery(s.toString());
+        lp.setWorkers(1);
 
         lp.addScan(id, name);
         if (s.getWhere() != null)
@@ -465,12 +665,14 @@ public class Parser {
 
     public LogicalPlan generateLogicalPlan(TransactionId tid, String s)
             throws simpledb.ParsingException, IOException {
-        ByteArrayInputStream bis = new ByteArrayInputStream(s.getBytes());
+        ByteArrayInputStream bis = new ByteArrayInputStream(stripLimit(s).getBytes());
         ZqlParser p = new ZqlParser(bis);
         try {
             ZStatement stmt = p.readStatement();
             if (stmt instanceof ZQuery) {
-                return parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                LogicalPlan lp = parseQueryLogicalPlan(tid, (ZQuery) stmt);
+                applyLimit(lp);
+                return lp;
             }
         } catch (Zql.ParseException e) {
             throw new simpledb.ParsingException(
@@ -489,13 +691,27 @@ public class Parser {
         return curtrans;
     }
 
+    /**
+     * Set how many workers queries scan large heap files with. INSERT and
+     * DELETE statements always scan with one.
+     */
+    public void setWorkers(int workers) {
+        this.workers = workers;
+    }
+
     public void processNextStatement(String s) {
         processNextStatement(new ByteArrayInputStream(s.getBytes(StandardCharsets.UTF_8)));
     }
 
     public void processNextStatement(InputStream is) {
         try {
-            ZqlParser p = new ZqlParser(is);
+            ByteArrayOutputStream statement = new ByteArrayOutputStream();
+            byte[] buf = new byte[4096];
+            int n;
+            while ((n = is.read(buf)) > 0)
+                statement.write(buf, 0, n);
+            String text = stripLimit(firstStatement(new String(statement.toByteArray(), StandardCharsets.UTF_8)));
+            ZqlParser p = new ZqlParser(new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)));
             ZStatement s = p.readStatement();
 
             Query query = null;
@@ -593,7 +809,8 @@ public class Parser {
     protected void start(String[] argv) throws IOException {
         // first add tables to database
         Database.getCatalog().loadSchema(argv[0]);
-        TableStats.computeStatistics();
+        TableStats.computeStatistics(new File(new File(argv[0]).getAbsoluteFile().getParentFile(),
+                TableStats.STATS_FILE));
 
         String queryFile = null;
 
@@ -0,0 +1,73 @@
+package simpledb;
+
+import simpledb.execution.Query;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A SELECT statement prepared by {@link Parser#prepare}, to be executed many
+ * times with different values of its parameters.
+ * <p>
+ * A parameter is written as a ? in place of the constant of a filter in the
+ * WHERE clause. Its value is given when the statement is executed, as an
+ * Integer or a String, or anything whose string form is one. The plan of the
+ * statement is kept in the parser's {@link StatementCache}; its joins are
+ * ordered once, with the values given the first time it is executed, and
+ * executions after that reuse the order until the catalog or the statistics
+ * change.
+ */
+public class PreparedQuery {
+
+    private final String sql;
+    private final int parameters;
+
+    PreparedQuery(String sql, int parameters) {
+        this.sql = sql;
+        this.parameters = parameters;
+    }
+
+    /** @return the normalized text of the statement */
+    public String getSql() {
+        return sql;
+    }
+
+    /** @return the number of parameters of the statement */
+    public int getParameterCount() {
+        return parameters;
+    }
+
+    /**
+     * Make a query that executes the statement with the given values of its
+     * parameters
+     *
+     * @param tid
+     *            the transaction the query will run as a part of
+     * @param params
+     *            the values of the parameters, in the order of the ?s in the
+     *            statement
+     * @return the query, ready to be started
+     * @throws ParsingException
+     *             if the number of values is wrong, a value does not match
+     *             the type of its field, or the statement no longer fits the
+     *             catalog
+     */
+    public Query bind(TransactionId tid, Object... params) throws ParsingException {
+        if (params.length != parameters)
+            throw new ParsingException("Statement has " + parameters + " parameters, not " + params.length);
+        List<String> values = new ArrayList<>(params.length);
+        for (int i = 0; i < params.length; i++) {
+            if (params[i] == null)
+                throw new ParsingException("No value for parameter " + (i + 1));
+            values.add(params[i].toString());
+        }
+        LogicalPlan lp = Parser.template(sql).plan;
+        Query query = new Query(tid);
+        query.setPhysicalPlan(lp.physicalPlan(tid, TableStats.getStatsMap(), false, values));
+        query.setLogicalPlan(lp);
+        return query;
+    }
+}
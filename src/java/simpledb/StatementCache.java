@@ -0,0 +1,135 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache of the plans of prepared statements, by their normalized
+ * SQL text (see {@link Parser#prepare}), so that executing a statement again
+ * skips parsing and join ordering.
+ * <p>
+ * When the cache is full, the plan used least recently is evicted. A plan is
+ * only valid for the catalog and statistics it was made with: when a table is
+ * added to the catalog, or a table's statistics are computed, loaded or
+ * sampled again, plans made before are dropped the next time they are looked
+ * up and are made again.
+ *
+ * @Threadsafe
+ */
+public class StatementCache {
+
+    /** The default number of plans a cache holds */
+    public static final int DEFAULT_CAPACITY = 256;
+
+    /** The plan of a statement, and what it was made with */
+    static class Template {
+        final LogicalPlan plan;
+        final int parameters;
+        final long catalogVersion;
+        final long statsVersion;
+
+        Template(LogicalPlan plan, int parameters, long catalogVersion, long statsVersion) {
+            this.plan = plan;
+            this.parameters = parameters;
+            this.catalogVersion = catalogVersion;
+            this.statsVersion = statsVersion;
+        }
+
+        boolean isCurrent() {
+            return catalogVersion == Database.getCatalog().getVersion()
+                    && statsVersion == TableStats.getVersion();
+        }
+    }
+
+    private final LinkedHashMap<String, Template> templates;
+    private int capacity;
+    private long hits = 0, misses = 0;
+
+    /**
+     * Create an empty cache
+     *
+     * @param capacity
+     *            the most plans it holds, at least 1
+     */
+    public StatementCache(int capacity) {
+        setCapacity(capacity);
+        this.templates = new LinkedHashMap<String, Template>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Template> eldest) {
+                return size() > StatementCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * @return the plan of a statement, or null if there is none made with the
+     *         current catalog and statistics
+     */
+    synchronized Template get(String sql) {
+        Template t = templates.get(sql);
+        if (t != null && !t.isCurrent()) {
+            templates.remove(sql);
+            t = null;
+        }
+        if (t == null)
+            misses++;
+        else
+            hits++;
+        return t;
+    }
+
+    /**
+     * Add the plan of a statement, evicting the least recently used plan if
+     * the cache is full
+     */
+    synchronized void put(String sql, Template t) {
+        templates.put(sql, t);
+    }
+
+    /**
+     * Set the most plans the cache holds, evicting the least recently used
+     * ones if it holds more
+     *
+     * @param capacity
+     *            the number of plans, at least 1
+     */
+    public synchronized void setCapacity(int capacity) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("a statement cache holds at least one plan: " + capacity);
+        this.capacity = capacity;
+        if (templates != null) {
+            while (templates.size() > capacity)
+                templates.remove(templates.keySet().iterator().next());
+        }
+    }
+
+    public synchronized int getCapacity() {
+        return capacity;
+    }
+
+    /** @return the number of plans in the cache */
+    public synchronized int size() {
+        return templates.size();
+    }
+
+    /** Drop every plan in the cache */
+    public synchronized void clear() {
+        templates.clear();
+    }
+
+    /** @return the number of lookups that found a current plan */
+    public synchronized long getHits() {
+        return hits;
+    }
+
+    /** @return the number of lookups that did not find a current plan */
+    public synchronized long getMisses() {
+        return misses;
+    }
+}
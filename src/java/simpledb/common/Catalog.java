@@ -11,6 +11,7 @@ import java.io.FileReader;
 import java.io.IOException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * The Catalog keeps track of all available tables in the database and their
@@ -27,6 +28,12 @@ public class Catalog {
 
     Map<String, Integer> nameToIdMap;
 
+    // the versions of all catalogs come from one counter, so that no two
+    // catalogs, nor two states of one catalog, have the same version
+    private static final AtomicLong versions = new AtomicLong();
+
+    private volatile long version = versions.incrementAndGet();
+
     class TableInfo {
         DbFile dbFile;
         String tableName;
@@ -60,6 +67,7 @@ public class Catalog {
         tableInfo.pkeyField = pkeyField;
         tableInfoMap.put(tableInfo.tableId, tableInfo);
         nameToIdMap.put(tableInfo.tableName, tableInfo.tableId);
+        version = versions.incrementAndGet();
     }
 
     public void addTable(DbFile file, String name) {
@@ -126,6 +134,14 @@ public class Catalog {
         return tableInfoMap.get(id).tableName;
     }
     
+    /**
+     * @return the version of the catalog, which changes whenever a table is
+     *         added; no other catalog has the same version
+     */
+    public long getVersion() {
+        return version;
+    }
+
     /** Delete all tables from the catalog */
     public void clear() {
         // some code goes here
@@ -1,21 +1,37 @@
 package simpledb.execution;
 
 import simpledb.common.DbException;
+import simpledb.common.Type;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
 import simpledb.transaction.TransactionAbortedException;
 
-import java.util.HashMap;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
 
 
 /**
  * The Aggregation operator that computes an aggregate (e.g., sum, avg, max,
- * min). Note that we only support aggregates over a single column, grouped by a
- * single column.
+ * min). Note that we only support aggregates over a single column, grouped by
+ * any number of columns.
+ * <p>
+ * The child is consumed a {@link TupleBatch} at a time and its batches are
+ * merged into the aggregator with {@link Aggregator#mergeBatch}; the results
+ * can be read either as tuples or as batches.
+ * <p>
+ * If the child is an {@link Exchange}, the aggregate is computed in parallel:
+ * each worker pre-aggregates the morsels it scans into an aggregator of its
+ * own (see {@link Exchange#runWorkers}). Every worker's aggregator is then
+ * split into as many partitions as there are workers by hash of the group
+ * value, and partition p of all workers is merged by one task, so the merge
+ * also runs in parallel and no group is merged by two tasks. Groups then come
+ * out in no particular order.
  */
-public class Aggregate extends Operator {
+public class Aggregate extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -23,10 +39,12 @@ public class Aggregate extends Operator {
 
     int afield;
 
-    int gfield;
+    int[] gfields;
 
     Aggregator.Op op;
 
+    transient private OpIterator results = null;
+
     /**
      * Constructor.
      * <p>
@@ -41,28 +59,51 @@ public class Aggregate extends Operator {
      * @param aop    The aggregation operator to use
      */
     public Aggregate(OpIterator child, int afield, int gfield, Aggregator.Op aop) {
+        this(child, afield, gfield == Aggregator.NO_GROUPING ? new int[0] : new int[]{gfield}, aop);
+    }
+
+    /**
+     * Constructor for an aggregate grouped by several columns.
+     *
+     * @param child   The OpIterator that is feeding us tuples.
+     * @param afield  The column over which we are computing an aggregate.
+     * @param gfields The columns over which we are grouping the result; empty
+     *                if there is no grouping
+     * @param aop     The aggregation operator to use
+     */
+    public Aggregate(OpIterator child, int afield, int[] gfields, Aggregator.Op aop) {
         this.it = child;
         this.afield = afield;
-        this.gfield = gfield;
+        this.gfields = gfields.clone();
         this.op = aop;
     }
 
     /**
-     * @return If this aggregate is accompanied by a groupby, return the groupby
-     * field index in the <b>INPUT</b> tuples. If not, return
+     * @return If this aggregate is accompanied by a groupby, return the
+     * (first) groupby field index in the <b>INPUT</b> tuples. If not, return
      * {@link Aggregator#NO_GROUPING}
      */
     public int groupField() {
-        return gfield;
+        return gfields.length == 0 ? Aggregator.NO_GROUPING : gfields[0];
+    }
+
+    /**
+     * @return the indexes of the groupby fields in the <b>INPUT</b> tuples;
+     * empty if there is no grouping
+     */
+    public int[] groupFields() {
+        return gfields.clone();
     }
 
     /**
      * @return If this aggregate is accompanied by a group by, return the name
-     * of the groupby field in the <b>OUTPUT</b> tuples. If not, return
+     * of the (first) groupby field in the <b>OUTPUT</b> tuples. If not, return
      * null;
      */
     public String groupFieldName() {
-        return this.getTupleDesc().tdItems.get(gfield).fieldName;
+        if (gfields.length == 0)
+            return null;
+        return this.getTupleDesc().getFieldName(0);
     }
 
     /**
@@ -77,48 +118,125 @@ public class Aggregate extends Operator {
      * tuples
      */
     public String aggregateFieldName() {
-        return this.getTupleDesc().tdItems.get(afield).fieldName;
+        TupleDesc td = this.getTupleDesc();
+        return td.getFieldName(td.numFields() - 1);
     }
 
     /**
      * @return return the aggregate operator
      */
     public Aggregator.Op aggregateOp() {
-        // some code goes here
-        return null;
+        return op;
     }
 
     public static String nameOfAggregatorOp(Aggregator.Op aop) {
         return aop.toString();
     }
 
+    private Aggregator newAggregator() {
+        TupleDesc childTd = it.getTupleDesc();
+        Type[] gtypes = new Type[gfields.length];
+        for (int i = 0; i < gfields.length; i++) {
+            gtypes[i] = childTd.getFieldType(gfields[i]);
+        }
+        if (childTd.getFieldType(afield) == Type.INT_TYPE)
+            return new IntegerAggregator(gfields, gtypes, afield, op);
+        return new StringAggregator(gfields, gtypes, afield, op);
+    }
+
     public void open() throws NoSuchElementException, DbException,
             TransactionAbortedException {
-        it.open();
+        if (it instanceof Exchange) {
+            results = aggregateInParallel((Exchange) it);
+        } else {
+            Aggregator agg = newAggregator();
+            it.open();
+            TupleBatch b;
+            while ((b = BatchOpIterator.fetchBatch(it)) != null) {
+                agg.mergeBatch(b);
+            }
+            results = agg.iterator();
+        }
+        results.open();
         super.open();
     }
 
+    private OpIterator aggregateInParallel(Exchange ex)
+            throws DbException, TransactionAbortedException {
+        List<Aggregator> partials = ex.runWorkers(this::newAggregator, Aggregator::mergeBatch);
+        int n = partials.size();
+        if (n == 1 || gfields.length == 0) {
+            Aggregator agg = partials.get(0);
+            for (int i = 1; i < n; i++) {
+                agg.merge(partials.get(i));
+            }
+            return agg.iterator();
+        }
+
+        List<Callable<Aggregator[]>> splits = new ArrayList<>();
+        for (Aggregator partial : partials) {
+            splits.add(() -> partial.partition(n));
+        }
+        Aggregator[][] parts = new Aggregator[n][];
+        List<Future<Aggregator[]>> split = Exchange.invokeAll(splits);
+        for (int w = 0; w < n; w++) {
+            parts[w] = Exchange.getResult(split.get(w));
+        }
+
+        List<Callable<Aggregator>> merges = new ArrayList<>();
+        for (int p = 0; p < n; p++) {
+            int part = p;
+            merges.add(() -> {
+                Aggregator agg = parts[0][part];
+                for (int w = 1; w < n; w++) {
+                    agg.merge(parts[w][part]);
+                }
+                return agg;
+            });
+        }
+        List<Tuple> tuples = new ArrayList<>();
+        TupleDesc td = null;
+        for (Future<Aggregator> f : Exchange.invokeAll(merges)) {
+            OpIterator groups = Exchange.getResult(f).iterator();
+            td = groups.getTupleDesc();
+            groups.open();
+            while (groups.hasNext()) {
+                tuples.add(groups.next());
+            }
+            groups.close();
+        }
+        return new TupleIterator(td, tuples);
+    }
+
     /**
-     * Returns the next tuple. If there is a group by field, then the first
-     * field is the field by which we are grouping, and the second field is the
-     * result of computing the aggregate. If there is no group by field, then
+     * Returns the next tuple. If there are group by fields, then the first
+     * fields are the fields by which we are grouping, and the last field is
+     * the result of computing the aggregate. If there is no group by field, then
      * the result tuple should contain one field representing the result of the
      * aggregate. Should return null if there are no more tuples.
      */
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        // some code goes here
+        if (results != null && results.hasNext())
+            return results.next();
         return null;
     }
 
+    /**
+     * Returns the next batch of aggregate results.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        return results == null ? null : BatchOpIterator.fetchBatch(results);
+    }
+
     public void rewind() throws DbException, TransactionAbortedException {
-        // some code goes here
+        results.rewind();
     }
 
     /**
      * Returns the TupleDesc of this Aggregate. If there is no group by field,
-     * this will have one field - the aggregate column. If there is a group by
-     * field, the first field will be the group by field, and the second will be
-     * the aggregate value column.
+     * this will have one field - the aggregate column. If there are group by
+     * fields, the first fields will be the group by fields, and the last will
+     * be the aggregate value column.
      * <p>
      * The name of an aggregate column should be informative. For example:
      * "aggName(aop) (child_td.getFieldName(afield))" where aop and afield are
@@ -126,22 +244,35 @@ public class Aggregate extends Operator {
      * iterator.
      */
     public TupleDesc getTupleDesc() {
-        return this.it.getTupleDesc();
+        TupleDesc childTd = it.getTupleDesc();
+        String aggName = nameOfAggregatorOp(op) + "(" + childTd.getFieldName(afield) + ")";
+        Type[] types = new Type[gfields.length + 1];
+        String[] names = new String[gfields.length + 1];
+        for (int i = 0; i < gfields.length; i++) {
+            types[i] = childTd.getFieldType(gfields[i]);
+            names[i] = childTd.getFieldName(gfields[i]);
+        }
+        types[gfields.length] = Type.INT_TYPE;
+        names[gfields.length] = aggName;
+        return new TupleDesc(types, names);
     }
 
     public void close() {
-        // some code goes here
+        super.close();
+        it.close();
+        if (results != null)
+            results.close();
+        results = null;
     }
 
     @Override
     public OpIterator[] getChildren() {
-        // some code goes here
-        return null;
+        return new OpIterator[]{this.it};
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
-        // some code goes here
+        this.it = children[0];
     }
 
 }
@@ -79,6 +79,51 @@ public interface Aggregator extends Serializable {
      */
     void mergeTupleIntoGroup(Tuple tup);
 
+    /**
+     * Merge every selected row of a batch into the aggregate. The default
+     * merges the rows one tuple at a time.
+     *
+     * @param batch the rows containing an aggregate field and a group-by field
+     */
+    default void mergeBatch(TupleBatch batch) {
+        for (int i = 0; i < batch.size(); i++) {
+            mergeTupleIntoGroup(batch.getTuple(batch.row(i)));
+        }
+    }
+
+    /**
+     * Merge the partial aggregates of another aggregator, built with the same
+     * grouping, aggregate field and operator, into this one. Used to combine
+     * the aggregators of parallel workers.
+     *
+     * @param other the aggregator to merge; it must not be used afterwards
+     */
+    void merge(Aggregator other);
+
+    /**
+     * Split the groups of this aggregator into n aggregators by the hash of
+     * their group value, so that each group lands in the same partition in
+     * every worker's aggregator. This aggregator must not be used afterwards.
+     *
+     * @param n the number of partitions
+     */
+    Aggregator[] partition(int n);
+
+    /**
+     * Return the partition of a group value among n partitions
+     */
+    static int partitionOf(Object group, int n) {
+        return partitionOf(group == null ? 0 : group.hashCode(), n);
+    }
+
+    /**
+     * Return the partition of a group value with the given hash code among n
+     * partitions
+     */
+    static int partitionOf(int hash, int n) {
+        return Math.floorMod(hash ^ (hash >>> 16), n);
+    }
+
     /**
      * Create a OpIterator over group aggregate results.
      * @see TupleIterator for a possible helper
@@ -0,0 +1,45 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * BatchOpIterator is implemented by operators that can also produce their
+ * output a {@link TupleBatch} at a time. Batches amortize the per-tuple call
+ * overhead of the iterator interface and let operators such as {@link Filter}
+ * and {@link Project} run tight loops over column arrays.
+ * <p>
+ * After open() or rewind(), a caller reads an operator either with
+ * hasNext()/next() or with nextBatch(), not both. Operators that do not
+ * implement this interface still compose with batch consumers through
+ * {@link #fetchBatch(OpIterator)}, which collects their tuples into batches.
+ */
+public interface BatchOpIterator extends OpIterator {
+
+    /**
+     * Returns the next batch of output rows.
+     *
+     * @return a batch with at least one selected row, or null if the operator
+     *         has no more rows
+     */
+    TupleBatch nextBatch() throws DbException, TransactionAbortedException;
+
+    /**
+     * Read the next batch of rows from any OpIterator: batch operators are
+     * asked for their next batch, others have their tuples collected into one.
+     *
+     * @param child
+     *            an open iterator
+     * @return a batch with at least one selected row, or null if the iterator
+     *         is exhausted
+     */
+    static TupleBatch fetchBatch(OpIterator child) throws DbException, TransactionAbortedException {
+        if (child instanceof BatchOpIterator)
+            return ((BatchOpIterator) child).nextBatch();
+        TupleBatch b = new TupleBatch(child.getTupleDesc());
+        while (!b.isFull() && child.hasNext()) {
+            b.add(child.next());
+        }
+        return b.size() == 0 ? null : b;
+    }
+}
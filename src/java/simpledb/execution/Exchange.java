@@ -0,0 +1,584 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+import java.util.function.BooleanSupplier;
+import java.util.function.Supplier;
+
+/**
+ * The Exchange operator runs its child on several worker threads and gathers
+ * their output. The child must be a scan fragment: a {@link SeqScan} of a
+ * {@link HeapFile}, with any predicates pushed into it, optionally below
+ * {@link Filter}s and {@link Project}s (see {@link #canParallelize(OpIterator)}).
+ * <p>
+ * The file's pages are cut into morsels of {@link #MORSEL_PAGES} pages. Each
+ * worker runs its own copy of the fragment, repeatedly claiming the next
+ * morsel and scanning just its pages, and hands the resulting
+ * {@link TupleBatch}es to the consumer through bounded queues, so workers
+ * that get ahead of the consumer block instead of buffering the table.
+ * <p>
+ * Without order preservation, workers share one queue and batches arrive in
+ * whatever order they are produced. With it, every claimed morsel gets its own
+ * queue, and the consumer reads the morsels in page order, so the output is
+ * in the same order as a serial scan; at most a few morsels per worker may
+ * be in flight.
+ * <p>
+ * A consumer can also install a {@link Stage} that each worker applies to its
+ * batches before queueing them, such as the probe of a parallel
+ * {@link HashEquiJoin}.
+ * <p>
+ * A consumer that only folds the output into some state, such as
+ * {@link Aggregate}, can instead have every worker fold its own morsels into
+ * a state of its own with {@link #runWorkers}, skipping the queues.
+ * <p>
+ * If the child is not a scan fragment, Exchange simply passes its tuples
+ * through.
+ */
+public class Exchange extends Operator implements BatchOpIterator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of pages in a morsel */
+    public static final int MORSEL_PAGES = 16;
+
+    /** Number of batches each queue can hold */
+    public static final int QUEUE_BATCHES = 8;
+
+    /** Default number of workers: one per core */
+    public static final int DEFAULT_WORKERS = Runtime.getRuntime().availableProcessors();
+
+    /** Scans of tables with fewer pages than this are not worth parallelizing */
+    public static final int MIN_PARALLEL_PAGES = 4 * MORSEL_PAGES;
+
+    private static ExecutorService pool = null;
+
+    // marks the end of a worker's output, or of a morsel in ordered mode
+    private static final TupleBatch END = new TupleBatch(new TupleDesc(new Type[]{Type.INT_TYPE}), 0);
+
+    /**
+     * A step that the workers run on every batch of the fragment, turning it
+     * into zero or more output batches. A stage is shared by all workers, so
+     * it must be safe to call concurrently.
+     */
+    public interface Stage {
+        List<TupleBatch> apply(TupleBatch batch) throws DbException, TransactionAbortedException;
+    }
+
+    private OpIterator child;
+    private final int workers;
+    private final boolean preserveOrder;
+
+    transient private Stage stage = null;
+    transient private TupleDesc stageTd = null;
+    // output of the stage not yet returned, when not running in parallel
+    transient private final Deque<TupleBatch> staged = new ArrayDeque<>();
+
+    transient private boolean parallel;
+    transient private volatile boolean cancelled;
+    transient private volatile Throwable error;
+    transient private List<Future<?>> futures;
+    transient private int numMorsels;
+    // morsels are claimed in page order under claimLock in ordered mode
+    transient private Object claimLock;
+    transient private AtomicInteger nextMorsel;
+    // unordered mode: the shared queue, and the number of workers done
+    transient private BlockingQueue<TupleBatch> shared;
+    transient private int doneWorkers;
+    // ordered mode: the queues of the claimed morsels, in page order
+    transient private BlockingQueue<BlockingQueue<TupleBatch>> morsels;
+    transient private BlockingQueue<TupleBatch> currentMorsel;
+    transient private int doneMorsels;
+
+    transient private TupleBatch batch;
+    transient private int pos;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the scan fragment to run in parallel
+     * @param workers
+     *            the number of worker threads
+     * @param preserveOrder
+     *            whether the output must be in the order of a serial scan
+     */
+    public Exchange(OpIterator child, int workers, boolean preserveOrder) {
+        this.child = child;
+        this.workers = Math.max(1, workers);
+        this.preserveOrder = preserveOrder;
+    }
+
+    /**
+     * Constructor for a non-order-preserving exchange with one worker per
+     * core.
+     */
+    public Exchange(OpIterator child) {
+        this(child, DEFAULT_WORKERS, false);
+    }
+
+    /**
+     * @return true if the given plan is a scan fragment that an Exchange can
+     *         run in parallel
+     */
+    public static boolean canParallelize(OpIterator plan) {
+        SeqScan scan = findScan(plan);
+        return scan != null
+                && Database.getCatalog().getDatabaseFile(scan.getTableId()) instanceof HeapFile;
+    }
+
+    private static SeqScan findScan(OpIterator plan) {
+        while (plan instanceof Filter || plan instanceof Project) {
+            plan = ((Operator) plan).getChildren()[0];
+        }
+        return plan instanceof SeqScan ? (SeqScan) plan : null;
+    }
+
+    /**
+     * Copy a scan fragment, so that each worker has its own operators
+     */
+    private static OpIterator copyFragment(OpIterator plan) {
+        if (plan instanceof Filter) {
+            Filter f = (Filter) plan;
+            return new Filter(f.getPredicate(), copyFragment(f.getChildren()[0]));
+        } else if (plan instanceof Project) {
+            Project p = (Project) plan;
+            TupleDesc td = p.getTupleDesc();
+            Type[] types = new Type[td.numFields()];
+            for (int i = 0; i < types.length; i++) {
+                types[i] = td.getFieldType(i);
+            }
+            return new Project(p.getOutFieldIds(), types, copyFragment(p.getChildren()[0]));
+        }
+        SeqScan s = (SeqScan) plan;
+        SeqScan copy = new SeqScan(s.getTransactionId(), s.getTableId(), s.getAlias());
+        for (Predicate pred : s.getPredicates()) {
+            copy.addPredicate(pred);
+        }
+        return copy;
+    }
+
+    /**
+     * @return the thread pool shared by the exchanges' workers
+     */
+    static synchronized ExecutorService pool() {
+        if (pool == null) {
+            pool = Executors.newCachedThreadPool(r -> {
+                Thread t = new Thread(r, "exchange-worker");
+                t.setDaemon(true);
+                return t;
+            });
+        }
+        return pool;
+    }
+
+    /**
+     * @return a short description of this exchange, for query plans
+     */
+    public String getName() {
+        return "exchange(" + workers + (preserveOrder ? ",ordered" : "") + ")";
+    }
+
+    public int getWorkers() {
+        return workers;
+    }
+
+    public boolean preservesOrder() {
+        return preserveOrder;
+    }
+
+    /**
+     * @return true if this exchange will run its child on several workers,
+     *         rather than passing its tuples through
+     */
+    public boolean isParallel() {
+        return workers > 1 && canParallelize(child);
+    }
+
+    /**
+     * Set the stage the workers apply to the batches of the fragment, or
+     * remove it if stage is null. Must be called while the exchange is closed.
+     *
+     * @param stage
+     *            the stage
+     * @param outTd
+     *            the TupleDesc of the stage's output
+     */
+    public void setStage(Stage stage, TupleDesc outTd) {
+        this.stage = stage;
+        this.stageTd = outTd;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return stage != null ? stageTd : child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        start();
+        super.open();
+    }
+
+    private void start() throws DbException, TransactionAbortedException {
+        batch = null;
+        pos = 0;
+        staged.clear();
+        parallel = isParallel();
+        if (!parallel) {
+            child.open();
+            return;
+        }
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(findScan(child).getTableId());
+        numMorsels = (file.numPages() + MORSEL_PAGES - 1) / MORSEL_PAGES;
+        cancelled = false;
+        error = null;
+        claimLock = new Object();
+        nextMorsel = new AtomicInteger(0);
+        shared = new ArrayBlockingQueue<>(QUEUE_BATCHES * workers);
+        doneWorkers = 0;
+        morsels = new ArrayBlockingQueue<>(2 * workers);
+        currentMorsel = null;
+        doneMorsels = 0;
+        futures = new ArrayList<>();
+        int n = Math.min(workers, Math.max(1, numMorsels));
+        for (int i = 0; i < n; i++) {
+            OpIterator fragment = copyFragment(child);
+            futures.add(pool().submit(() -> work(fragment)));
+        }
+        // workers that were not started count as done
+        doneWorkers = workers - n;
+    }
+
+    /**
+     * Run the child on the workers without gathering its output. Each worker
+     * creates a state with init and folds the batches of every morsel it
+     * claims into it with fold. The exchange must not be open, and its stage,
+     * if any, is not applied.
+     *
+     * @return the states of the workers, one per worker that was started
+     */
+    public <S> List<S> runWorkers(Supplier<S> init, BiConsumer<S, TupleBatch> fold)
+            throws DbException, TransactionAbortedException {
+        List<S> states = new ArrayList<>();
+        runWorkers(init, fold, () -> false, states);
+        return states;
+    }
+
+    /**
+     * Like {@link #runWorkers(Supplier, BiConsumer)}, but stops reading the
+     * child once stop returns true. Workers test stop before claiming each
+     * morsel and finish the morsels they have claimed, so the batches folded
+     * are exactly those of the first morsels of the table; without workers,
+     * stop is tested before each batch.
+     *
+     * @param states
+     *            receives the states of the workers, one per worker that was
+     *            started
+     * @return null if the whole child was read, or else an open iterator over
+     *         the tuples of the child that were not folded, which the caller
+     *         must close
+     */
+    public <S> DbFileIterator runWorkers(Supplier<S> init, BiConsumer<S, TupleBatch> fold,
+                                         BooleanSupplier stop, List<S> states)
+            throws DbException, TransactionAbortedException {
+        if (!isParallel()) {
+            S state = init.get();
+            states.add(state);
+            child.open();
+            boolean keepOpen = false;
+            try {
+                while (!stop.getAsBoolean()) {
+                    TupleBatch b = BatchOpIterator.fetchBatch(child);
+                    if (b == null)
+                        return null;
+                    fold.accept(state, b);
+                }
+                // the rest is read from the child where the folds left off
+                keepOpen = true;
+                return new OpIteratorAdapter(child);
+            } finally {
+                if (!keepOpen)
+                    child.close();
+            }
+        }
+        HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(findScan(child).getTableId());
+        int morselCount = (file.numPages() + MORSEL_PAGES - 1) / MORSEL_PAGES;
+        AtomicInteger next = new AtomicInteger(0);
+        List<Callable<S>> tasks = new ArrayList<>();
+        for (int i = 0; i < Math.min(workers, Math.max(1, morselCount)); i++) {
+            OpIterator fragment = copyFragment(child);
+            tasks.add(() -> {
+                SeqScan scan = findScan(fragment);
+                S state = init.get();
+                int m;
+                while (!stop.getAsBoolean() && (m = next.getAndIncrement()) < morselCount) {
+                    scan.setPageRange(m * MORSEL_PAGES, (m + 1) * MORSEL_PAGES);
+                    fragment.open();
+                    try {
+                        TupleBatch b;
+                        while ((b = BatchOpIterator.fetchBatch(fragment)) != null) {
+                            fold.accept(state, b);
+                        }
+                    } finally {
+                        fragment.close();
+                    }
+                }
+                return state;
+            });
+        }
+        for (Future<S> f : invokeAll(tasks)) {
+            states.add(getResult(f));
+        }
+        int claimed = next.get();
+        if (claimed >= morselCount)
+            return null;
+        OpIterator rest = copyFragment(child);
+        findScan(rest).setPageRange(claimed * MORSEL_PAGES, Integer.MAX_VALUE);
+        DbFileIterator it = new OpIteratorAdapter(rest);
+        it.open();
+        return it;
+    }
+
+    /**
+     * Run tasks on the workers' thread pool and wait for all of them
+     */
+    static <T> List<Future<T>> invokeAll(List<Callable<T>> tasks) throws DbException {
+        try {
+            return pool().invokeAll(tasks);
+        } catch (InterruptedException e) {
+            throw new DbException("interrupted while waiting for exchange workers");
+        }
+    }
+
+    /**
+     * Return the result of a finished task, rethrowing its failure
+     */
+    static <T> T getResult(Future<T> f) throws DbException, TransactionAbortedException {
+        try {
+            return f.get();
+        } catch (InterruptedException e) {
+            throw new DbException("interrupted while waiting for exchange workers");
+        } catch (ExecutionException e) {
+            rethrow(e.getCause());
+            return null;
+        }
+    }
+
+    private static void rethrow(Throwable e) throws DbException, TransactionAbortedException {
+        if (e instanceof TransactionAbortedException)
+            throw (TransactionAbortedException) e;
+        if (e instanceof DbException)
+            throw (DbException) e;
+        if (e != null)
+            throw new DbException("exchange worker failed: " + e);
+    }
+
+    private void put(BlockingQueue<TupleBatch> q, TupleBatch b) throws InterruptedException {
+        while (!q.offer(b, 10, TimeUnit.MILLISECONDS)) {
+            if (cancelled)
+                throw new InterruptedException();
+        }
+    }
+
+    /**
+     * Claim the next morsel; in ordered mode, also queue its output queue
+     * for the consumer.
+     *
+     * @return the morsel's number, or -1 if all morsels have been claimed
+     */
+    private int claim(List<BlockingQueue<TupleBatch>> out) throws InterruptedException {
+        if (!preserveOrder) {
+            int m = nextMorsel.getAndIncrement();
+            return m < numMorsels ? m : -1;
+        }
+        synchronized (claimLock) {
+            int m = nextMorsel.get();
+            if (m >= numMorsels)
+                return -1;
+            BlockingQueue<TupleBatch> q = new ArrayBlockingQueue<>(QUEUE_BATCHES);
+            while (!morsels.offer(q, 10, TimeUnit.MILLISECONDS)) {
+                if (cancelled)
+                    throw new InterruptedException();
+            }
+            nextMorsel.incrementAndGet();
+            out.add(q);
+            return m;
+        }
+    }
+
+    private void work(OpIterator fragment) {
+        SeqScan scan = findScan(fragment);
+        List<BlockingQueue<TupleBatch>> claimed = new ArrayList<>(1);
+        try {
+            int m;
+            while (!cancelled && (m = claim(claimed)) >= 0) {
+                BlockingQueue<TupleBatch> q = preserveOrder ? claimed.remove(0) : shared;
+                try {
+                    scan.setPageRange(m * MORSEL_PAGES, (m + 1) * MORSEL_PAGES);
+                    fragment.open();
+                    TupleBatch b;
+                    while (!cancelled && (b = BatchOpIterator.fetchBatch(fragment)) != null) {
+                        if (stage == null) {
+                            put(q, b);
+                            continue;
+                        }
+                        for (TupleBatch out : stage.apply(b)) {
+                            put(q, out);
+                        }
+                    }
+                    fragment.close();
+                } finally {
+                    if (preserveOrder)
+                        put(q, END);
+                }
+            }
+        } catch (InterruptedException ignored) {
+            // cancelled by close()
+        } catch (Throwable e) {
+            error = e;
+        } finally {
+            fragment.close();
+            if (!preserveOrder) {
+                try {
+                    put(shared, END);
+                } catch (InterruptedException ignored) {
+                }
+            }
+        }
+    }
+
+    private void checkError() throws DbException, TransactionAbortedException {
+        rethrow(error);
+    }
+
+    private TupleBatch take(BlockingQueue<TupleBatch> q) throws DbException {
+        try {
+            return q.take();
+        } catch (InterruptedException e) {
+            throw new DbException("interrupted while waiting for exchange workers");
+        }
+    }
+
+    /**
+     * Returns the next batch produced by the workers.
+     */
+    public TupleBatch nextBatch() throws DbException, TransactionAbortedException {
+        if (!parallel) {
+            if (stage == null)
+                return BatchOpIterator.fetchBatch(child);
+            while (staged.isEmpty()) {
+                TupleBatch b = BatchOpIterator.fetchBatch(child);
+                if (b == null)
+                    return null;
+                staged.addAll(stage.apply(b));
+            }
+            return staged.poll();
+        }
+        while (true) {
+            checkError();
+            if (!preserveOrder) {
+                if (doneWorkers == workers)
+                    return null;
+                TupleBatch b = take(shared);
+                if (b == END)
+                    doneWorkers++;
+                else
+                    return b;
+            } else {
+                if (currentMorsel == null) {
+                    if (doneMorsels == numMorsels)
+                        return null;
+                    try {
+                        currentMorsel = morsels.take();
+                    } catch (InterruptedException e) {
+                        throw new DbException("interrupted while waiting for exchange workers");
+                    }
+                }
+                TupleBatch b = take(currentMorsel);
+                if (b == END) {
+                    currentMorsel = null;
+                    doneMorsels++;
+                } else {
+                    return b;
+                }
+            }
+        }
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (!parallel && stage == null)
+            return child.hasNext() ? child.next() : null;
+        while (batch == null || pos >= batch.size()) {
+            batch = nextBatch();
+            pos = 0;
+            if (batch == null)
+                return null;
+        }
+        return batch.getTuple(batch.row(pos++));
+    }
+
+    /**
+     * Stop the workers and wait for them to finish
+     */
+    private void stop() {
+        if (!parallel) {
+            child.close();
+            return;
+        }
+        cancelled = true;
+        if (futures != null) {
+            for (Future<?> f : futures) {
+                try {
+                    f.get();
+                } catch (Exception ignored) {
+                }
+            }
+        }
+        futures = null;
+        shared = null;
+        morsels = null;
+        currentMorsel = null;
+        batch = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        stop();
+        start();
+    }
+
+    public void close() {
+        super.close();
+        stop();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
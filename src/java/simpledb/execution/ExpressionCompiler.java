@@ -0,0 +1,280 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.lang.invoke.CallSite;
+import java.lang.invoke.LambdaMetafactory;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * ExpressionCompiler turns the filter, join and projection expressions of a
+ * physical plan into specialized code when the plan is built, instead of
+ * interpreting them for every tuple.
+ * <p>
+ * Each expression is matched to a kernel: a small static method specialized
+ * for one column type and one comparison operator, such as "int column &gt;
+ * constant". {@link LambdaMetafactory} spins a class implementing
+ * {@link TupleFilter}, {@link JoinFilter} or {@link Projector} around the
+ * kernel, with the column indexes and constants captured in final fields. One
+ * class is generated per kernel and reused by every expression that uses it,
+ * so each call site sees few receiver classes and the JIT can inline the
+ * kernel into the operator's loop.
+ * <p>
+ * Expressions without a kernel (for example comparisons of string columns)
+ * are not compiled, and the operator falls back to interpreting them with
+ * {@link Predicate#filter} or {@link JoinPredicate#filter}. Compilation can be
+ * turned off altogether with {@link #setEnabled(boolean)} or by running with
+ * <code>-Dsimpledb.compile=false</code>.
+ */
+public final class ExpressionCompiler {
+
+    /** A compiled {@link Predicate} */
+    public interface TupleFilter {
+        boolean test(Tuple t);
+    }
+
+    /** A compiled {@link JoinPredicate} */
+    public interface JoinFilter {
+        boolean test(Tuple t1, Tuple t2);
+    }
+
+    /** A compiled projection of a tuple onto some of its fields */
+    public interface Projector {
+        Tuple project(Tuple t);
+    }
+
+    private static volatile boolean enabled =
+            Boolean.parseBoolean(System.getProperty("simpledb.compile", "true"));
+
+    private static final MethodHandles.Lookup LOOKUP = MethodHandles.lookup();
+
+    // factory of the generated class of each kernel, by kernel name
+    private static final Map<String, MethodHandle> factories = new HashMap<>();
+
+    private ExpressionCompiler() {
+    }
+
+    /**
+     * @return true if plans compile their expressions
+     */
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * Turn expression compilation on or off for plans built from now on
+     */
+    public static void setEnabled(boolean on) {
+        enabled = on;
+    }
+
+    /**
+     * Compile a filter predicate over tuples of the given TupleDesc.
+     *
+     * @return the compiled predicate, or null if compilation is disabled or
+     *         the predicate has no kernel and must be interpreted
+     */
+    public static TupleFilter compile(Predicate p, TupleDesc td) {
+        if (!enabled || td.getFieldType(p.getField()) != Type.INT_TYPE
+                || !(p.getOperand() instanceof IntField))
+            return null;
+        String kernel = "int" + opName(p.getOp());
+        MethodType captured = MethodType.methodType(TupleFilter.class, int.class, int.class);
+        return (TupleFilter) instantiate(kernel, TupleFilter.class, "test",
+                MethodType.methodType(boolean.class, Tuple.class), captured,
+                p.getField(), ((IntField) p.getOperand()).getValue());
+    }
+
+    /**
+     * Compile a conjunction of filter predicates over tuples of the given
+     * TupleDesc. Predicates without a kernel are interpreted, so unlike
+     * {@link #compile(Predicate, TupleDesc)} the result can always be used.
+     *
+     * @return a filter passing the tuples that satisfy every predicate, or
+     *         null if there are no predicates
+     */
+    public static TupleFilter compileAll(List<Predicate> ps, TupleDesc td) {
+        if (ps.isEmpty())
+            return null;
+        TupleFilter[] fs = new TupleFilter[ps.size()];
+        for (int i = 0; i < fs.length; i++) {
+            Predicate p = ps.get(i);
+            TupleFilter f = compile(p, td);
+            fs[i] = f != null ? f : p::filter;
+        }
+        if (fs.length == 1)
+            return fs[0];
+        return t -> {
+            for (TupleFilter f : fs) {
+                if (!f.test(t))
+                    return false;
+            }
+            return true;
+        };
+    }
+
+    /**
+     * Compile a join predicate over pairs of tuples of the given TupleDescs.
+     *
+     * @return the compiled predicate, or null if compilation is disabled or
+     *         the predicate has no kernel and must be interpreted
+     */
+    public static JoinFilter compile(JoinPredicate p, TupleDesc td1, TupleDesc td2) {
+        if (!enabled || td1.getFieldType(p.getField1()) != Type.INT_TYPE
+                || td2.getFieldType(p.getField2()) != Type.INT_TYPE)
+            return null;
+        String kernel = "join" + opName(p.getOperator());
+        MethodType captured = MethodType.methodType(JoinFilter.class, int.class, int.class);
+        return (JoinFilter) instantiate(kernel, JoinFilter.class, "test",
+                MethodType.methodType(boolean.class, Tuple.class, Tuple.class), captured,
+                p.getField1(), p.getField2());
+    }
+
+    /**
+     * Compile a projection of tuples onto the given fields.
+     *
+     * @param fields
+     *            the indexes of the projected fields in the input tuples
+     * @param outTd
+     *            the TupleDesc of the output tuples
+     * @return the compiled projection, or null if compilation is disabled
+     */
+    public static Projector compile(List<Integer> fields, TupleDesc outTd) {
+        if (!enabled)
+            return null;
+        int[] cols = new int[fields.size()];
+        for (int i = 0; i < cols.length; i++) {
+            cols[i] = fields.get(i);
+        }
+        boolean allInts = true;
+        for (int i = 0; i < outTd.numFields(); i++) {
+            allInts &= outTd.getFieldType(i) == Type.INT_TYPE;
+        }
+        MethodType captured = MethodType.methodType(Projector.class, TupleDesc.class, int[].class);
+        return (Projector) instantiate(allInts ? "projectInts" : "project", Projector.class, "project",
+                MethodType.methodType(Tuple.class, Tuple.class), captured, outTd, cols);
+    }
+
+    private static String opName(Predicate.Op op) {
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                return "Eq";
+            case NOT_EQUALS:
+                return "Ne";
+            case GREATER_THAN:
+                return "Gt";
+            case GREATER_THAN_OR_EQ:
+                return "Ge";
+            case LESS_THAN:
+                return "Lt";
+            case LESS_THAN_OR_EQ:
+                return "Le";
+        }
+        throw new IllegalArgumentException("unknown operator " + op);
+    }
+
+    /**
+     * Create an instance of the class generated for a kernel, capturing the
+     * given arguments
+     */
+    private static Object instantiate(String kernel, Class<?> iface, String method, MethodType erased,
+                                      MethodType captured, Object... args) {
+        try {
+            MethodHandle factory;
+            synchronized (factories) {
+                factory = factories.get(kernel);
+                if (factory == null) {
+                    MethodType kernelType = erased.insertParameterTypes(0, captured.parameterArray());
+                    MethodHandle impl = LOOKUP.findStatic(ExpressionCompiler.class, kernel, kernelType);
+                    CallSite site = LambdaMetafactory.metafactory(LOOKUP, method, captured, erased, impl, erased);
+                    factory = site.getTarget();
+                    factories.put(kernel, factory);
+                }
+            }
+            return factory.invokeWithArguments(args);
+        } catch (Throwable e) {
+            throw new IllegalStateException("could not compile kernel " + kernel, e);
+        }
+    }
+
+    // kernels of filters comparing an int column with a constant
+
+    private static boolean intEq(int field, int v, Tuple t) {
+        return t.getInt(field) == v;
+    }
+
+    private static boolean intNe(int field, int v, Tuple t) {
+        return t.getInt(field) != v;
+    }
+
+    private static boolean intGt(int field, int v, Tuple t) {
+        return t.getInt(field) > v;
+    }
+
+    private static boolean intGe(int field, int v, Tuple t) {
+        return t.getInt(field) >= v;
+    }
+
+    private static boolean intLt(int field, int v, Tuple t) {
+        return t.getInt(field) < v;
+    }
+
+    private static boolean intLe(int field, int v, Tuple t) {
+        return t.getInt(field) <= v;
+    }
+
+    // kernels of joins comparing two int columns
+
+    private static boolean joinEq(int f1, int f2, Tuple t1, Tuple t2) {
+        return t1.getInt(f1) == t2.getInt(f2);
+    }
+
+    private static boolean joinNe(int f1, int f2, Tuple t1, Tuple t2) {
+        return t1.getInt(f1) != t2.getInt(f2);
+    }
+
+    private static boolean joinGt(int f1, int f2, Tuple t1, Tuple t2) {
+        return t1.getInt(f1) > t2.getInt(f2);
+    }
+
+    private static boolean joinGe(int f1, int f2, Tuple t1, Tuple t2) {
+        return t1.getInt(f1) >= t2.getInt(f2);
+    }
+
+    private static boolean joinLt(int f1, int f2, Tuple t1, Tuple t2) {
+        return t1.getInt(f1) < t2.getInt(f2);
+    }
+
+    private static boolean joinLe(int f1, int f2, Tuple t1, Tuple t2) {
+        return t1.getInt(f1) <= t2.getInt(f2);
+    }
+
+    // kernels of projections
+
+    private static Tuple projectInts(TupleDesc td, int[] cols, Tuple t) {
+        Tuple out = new Tuple(td);
+        for (int i = 0; i < cols.length; i++) {
+            out.setInt(i, t.getInt(cols[i]));
+        }
+        out.setRecordId(t.getRecordId());
+        return out;
+    }
+
+    private static Tuple project(TupleDesc td, int[] cols, Tuple t) {
+        Tuple out = new Tuple(td);
+        for (int i = 0; i < cols.length; i++) {
+            out.copyField(i, t, cols[i]);
+        }
+        out.setRecordId(t.getRecordId());
+        return out;
+    }
+}
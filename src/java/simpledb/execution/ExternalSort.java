@@ -0,0 +1,364 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.AbstractDbFileIterator;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.TempHeapFile;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * ExternalSort sorts the tuples of a child operator within a fixed memory
+ * budget. Opening it reads the child: if all of its tuples fit in the budget
+ * they are sorted in memory, otherwise each budget's worth is sorted and
+ * written out as a run to a {@link TempHeapFile}. The runs are then merged,
+ * at most (budget - 1) at a time, until the last merge can stream its output
+ * to the caller.
+ * <p>
+ * The order is given either by a comparator or by a {@link SortKey}. With a
+ * SortKey, each tuple's normalized key is computed once per pass and tuples
+ * are sorted and merged by comparing keys as bytes.
+ * <p>
+ * Runs, and input that fits in memory, are sorted with
+ * {@link Arrays#parallelSort}, which splits large sorts over the cores of the
+ * common fork-join pool. Merges pick their next tuple with a loser tree, so
+ * each output tuple costs about log2(runs) comparisons.
+ * <p>
+ * Once open, the sorted tuples can be read any number of times with
+ * {@link #rewind()}; closing the sort deletes its runs.
+ */
+public class ExternalSort extends AbstractDbFileIterator {
+
+    /** Default memory budget, in pages, of one sort */
+    public static final int DEFAULT_BUFFER_PAGES = BufferPool.DEFAULT_PAGES;
+
+    private final OpIterator child;
+    private final Comparator<Tuple> comparator;
+    private final SortKey key;
+    private final int bufferPages;
+
+    private List<Tuple> inMemory = null;
+    private final List<TempHeapFile> runs = new ArrayList<>();
+    private Iterator<Tuple> memIt = null;
+    private DbFileIterator mergeIt = null;
+
+    /**
+     * Constructor.
+     *
+     * @param child
+     *            the tuples to sort; opened and read by {@link #open()}
+     * @param comparator
+     *            the order to sort the tuples into
+     * @param bufferPages
+     *            the number of pages of tuples the sort may hold in memory;
+     *            at least 3, so that merges have a fan-in of two or more
+     */
+    public ExternalSort(OpIterator child, Comparator<Tuple> comparator, int bufferPages) {
+        this(child, comparator, null, bufferPages);
+    }
+
+    /**
+     * Constructor for a sort by normalized keys.
+     *
+     * @param child
+     *            the tuples to sort; opened and read by {@link #open()}
+     * @param key
+     *            the key to sort the tuples by
+     * @param bufferPages
+     *            the number of pages of tuples the sort may hold in memory;
+     *            at least 3, so that merges have a fan-in of two or more
+     */
+    public ExternalSort(OpIterator child, SortKey key, int bufferPages) {
+        this(child, null, key, bufferPages);
+    }
+
+    private ExternalSort(OpIterator child, Comparator<Tuple> comparator, SortKey key, int bufferPages) {
+        if (bufferPages < 3)
+            throw new IllegalArgumentException("an external sort needs at least 3 buffer pages");
+        this.child = child;
+        this.comparator = comparator;
+        this.key = key;
+        this.bufferPages = bufferPages;
+    }
+
+    /**
+     * @return the number of sorted runs that were spilled to disk, or 0 if the
+     *         input was sorted in memory
+     */
+    public int getNumRuns() {
+        return runs.size();
+    }
+
+    /**
+     * Read and sort the child's tuples, spilling runs to disk if they do not
+     * fit in the memory budget
+     */
+    public void open() throws DbException, TransactionAbortedException {
+        close();
+        TupleDesc td = child.getTupleDesc();
+        int tuplesPerPage = (int) Math.floor((BufferPool.getPageSize() * 8.0) / (td.getSize() * 8.0 + 1.0));
+        int maxInMemory = Math.max(1, bufferPages * tuplesPerPage);
+
+        child.open();
+        List<Tuple> buf = new ArrayList<>();
+        while (child.hasNext()) {
+            buf.add(child.next());
+            if (buf.size() == maxInMemory) {
+                runs.add(writeRun(td, sort(buf).iterator()));
+                buf.clear();
+            }
+        }
+        child.close();
+
+        if (runs.isEmpty()) {
+            inMemory = sort(buf);
+        } else {
+            if (!buf.isEmpty()) {
+                runs.add(writeRun(td, sort(buf).iterator()));
+            }
+            mergeRuns(td);
+        }
+        rewind();
+    }
+
+    /**
+     * Sort a buffer of tuples; parallelSort is stable, so equal tuples keep
+     * their input order
+     */
+    private List<Tuple> sort(List<Tuple> buf) {
+        Tuple[] sorted = buf.toArray(new Tuple[0]);
+        if (key == null) {
+            Arrays.parallelSort(sorted, comparator);
+            return Arrays.asList(sorted);
+        }
+        KeyedTuple[] keyed = new KeyedTuple[sorted.length];
+        for (int i = 0; i < sorted.length; i++) {
+            keyed[i] = new KeyedTuple(key.encode(sorted[i]), sorted[i]);
+        }
+        Arrays.parallelSort(keyed, (a, b) -> SortKey.compare(a.key, b.key));
+        for (int i = 0; i < sorted.length; i++) {
+            sorted[i] = keyed[i].t;
+        }
+        return Arrays.asList(sorted);
+    }
+
+    private static class KeyedTuple {
+        final byte[] key;
+        final Tuple t;
+
+        KeyedTuple(byte[] key, Tuple t) {
+            this.key = key;
+            this.t = t;
+        }
+    }
+
+    private TempHeapFile writeRun(TupleDesc td, Iterator<Tuple> tuples) throws DbException {
+        TempHeapFile run;
+        try {
+            run = new TempHeapFile(td);
+        } catch (IOException e) {
+            throw new DbException("could not create sort run: " + e.getMessage());
+        }
+        while (tuples.hasNext()) {
+            run.append(tuples.next());
+        }
+        run.finish();
+        return run;
+    }
+
+    /**
+     * Merge runs, fanIn at a time, until few enough remain for one final
+     * streaming merge
+     */
+    private void mergeRuns(TupleDesc td) throws DbException, TransactionAbortedException {
+        int fanIn = bufferPages - 1;
+        while (runs.size() > fanIn) {
+            List<TempHeapFile> next = new ArrayList<>();
+            for (int i = 0; i < runs.size(); i += fanIn) {
+                List<TempHeapFile> group = runs.subList(i, Math.min(runs.size(), i + fanIn));
+                if (group.size() == 1) {
+                    next.add(group.get(0));
+                    continue;
+                }
+                TempHeapFile out;
+                try {
+                    out = new TempHeapFile(td);
+                } catch (IOException e) {
+                    throw new DbException("could not create sort run: " + e.getMessage());
+                }
+                DbFileIterator it = new MergeIterator(group, comparator, key);
+                it.open();
+                while (it.hasNext()) {
+                    out.append(it.next());
+                }
+                it.close();
+                out.finish();
+                for (TempHeapFile run : group) {
+                    run.delete();
+                }
+                next.add(out);
+            }
+            runs.clear();
+            runs.addAll(next);
+        }
+    }
+
+    @Override
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        if (memIt != null)
+            return memIt.hasNext() ? memIt.next() : null;
+        if (mergeIt != null)
+            return mergeIt.hasNext() ? mergeIt.next() : null;
+        return null;
+    }
+
+    /**
+     * Start reading the sorted tuples again from the beginning
+     */
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.close();
+        if (inMemory != null) {
+            memIt = inMemory.iterator();
+        } else if (!runs.isEmpty()) {
+            if (mergeIt != null)
+                mergeIt.close();
+            mergeIt = new MergeIterator(runs, comparator, key);
+            mergeIt.open();
+        }
+    }
+
+    /**
+     * Release the sorted tuples and delete any runs on disk
+     */
+    public void close() {
+        super.close();
+        if (mergeIt != null)
+            mergeIt.close();
+        mergeIt = null;
+        memIt = null;
+        inMemory = null;
+        for (TempHeapFile run : runs) {
+            run.delete();
+        }
+        runs.clear();
+    }
+
+    /**
+     * Merges sorted runs with a loser tree. The k runs are the leaves of a
+     * complete binary tree whose internal nodes 1 .. k-1 each remember the
+     * run that lost the match played there, and node 0 the overall winner.
+     * After the winner's head tuple is returned, only the matches on the path
+     * from its leaf to the root are replayed. Ties go to the earlier run, so
+     * merging runs of consecutive input is stable. When sorting by a SortKey,
+     * the key of each head tuple is computed once, when it becomes the head.
+     */
+    private static class MergeIterator extends AbstractDbFileIterator {
+
+        private final List<TempHeapFile> runs;
+        private final Comparator<Tuple> comparator;
+        private final SortKey key;
+        private final List<DbFileIterator> its = new ArrayList<>();
+        // the current head tuple of each run, or null once it is exhausted
+        private Tuple[] heads;
+        // the key of each head tuple, if sorting by a SortKey
+        private byte[][] headKeys;
+        private int[] tree;
+
+        MergeIterator(List<TempHeapFile> runs, Comparator<Tuple> comparator, SortKey key) {
+            this.runs = new ArrayList<>(runs);
+            this.comparator = comparator;
+            this.key = key;
+        }
+
+        private void advance(int i) throws DbException, TransactionAbortedException {
+            DbFileIterator it = its.get(i);
+            heads[i] = it.hasNext() ? it.next() : null;
+            if (key != null)
+                headKeys[i] = heads[i] == null ? null : key.encode(heads[i]);
+        }
+
+        public void open() throws DbException, TransactionAbortedException {
+            int k = runs.size();
+            heads = new Tuple[k];
+            headKeys = new byte[k][];
+            for (int i = 0; i < k; i++) {
+                DbFileIterator it = runs.get(i).iterator(null);
+                it.open();
+                its.add(it);
+                advance(i);
+            }
+            tree = new int[Math.max(1, k)];
+            Arrays.fill(tree, -1);
+            for (int i = k - 1; i >= 0; i--) {
+                replay(i);
+            }
+        }
+
+        /**
+         * @return true if run a's head comes before run b's
+         */
+        private boolean beats(int a, int b) {
+            if (heads[b] == null)
+                return true;
+            if (heads[a] == null)
+                return false;
+            int c = key != null ? SortKey.compare(headKeys[a], headKeys[b])
+                    : comparator.compare(heads[a], heads[b]);
+            return c < 0 || (c == 0 && a < b);
+        }
+
+        /**
+         * Replay the matches from run s's leaf up to the root. While the tree
+         * is being built, an empty node keeps s until its other player
+         * arrives.
+         */
+        private void replay(int s) {
+            for (int t = (s + heads.length) / 2; t > 0; t /= 2) {
+                if (tree[t] == -1) {
+                    tree[t] = s;
+                    return;
+                }
+                if (beats(tree[t], s)) {
+                    int winner = tree[t];
+                    tree[t] = s;
+                    s = winner;
+                }
+            }
+            tree[0] = s;
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException, TransactionAbortedException {
+            if (heads == null || heads.length == 0)
+                return null;
+            int w = tree[0];
+            Tuple t = heads[w];
+            if (t == null)
+                return null;
+            advance(w);
+            replay(w);
+            return t;
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            for (DbFileIterator it : its) {
+                it.close();
+            }
+            its.clear();
+            heads = null;
+            headKeys = null;
+            tree = null;
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * FieldFilter is an operator that selects the tuples whose two fields satisfy
+ * a {@link JoinPredicate}, both fields being taken from the same tuple. It
+ * applies a join predicate between tables that are already joined, such as
+ * the last predicate of a cycle in the join graph.
+ */
+public class FieldFilter extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate p;
+    private OpIterator child;
+
+    transient private ExpressionCompiler.JoinFilter compiled = null;
+
+    /**
+     * @param p
+     *            the predicate; both of its fields are indexes into the
+     *            child's tuples
+     * @param child
+     *            the child operator
+     */
+    public FieldFilter(JoinPredicate p, OpIterator child) {
+        this.p = p;
+        this.child = child;
+    }
+
+    public JoinPredicate getPredicate() {
+        return p;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException, TransactionAbortedException {
+        TupleDesc td = child.getTupleDesc();
+        compiled = ExpressionCompiler.compile(p, td, td);
+        child.open();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+    }
+
+    protected Tuple fetchNext() throws NoSuchElementException, TransactionAbortedException, DbException {
+        ExpressionCompiler.JoinFilter f = compiled;
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (f != null ? f.test(t, t) : p.filter(t, t))
+                return t;
+        }
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
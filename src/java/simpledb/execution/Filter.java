@@ -10,7 +10,7 @@ import java.util.*;
 /**
  * Filter is an operator that implements a relational select.
  */
-public class Filter extends Operator {
+public class Filter extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -28,6 +28,8 @@ public class Filter extends Operator {
 
     Predicate p;
 
+    transient private ExpressionCompiler.TupleFilter compiled = null;
+
     public Filter(Predicate p, OpIterator child) {
         this.it = child;
         this.p = p;
@@ -43,6 +45,7 @@ public class Filter extends Operator {
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        compiled = ExpressionCompiler.compile(p, it.getTupleDesc());
         it.open();
         super.open();
     }
@@ -63,6 +66,7 @@ public class Filter extends Operator {
      * @return The next tuple that passes the filter, or null if there are no
      *         more tuples
      * @see Predicate#filter
+     * @see ExpressionCompiler
      */
     protected Tuple fetchNext() throws NoSuchElementException,
             TransactionAbortedException, DbException {
@@ -78,24 +82,40 @@ public class Filter extends Operator {
 //            next = this.it.next();
 //        }
 //        return next;
+        ExpressionCompiler.TupleFilter f = compiled;
         while (it.hasNext()) {
             Tuple next = it.next();
-            if (p.filter(next)) {
+            if (f != null ? f.test(next) : p.filter(next)) {
                 return next;
             }
         }
         return null;
     }
 
+    /**
+     * Reads batches from the child and narrows their selection to the rows
+     * that pass the predicate.
+     *
+     * @see TupleBatch#select
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch b;
+        while ((b = BatchOpIterator.fetchBatch(it)) != null) {
+            b.select(p);
+            if (b.size() > 0)
+                return b;
+        }
+        return null;
+    }
+
     @Override
     public OpIterator[] getChildren() {
-        // some code goes here
-        return null;
+        return new OpIterator[]{this.it};
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
-        // some code goes here
+        this.it = children[0];
     }
 
 }
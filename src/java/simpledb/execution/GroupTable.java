@@ -0,0 +1,257 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Numbers the groups of an aggregate densely, in the order they are first
+ * seen, so that aggregators can keep their running state in arrays indexed
+ * by group number.
+ * <p>
+ * A single INT_TYPE grouping field is looked up in an {@link IntHashTable}.
+ * Any other grouping, of one or more fields, is looked up by the
+ * {@link SortKey} normalized key of its fields, so a lookup hashes and
+ * compares one byte array whatever the fields' types. The key is encoded
+ * straight from the tuple or batch row into a reused buffer, and is copied
+ * and the group's values boxed only when the group is new. Without grouping
+ * there is a single group, 0.
+ */
+class GroupTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int[] fields;
+    private final Type[] types;
+    private final IntHashTable ints;
+    private final SortKey encoder;
+    private final Map<Key, Integer> ids;
+    // the key and the group values of each group, by group number, if not
+    // keyed by ints
+    private final List<Key> keys;
+    private final List<Field[]> values;
+    private int size = 0;
+
+    // the buffer keys are encoded into, and the key probing the map with it
+    transient private SortKey.Writer scratch;
+    transient private Key probe;
+
+    /**
+     * A normalized key: the first length bytes of an array, hashed and
+     * compared by content. Keys in the table own their array; the probe key
+     * points into the encoding buffer.
+     */
+    private static final class Key implements Serializable {
+        private static final long serialVersionUID = 1L;
+        byte[] bytes;
+        int length;
+        int hash;
+
+        Key(byte[] bytes, int length) {
+            set(bytes, length);
+        }
+
+        void set(byte[] bytes, int length) {
+            this.bytes = bytes;
+            this.length = length;
+            // the same hash as Arrays.hashCode of the key's bytes
+            int h = 1;
+            for (int i = 0; i < length; i++) {
+                h = 31 * h + bytes[i];
+            }
+            this.hash = h;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            if (k.length != length || k.hash != hash)
+                return false;
+            for (int i = 0; i < length; i++) {
+                if (bytes[i] != k.bytes[i])
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @param fields
+     *            the grouping fields of the input tuples; empty if there is
+     *            no grouping
+     * @param types
+     *            the types of the grouping fields
+     */
+    GroupTable(int[] fields, Type[] types) {
+        if (fields.length != types.length)
+            throw new IllegalArgumentException("need a type for each of the " + fields.length + " grouping fields");
+        this.fields = fields.clone();
+        this.types = types.clone();
+        if (fields.length == 1 && types[0] == Type.INT_TYPE) {
+            ints = new IntHashTable();
+            encoder = null;
+            ids = null;
+            keys = null;
+            values = null;
+        } else {
+            ints = null;
+            encoder = new SortKey(fields, types);
+            ids = new HashMap<>();
+            keys = new ArrayList<>();
+            values = new ArrayList<>();
+        }
+    }
+
+    /**
+     * @return the number of groups seen so far; a new group gets this
+     *         number
+     */
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return true if groups are keyed by a single int field, which
+     *         {@link #group(int)} looks up directly
+     */
+    boolean isIntKeyed() {
+        return ints != null;
+    }
+
+    /**
+     * @return the number of the group with the given value of a single
+     *         INT_TYPE grouping field, adding it if it is new
+     */
+    int group(int key) {
+        int g = ints.add(key);
+        if (g == size)
+            size++;
+        return g;
+    }
+
+    /**
+     * @return the number of a tuple's group, adding it if it is new
+     */
+    int group(Tuple t) {
+        if (ints != null)
+            return group(t.getInt(fields[0]));
+        SortKey.Writer w = scratch();
+        encoder.encode(t, w);
+        int g = find(w);
+        if (g >= 0)
+            return g;
+        Field[] vals = new Field[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            vals[i] = t.getField(fields[i]);
+        }
+        return add(new Key(Arrays.copyOf(w.buf, w.pos), w.pos), vals);
+    }
+
+    /**
+     * @return the number of the group of a physical row of a batch, adding it
+     *         if it is new
+     */
+    int group(TupleBatch batch, int row) {
+        if (ints != null)
+            return group(batch.getIntColumn(fields[0])[row]);
+        SortKey.Writer w = scratch();
+        encoder.encode(batch, row, w);
+        int g = find(w);
+        if (g >= 0)
+            return g;
+        Field[] vals = new Field[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            vals[i] = batch.getField(row, fields[i]);
+        }
+        return add(new Key(Arrays.copyOf(w.buf, w.pos), w.pos), vals);
+    }
+
+    private SortKey.Writer scratch() {
+        if (scratch == null) {
+            scratch = new SortKey.Writer();
+            probe = new Key(scratch.buf, 0);
+        }
+        scratch.reset();
+        return scratch;
+    }
+
+    /**
+     * @return the number of the group whose key was just encoded into w, or
+     *         -1 if there is none
+     */
+    private int find(SortKey.Writer w) {
+        probe.set(w.buf, w.pos);
+        Integer g = ids.get(probe);
+        return g == null ? -1 : g;
+    }
+
+    private int add(Key key, Field[] vals) {
+        int g = size++;
+        ids.put(key, g);
+        keys.add(key);
+        values.add(vals);
+        return g;
+    }
+
+    /**
+     * @return the number in this table of group og of another table with the
+     *         same grouping, adding it if it is new
+     */
+    int group(GroupTable other, int og) {
+        if (ints != null)
+            return group(other.ints.key(og));
+        // keys in a table are never changed, so the tables can share them
+        Key key = other.keys.get(og);
+        Integer g = ids.get(key);
+        return g != null ? g : add(key, other.values.get(og));
+    }
+
+    /**
+     * Set the first fields of an output tuple to the values of group g
+     */
+    void setValues(Tuple out, int g) {
+        if (ints != null) {
+            out.setInt(0, ints.key(g));
+            return;
+        }
+        Field[] vals = values.get(g);
+        for (int i = 0; i < vals.length; i++) {
+            out.setField(i, vals[i]);
+        }
+    }
+
+    /**
+     * @return the partition of group g among n partitions; a group value
+     *         lands in the same partition in every table
+     */
+    int partitionOf(int g, int n) {
+        if (ints != null)
+            return Aggregator.partitionOf(ints.key(g), n);
+        return Aggregator.partitionOf(keys.get(g).hash, n);
+    }
+
+    /**
+     * @return the TupleDesc of an aggregator's output: the grouping fields
+     *         followed by the aggregate value
+     */
+    TupleDesc outputDesc() {
+        Type[] out = Arrays.copyOf(types, types.length + 1);
+        out[types.length] = Type.INT_TYPE;
+        return new TupleDesc(out);
+    }
+}
@@ -2,15 +2,34 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.TempHeapFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 
+import java.io.IOException;
 import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * The Join operator implements the relational join operation.
+ * <p>
+ * If the probe side (child2) is a parallel {@link Exchange}, the join runs in
+ * parallel, provided the build side fits in the memory budget. The build
+ * tuples are radix-partitioned on the hash of their key, by the workers of
+ * child1 if it is an Exchange too. One task per partition then builds that
+ * partition's hash table, all concurrently. Finally the probe is installed as
+ * a {@link Exchange.Stage} of child2, so every probe morsel is joined by the
+ * worker that scans it against the shared, read-only tables. If the build
+ * side turns out to be over budget, reading it stops there and the join falls
+ * back to the serial hybrid hash join described in {@link Partition}, which
+ * starts from the build tuples already read.
  */
-public class HashEquiJoin extends Operator {
+public class HashEquiJoin extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private final JoinPredicate pred;
@@ -31,9 +50,27 @@ public class HashEquiJoin extends Operator {
      *            Iterator for the right(inner) relation to join
      */
     public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, MAP_SIZE);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children
+     * @param child1
+     *            Iterator for the left(outer) relation to join; the build side
+     * @param child2
+     *            Iterator for the right(inner) relation to join; the probe side
+     * @param maxInMemory
+     *            the number of build tuples that may be held in memory; the
+     *            rest are spilled to disk
+     */
+    public HashEquiJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int maxInMemory) {
         this.pred = p;
         this.child1 = child1;
         this.child2 = child2;
+        this.maxInMemory = Math.max(1, maxInMemory);
         comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
     }
 
@@ -55,53 +92,597 @@ public class HashEquiJoin extends Operator {
 	return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
     }
     
-    final Map<Object, List<Tuple>> map = new HashMap<>();
+    /** Default memory budget: the number of build tuples held in memory */
     public final static int MAP_SIZE = 20000;
+    /** Number of partitions the build and probe sides are hashed into */
+    static final int NUM_PARTITIONS = 16;
+    /** Partitions still too large at this depth are joined in memory-sized chunks */
+    static final int MAX_DEPTH = 4;
 
-    private boolean loadMap() throws DbException, TransactionAbortedException {
-        int cnt = 0;
-        map.clear();
-        while (child1.hasNext()) {
-            t1 = child1.next();
-            List<Tuple> list = map.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>());
-            list.add(t1);
-            if (cnt++ == MAP_SIZE)
-                return true;
+    private final int maxInMemory;
+    transient private final Deque<Partition> pending = new ArrayDeque<>();
+    transient private Partition current = null;
+    transient Iterator<Tuple> listIt = null;
+
+    // parallel join: the hash table of each partition, and the probe output
+    transient private List<BuildTable> sharedTables = null;
+    transient private OpIteratorAdapter parallelOut = null;
+
+    /**
+     * Hash a join key into one of the partitions. Each level of
+     * repartitioning mixes in a different seed, so that the tuples of one
+     * spilled partition spread out over the partitions of the next level.
+     */
+    static int partitionOf(Field f, int depth) {
+        return partitionOf(f.hashCode(), depth);
+    }
+
+    /**
+     * Hash the hash code of a join key into one of the partitions
+     */
+    static int partitionOf(int hash, int depth) {
+        int h = hash ^ (depth * 0x9E3779B9);
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        return (h & 0x7fffffff) % NUM_PARTITIONS;
+    }
+
+    /**
+     * The build tuples of one partition, looked up by their join key
+     */
+    private interface BuildTable {
+        void add(Tuple t);
+
+        /**
+         * @return the build tuples whose key equals the join field of the
+         *         probe tuple, or null if there are none
+         */
+        Iterator<Tuple> lookup(Tuple probe);
+
+        /**
+         * @return the build tuples whose key equals the join field of a row
+         *         of a batch of probe tuples, or null if there are none
+         */
+        Iterator<Tuple> lookup(TupleBatch probe, int row);
+
+        /**
+         * @return every build tuple in the table
+         */
+        Iterable<Tuple> all();
+
+        void clear();
+    }
+
+    /**
+     * @return the hash code of a tuple's join field, without boxing int or
+     *         string fields
+     */
+    private static int keyHash(Tuple t, int field) {
+        Type type = t.getTupleDesc().getFieldType(field);
+        if (type == Type.INT_TYPE)
+            return t.getInt(field);
+        if (type == Type.STRING_TYPE)
+            return t.getString(field).hashCode();
+        return t.getField(field).hashCode();
+    }
+
+    private BuildTable newTable() {
+        if (child1.getTupleDesc().getFieldType(pred.getField1()) == Type.INT_TYPE
+                && child2.getTupleDesc().getFieldType(pred.getField2()) == Type.INT_TYPE)
+            return new IntTable();
+        return new FieldTable();
+    }
+
+    /**
+     * A build table of any key type, mapping each key Field to its tuples
+     */
+    private class FieldTable implements BuildTable {
+        final Map<Field, List<Tuple>> map = new HashMap<>();
+
+        public void add(Tuple t) {
+            map.computeIfAbsent(t.getField(pred.getField1()), k -> new ArrayList<>()).add(t);
+        }
+
+        private Iterator<Tuple> lookup(Field key) {
+            List<Tuple> l = map.get(key);
+            return l == null ? null : l.iterator();
+        }
+
+        public Iterator<Tuple> lookup(Tuple probe) {
+            return lookup(probe.getField(pred.getField2()));
+        }
+
+        public Iterator<Tuple> lookup(TupleBatch probe, int row) {
+            return lookup(probe.getField(row, pred.getField2()));
+        }
+
+        public Iterable<Tuple> all() {
+            List<Tuple> all = new ArrayList<>();
+            for (List<Tuple> l : map.values())
+                all.addAll(l);
+            return all;
+        }
+
+        public void clear() {
+            map.clear();
+        }
+    }
+
+    /**
+     * A build table for INT_TYPE join keys. Keys get dense ids from an
+     * {@link IntHashTable}, and the tuples of a key are chained through the
+     * next array in the order they were added. When every build column is an
+     * int, the rows are packed into one int array instead of being kept as
+     * Tuples, so a row costs 4 bytes per column plus 4 for its link.
+     */
+    private class IntTable implements BuildTable {
+        final IntHashTable keys = new IntHashTable();
+        final TupleDesc td = child1.getTupleDesc();
+        final int width = td.numFields();
+        final boolean packed;
+        // first and last row of each key id, and the next row of each row
+        int[] first = new int[16];
+        int[] last = new int[16];
+        int[] next = new int[16];
+        // the rows: packed width ints per row, or the tuples themselves
+        int[] data;
+        Tuple[] tuples;
+        int rows = 0;
+
+        IntTable() {
+            boolean allInts = true;
+            for (int i = 0; i < width; i++)
+                allInts &= td.getFieldType(i) == Type.INT_TYPE;
+            packed = allInts;
+            if (packed)
+                data = new int[16 * width];
+            else
+                tuples = new Tuple[16];
+        }
+
+        public void add(Tuple t) {
+            int row = rows++;
+            if (row == next.length) {
+                next = Arrays.copyOf(next, 2 * row);
+                if (packed)
+                    data = Arrays.copyOf(data, 2 * row * width);
+                else
+                    tuples = Arrays.copyOf(tuples, 2 * row);
+            }
+            if (packed) {
+                for (int i = 0; i < width; i++)
+                    data[row * width + i] = t.getInt(i);
+            } else {
+                tuples[row] = t;
+            }
+            next[row] = -1;
+            int numKeys = keys.size();
+            int id = keys.add(t.getInt(pred.getField1()));
+            if (id == numKeys) {
+                if (id == first.length) {
+                    first = Arrays.copyOf(first, 2 * id);
+                    last = Arrays.copyOf(last, 2 * id);
+                }
+                first[id] = row;
+            } else {
+                next[last[id]] = row;
+            }
+            last[id] = row;
+        }
+
+        Tuple row(int row) {
+            if (!packed)
+                return tuples[row];
+            Tuple t = new Tuple(td);
+            for (int i = 0; i < width; i++)
+                t.setInt(i, data[row * width + i]);
+            return t;
+        }
+
+        private Iterator<Tuple> chain(int key) {
+            int id = keys.find(key);
+            if (id < 0)
+                return null;
+            return new Iterator<Tuple>() {
+                int row = first[id];
+
+                public boolean hasNext() {
+                    return row != -1;
+                }
+
+                public Tuple next() {
+                    if (row == -1)
+                        throw new NoSuchElementException();
+                    Tuple t = row(row);
+                    row = IntTable.this.next[row];
+                    return t;
+                }
+            };
+        }
+
+        public Iterator<Tuple> lookup(Tuple probe) {
+            return chain(probe.getInt(pred.getField2()));
+        }
+
+        public Iterator<Tuple> lookup(TupleBatch probe, int row) {
+            return chain(probe.getIntColumn(pred.getField2())[row]);
+        }
+
+        public Iterable<Tuple> all() {
+            List<Tuple> all = new ArrayList<>(rows);
+            for (int i = 0; i < rows; i++)
+                all.add(row(i));
+            return all;
+        }
+
+        public void clear() {
+            keys.clear();
+            rows = 0;
+        }
+    }
+
+    /**
+     * One hybrid hash join of a build input against a probe input: either the
+     * children themselves, or a pair of spilled partitions of a parent join.
+     * <p>
+     * Build tuples are hashed into NUM_PARTITIONS in-memory partitions. When
+     * more than maxInMemory build tuples are held, the largest partition is
+     * spilled to a temp file, and later build tuples of a spilled partition
+     * go straight to its file. Probe tuples of resident partitions are joined
+     * as they arrive; those of spilled partitions are written to a matching
+     * probe file. Each pair of spilled files is then joined the same way, one
+     * level deeper. At MAX_DEPTH (e.g. one key with more tuples than the
+     * budget) the build input is instead loaded in chunks of maxInMemory
+     * tuples, with the probe file read once per chunk.
+     */
+    private class Partition {
+        final DbFileIterator build, probe;
+        final TempHeapFile buildFile, probeFile;
+        final int depth;
+        final boolean chunked;
+
+        final List<BuildTable> maps = new ArrayList<>();
+        final int[] sizes = new int[NUM_PARTITIONS];
+        final TempHeapFile[] buildSpill = new TempHeapFile[NUM_PARTITIONS];
+        final TempHeapFile[] probeSpill = new TempHeapFile[NUM_PARTITIONS];
+        int inMemory = 0;
+
+        Partition(DbFileIterator build, DbFileIterator probe,
+                  TempHeapFile buildFile, TempHeapFile probeFile, int depth) {
+            this.build = build;
+            this.probe = probe;
+            this.buildFile = buildFile;
+            this.probeFile = probeFile;
+            this.depth = depth;
+            this.chunked = depth >= MAX_DEPTH;
+            for (int i = 0; i < (chunked ? 1 : NUM_PARTITIONS); i++)
+                maps.add(newTable());
+        }
+
+        void start() throws DbException, TransactionAbortedException {
+            build.open();
+            if (chunked) {
+                loadChunk();
+            } else {
+                while (build.hasNext()) {
+                    Tuple t = build.next();
+                    int p = partitionOf(keyHash(t, pred.getField1()), depth);
+                    if (buildSpill[p] != null) {
+                        buildSpill[p].append(t);
+                        continue;
+                    }
+                    maps.get(p).add(t);
+                    sizes[p]++;
+                    if (++inMemory > maxInMemory)
+                        spillLargest();
+                }
+                build.close();
+                for (TempHeapFile f : buildSpill) {
+                    if (f != null)
+                        f.finish();
+                }
+            }
+            probe.open();
         }
-        return cnt > 0;
 
+        private void spillLargest() throws DbException {
+            int largest = 0;
+            for (int i = 1; i < NUM_PARTITIONS; i++) {
+                if (sizes[i] > sizes[largest])
+                    largest = i;
+            }
+            TempHeapFile f;
+            try {
+                f = new TempHeapFile(child1.getTupleDesc());
+            } catch (IOException e) {
+                throw new DbException("could not create hash join partition: " + e.getMessage());
+            }
+            for (Tuple t : maps.get(largest).all())
+                f.append(t);
+            maps.get(largest).clear();
+            inMemory -= sizes[largest];
+            sizes[largest] = 0;
+            buildSpill[largest] = f;
+        }
+
+        private boolean loadChunk() throws DbException, TransactionAbortedException {
+            maps.get(0).clear();
+            int cnt = 0;
+            while (cnt < maxInMemory && build.hasNext()) {
+                Tuple t = build.next();
+                maps.get(0).add(t);
+                cnt++;
+            }
+            return cnt > 0;
+        }
+
+        /**
+         * Read probe tuples until one matches a resident build tuple, and
+         * return the matching build tuples
+         *
+         * @return the build tuples matching t2, or null if the probe input is
+         *         exhausted
+         */
+        Iterator<Tuple> nextMatch() throws DbException, TransactionAbortedException {
+            while (true) {
+                while (probe.hasNext()) {
+                    t2 = probe.next();
+                    if (chunked) {
+                        Iterator<Tuple> l = maps.get(0).lookup(t2);
+                        if (l != null)
+                            return l;
+                        continue;
+                    }
+                    int p = partitionOf(keyHash(t2, pred.getField2()), depth);
+                    if (buildSpill[p] != null) {
+                        if (probeSpill[p] == null) {
+                            try {
+                                probeSpill[p] = new TempHeapFile(child2.getTupleDesc());
+                            } catch (IOException e) {
+                                throw new DbException("could not create hash join partition: " + e.getMessage());
+                            }
+                        }
+                        probeSpill[p].append(t2);
+                        continue;
+                    }
+                    Iterator<Tuple> l = maps.get(p).lookup(t2);
+                    if (l != null)
+                        return l;
+                }
+                if (!chunked || !loadChunk())
+                    return null;
+                probe.rewind();
+            }
+        }
+
+        /**
+         * Release this join's memory and inputs, and queue the joins of its
+         * spilled partitions
+         */
+        void finish() throws DbException {
+            probe.close();
+            if (chunked)
+                build.close();
+            maps.clear();
+            for (int p = 0; p < NUM_PARTITIONS; p++) {
+                if (buildSpill[p] == null)
+                    continue;
+                if (probeSpill[p] == null) {
+                    // nothing probes this partition
+                    buildSpill[p].delete();
+                    continue;
+                }
+                probeSpill[p].finish();
+                pending.push(new Partition(buildSpill[p].iterator(null), probeSpill[p].iterator(null),
+                        buildSpill[p], probeSpill[p], depth + 1));
+            }
+            deleteInputs();
+        }
+
+        void deleteInputs() {
+            if (buildFile != null)
+                buildFile.delete();
+            if (probeFile != null)
+                probeFile.delete();
+        }
+
+        /** Abandon this join, deleting all of its files */
+        void discard() {
+            build.close();
+            probe.close();
+            for (int p = 0; p < NUM_PARTITIONS; p++) {
+                if (buildSpill[p] != null)
+                    buildSpill[p].delete();
+                if (probeSpill[p] != null)
+                    probeSpill[p].delete();
+            }
+            deleteInputs();
+        }
     }
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        child1.open();
-        child2.open();
-        loadMap();
+        if (child2 instanceof Exchange && ((Exchange) child2).isParallel()) {
+            DbFileIterator build = buildInParallel();
+            if (build == null) {
+                ((Exchange) child2).setStage(this::probe, comboTD);
+                parallelOut = new OpIteratorAdapter(child2);
+                parallelOut.open();
+            } else {
+                start(build);
+            }
+        } else {
+            start(new OpIteratorAdapter(child1));
+        }
         super.open();
     }
 
+    /**
+     * Partition the build side and build the hash table of every partition
+     * in parallel. Reading the build side stops once it is over the memory
+     * budget.
+     *
+     * @return null if the hash tables were built, or else an open iterator
+     *         over the whole build side for the serial join: the tuples
+     *         already read, then the rest of child1
+     */
+    private DbFileIterator buildInParallel() throws DbException, TransactionAbortedException {
+        Exchange build = child1 instanceof Exchange ? (Exchange) child1 : new Exchange(child1, 1, false);
+        int field = pred.getField1();
+        AtomicInteger count = new AtomicInteger(0);
+        List<List<List<Tuple>>> parts = new ArrayList<>();
+        DbFileIterator rest = build.runWorkers(() -> {
+            List<List<Tuple>> l = new ArrayList<>();
+            for (int i = 0; i < NUM_PARTITIONS; i++)
+                l.add(new ArrayList<>());
+            return l;
+        }, (l, b) -> {
+            count.addAndGet(b.size());
+            for (int i = 0; i < b.size(); i++) {
+                Tuple t = b.getTuple(b.row(i));
+                l.get(partitionOf(keyHash(t, field), 0)).add(t);
+            }
+        }, () -> count.get() > maxInMemory, parts);
+        if (rest != null || count.get() > maxInMemory) {
+            List<Tuple> read = new ArrayList<>(count.get());
+            for (List<List<Tuple>> l : parts) {
+                for (List<Tuple> part : l)
+                    read.addAll(part);
+            }
+            return new PrefixedIterator(read, rest);
+        }
+
+        List<Callable<BuildTable>> tasks = new ArrayList<>();
+        for (int i = 0; i < NUM_PARTITIONS; i++) {
+            int p = i;
+            tasks.add(() -> {
+                BuildTable table = newTable();
+                for (List<List<Tuple>> l : parts) {
+                    for (Tuple t : l.get(p))
+                        table.add(t);
+                }
+                return table;
+            });
+        }
+        sharedTables = new ArrayList<>();
+        for (Future<BuildTable> f : Exchange.invokeAll(tasks)) {
+            sharedTables.add(Exchange.getResult(f));
+        }
+        return null;
+    }
+
+    /**
+     * The build side of a join whose parallel build went over budget: the
+     * build tuples read so far, then an open iterator over the rest of them,
+     * if any. The tuples are only read once, so rewinding is not supported.
+     */
+    private static class PrefixedIterator implements DbFileIterator {
+        private final List<Tuple> read;
+        private final DbFileIterator rest;
+        private int pos = 0;
+
+        PrefixedIterator(List<Tuple> read, DbFileIterator rest) {
+            this.read = read;
+            this.rest = rest;
+        }
+
+        public void open() {
+        }
+
+        public boolean hasNext() throws DbException, TransactionAbortedException {
+            return pos < read.size() || (rest != null && rest.hasNext());
+        }
+
+        public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+            if (pos < read.size())
+                return read.get(pos++);
+            if (rest == null)
+                throw new NoSuchElementException();
+            return rest.next();
+        }
+
+        public void rewind() throws DbException {
+            throw new DbException("the build side of a hash join cannot be rewound");
+        }
+
+        public void close() {
+            if (rest != null)
+                rest.close();
+        }
+    }
+
+    /**
+     * Join a batch of probe tuples against the hash tables of a parallel
+     * join; run concurrently by the workers of child2.
+     */
+    private List<TupleBatch> probe(TupleBatch b) {
+        List<TupleBatch> out = new ArrayList<>();
+        TupleBatch o = null;
+        int field = pred.getField2();
+        int[] keys = b.getTupleDesc().getFieldType(field) == Type.INT_TYPE ? b.getIntColumn(field) : null;
+        for (int i = 0; i < b.size(); i++) {
+            int r = b.row(i);
+            int hash = keys != null ? keys[r] : b.getField(r, field).hashCode();
+            Iterator<Tuple> l = sharedTables.get(partitionOf(hash, 0)).lookup(b, r);
+            if (l == null)
+                continue;
+            while (l.hasNext()) {
+                Tuple m = l.next();
+                if (o == null || o.isFull()) {
+                    o = new TupleBatch(comboTD);
+                    out.add(o);
+                }
+                o.addMerged(m, b, r);
+            }
+        }
+        return out;
+    }
+
+    private void closeParallel() {
+        if (parallelOut == null)
+            return;
+        parallelOut.close();
+        ((Exchange) child2).setStage(null, null);
+        parallelOut = null;
+        sharedTables = null;
+    }
+
+    private void start(DbFileIterator build) {
+        pending.push(new Partition(build, new OpIteratorAdapter(child2), null, null, 0));
+    }
+
+    private void discardAll() {
+        if (current != null)
+            current.discard();
+        current = null;
+        while (!pending.isEmpty())
+            pending.pop().discard();
+    }
+
     public void close() {
         super.close();
-        child2.close();
-        child1.close();
+        closeParallel();
+        discardAll();
         this.t1=null;
         this.t2=null;
         this.listIt=null;
-        this.map.clear();
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
-        child1.rewind();
-        child2.rewind();
+        if (parallelOut != null) {
+            parallelOut.rewind();
+            return;
+        }
+        discardAll();
+        this.listIt = null;
+        start(new OpIteratorAdapter(child1));
     }
 
-    transient Iterator<Tuple> listIt = null;
-
     /**
      * Returns the next tuple generated by the join, or null if there are no
      * more tuples. Logically, this is the next tuple in r1 cross r2 that
-     * satisfies the join predicate. There are many possible implementations;
-     * the simplest is a nested loops join.
+     * satisfies the join predicate. This implementation is a hybrid hash
+     * join; see {@link Partition}.
      * <p>
      * Note that the tuples returned from this particular implementation of Join
      * are simply the concatenation of joining tuples from the left and right
@@ -117,47 +698,62 @@ public class HashEquiJoin extends Operator {
      */
     private Tuple processList() {
         t1 = listIt.next();
-
-        int td1n = t1.getTupleDesc().numFields();
-        int td2n = t2.getTupleDesc().numFields();
-
-        // set fields in combined tuple
-        Tuple t = new Tuple(comboTD);
-        for (int i = 0; i < td1n; i++)
-            t.setField(i, t1.getField(i));
-        for (int i = 0; i < td2n; i++)
-            t.setField(td1n + i, t2.getField(i));
-        return t;
+        return Tuple.merge(comboTD, t1, t2);
 
     }
 
     protected Tuple fetchNext() throws TransactionAbortedException, DbException {
-        if (listIt != null && listIt.hasNext()) {
-            return processList();
+        if (parallelOut != null)
+            return parallelOut.hasNext() ? parallelOut.next() : null;
+        while (listIt == null || !listIt.hasNext()) {
+            if (!nextMatch())
+                return null;
         }
+        return processList();
+    }
 
-        // loop around child2
-        while (child2.hasNext()) {
-            t2 = child2.next();
-
-            // if match, create a combined tuple and fill it with the values
-            // from both tuples
-            List<Tuple> l = map.get(t2.getField(pred.getField2()));
-            if (l == null)
-                continue;
-            listIt = l.iterator();
-
-            return processList();
-
+    /**
+     * Find the build tuples matching the next matching probe tuple, moving on
+     * to the next pending partition when the current one is done. Sets listIt
+     * to the matches and t2 to the probe tuple.
+     *
+     * @return false if every partition is done
+     */
+    private boolean nextMatch() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (current == null) {
+                if (pending.isEmpty())
+                    return false;
+                current = pending.pop();
+                current.start();
+            }
+            Iterator<Tuple> l = current.nextMatch();
+            if (l != null) {
+                listIt = l;
+                return true;
+            }
+            Partition done = current;
+            current = null;
+            done.finish();
         }
+    }
 
-        // child2 is done: advance child1
-        child2.rewind();
-        if (loadMap()) {
-            return fetchNext();
+    /**
+     * Returns the next batch of joined tuples. Both children are read a batch
+     * at a time whether the join's output is read by tuple or by batch, and
+     * each match is written straight into the batch's columns.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (parallelOut != null)
+            return ((Exchange) child2).nextBatch();
+        TupleBatch b = new TupleBatch(comboTD);
+        while (!b.isFull()) {
+            if (listIt != null && listIt.hasNext())
+                b.addMerged(listIt.next(), t2);
+            else if (!nextMatch())
+                break;
         }
-
-        return null;
+        return b.size() == 0 ? null : b;
     }
 
     @Override
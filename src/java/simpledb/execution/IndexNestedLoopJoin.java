@@ -0,0 +1,221 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * The IndexNestedLoopJoin operator implements an equality join whose inner
+ * relation is a B+ tree keyed on the join field. Rather than rescanning the
+ * inner relation for every outer tuple, the outer relation is read in batches
+ * and the keys of each batch are looked up with a single walk of the inner
+ * index (see {@link BTreeFile#indexIterator(simpledb.transaction.TransactionId, List)}).
+ * <p>
+ * The inner child must be a {@link SeqScan} over a BTreeFile, optionally
+ * wrapped in {@link Filter}s; the filter predicates and those pushed into the
+ * scan are applied to the probed tuples. Use {@link #canProbe(OpIterator, int)} to check whether a plan
+ * qualifies.
+ */
+public class IndexNestedLoopJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    /** Number of outer tuples whose keys are probed together */
+    public static final int BATCH_SIZE = 1024;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+
+    // the scan at the bottom of child2, and the predicates of it and the filters above it
+    private SeqScan innerScan;
+    private final List<Predicate> innerPreds = new ArrayList<>();
+
+    transient private final Map<Field, List<Tuple>> batch = new HashMap<>();
+    transient private DbFileIterator probe = null;
+    transient private Tuple t2 = null;
+    transient private Iterator<Tuple> listIt = null;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children; must be an
+     *            equality predicate
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join; must satisfy
+     *            {@link #canProbe(OpIterator, int)} for p's second field
+     */
+    public IndexNestedLoopJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        if (p.getOperator() != Predicate.Op.EQUALS || !canProbe(child2, p.getField2()))
+            throw new IllegalArgumentException("inner relation has no B+ tree index on the join field");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+        unwrapInner();
+    }
+
+    /**
+     * Return true if the given plan is a scan of a B+ tree keyed on the given
+     * field, possibly below some filters, so that it can be probed by key.
+     *
+     * @param inner
+     *            the candidate inner plan
+     * @param field
+     *            the index of the join field in the inner plan's tuples
+     */
+    public static boolean canProbe(OpIterator inner, int field) {
+        while (inner instanceof Filter) {
+            inner = ((Filter) inner).getChildren()[0];
+        }
+        if (!(inner instanceof SeqScan))
+            return false;
+        DbFile f = Database.getCatalog().getDatabaseFile(((SeqScan) inner).getTableId());
+        return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+    }
+
+    private void unwrapInner() {
+        innerPreds.clear();
+        OpIterator inner = child2;
+        while (inner instanceof Filter) {
+            innerPreds.add(((Filter) inner).getPredicate());
+            inner = ((Filter) inner).getChildren()[0];
+        }
+        innerScan = (SeqScan) inner;
+        innerPreds.addAll(innerScan.getPredicates());
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    /**
+     * Read the next batch of outer tuples and start probing the index with
+     * their keys.
+     *
+     * @return false if the outer relation is exhausted
+     */
+    private boolean loadBatch() throws DbException, TransactionAbortedException {
+        if (probe != null) {
+            probe.close();
+            probe = null;
+        }
+        batch.clear();
+        int cnt = 0;
+        while (cnt < BATCH_SIZE && child1.hasNext()) {
+            Tuple t1 = child1.next();
+            batch.computeIfAbsent(t1.getField(pred.getField1()), k -> new ArrayList<>()).add(t1);
+            cnt++;
+        }
+        if (cnt == 0)
+            return false;
+
+        BTreeFile f = (BTreeFile) Database.getCatalog().getDatabaseFile(innerScan.getTableId());
+        probe = f.indexIterator(innerScan.getTransactionId(), new ArrayList<>(batch.keySet()));
+        probe.open();
+        return true;
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child1.open();
+        loadBatch();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        if (probe != null) {
+            probe.close();
+            probe = null;
+        }
+        child1.close();
+        this.t2 = null;
+        this.listIt = null;
+        this.batch.clear();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child1.rewind();
+        this.t2 = null;
+        this.listIt = null;
+        loadBatch();
+    }
+
+    private boolean passesInnerFilters(Tuple t) {
+        for (Predicate p : innerPreds) {
+            if (!p.filter(t))
+                return false;
+        }
+        return true;
+    }
+
+    private Tuple merge(Tuple t1) {
+        return Tuple.merge(comboTD, t1, t2);
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Each inner tuple returned by the probe is combined with
+     * every outer tuple of the current batch that has the same key.
+     * <p>
+     * As with {@link Join}, the result is the concatenation of the outer and
+     * inner tuples, so the join attribute appears twice.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (listIt != null && listIt.hasNext()) {
+                return merge(listIt.next());
+            }
+            if (probe == null)
+                return null;
+            if (probe.hasNext()) {
+                t2 = probe.next();
+                if (passesInnerFilters(t2)) {
+                    listIt = batch.get(t2.getField(pred.getField2())).iterator();
+                }
+            } else if (!loadBatch()) {
+                return null;
+            }
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+        unwrapInner();
+    }
+
+}
@@ -0,0 +1,134 @@
+package simpledb.execution;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * IntHashTable maps int keys to dense ids 0, 1, 2, ... in the order the keys
+ * are first added, so that operators can keep what they know about each key
+ * in plain arrays indexed by id rather than in a map of boxed {@link
+ * simpledb.storage.Field}s to objects (see {@link HashEquiJoin} and {@link
+ * IntegerAggregator}).
+ * <p>
+ * The table uses open addressing with linear probing. Each slot holds a key
+ * and its id next to each other in a single int array, so a lookup usually
+ * touches one cache line and never allocates. The table is kept at most half
+ * full and doubles when it gets fuller.
+ */
+public class IntHashTable implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final int EMPTY = -1;
+
+    // slot i holds its key at 2 * i and the key's id at 2 * i + 1, or EMPTY
+    private int[] slots;
+    private int mask;
+    // the key of each id
+    private int[] keys;
+    private int size = 0;
+
+    /**
+     * Create an empty table
+     */
+    public IntHashTable() {
+        this(16);
+    }
+
+    /**
+     * Create an empty table sized for the given number of keys
+     *
+     * @param expected
+     *            the number of keys expected
+     */
+    public IntHashTable(int expected) {
+        int capacity = Integer.highestOneBit(Math.max(16, expected * 2 - 1)) << 1;
+        allocate(capacity);
+        keys = new int[Math.max(16, expected)];
+    }
+
+    private void allocate(int capacity) {
+        slots = new int[2 * capacity];
+        mask = capacity - 1;
+        for (int i = 1; i < slots.length; i += 2) {
+            slots[i] = EMPTY;
+        }
+    }
+
+    private int slot(int key) {
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * @return the id of the key, or -1 if the key is not in the table
+     */
+    public int find(int key) {
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            int id = slots[2 * i + 1];
+            if (id == EMPTY || slots[2 * i] == key)
+                return id;
+        }
+    }
+
+    /**
+     * Add a key to the table if it is not there yet
+     *
+     * @return the id of the key; a new key gets the id {@link #size()}
+     */
+    public int add(int key) {
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            int id = slots[2 * i + 1];
+            if (id == EMPTY) {
+                id = size++;
+                slots[2 * i] = key;
+                slots[2 * i + 1] = id;
+                if (id == keys.length)
+                    keys = Arrays.copyOf(keys, 2 * keys.length);
+                keys[id] = key;
+                if (2 * size > mask + 1)
+                    grow();
+                return id;
+            }
+            if (slots[2 * i] == key)
+                return id;
+        }
+    }
+
+    private void grow() {
+        allocate(2 * (mask + 1));
+        for (int id = 0; id < size; id++) {
+            int i = slot(keys[id]);
+            while (slots[2 * i + 1] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            slots[2 * i] = keys[id];
+            slots[2 * i + 1] = id;
+        }
+    }
+
+    /**
+     * @return the key with the given id
+     */
+    public int key(int id) {
+        return keys[id];
+    }
+
+    /**
+     * @return the number of keys in the table
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Remove every key from the table
+     */
+    public void clear() {
+        Arrays.fill(slots, 0);
+        for (int i = 1; i < slots.length; i += 2) {
+            slots[i] = EMPTY;
+        }
+        size = 0;
+    }
+}
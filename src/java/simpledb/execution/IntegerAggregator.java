@@ -1,11 +1,13 @@
 package simpledb.execution;
 
 import simpledb.common.Type;
-import simpledb.storage.Field;
-import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
 
-import java.util.HashMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Knows how to compute some aggregate over a set of IntFields.
@@ -14,11 +16,27 @@ public class IntegerAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
-    HashMap<Field, Tuple> map;
+    private final int[] gbfields;
+
+    private final Type[] gbfieldtypes;
+
+    private final int afield;
+
+    private final Op op;
+
+    /** Numbers the groups in the order they were first seen */
+    private final GroupTable groups;
+    private int numGroups = 0;
+
+    // the running aggregate of each group, by group number
+    private int[] mins = new int[16];
+    private int[] maxs = new int[16];
+    private long[] sums = new long[16];
+    private int[] counts = new int[16];
 
     /**
      * Aggregate constructor
-     * 
+     *
      * @param gbfield
      *            the 0-based index of the group-by field in the tuple, or
      *            NO_GROUPING if there is no grouping
@@ -30,54 +48,188 @@ public class IntegerAggregator implements Aggregator {
      * @param what
      *            the aggregation operator
      */
-    int gbfield;
+    public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
+        this(gbfield == NO_GROUPING ? new int[0] : new int[]{gbfield},
+                gbfield == NO_GROUPING ? new Type[0] : new Type[]{gbfieldtype}, afield, what);
+    }
 
-    Type gbfieldtype;
+    /**
+     * Aggregate constructor for a grouping by several fields
+     *
+     * @param gbfields
+     *            the 0-based indexes of the group-by fields in the tuple;
+     *            empty if there is no grouping
+     * @param gbfieldtypes
+     *            the types of the group by fields
+     * @param afield
+     *            the 0-based index of the aggregate field in the tuple
+     * @param what
+     *            the aggregation operator
+     */
+    public IntegerAggregator(int[] gbfields, Type[] gbfieldtypes, int afield, Op what) {
+        if (what == Op.SUM_COUNT || what == Op.SC_AVG)
+            throw new IllegalArgumentException("unsupported aggregate " + what);
+        this.gbfields = gbfields.clone();
+        this.gbfieldtypes = gbfieldtypes.clone();
+        this.afield = afield;
+        this.op = what;
+        this.groups = new GroupTable(gbfields, gbfieldtypes);
+    }
 
-    int afield;
+    /**
+     * Start the running aggregate of group g if it is new
+     */
+    private int init(int g) {
+        if (g < numGroups)
+            return g;
+        numGroups++;
+        if (g == counts.length) {
+            mins = Arrays.copyOf(mins, 2 * g);
+            maxs = Arrays.copyOf(maxs, 2 * g);
+            sums = Arrays.copyOf(sums, 2 * g);
+            counts = Arrays.copyOf(counts, 2 * g);
+        }
+        mins[g] = Integer.MAX_VALUE;
+        maxs[g] = Integer.MIN_VALUE;
+        sums[g] = 0;
+        counts[g] = 0;
+        return g;
+    }
 
-    Op op;
+    private void add(int g, int v) {
+        if (v < mins[g])
+            mins[g] = v;
+        if (v > maxs[g])
+            maxs[g] = v;
+        sums[g] += v;
+        counts[g]++;
+    }
 
-    public IntegerAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
-        this.afield = afield;
-        this.gbfield = gbfield;
-        this.op = what;
-        this.afield = afield;
+    /**
+     * Add group og of another aggregator into group g of this one
+     */
+    private void add(int g, IntegerAggregator other, int og) {
+        if (other.mins[og] < mins[g])
+            mins[g] = other.mins[og];
+        if (other.maxs[og] > maxs[g])
+            maxs[g] = other.maxs[og];
+        sums[g] += other.sums[og];
+        counts[g] += other.counts[og];
     }
 
     /**
      * Merge a new tuple into the aggregate, grouping as indicated in the
      * constructor
-     * 
+     *
      * @param tup
      *            the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        if (map.containsKey(tup.getField(gbfield))) {
-            Tuple tupleInMap = map.get(tup.getField(gbfield));
-            int value = ((IntField) tup.getField(afield)).getValue();
-        } else {
+        add(init(groups.group(tup)), tup.getInt(afield));
+    }
 
+    /**
+     * Merge the selected rows of a batch, reading the aggregate column as an
+     * int array. Without grouping the whole batch is folded in one loop; with
+     * grouping, a group is only looked up again when the group value changes
+     * from one row to the next.
+     *
+     * @param batch
+     *            the rows containing an aggregate field and a group-by field
+     */
+    public void mergeBatch(TupleBatch batch) {
+        int[] vals = batch.getIntColumn(afield);
+        int n = batch.size();
+        if (gbfields.length == 0) {
+            int g = init(groups.group(batch, 0));
+            int min = mins[g], max = maxs[g];
+            long sum = sums[g];
+            for (int i = 0; i < n; i++) {
+                int v = vals[batch.row(i)];
+                if (v < min)
+                    min = v;
+                if (v > max)
+                    max = v;
+                sum += v;
+            }
+            mins[g] = min;
+            maxs[g] = max;
+            sums[g] = sum;
+            counts[g] += n;
+        } else if (groups.isIntKeyed()) {
+            int[] keys = batch.getIntColumn(gbfields[0]);
+            int g = -1;
+            int last = 0;
+            for (int i = 0; i < n; i++) {
+                int r = batch.row(i);
+                if (g < 0 || keys[r] != last) {
+                    last = keys[r];
+                    g = init(groups.group(last));
+                }
+                add(g, vals[r]);
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                int r = batch.row(i);
+                add(init(groups.group(batch, r)), vals[r]);
+            }
         }
+    }
 
+    public void merge(Aggregator other) {
+        IntegerAggregator o = (IntegerAggregator) other;
+        for (int og = 0; og < o.numGroups; og++) {
+            add(init(groups.group(o.groups, og)), o, og);
+        }
     }
 
-    private void operate(Op op, Tuple tup1, Tuple tup2) {
+    public Aggregator[] partition(int n) {
+        IntegerAggregator[] parts = new IntegerAggregator[n];
+        for (int i = 0; i < n; i++) {
+            parts[i] = new IntegerAggregator(gbfields, gbfieldtypes, afield, op);
+        }
+        for (int g = 0; g < numGroups; g++) {
+            IntegerAggregator part = parts[groups.partitionOf(g, n)];
+            part.add(part.init(part.groups.group(groups, g)), this, g);
+        }
+        return parts;
+    }
 
+    private int result(int g) {
+        switch (op) {
+            case MIN:
+                return mins[g];
+            case MAX:
+                return maxs[g];
+            case SUM:
+                return (int) sums[g];
+            case AVG:
+                return (int) (sums[g] / counts[g]);
+            case COUNT:
+                return counts[g];
+            default:
+                throw new IllegalStateException("unsupported aggregate " + op);
+        }
     }
 
     /**
      * Create a OpIterator over group aggregate results.
-     * 
-     * @return a OpIterator whose tuples are the pair (groupVal, aggregateVal)
-     *         if using group, or a single (aggregateVal) if no grouping. The
-     *         aggregateVal is determined by the type of aggregate specified in
-     *         the constructor.
+     *
+     * @return a OpIterator whose tuples are the group values followed by
+     *         the aggregateVal if using group, or a single (aggregateVal) if
+     *         no grouping. The aggregateVal is determined by the type of
+     *         aggregate specified in the constructor.
      */
     public OpIterator iterator() {
-        // some code goes here
-        throw new
-        UnsupportedOperationException("please implement me for lab2");
+        TupleDesc td = groups.outputDesc();
+        List<Tuple> tuples = new ArrayList<>();
+        for (int g = 0; g < numGroups; g++) {
+            Tuple t = new Tuple(td);
+            groups.setValues(t, g);
+            t.setInt(gbfields.length, result(g));
+            tuples.add(t);
+        }
+        return new TupleIterator(td, tuples);
     }
 
 }
@@ -1,7 +1,6 @@
 package simpledb.execution;
 
 import simpledb.common.Type;
-import simpledb.storage.Field;
 import simpledb.storage.RecordId;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
@@ -25,6 +24,8 @@ public class Join extends Operator {
 
     TupleDesc tupleDesc;
 
+    transient private ExpressionCompiler.JoinFilter compiled = null;
+
     /**
      * Constructor. Accepts two children to join and the predicate to join them
      * on
@@ -55,8 +56,7 @@ public class Join extends Operator {
      *       alias or table name.
      * */
     public String getJoinField1Name() {
-        // some code goes here
-        return null;
+        return this.child1.getTupleDesc().getFieldName(this.p.getField1());
     }
 
     /**
@@ -65,8 +65,7 @@ public class Join extends Operator {
      *       alias or table name.
      * */
     public String getJoinField2Name() {
-        // some code goes here
-        return null;
+        return this.child2.getTupleDesc().getFieldName(this.p.getField2());
     }
 
     /**
@@ -79,13 +78,17 @@ public class Join extends Operator {
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        compiled = ExpressionCompiler.compile(p, child1.getTupleDesc(), child2.getTupleDesc());
         this.child1.open();
         this.child2.open();
         super.open();
     }
 
     public void close() {
-        // some code goes here
+        super.close();
+        this.child1.close();
+        this.child2.close();
+        this.tp1 = null;
     }
 
     public void rewind() throws DbException, TransactionAbortedException {
@@ -121,18 +124,9 @@ public class Join extends Operator {
             }
             while (child2.hasNext()) {
                 Tuple tp2 = child2.next();
-                boolean filter = this.p.filter(tp1, tp2);
+                boolean filter = compiled != null ? compiled.test(tp1, tp2) : this.p.filter(tp1, tp2);
                 if (filter) {
-                    Tuple newTuple = new Tuple(this.tupleDesc);
-                    Iterator<Field> fit1 = tp1.fields();
-                    Iterator<Field> fit2 = tp2.fields();
-                    while (fit1.hasNext()) {
-                        newTuple.addField(fit1.next());
-                    }
-                    while (fit2.hasNext()) {
-                        newTuple.addField(fit2.next());
-                    }
-                    return newTuple;
+                    return Tuple.merge(this.tupleDesc, tp1, tp2);
                 }
             }
             child2.rewind();
@@ -146,13 +140,13 @@ public class Join extends Operator {
 
     @Override
     public OpIterator[] getChildren() {
-        // some code goes here
-        return null;
+        return new OpIterator[]{this.child1, this.child2};
     }
 
     @Override
     public void setChildren(OpIterator[] children) {
-        // some code goes here
+        this.child1 = children[0];
+        this.child2 = children[1];
     }
 
 }
@@ -1,6 +1,7 @@
 package simpledb.execution;
 
-import simpledb.storage.Field;
+import simpledb.common.Type;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
 
 import java.io.Serializable;
@@ -49,7 +50,10 @@ public class JoinPredicate implements Serializable {
      * @return true if the tuples satisfy the predicate.
      */
     public boolean filter(Tuple t1, Tuple t2) {
-       return t1.getField(field1).compare(this.op, t2.getField(field2));
+        if (t1.getTupleDesc().getFieldType(field1) == Type.INT_TYPE
+                && t2.getTupleDesc().getFieldType(field2) == Type.INT_TYPE)
+            return IntField.compare(t1.getInt(field1), op, t2.getInt(field2));
+        return t1.getField(field1).compare(this.op, t2.getField(field2));
     }
     
     public int getField1()
@@ -0,0 +1,101 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Limit implements LIMIT ... OFFSET: it skips the first offset tuples of its
+ * child and returns at most limit of the ones after them, without reading
+ * the child any further.
+ */
+public class Limit extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final int limit;
+    private final int offset;
+    transient private int returned = 0;
+    transient private boolean skipped = false;
+
+    /**
+     * Constructor.
+     *
+     * @param limit
+     *            the maximum number of tuples to return, or -1 for no limit
+     * @param offset
+     *            the number of tuples to skip first
+     * @param child
+     *            the tuples to limit
+     */
+    public Limit(int limit, int offset, OpIterator child) {
+        if (offset < 0)
+            throw new IllegalArgumentException("negative offset " + offset);
+        this.child = child;
+        this.limit = limit;
+        this.offset = offset;
+    }
+
+    /**
+     * @return the maximum number of tuples returned, or -1 if there is no
+     *         limit
+     */
+    public int getLimit() {
+        return limit;
+    }
+
+    public int getOffset() {
+        return offset;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        child.open();
+        returned = 0;
+        skipped = false;
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        child.close();
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        returned = 0;
+        skipped = false;
+    }
+
+    protected Tuple fetchNext() throws DbException, TransactionAbortedException {
+        if (limit >= 0 && returned >= limit)
+            return null;
+        if (!skipped) {
+            for (int i = 0; i < offset && child.hasNext(); i++) {
+                child.next();
+            }
+            skipped = true;
+        }
+        if (!child.hasNext())
+            return null;
+        returned++;
+        return child.next();
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
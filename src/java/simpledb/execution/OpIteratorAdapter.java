@@ -0,0 +1,64 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.NoSuchElementException;
+
+/**
+ * Reads the tuples of an OpIterator through the DbFileIterator interface, so
+ * that operators can treat a child and a spilled {@link simpledb.storage.TempHeapFile}
+ * alike. Children that implement {@link BatchOpIterator} are read a batch at
+ * a time; each row is handed out as the tuple it was added to the batch from,
+ * so only rows written straight into a batch's columns become new Tuples.
+ */
+class OpIteratorAdapter implements DbFileIterator {
+
+    private final OpIterator child;
+    private final BatchOpIterator batchChild;
+
+    private TupleBatch batch = null;
+    private int pos = 0;
+
+    OpIteratorAdapter(OpIterator child) {
+        this.child = child;
+        this.batchChild = child instanceof BatchOpIterator ? (BatchOpIterator) child : null;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+        batch = null;
+    }
+
+    public boolean hasNext() throws DbException, TransactionAbortedException {
+        if (batchChild == null)
+            return child.hasNext();
+        while (batch == null || pos >= batch.size()) {
+            batch = batchChild.nextBatch();
+            pos = 0;
+            if (batch == null)
+                return false;
+        }
+        return true;
+    }
+
+    public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
+        if (batchChild == null)
+            return child.next();
+        if (!hasNext())
+            throw new NoSuchElementException();
+        return batch.getTuple(batch.row(pos++));
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        child.rewind();
+        batch = null;
+    }
+
+    public void close() {
+        child.close();
+        batch = null;
+    }
+}
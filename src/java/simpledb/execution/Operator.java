@@ -63,6 +63,8 @@ public abstract class Operator implements OpIterator {
     private boolean open = false;
     private int estimatedCardinality = 0;
 
+    private double estimatedCost = 0;
+
     public void open() throws DbException, TransactionAbortedException {
         this.open = true;
     }
@@ -109,4 +111,21 @@ public abstract class Operator implements OpIterator {
         this.estimatedCardinality = card;
     }
 
+    /**
+     * @return The optimizer's estimate of the cost of this operator and its
+     *         children, or 0 if it made none
+     * */
+    public double getEstimatedCost() {
+        return this.estimatedCost;
+    }
+
+    /**
+     * @param cost
+     *            The optimizer's estimate of the cost of this operator and
+     *            its children
+     * */
+    public void setEstimatedCost(double cost) {
+        this.estimatedCost = cost;
+    }
+
 }
@@ -2,6 +2,7 @@ package simpledb.execution;
 
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.common.DbException;
+import simpledb.common.Type;
 import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
@@ -9,18 +10,23 @@ import simpledb.storage.TupleDesc;
 import java.util.*;
 
 /**
- * OrderBy is an operator that implements a relational ORDER BY.
+ * OrderBy is an operator that implements a relational ORDER BY on one or more
+ * fields, each ascending or descending.
+ * <p>
+ * The child's tuples are sorted by an {@link ExternalSort} within a memory
+ * budget of a number of pages; tuples that do not fit are sorted in runs that
+ * are spilled to temporary heap files and merged. Tuples are compared by their
+ * {@link SortKey} normalized keys.
  */
 public class OrderBy extends Operator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private final TupleDesc td;
-    private final List<Tuple> childTups = new ArrayList<>();
-    private final int orderByField;
-    private final String orderByFieldName;
-    private Iterator<Tuple> it;
-    private final boolean asc;
+    private final int[] orderByFields;
+    private final boolean[] asc;
+    private final int bufferPages;
+    transient private ExternalSort sort = null;
 
     /**
      * Creates a new OrderBy node over the tuples from the iterator.
@@ -33,26 +39,97 @@ public class OrderBy extends Operator {
      *            the tuples to sort.
      */
     public OrderBy(int orderbyField, boolean asc, OpIterator child) {
+        this(orderbyField, asc, child, ExternalSort.DEFAULT_BUFFER_PAGES);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if its sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child) {
+        this(orderbyFields, asc, child, ExternalSort.DEFAULT_BUFFER_PAGES);
+    }
+
+    /**
+     * Creates a new OrderBy node over the tuples from the iterator.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param bufferPages
+     *            the number of pages of tuples the sort may hold in memory;
+     *            at least 3
+     */
+    public OrderBy(int orderbyField, boolean asc, OpIterator child, int bufferPages) {
+        this(new int[]{orderbyField}, new boolean[]{asc}, child, bufferPages);
+    }
+
+    /**
+     * Creates a new OrderBy node that sorts on several fields: ties on the
+     * first field are ordered by the second, and so on.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if its sort order is ascending.
+     * @param child
+     *            the tuples to sort.
+     * @param bufferPages
+     *            the number of pages of tuples the sort may hold in memory;
+     *            at least 3
+     */
+    public OrderBy(int[] orderbyFields, boolean[] asc, OpIterator child, int bufferPages) {
+        if (bufferPages < 3)
+            throw new IllegalArgumentException("an external sort needs at least 3 buffer pages");
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need one or more fields, each with a direction");
         this.child = child;
         td = child.getTupleDesc();
-        this.orderByField = orderbyField;
-        this.orderByFieldName = td.getFieldName(orderbyField);
-        this.asc = asc;
+        this.orderByFields = orderbyFields.clone();
+        this.asc = asc.clone();
+        this.bufferPages = bufferPages;
     }
-    
+
+    /**
+     * @return true if the (first) sort field is ascending
+     */
     public boolean isASC()
     {
-	return this.asc;
+        return this.asc[0];
     }
-    
+
+    /**
+     * @return the (first) field to which the sort is applied
+     */
     public int getOrderByField()
     {
-        return this.orderByField;
+        return this.orderByFields[0];
     }
-    
+
+    public int[] getOrderByFields()
+    {
+        return this.orderByFields.clone();
+    }
+
+    public boolean[] getAscending()
+    {
+        return this.asc.clone();
+    }
+
     public String getOrderFieldName()
     {
-	return this.orderByFieldName;
+        return td.getFieldName(orderByFields[0]);
     }
     
     public TupleDesc getTupleDesc() {
@@ -61,22 +138,20 @@ public class OrderBy extends Operator {
 
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
-        child.open();
-        // load all the tuples in a collection, and sort it
-        while (child.hasNext())
-            childTups.add(child.next());
-        childTups.sort(new TupleComparator(orderByField, asc));
-        it = childTups.iterator();
+        sort = new ExternalSort(child, new SortKey(td, orderByFields, asc), bufferPages);
+        sort.open();
         super.open();
     }
 
     public void close() {
         super.close();
-        it = null;
+        if (sort != null)
+            sort.close();
+        sort = null;
     }
 
-    public void rewind() {
-        it = childTups.iterator();
+    public void rewind() throws DbException, TransactionAbortedException {
+        sort.rewind();
     }
 
     /**
@@ -86,9 +161,10 @@ public class OrderBy extends Operator {
      * @return The next tuple in the ordering, or null if there are no more
      *         tuples
      */
-    protected Tuple fetchNext() throws NoSuchElementException {
-        if (it != null && it.hasNext()) {
-            return it.next();
+    protected Tuple fetchNext() throws NoSuchElementException,
+            DbException, TransactionAbortedException {
+        if (sort != null && sort.hasNext()) {
+            return sort.next();
         } else
             return null;
     }
@@ -105,24 +181,42 @@ public class OrderBy extends Operator {
 
 }
 
+/**
+ * Compares tuples on one or more fields, without encoding them; see
+ * {@link SortKey} for comparing many tuples on the same fields.
+ */
 class TupleComparator implements Comparator<Tuple> {
-    final int field;
-    final boolean asc;
+    final int[] fields;
+    final boolean[] asc;
 
     public TupleComparator(int field, boolean asc) {
-        this.field = field;
+        this(new int[]{field}, new boolean[]{asc});
+    }
+
+    public TupleComparator(int[] fields, boolean[] asc) {
+        this.fields = fields;
         this.asc = asc;
     }
 
     public int compare(Tuple o1, Tuple o2) {
+        for (int i = 0; i < fields.length; i++) {
+            int c = compare(o1, o2, fields[i]);
+            if (c != 0)
+                return asc[i] ? c : -c;
+        }
+        return 0;
+    }
+
+    private static int compare(Tuple o1, Tuple o2, int field) {
+        if (o1.getTupleDesc().getFieldType(field) == Type.INT_TYPE)
+            return Integer.compare(o1.getInt(field), o2.getInt(field));
+        if (o1.getTupleDesc().getFieldType(field) == Type.STRING_TYPE)
+            return Integer.signum(o1.getString(field).compareTo(o2.getString(field)));
         Field t1 = (o1).getField(field);
         Field t2 = (o2).getField(field);
         if (t1.compare(Predicate.Op.EQUALS, t2))
             return 0;
-        if (t1.compare(Predicate.Op.GREATER_THAN, t2))
-            return asc ? 1 : -1;
-        else
-            return asc ? -1 : 1;
+        return t1.compare(Predicate.Op.GREATER_THAN, t2) ? 1 : -1;
     }
-    
+
 }
@@ -1,53 +1,103 @@
 package simpledb.execution;
+import simpledb.optimizer.CostCard;
 import simpledb.optimizer.LogicalJoinNode;
 
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.Set;
 
 /** A PlanCache is a helper class that can be used to store the best
- * way to order a given set of joins */
+ * way to order a given set of joins.
+ * <p>
+ * The set of tables a plan joins is given as a bitmask, bit i standing for
+ * the i-th table of the query, and plans are kept in arrays indexed by the
+ * mask, so there are at most 2^n entries for n tables. A cache created
+ * without a number of tables keeps its plans in a map instead, for queries
+ * with too many tables to plan every subset of. */
 public class PlanCache {
-    final Map<Set<LogicalJoinNode>,List<LogicalJoinNode>> bestOrders= new HashMap<>();
-    final Map<Set<LogicalJoinNode>,Double> bestCosts= new HashMap<>();
-    final Map<Set<LogicalJoinNode>,Integer> bestCardinalities = new HashMap<>();
-    
+    /** The most tables a PlanCache can hold plans for */
+    public static final int MAX_TABLES = 20;
+
+    final List<LogicalJoinNode>[] bestOrders;
+    final double[] bestCosts;
+    final int[] bestCardinalities;
+
+    // the plans of a cache created without a number of tables, by mask
+    final Map<Long, CostCard> plans;
+
+    /** Create an empty cache for plans over any number of tables, up to 64
+    */
+    public PlanCache() {
+        bestOrders = null;
+        bestCosts = null;
+        bestCardinalities = null;
+        plans = new HashMap<>();
+    }
+
+    /** Create an empty cache for plans over up to the given number of tables
+        @param tables the number of tables in the query, at most {@link #MAX_TABLES}
+    */
+    @SuppressWarnings("unchecked")
+    public PlanCache(int tables) {
+        if (tables < 0 || tables > MAX_TABLES)
+            throw new IllegalArgumentException("a plan cache holds up to " + MAX_TABLES + " tables, not " + tables);
+        bestOrders = new List[1 << tables];
+        bestCosts = new double[1 << tables];
+        bestCardinalities = new int[1 << tables];
+        plans = null;
+    }
+
     /** Add a new cost, cardinality and ordering for a particular join set.  Does not verify that the
         new cost is less than any previously added cost -- simply adds or replaces an existing plan for the
         specified join set
-        @param s the set of joins for which a new ordering (plan) is being added
+        @param s the mask of the tables joined by the plan
         @param cost the estimated cost of the specified plan
         @param card the estimatied cardinality of the specified plan
         @param order the ordering of the joins in the plan
     */
-    public void addPlan(Set<LogicalJoinNode> s, double cost, int card, List<LogicalJoinNode> order) {
-        bestOrders.put(s,order);                        
-        bestCosts.put(s,cost);
-        bestCardinalities.put(s,card);
+    public void addPlan(long s, double cost, int card, List<LogicalJoinNode> order) {
+        if (plans != null) {
+            CostCard cc = new CostCard();
+            cc.cost = cost;
+            cc.card = card;
+            cc.plan = order;
+            plans.put(s, cc);
+            return;
+        }
+        bestOrders[(int) s] = order;
+        bestCosts[(int) s] = cost;
+        bestCardinalities[(int) s] = card;
     }
-    
-    /** Find the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best order for
-        @return the best order for s in the cache
+
+    /** Find the best join order in the cache for the specified plan
+        @param s the mask of the tables to look up the best order for
+        @return the best order for s in the cache, or null if there is none
     */
-    public List<LogicalJoinNode> getOrder(Set<LogicalJoinNode> s) {
-        return bestOrders.get(s);
+    public List<LogicalJoinNode> getOrder(long s) {
+        if (plans != null) {
+            CostCard cc = plans.get(s);
+            return cc == null ? null : cc.plan;
+        }
+        return bestOrders[(int) s];
     }
-    
-    /** Find the cost of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cost for
+
+    /** Find the cost of the best join order in the cache for the specified plan
+        @param s the mask of the tables to look up the best cost for
         @return the cost of the best order for s in the cache
     */
-    public double getCost(Set<LogicalJoinNode> s) {
-        return bestCosts.get(s);
+    public double getCost(long s) {
+        if (plans != null)
+            return plans.get(s).cost;
+        return bestCosts[(int) s];
     }
-    
-    /** Find the cardinality of the best join order in the cache for the specified plan 
-        @param s the set of joins to look up the best cardinality for
+
+    /** Find the cardinality of the best join order in the cache for the specified plan
+        @param s the mask of the tables to look up the best cardinality for
         @return the cardinality of the best order for s in the cache
     */
-    public int getCard(Set<LogicalJoinNode> s) {
-        return bestCardinalities.get(s);
+    public int getCard(long s) {
+        if (plans != null)
+            return plans.get(s).card;
+        return bestCardinalities[(int) s];
     }
 }
@@ -11,12 +11,13 @@ import java.util.*;
 /**
  * Project is an operator that implements a relational projection.
  */
-public class Project extends Operator {
+public class Project extends Operator implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
     private OpIterator child;
     private final TupleDesc td;
     private final List<Integer> outFieldIds;
+    transient private ExpressionCompiler.Projector compiled = null;
 
     /**
      * Constructor accepts a child operator to read tuples to apply projection
@@ -48,8 +49,16 @@ public class Project extends Operator {
         return td;
     }
 
+    /**
+     * @return the ids of the child's fields that are projected out
+     */
+    public List<Integer> getOutFieldIds() {
+        return outFieldIds;
+    }
+
     public void open() throws DbException, NoSuchElementException,
             TransactionAbortedException {
+        compiled = ExpressionCompiler.compile(outFieldIds, td);
         child.open();
         super.open();
     }
@@ -73,14 +82,25 @@ public class Project extends Operator {
             TransactionAbortedException, DbException {
         if (!child.hasNext()) return null;
         Tuple t = child.next();
+        if (compiled != null)
+            return compiled.project(t);
         Tuple newTuple = new Tuple(td);
         newTuple.setRecordId(t.getRecordId());
         for (int i = 0; i < td.numFields(); i++) {
-            newTuple.setField(i, t.getField(outFieldIds.get(i)));
+            newTuple.copyField(i, t, outFieldIds.get(i));
         }
         return newTuple;
     }
 
+    /**
+     * Projects the child's batches by sharing the kept columns; no values
+     * are copied.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        TupleBatch b = BatchOpIterator.fetchBatch(child);
+        return b == null ? null : b.project(outFieldIds, td);
+    }
+
     @Override
     public OpIterator[] getChildren() {
         return new OpIterator[]{this.child};
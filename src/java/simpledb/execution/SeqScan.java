@@ -3,12 +3,17 @@ package simpledb.execution;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.storage.DbFile;
 import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -16,7 +21,7 @@ import java.util.NoSuchElementException;
  * each tuple of a table in no particular order (e.g., as they are laid out on
  * disk).
  */
-public class SeqScan implements OpIterator {
+public class SeqScan implements BatchOpIterator {
 
     private static final long serialVersionUID = 1L;
 
@@ -40,6 +45,16 @@ public class SeqScan implements OpIterator {
      */
     private DbFileIterator dbFileIterator;
 
+    /**
+     * 只扫描 HeapFile 的页 [startPage, endPage)，用于并行扫描
+     */
+    private int startPage = 0;
+    private int endPage = Integer.MAX_VALUE;
+
+    /**
+     * 下推到扫描中的谓词，只返回全部满足的元组
+     */
+    private final List<Predicate> predicates = new ArrayList<>();
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -69,6 +84,20 @@ public class SeqScan implements OpIterator {
         return Database.getCatalog().getTableName(tableId);
     }
 
+    /**
+     * @return the id of the table this operator scans
+     */
+    public int getTableId() {
+        return this.tableId;
+    }
+
+    /**
+     * @return the transaction this scan is running as a part of
+     */
+    public TransactionId getTransactionId() {
+        return this.tid;
+    }
+
     /**
      * @return Return the alias of the table this operator scans.
      */
@@ -94,13 +123,51 @@ public class SeqScan implements OpIterator {
         this.tableAlias = tableAlias;
     }
 
+    /**
+     * Restrict the scan to a range of pages of its table, such as one morsel
+     * of a parallel scan (see {@link Exchange}). Takes effect on the next
+     * open(); only tables stored in a {@link HeapFile} can be restricted.
+     *
+     * @param start the first page to scan
+     * @param end   one past the last page to scan
+     */
+    public void setPageRange(int start, int end) {
+        this.startPage = start;
+        this.endPage = end;
+    }
+
+    /**
+     * Push a predicate down into the scan, so that only the tuples satisfying
+     * it (and every predicate pushed before) are returned. The predicates are
+     * tested by the table's file as its pages are read (see
+     * {@link DbFile#iterator(TransactionId, List)}), instead of by a
+     * {@link Filter} above the scan. Takes effect on the next open().
+     *
+     * @param p a predicate over the fields of this scan's TupleDesc
+     */
+    public void addPredicate(Predicate p) {
+        predicates.add(p);
+    }
+
+    /**
+     * @return the predicates pushed down into the scan
+     */
+    public List<Predicate> getPredicates() {
+        return Collections.unmodifiableList(predicates);
+    }
+
     public SeqScan(TransactionId tid, int tableId) {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        dbFileIterator = Database.getCatalog().getDatabaseFile(tableId).iterator(tid);
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        if (file instanceof HeapFile && (startPage > 0 || endPage < Integer.MAX_VALUE))
+            dbFileIterator = ((HeapFile) file).iterator(tid, startPage, endPage,
+                    ExpressionCompiler.compileAll(predicates, file.getTupleDesc()));
+        else
+            dbFileIterator = file.iterator(tid, predicates);
         dbFileIterator.open();
     }
 
@@ -148,6 +215,18 @@ public class SeqScan implements OpIterator {
         return t;
     }
 
+    /**
+     * Returns the next batch of tuples of the table that satisfy the pushed
+     * predicates, copied straight from the tuples of the file's pages.
+     */
+    public TupleBatch nextBatch() throws TransactionAbortedException, DbException {
+        if (dbFileIterator == null || !dbFileIterator.hasNext())
+            return null;
+        TupleBatch b = new TupleBatch(getTupleDesc());
+        dbFileIterator.fillBatch(b);
+        return b;
+    }
+
     public void close() {
         // some code goes here
         dbFileIterator = null;
@@ -0,0 +1,238 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * SortKey encodes one or more fields of a tuple into a normalized key: a byte
+ * string whose unsigned lexicographic order (a memcmp) is the order of the
+ * fields, column by column, each ascending or descending. Sorts and hash
+ * groupings can then compare and hash a single byte array instead of
+ * dispatching on each field's type through {@link Field#compare}.
+ * <p>
+ * INT_TYPE values are written as 4 big-endian bytes with the sign bit
+ * flipped. STRING_TYPE values are written as their UTF-16 code units, 2
+ * big-endian bytes each, so that they order like {@link String#compareTo};
+ * a 0 unit is escaped as 00 00 FF and the string ends with 00 00 00, so no
+ * string's encoding is a prefix of another's. A descending column has all of
+ * its bytes inverted. Equal field values always encode to equal keys.
+ * <p>
+ * The code writing each column is chosen once from the column's type when
+ * the key is built, so encoding does not dispatch on the type of each value.
+ * Callers that encode many keys and only keep some, such as hash groupings,
+ * can encode into a reused {@link Writer} and copy the bytes out only when
+ * they need to keep them.
+ */
+public class SortKey implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    /** The order of normalized keys */
+    public static final Comparator<byte[]> ORDER = SortKey::compare;
+
+    private final int[] fields;
+    private final boolean[] asc;
+    private final Column[] columns;
+
+    /** Writes the values of a column of one type */
+    private enum Column {
+        INT {
+            void write(Writer w, Tuple t, int field) {
+                w.writeInt(t.getInt(field));
+            }
+
+            void write(Writer w, TupleBatch batch, int row, int field) {
+                w.writeInt(batch.getIntColumn(field)[row]);
+            }
+        },
+        STRING {
+            void write(Writer w, Tuple t, int field) {
+                w.writeString(t.getString(field));
+            }
+
+            void write(Writer w, TupleBatch batch, int row, int field) {
+                w.writeString(((StringField) batch.getField(row, field)).getValue());
+            }
+        };
+
+        abstract void write(Writer w, Tuple t, int field);
+
+        abstract void write(Writer w, TupleBatch batch, int row, int field);
+
+        static Column of(Type type) {
+            return type == Type.INT_TYPE ? INT : STRING;
+        }
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param td
+     *            the TupleDesc of the tuples to encode
+     * @param fields
+     *            the fields to encode, most significant first
+     * @param asc
+     *            for each field, true if it sorts ascending
+     */
+    public SortKey(TupleDesc td, int[] fields, boolean[] asc) {
+        if (fields.length != asc.length)
+            throw new IllegalArgumentException("need a direction for each of the " + fields.length + " fields");
+        this.fields = fields.clone();
+        this.asc = asc.clone();
+        this.columns = new Column[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            columns[i] = Column.of(td.getFieldType(fields[i]));
+        }
+    }
+
+    /**
+     * Constructor for a key whose fields all sort ascending, e.g. a grouping
+     * key.
+     */
+    public SortKey(TupleDesc td, int[] fields) {
+        this(td, fields, ascending(fields.length));
+    }
+
+    /**
+     * Constructor for an ascending key over the given fields, whose types are
+     * given instead of a TupleDesc.
+     */
+    SortKey(int[] fields, Type[] types) {
+        this.fields = fields.clone();
+        this.asc = ascending(fields.length);
+        this.columns = new Column[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            columns[i] = Column.of(types[i]);
+        }
+    }
+
+    private static boolean[] ascending(int n) {
+        boolean[] asc = new boolean[n];
+        Arrays.fill(asc, true);
+        return asc;
+    }
+
+    public int[] getFields() {
+        return fields.clone();
+    }
+
+    /**
+     * @return the normalized key of a tuple
+     */
+    public byte[] encode(Tuple t) {
+        Writer w = new Writer();
+        encode(t, w);
+        return w.toBytes();
+    }
+
+    /**
+     * @return the normalized key of the given physical row of a batch
+     */
+    public byte[] encode(TupleBatch batch, int row) {
+        Writer w = new Writer();
+        encode(batch, row, w);
+        return w.toBytes();
+    }
+
+    /**
+     * Append the normalized key of a tuple to a writer
+     */
+    void encode(Tuple t, Writer w) {
+        for (int i = 0; i < fields.length; i++) {
+            int start = w.pos;
+            columns[i].write(w, t, fields[i]);
+            if (!asc[i])
+                w.invert(start);
+        }
+    }
+
+    /**
+     * Append the normalized key of the given physical row of a batch to a
+     * writer
+     */
+    void encode(TupleBatch batch, int row, Writer w) {
+        for (int i = 0; i < fields.length; i++) {
+            int start = w.pos;
+            columns[i].write(w, batch, row, fields[i]);
+            if (!asc[i])
+                w.invert(start);
+        }
+    }
+
+    /**
+     * Compare two normalized keys as unsigned bytes, like memcmp; a key that
+     * is a prefix of the other comes first.
+     */
+    public static int compare(byte[] a, byte[] b) {
+        int n = Math.min(a.length, b.length);
+        for (int i = 0; i < n; i++) {
+            if (a[i] != b[i])
+                return (a[i] & 0xff) - (b[i] & 0xff);
+        }
+        return a.length - b.length;
+    }
+
+    /**
+     * A growable buffer that keys are encoded into; the key is the first pos
+     * bytes of buf
+     */
+    static class Writer {
+        byte[] buf = new byte[16];
+        int pos = 0;
+
+        /** Discard the key written so far, keeping the buffer */
+        void reset() {
+            pos = 0;
+        }
+
+        private void ensure(int n) {
+            if (pos + n > buf.length)
+                buf = Arrays.copyOf(buf, Math.max(2 * buf.length, pos + n));
+        }
+
+        void writeInt(int v) {
+            ensure(4);
+            v ^= Integer.MIN_VALUE;
+            buf[pos++] = (byte) (v >>> 24);
+            buf[pos++] = (byte) (v >>> 16);
+            buf[pos++] = (byte) (v >>> 8);
+            buf[pos++] = (byte) v;
+        }
+
+        void writeString(String s) {
+            ensure(2 * s.length() + 3);
+            for (int i = 0; i < s.length(); i++) {
+                char c = s.charAt(i);
+                if (c == 0) {
+                    ensure(2 * (s.length() - i) + 4);
+                    buf[pos++] = 0;
+                    buf[pos++] = 0;
+                    buf[pos++] = (byte) 0xff;
+                } else {
+                    buf[pos++] = (byte) (c >>> 8);
+                    buf[pos++] = (byte) c;
+                }
+            }
+            buf[pos++] = 0;
+            buf[pos++] = 0;
+            buf[pos++] = 0;
+        }
+
+        void invert(int start) {
+            for (int i = start; i < pos; i++) {
+                buf[i] = (byte) ~buf[i];
+            }
+        }
+
+        byte[] toBytes() {
+            return Arrays.copyOf(buf, pos);
+        }
+    }
+}
@@ -0,0 +1,230 @@
+package simpledb.execution;
+
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.storage.DbFile;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.Field;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.*;
+
+/**
+ * The SortMergeJoin operator implements an equality join by sorting both
+ * children on their join fields and merging them. Children that are already
+ * ordered on the join field, such as a {@link BTreeScan} of a B+ tree keyed on
+ * it, are read as they are; the others are sorted with an
+ * {@link ExternalSort}, so inputs larger than memory spill to disk instead of
+ * being rescanned.
+ * <p>
+ * The output is ordered by the join field, which lets an ORDER BY on that
+ * field be answered without another sort (see {@link #isSortedOn}).
+ */
+public class SortMergeJoin extends Operator {
+
+    private static final long serialVersionUID = 1L;
+
+    private final JoinPredicate pred;
+    private OpIterator child1, child2;
+    private final TupleDesc comboTD;
+    private final int bufferPages;
+
+    transient private DbFileIterator left = null;
+    transient private DbFileIterator right = null;
+    // the current left tuple, and the run of right tuples with the same key
+    transient private Tuple t1 = null;
+    transient private final List<Tuple> group = new ArrayList<>();
+    transient private Iterator<Tuple> groupIt = null;
+    // the first right tuple after the current group
+    transient private Tuple rightPeek = null;
+
+    /**
+     * Constructor. Accepts two children to join and the predicate to join them
+     * on
+     *
+     * @param p
+     *            The predicate to use to join the children; must be an
+     *            equality predicate
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2) {
+        this(p, child1, child2, ExternalSort.DEFAULT_BUFFER_PAGES);
+    }
+
+    /**
+     * Constructor.
+     *
+     * @param p
+     *            The predicate to use to join the children; must be an
+     *            equality predicate
+     * @param child1
+     *            Iterator for the left(outer) relation to join
+     * @param child2
+     *            Iterator for the right(inner) relation to join
+     * @param bufferPages
+     *            the memory budget, in pages, of the sort of each child
+     */
+    public SortMergeJoin(JoinPredicate p, OpIterator child1, OpIterator child2, int bufferPages) {
+        if (p.getOperator() != Predicate.Op.EQUALS)
+            throw new IllegalArgumentException("sort-merge join only supports equality predicates");
+        this.pred = p;
+        this.child1 = child1;
+        this.child2 = child2;
+        this.bufferPages = bufferPages;
+        comboTD = TupleDesc.merge(child1.getTupleDesc(), child2.getTupleDesc());
+    }
+
+    /**
+     * Return true if the tuples of the given plan come out in ascending order
+     * of the given field.
+     *
+     * @param plan
+     *            the plan to check
+     * @param field
+     *            the index of the field in the plan's tuples
+     */
+    public static boolean isSortedOn(OpIterator plan, int field) {
+        if (plan instanceof Filter || plan instanceof FieldFilter) {
+            return isSortedOn(((Operator) plan).getChildren()[0], field);
+        } else if (plan instanceof OrderBy) {
+            OrderBy o = (OrderBy) plan;
+            return o.isASC() && o.getOrderByField() == field;
+        } else if (plan instanceof SortMergeJoin) {
+            SortMergeJoin j = (SortMergeJoin) plan;
+            int n1 = j.child1.getTupleDesc().numFields();
+            return field == j.pred.getField1() || field == n1 + j.pred.getField2();
+        } else if (plan instanceof BTreeScan) {
+            int tableId = Database.getCatalog().getTableId(((BTreeScan) plan).getTableName());
+            DbFile f = Database.getCatalog().getDatabaseFile(tableId);
+            return f instanceof BTreeFile && ((BTreeFile) f).keyField() == field;
+        }
+        return false;
+    }
+
+    public JoinPredicate getJoinPredicate() {
+        return pred;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return comboTD;
+    }
+
+    public String getJoinField1Name() {
+        return this.child1.getTupleDesc().getFieldName(this.pred.getField1());
+    }
+
+    public String getJoinField2Name() {
+        return this.child2.getTupleDesc().getFieldName(this.pred.getField2());
+    }
+
+    private DbFileIterator sorted(OpIterator child, int field) {
+        if (isSortedOn(child, field))
+            return new OpIteratorAdapter(child);
+        return new ExternalSort(child, new TupleComparator(field, true), bufferPages);
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        left = sorted(child1, pred.getField1());
+        right = sorted(child2, pred.getField2());
+        left.open();
+        right.open();
+        resetMerge();
+        super.open();
+    }
+
+    private void resetMerge() throws DbException, TransactionAbortedException {
+        t1 = null;
+        group.clear();
+        groupIt = null;
+        rightPeek = right.hasNext() ? right.next() : null;
+    }
+
+    public void close() {
+        super.close();
+        if (left != null)
+            left.close();
+        if (right != null)
+            right.close();
+        left = null;
+        right = null;
+        t1 = null;
+        group.clear();
+        groupIt = null;
+        rightPeek = null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        left.rewind();
+        right.rewind();
+        resetMerge();
+    }
+
+    private Tuple merge(Tuple t2) {
+        return Tuple.merge(comboTD, t1, t2);
+    }
+
+    /**
+     * Collect the right tuples whose key equals the given key, skipping the
+     * smaller ones
+     */
+    private void loadGroup(Field key) throws DbException, TransactionAbortedException {
+        group.clear();
+        while (rightPeek != null && rightPeek.getField(pred.getField2()).compare(Predicate.Op.LESS_THAN, key)) {
+            rightPeek = right.hasNext() ? right.next() : null;
+        }
+        while (rightPeek != null && rightPeek.getField(pred.getField2()).compare(Predicate.Op.EQUALS, key)) {
+            group.add(rightPeek);
+            rightPeek = right.hasNext() ? right.next() : null;
+        }
+    }
+
+    /**
+     * Returns the next tuple generated by the join, or null if there are no
+     * more tuples. Each left tuple is combined with the run of right tuples
+     * that share its key; a run is kept until a left tuple with a larger key
+     * arrives.
+     * <p>
+     * As with {@link Join}, the result is the concatenation of the left and
+     * right tuples, so the join attribute appears twice.
+     *
+     * @return The next matching tuple.
+     */
+    protected Tuple fetchNext() throws TransactionAbortedException, DbException {
+        while (true) {
+            if (groupIt != null && groupIt.hasNext()) {
+                return merge(groupIt.next());
+            }
+            if (!left.hasNext())
+                return null;
+            Field prevKey = group.isEmpty() ? null : group.get(0).getField(pred.getField2());
+            t1 = left.next();
+            Field key = t1.getField(pred.getField1());
+            if (prevKey == null || !key.compare(Predicate.Op.EQUALS, prevKey)) {
+                if (rightPeek == null && group.isEmpty())
+                    return null;
+                loadGroup(key);
+            }
+            groupIt = group.iterator();
+        }
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[]{this.child1, this.child2};
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child1 = children[0];
+        this.child2 = children[1];
+    }
+
+}
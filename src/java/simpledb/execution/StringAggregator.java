@@ -1,7 +1,14 @@
 package simpledb.execution;
 
 import simpledb.common.Type;
+import simpledb.storage.IntField;
 import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.storage.TupleIterator;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Knows how to compute some aggregate over a set of StringFields.
@@ -10,6 +17,18 @@ public class StringAggregator implements Aggregator {
 
     private static final long serialVersionUID = 1L;
 
+    private final int[] gbfields;
+
+    private final Type[] gbfieldtypes;
+
+    private final int afield;
+
+    /** Numbers the groups in the order they were first seen */
+    private final GroupTable groups;
+
+    // the count of each group, by group number
+    private int[] counts = new int[16];
+
     /**
      * Aggregate constructor
      * @param gbfield the 0-based index of the group-by field in the tuple, or NO_GROUPING if there is no grouping
@@ -20,7 +39,31 @@ public class StringAggregator implements Aggregator {
      */
 
     public StringAggregator(int gbfield, Type gbfieldtype, int afield, Op what) {
-        // some code goes here
+        this(gbfield == NO_GROUPING ? new int[0] : new int[]{gbfield},
+                gbfield == NO_GROUPING ? new Type[0] : new Type[]{gbfieldtype}, afield, what);
+    }
+
+    /**
+     * Aggregate constructor for a grouping by several fields
+     * @param gbfields the 0-based indexes of the group-by fields in the tuple; empty if there is no grouping
+     * @param gbfieldtypes the types of the group by fields
+     * @param afield the 0-based index of the aggregate field in the tuple
+     * @param what aggregation operator to use -- only supports COUNT
+     * @throws IllegalArgumentException if what != COUNT
+     */
+    public StringAggregator(int[] gbfields, Type[] gbfieldtypes, int afield, Op what) {
+        if (what != Op.COUNT)
+            throw new IllegalArgumentException("string aggregates only support COUNT");
+        this.gbfields = gbfields.clone();
+        this.gbfieldtypes = gbfieldtypes.clone();
+        this.afield = afield;
+        this.groups = new GroupTable(gbfields, gbfieldtypes);
+    }
+
+    private void add(int g, int n) {
+        if (g == counts.length)
+            counts = Arrays.copyOf(counts, 2 * g);
+        counts[g] += n;
     }
 
     /**
@@ -28,20 +71,60 @@ public class StringAggregator implements Aggregator {
      * @param tup the Tuple containing an aggregate field and a group-by field
      */
     public void mergeTupleIntoGroup(Tuple tup) {
-        // some code goes here
+        add(groups.group(tup), 1);
+    }
+
+    /**
+     * Merge the selected rows of a batch; only the group-by columns are read.
+     * @param batch the rows containing an aggregate field and a group-by field
+     */
+    public void mergeBatch(TupleBatch batch) {
+        if (gbfields.length == 0) {
+            add(groups.group(batch, 0), batch.size());
+            return;
+        }
+        for (int i = 0; i < batch.size(); i++) {
+            add(groups.group(batch, batch.row(i)), 1);
+        }
+    }
+
+    public void merge(Aggregator other) {
+        StringAggregator o = (StringAggregator) other;
+        for (int og = 0; og < o.groups.size(); og++) {
+            add(groups.group(o.groups, og), o.counts[og]);
+        }
+    }
+
+    public Aggregator[] partition(int n) {
+        StringAggregator[] parts = new StringAggregator[n];
+        for (int i = 0; i < n; i++) {
+            parts[i] = new StringAggregator(gbfields, gbfieldtypes, afield, Op.COUNT);
+        }
+        for (int g = 0; g < groups.size(); g++) {
+            StringAggregator part = parts[groups.partitionOf(g, n)];
+            part.add(part.groups.group(groups, g), counts[g]);
+        }
+        return parts;
     }
 
     /**
      * Create a OpIterator over group aggregate results.
      *
-     * @return a OpIterator whose tuples are the pair (groupVal,
-     *   aggregateVal) if using group, or a single (aggregateVal) if no
+     * @return a OpIterator whose tuples are the group values followed by
+     *   the aggregateVal if using group, or a single (aggregateVal) if no
      *   grouping. The aggregateVal is determined by the type of
      *   aggregate specified in the constructor.
      */
     public OpIterator iterator() {
-        // some code goes here
-        throw new UnsupportedOperationException("please implement me for lab2");
+        TupleDesc td = groups.outputDesc();
+        List<Tuple> tuples = new ArrayList<>();
+        for (int g = 0; g < groups.size(); g++) {
+            Tuple t = new Tuple(td);
+            groups.setValues(t, g);
+            t.setField(gbfields.length, new IntField(counts[g]));
+            tuples.add(t);
+        }
+        return new TupleIterator(td, tuples);
     }
 
 }
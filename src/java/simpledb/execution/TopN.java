@@ -0,0 +1,180 @@
+package simpledb.execution;
+
+import simpledb.common.DbException;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.transaction.TransactionAbortedException;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.PriorityQueue;
+
+/**
+ * TopN returns the first n tuples of its child in the order of an ORDER BY on
+ * one or more fields,
+ * as an {@link OrderBy} followed by a {@link Limit} would, but without
+ * sorting the whole input. It reads the child once, keeping the n best tuples
+ * seen so far in a heap whose root is the worst of them; a new tuple only
+ * enters the heap if it beats that root. Memory use is O(n) and the work
+ * O(input * log n). Tuples are compared by their {@link SortKey} normalized
+ * keys, computed once per tuple.
+ * <p>
+ * Tuples that compare equal keep their input order, as they do in OrderBy.
+ */
+public class TopN extends Operator {
+
+    private static final long serialVersionUID = 1L;
+    private OpIterator child;
+    private final int[] orderByFields;
+    private final boolean[] asc;
+    private final int n;
+    transient private List<Tuple> top = null;
+    transient private Iterator<Tuple> it = null;
+
+    /**
+     * Constructor.
+     *
+     * @param orderbyField
+     *            the field to which the sort is applied.
+     * @param asc
+     *            true if the sort order is ascending.
+     * @param n
+     *            the number of tuples to return
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int orderbyField, boolean asc, int n, OpIterator child) {
+        this(new int[]{orderbyField}, new boolean[]{asc}, n, child);
+    }
+
+    /**
+     * Constructor for a sort on several fields.
+     *
+     * @param orderbyFields
+     *            the fields to which the sort is applied, most significant
+     *            first.
+     * @param asc
+     *            for each field, true if its sort order is ascending.
+     * @param n
+     *            the number of tuples to return
+     * @param child
+     *            the tuples to sort.
+     */
+    public TopN(int[] orderbyFields, boolean[] asc, int n, OpIterator child) {
+        if (n < 0)
+            throw new IllegalArgumentException("negative number of tuples " + n);
+        if (orderbyFields.length == 0 || orderbyFields.length != asc.length)
+            throw new IllegalArgumentException("need one or more fields, each with a direction");
+        this.child = child;
+        this.orderByFields = orderbyFields.clone();
+        this.asc = asc.clone();
+        this.n = n;
+    }
+
+    /**
+     * @return true if the (first) sort field is ascending
+     */
+    public boolean isASC() {
+        return asc[0];
+    }
+
+    /**
+     * @return the (first) field to which the sort is applied
+     */
+    public int getOrderByField() {
+        return orderByFields[0];
+    }
+
+    public int[] getOrderByFields() {
+        return orderByFields.clone();
+    }
+
+    /**
+     * @return the number of tuples returned
+     */
+    public int getN() {
+        return n;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return child.getTupleDesc();
+    }
+
+    private static class Entry {
+        final byte[] key;
+        final Tuple t;
+        final long seq;
+
+        Entry(byte[] key, Tuple t, long seq) {
+            this.key = key;
+            this.t = t;
+            this.seq = seq;
+        }
+    }
+
+    public void open() throws DbException, NoSuchElementException,
+            TransactionAbortedException {
+        SortKey sortKey = new SortKey(child.getTupleDesc(), orderByFields, asc);
+        // output order: by the sort key, then by input order
+        Comparator<Entry> order = (a, b) -> {
+            int c = SortKey.compare(a.key, b.key);
+            return c != 0 ? c : Long.compare(a.seq, b.seq);
+        };
+        PriorityQueue<Entry> heap = new PriorityQueue<>(Math.max(1, Math.min(n, 1 << 16)), order.reversed());
+        long seq = 0;
+        child.open();
+        if (n > 0) {
+            while (child.hasNext()) {
+                Tuple t = child.next();
+                Entry e = new Entry(sortKey.encode(t), t, seq++);
+                if (heap.size() < n) {
+                    heap.add(e);
+                } else if (order.compare(e, heap.peek()) < 0) {
+                    heap.poll();
+                    heap.add(e);
+                }
+            }
+        }
+        child.close();
+        List<Entry> entries = new ArrayList<>(heap);
+        entries.sort(order);
+        top = new ArrayList<>(entries.size());
+        for (Entry e : entries) {
+            top.add(e.t);
+        }
+        it = top.iterator();
+        super.open();
+    }
+
+    public void close() {
+        super.close();
+        top = null;
+        it = null;
+    }
+
+    public void rewind() {
+        it = top.iterator();
+    }
+
+    /**
+     * Returns the next of the top n tuples, or null if there are no more
+     */
+    protected Tuple fetchNext() {
+        if (it != null && it.hasNext())
+            return it.next();
+        return null;
+    }
+
+    @Override
+    public OpIterator[] getChildren() {
+        return new OpIterator[] { this.child };
+    }
+
+    @Override
+    public void setChildren(OpIterator[] children) {
+        this.child = children[0];
+    }
+}
@@ -0,0 +1,389 @@
+package simpledb.execution;
+
+import simpledb.common.Type;
+import simpledb.storage.Field;
+import simpledb.storage.IntField;
+import simpledb.storage.RecordId;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.List;
+
+/**
+ * TupleBatch holds up to a fixed number of rows of a TupleDesc column by
+ * column, so that operators can work on many rows per call instead of one
+ * tuple at a time (see {@link BatchOpIterator}). INT_TYPE columns are stored
+ * as plain int arrays; other columns hold their Fields.
+ * <p>
+ * A batch has a selection vector listing which of its physical rows are still
+ * part of the result. Filtering a batch only shrinks the selection vector and
+ * projecting one shares its columns, so neither copies any values. The i-th
+ * selected row is {@link #row(int) row(i)}; callers loop over
+ * <code>0 &lt;= i &lt; size()</code>.
+ * <p>
+ * A batch also keeps the Tuples its rows were added from, so that reading it
+ * back a tuple at a time hands out those tuples instead of building new ones.
+ */
+public class TupleBatch {
+
+    /** Default number of rows in a batch */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final TupleDesc td;
+    private final int capacity;
+    // ints[i] is set for INT_TYPE columns, fields[i] for the others
+    private final int[][] ints;
+    private final Field[][] fields;
+    private final RecordId[] rids;
+    // the tuple each row was added from, or null for rows with none; null
+    // altogether in projected batches
+    private final Tuple[] tuples;
+    private int numRows = 0;
+
+    // the selected physical rows, or null if every row is selected
+    private int[] sel = null;
+    private int selSize = 0;
+
+    /**
+     * Create an empty batch with the default capacity
+     *
+     * @param td
+     *            the TupleDesc of the rows in the batch
+     */
+    public TupleBatch(TupleDesc td) {
+        this(td, DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Create an empty batch
+     *
+     * @param td
+     *            the TupleDesc of the rows in the batch
+     * @param capacity
+     *            the maximum number of rows in the batch
+     */
+    public TupleBatch(TupleDesc td, int capacity) {
+        this.td = td;
+        this.capacity = capacity;
+        int n = td.numFields();
+        this.ints = new int[n][];
+        this.fields = new Field[n][];
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                ints[i] = new int[capacity];
+            else
+                fields[i] = new Field[capacity];
+        }
+        this.rids = new RecordId[capacity];
+        this.tuples = new Tuple[capacity];
+    }
+
+    private TupleBatch(TupleDesc td, int capacity, int[][] ints, Field[][] fields, RecordId[] rids,
+                       int numRows, int[] sel, int selSize) {
+        this.td = td;
+        this.capacity = capacity;
+        this.ints = ints;
+        this.fields = fields;
+        this.rids = rids;
+        // projected rows no longer match the tuples they were added from
+        this.tuples = null;
+        this.numRows = numRows;
+        this.sel = sel;
+        this.selSize = selSize;
+    }
+
+    public TupleDesc getTupleDesc() {
+        return td;
+    }
+
+    /**
+     * @return the number of selected rows
+     */
+    public int size() {
+        return sel == null ? numRows : selSize;
+    }
+
+    /**
+     * @return the index of the i-th selected row
+     */
+    public int row(int i) {
+        return sel == null ? i : sel[i];
+    }
+
+    /**
+     * @return true if no more rows can be added to the batch
+     */
+    public boolean isFull() {
+        return numRows == capacity;
+    }
+
+    private void checkAppend(int n) {
+        if (sel != null)
+            throw new IllegalStateException("cannot add rows to a filtered batch");
+        if (tuples == null)
+            throw new IllegalStateException("cannot add rows to a projected batch");
+        if (numRows + n > capacity)
+            throw new IllegalStateException("batch is full");
+    }
+
+    /**
+     * @return the number of rows that can still be added to the batch
+     */
+    public int remaining() {
+        return capacity - numRows;
+    }
+
+    /**
+     * Append a tuple to the batch. Rows can only be added before the batch is
+     * filtered.
+     *
+     * @param t
+     *            the tuple to append; must match the batch's TupleDesc
+     */
+    public void add(Tuple t) {
+        checkAppend(1);
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null)
+                ints[i][numRows] = t.getInt(i);
+            else
+                fields[i][numRows] = t.getField(i);
+        }
+        rids[numRows] = t.getRecordId();
+        tuples[numRows] = t;
+        numRows++;
+    }
+
+    /**
+     * Append a run of tuples to the batch, one column at a time. Rows can only
+     * be added before the batch is filtered.
+     *
+     * @param ts
+     *            the tuples; must match the batch's TupleDesc
+     * @param from
+     *            the index of the first tuple to append
+     * @param to
+     *            the index after the last tuple to append
+     */
+    public void addAll(List<Tuple> ts, int from, int to) {
+        int n = to - from;
+        checkAppend(n);
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null) {
+                int[] col = ints[i];
+                for (int j = 0; j < n; j++)
+                    col[numRows + j] = ts.get(from + j).getInt(i);
+            } else {
+                Field[] col = fields[i];
+                for (int j = 0; j < n; j++)
+                    col[numRows + j] = ts.get(from + j).getField(i);
+            }
+        }
+        for (int j = 0; j < n; j++) {
+            Tuple t = ts.get(from + j);
+            rids[numRows + j] = t.getRecordId();
+            tuples[numRows + j] = t;
+        }
+        numRows += n;
+    }
+
+    /**
+     * Append the concatenation of two tuples, as {@link Tuple#merge} would
+     * build it, without building the merged tuple. Rows can only be added
+     * before the batch is filtered.
+     *
+     * @param t1
+     *            the tuple giving the first fields of the row
+     * @param t2
+     *            the tuple giving the remaining fields of the row
+     */
+    public void addMerged(Tuple t1, Tuple t2) {
+        checkAppend(1);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < ints.length; i++) {
+            Tuple t = i < n1 ? t1 : t2;
+            int f = i < n1 ? i : i - n1;
+            if (ints[i] != null)
+                ints[i][numRows] = t.getInt(f);
+            else
+                fields[i][numRows] = t.getField(f);
+        }
+        rids[numRows] = null;
+        tuples[numRows] = null;
+        numRows++;
+    }
+
+    /**
+     * Append the concatenation of a tuple and a row of another batch, as
+     * {@link Tuple#merge} would build it from the tuple and that row, without
+     * building either. Rows can only be added before the batch is filtered.
+     *
+     * @param t1
+     *            the tuple giving the first fields of the row
+     * @param b2
+     *            the batch giving the remaining fields of the row
+     * @param row2
+     *            the physical row of b2
+     */
+    public void addMerged(Tuple t1, TupleBatch b2, int row2) {
+        checkAppend(1);
+        int n1 = t1.getTupleDesc().numFields();
+        for (int i = 0; i < n1; i++) {
+            if (ints[i] != null)
+                ints[i][numRows] = t1.getInt(i);
+            else
+                fields[i][numRows] = t1.getField(i);
+        }
+        for (int i = n1; i < ints.length; i++) {
+            if (ints[i] != null)
+                ints[i][numRows] = b2.ints[i - n1][row2];
+            else
+                fields[i][numRows] = b2.fields[i - n1][row2];
+        }
+        rids[numRows] = null;
+        tuples[numRows] = null;
+        numRows++;
+    }
+
+    /**
+     * Return the values of an INT_TYPE column, indexed by physical row. Only
+     * the selected rows hold meaningful values.
+     *
+     * @param col
+     *            the index of the column
+     * @throws IllegalArgumentException
+     *             if the column is not an INT_TYPE column
+     */
+    public int[] getIntColumn(int col) {
+        if (ints[col] == null)
+            throw new IllegalArgumentException("column " + col + " is not an int column");
+        return ints[col];
+    }
+
+    /**
+     * @return the value in the given column of the given physical row. Values
+     *         of INT_TYPE columns are boxed into a new IntField on each call;
+     *         loops over them read {@link #getIntColumn} instead.
+     */
+    public Field getField(int row, int col) {
+        if (ints[col] != null)
+            return new IntField(ints[col][row]);
+        return fields[col][row];
+    }
+
+    /**
+     * @return the given physical row as a Tuple: the tuple it was added from
+     *         if there is one, or else a new Tuple
+     */
+    public Tuple getTuple(int row) {
+        if (tuples != null && tuples[row] != null)
+            return tuples[row];
+        Tuple t = new Tuple(td);
+        for (int i = 0; i < ints.length; i++) {
+            if (ints[i] != null)
+                t.setInt(i, ints[i][row]);
+            else
+                t.setField(i, fields[i][row]);
+        }
+        t.setRecordId(rids[row]);
+        return t;
+    }
+
+    /**
+     * Narrow the selection to the rows that satisfy the predicate. Comparisons
+     * of an INT_TYPE column with an integer operand are evaluated directly on
+     * the column array.
+     *
+     * @param p
+     *            the predicate to apply
+     */
+    public void select(Predicate p) {
+        int n = size();
+        int[] out = new int[n];
+        int cnt = 0;
+        int col = p.getField();
+        if (ints[col] != null && p.getOperand() instanceof IntField) {
+            int[] vals = ints[col];
+            int v = ((IntField) p.getOperand()).getValue();
+            // one loop per operator keeps the comparison out of the loop body
+            switch (p.getOp()) {
+                case EQUALS:
+                case LIKE:
+                    for (int i = 0; i < n; i++) {
+                        int r = row(i);
+                        if (vals[r] == v)
+                            out[cnt++] = r;
+                    }
+                    break;
+                case NOT_EQUALS:
+                    for (int i = 0; i < n; i++) {
+                        int r = row(i);
+                        if (vals[r] != v)
+                            out[cnt++] = r;
+                    }
+                    break;
+                case GREATER_THAN:
+                    for (int i = 0; i < n; i++) {
+                        int r = row(i);
+                        if (vals[r] > v)
+                            out[cnt++] = r;
+                    }
+                    break;
+                case GREATER_THAN_OR_EQ:
+                    for (int i = 0; i < n; i++) {
+                        int r = row(i);
+                        if (vals[r] >= v)
+                            out[cnt++] = r;
+                    }
+                    break;
+                case LESS_THAN:
+                    for (int i = 0; i < n; i++) {
+                        int r = row(i);
+                        if (vals[r] < v)
+                            out[cnt++] = r;
+                    }
+                    break;
+                case LESS_THAN_OR_EQ:
+                    for (int i = 0; i < n; i++) {
+                        int r = row(i);
+                        if (vals[r] <= v)
+                            out[cnt++] = r;
+                    }
+                    break;
+            }
+        } else if (fields[col] != null) {
+            Field[] vals = fields[col];
+            for (int i = 0; i < n; i++) {
+                int r = row(i);
+                if (vals[r].compare(p.getOp(), p.getOperand()))
+                    out[cnt++] = r;
+            }
+        } else {
+            for (int i = 0; i < n; i++) {
+                int r = row(i);
+                if (getField(r, col).compare(p.getOp(), p.getOperand()))
+                    out[cnt++] = r;
+            }
+        }
+        sel = out;
+        selSize = cnt;
+    }
+
+    /**
+     * Return a batch with the given columns of this one. The new batch shares
+     * this batch's columns and selection, so no values are copied.
+     *
+     * @param cols
+     *            the indices of the columns to keep, in output order
+     * @param outTd
+     *            the TupleDesc of the projected rows
+     */
+    public TupleBatch project(List<Integer> cols, TupleDesc outTd) {
+        int[][] pInts = new int[cols.size()][];
+        Field[][] pFields = new Field[cols.size()][];
+        for (int i = 0; i < cols.size(); i++) {
+            pInts[i] = ints[cols.get(i)];
+            pFields[i] = fields[cols.get(i)];
+        }
+        return new TupleBatch(outTd, capacity, pInts, pFields, rids, numRows, sel, selSize);
+    }
+}
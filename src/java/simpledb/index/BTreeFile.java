@@ -5,7 +5,10 @@ import java.util.*;
 
 import simpledb.common.Database;
 import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.execution.ExpressionCompiler;
 import simpledb.execution.IndexPredicate;
+import simpledb.execution.Predicate;
 import simpledb.execution.Predicate.Op;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
@@ -201,7 +204,7 @@ public class BTreeFile implements DbFile {
 				return findLeafPage(tid, dirtypages, next.getLeftChild(), perm, f);
 			}
 			Field key = next.getKey();
-			if (key.compare(Op.GREATER_THAN_OR_EQ, key)) {
+			if (key.compare(Op.GREATER_THAN_OR_EQ, f)) {
 				return findLeafPage(tid, dirtypages, next.getLeftChild(), perm, f);
 			}
 		}
@@ -268,10 +271,11 @@ public class BTreeFile implements DbFile {
 			page.deleteTuple(next);
 			half--;
 		}
-		// 2. copy mid entry to parent node
+		// 2. copy the separator between the two pages up to the parent node
 		Tuple up = reversedIt.next();
-		BTreeInternalPage parentWithEmptySlots = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), field);
-		BTreeEntry bTreeEntry = new BTreeEntry(up.getField(page.keyField), page.getId(), emptyPage.getId());
+		Field separator = separatorKey(up.getField(keyField), emptyPage.iterator().next().getField(keyField));
+		BTreeInternalPage parentWithEmptySlots = getParentWithEmptySlots(tid, dirtypages, page.getParentId(), separator);
+		BTreeEntry bTreeEntry = new BTreeEntry(separator, page.getId(), emptyPage.getId());
 		parentWithEmptySlots.insertEntry(bTreeEntry);
 
 
@@ -290,9 +294,34 @@ public class BTreeFile implements DbFile {
 		dirtypages.put(page.getId(),page);
 		dirtypages.put(emptyPage.getId(),emptyPage);
 
-		return field.compare(Op.GREATER_THAN_OR_EQ, up.getField(page.keyField)) ? emptyPage : page;
+		return field.compare(Op.GREATER_THAN_OR_EQ, separator) ? emptyPage : page;
 		
 	}
+
+	/**
+	 * Compute the key copied up to the parent when a leaf page is split. For string keys
+	 * this is the shortest prefix of the first key on the right page which is still greater
+	 * than the last key on the left page (suffix truncation), so that internal pages with
+	 * variable-length keys hold short separators and have a much larger fanout. Other keys
+	 * are copied up unchanged.
+	 *
+	 * @param lastLeft - the key of the last tuple remaining on the left page
+	 * @param firstRight - the key of the first tuple on the right page
+	 * @return a separator s with lastLeft &lt; s &lt;= firstRight, or firstRight if the keys are equal
+	 */
+	static Field separatorKey(Field lastLeft, Field firstRight) {
+		if (!(firstRight instanceof StringField) || !lastLeft.compare(Op.LESS_THAN, firstRight)) {
+			return firstRight;
+		}
+		String left = ((StringField) lastLeft).getValue();
+		String right = ((StringField) firstRight).getValue();
+		int common = 0;
+		while (common < left.length() && common < right.length()
+				&& left.charAt(common) == right.charAt(common)) {
+			common++;
+		}
+		return new StringField(right.substring(0, common + 1), Type.STRING_LEN);
+	}
 	
 	/**
 	 * Split an internal page to make room for new entries and recursively split its parent page
@@ -685,12 +714,11 @@ public class BTreeFile implements DbFile {
 		if(leftEntry != null) leftSiblingId = leftEntry.getLeftChild();
 		if(rightEntry != null) rightSiblingId = rightEntry.getRightChild();
 		
-		int maxEmptySlots = page.getMaxEntries() - page.getMaxEntries()/2; // ceiling
 		if(leftSiblingId != null) {
 			BTreeInternalPage leftSibling = (BTreeInternalPage) getPage(tid, dirtypages, leftSiblingId, Permissions.READ_WRITE);
 			// if the left sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(leftSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(leftSibling.canMergeWith(page)) {
 				mergeInternalPages(tid, dirtypages, leftSibling, page, parent, leftEntry);
 			}
 			else {
@@ -701,7 +729,7 @@ public class BTreeFile implements DbFile {
 			BTreeInternalPage rightSibling = (BTreeInternalPage) getPage(tid, dirtypages, rightSiblingId, Permissions.READ_WRITE);
 			// if the right sibling is at minimum occupancy, merge with it. Otherwise
 			// steal some entries from it
-			if(rightSibling.getNumEmptySlots() >= maxEmptySlots) {
+			if(rightSibling.canMergeWith(page)) {
 				mergeInternalPages(tid, dirtypages, page, rightSibling, parent, rightEntry);
 			}
 			else {
@@ -853,8 +881,7 @@ public class BTreeFile implements DbFile {
 		// the parent is below minimum occupancy, get some tuples from its siblings
 		// or merge with one of the siblings
 		parent.deleteKeyAndRightChild(parentEntry);
-		int maxEmptySlots = parent.getMaxEntries() - parent.getMaxEntries()/2; // ceiling
-		if(parent.getNumEmptySlots() == parent.getMaxEntries()) {
+		if(parent.getNumEntries() == 0) {
 			// This was the last entry in the parent.
 			// In this case, the parent (root node) should be deleted, and the merged 
 			// page will become the new root
@@ -869,7 +896,7 @@ public class BTreeFile implements DbFile {
 			// release the parent page for reuse
 			setEmptyPage(tid, dirtypages, parent.getId().getPageNumber());
 		}
-		else if(parent.getNumEmptySlots() > maxEmptySlots) { 
+		else if(parent.isLessThanHalfFull()) { 
 			handleMinOccupancyPage(tid, dirtypages, parent);
 		}
 	}
@@ -1128,6 +1155,23 @@ public class BTreeFile implements DbFile {
 		return new BTreeSearchIterator(this, tid, ipred);
 	}
 
+	/**
+	 * Get the tuples whose key field equals any of the given keys, on behalf of the
+	 * specified transaction. The keys are sorted and probed in a single walk of the
+	 * tree: the path from the root is kept between neighbouring keys, so a key that
+	 * falls on the current leaf (or the next one) does not cost another descent.
+	 * Matching tuples are returned in key order, and a key that appears more than
+	 * once in the list is only probed once. This method will acquire a read lock on
+	 * the affected pages of the file, and may block until the lock can be acquired.
+	 * 
+	 * @param tid - the transaction id
+	 * @param keys - the key values to look up
+	 * @return an iterator for the matching tuples
+	 */
+	public DbFileIterator indexIterator(TransactionId tid, List<Field> keys) {
+		return new BTreeMultiKeySearchIterator(this, tid, keys);
+	}
+
 	/**
 	 * Get an iterator for all tuples in this B+ tree file in sorted order. This method 
 	 * will acquire a read lock on the affected pages of the file, and may block until 
@@ -1140,6 +1184,38 @@ public class BTreeFile implements DbFile {
 		return new BTreeFileIterator(this, tid);
 	}
 
+	/**
+	 * Get an iterator for the tuples in this B+ tree file that satisfy all of the
+	 * given predicates, in sorted order. Predicates on the key field bound the
+	 * range of leaves read: the scan starts at the leaf of the greatest lower bound
+	 * and ends at the first tuple past an upper bound, and the other predicates are
+	 * tested as each leaf is read. This method will acquire a read lock on the
+	 * affected pages of the file, and may block until the lock can be acquired.
+	 * 
+	 * @param tid - the transaction id
+	 * @param predicates - the predicates over the fields of this file's TupleDesc
+	 * @return an iterator for the matching tuples
+	 */
+	@Override
+	public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+		if (predicates.isEmpty())
+			return iterator(tid);
+		Field low = null;
+		List<Predicate> upper = new ArrayList<>();
+		for (Predicate p : predicates) {
+			if (p.getField() != keyField)
+				continue;
+			Op op = p.getOp();
+			if ((op == Op.EQUALS || op == Op.GREATER_THAN || op == Op.GREATER_THAN_OR_EQ)
+					&& (low == null || p.getOperand().compare(Op.GREATER_THAN, low)))
+				low = p.getOperand();
+			if (op == Op.EQUALS || op == Op.LESS_THAN || op == Op.LESS_THAN_OR_EQ)
+				upper.add(p);
+		}
+		return new BTreeRangeIterator(this, tid, low, upper,
+				ExpressionCompiler.compileAll(predicates, getTupleDesc()));
+	}
+
 }
 
 /**
@@ -1325,3 +1401,305 @@ class BTreeSearchIterator extends AbstractDbFileIterator {
 		it = null;
 	}
 }
+
+/**
+ * Helper class that implements the DbFileIterator for the tuples of a B+ Tree
+ * File in a range of keys that pass a filter
+ */
+class BTreeRangeIterator extends AbstractDbFileIterator {
+
+	Iterator<Tuple> it = null;
+	BTreeLeafPage curp = null;
+
+	final TransactionId tid;
+	final BTreeFile f;
+	final Field low;
+	final List<Predicate> upper;
+	final ExpressionCompiler.TupleFilter filter;
+
+	/**
+	 * Constructor for this iterator
+	 * @param f - the BTreeFile containing the tuples
+	 * @param tid - the transaction id
+	 * @param low - the key to start the scan at, or null to start at the first leaf
+	 * @param upper - the predicates on the key field bounding it from above
+	 * @param filter - the test the tuples returned must pass
+	 */
+	public BTreeRangeIterator(BTreeFile f, TransactionId tid, Field low, List<Predicate> upper,
+			ExpressionCompiler.TupleFilter filter) {
+		this.f = f;
+		this.tid = tid;
+		this.low = low;
+		this.upper = upper;
+		this.filter = filter;
+	}
+
+	/**
+	 * Open this iterator by getting an iterator on the left-most leaf page
+	 * possibly containing the lower bound
+	 */
+	public void open() throws DbException, TransactionAbortedException {
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
+		curp = f.findLeafPage(tid, rootPtr.getRootId(), low);
+		it = curp.iterator();
+	}
+
+	/**
+	 * Read the next tuple passing the filter, following the right sibling pointers
+	 * until a tuple is past an upper bound.
+	 * 
+	 * @return the next matching tuple, or null if none exists
+	 */
+	@Override
+	protected Tuple readNext() throws TransactionAbortedException, DbException,
+	NoSuchElementException {
+		while (it != null) {
+			while (it.hasNext()) {
+				Tuple t = it.next();
+				for (Predicate p : upper) {
+					// keys only grow, so a key failing its bound from above fails it for good
+					if (!p.filter(t) && !t.getField(f.keyField()).compare(Op.LESS_THAN, p.getOperand())) {
+						it = null;
+						return null;
+					}
+				}
+				if (filter.test(t)) {
+					return t;
+				}
+			}
+			BTreePageId nextp = curp.getRightSiblingId();
+			if (nextp == null) {
+				it = null;
+				return null;
+			}
+			curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+					nextp, Permissions.READ_ONLY);
+			it = curp.iterator();
+		}
+		return null;
+	}
+
+	/**
+	 * rewind this iterator back to the beginning of the tuples
+	 */
+	public void rewind() throws DbException, TransactionAbortedException {
+		close();
+		open();
+	}
+
+	/**
+	 * close the iterator
+	 */
+	public void close() {
+		super.close();
+		it = null;
+		curp = null;
+	}
+}
+
+/**
+ * Helper class that implements the DbFileIterator for tuples matching any of a
+ * list of keys on a BTreeFile. The keys are probed in ascending order; the
+ * internal pages on the path to the current leaf are kept so that the next key
+ * is found by climbing only as far as the lowest ancestor whose subtree can
+ * contain it.
+ */
+class BTreeMultiKeySearchIterator extends AbstractDbFileIterator {
+
+	/**
+	 * An internal page on the path to the current leaf, together with the
+	 * largest key its subtree may contain (null if unbounded)
+	 */
+	private static class PathEntry {
+		final BTreeInternalPage page;
+		final Field upper;
+
+		PathEntry(BTreeInternalPage page, Field upper) {
+			this.page = page;
+			this.upper = upper;
+		}
+	}
+
+	final TransactionId tid;
+	final BTreeFile f;
+	final List<Field> keys;
+
+	private final Deque<PathEntry> path = new ArrayDeque<>();
+	private BTreePageId root = null;
+	private BTreeLeafPage curp = null;
+	private Iterator<Tuple> it = null;
+	private Tuple pending = null;
+	private int keyIdx = 0;
+	// the upper bound of the subtree chosen by the last call to route()
+	private Field routeUpper = null;
+
+	/**
+	 * Constructor for this iterator
+	 * @param f - the BTreeFile containing the tuples
+	 * @param tid - the transaction id
+	 * @param keys - the keys to look up, in any order
+	 */
+	public BTreeMultiKeySearchIterator(BTreeFile f, TransactionId tid, List<Field> keys) {
+		this.f = f;
+		this.tid = tid;
+		TreeSet<Field> sorted = new TreeSet<>((a, b) ->
+				a.compare(Op.LESS_THAN, b) ? -1 : (a.compare(Op.EQUALS, b) ? 0 : 1));
+		sorted.addAll(keys);
+		this.keys = new ArrayList<>(sorted);
+	}
+
+	/**
+	 * Open this iterator by reading the root pointer. The first descent is deferred
+	 * until the first tuple is requested.
+	 */
+	public void open() throws DbException, TransactionAbortedException {
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) Database.getBufferPool().getPage(
+				tid, BTreeRootPtrPage.getId(f.getId()), Permissions.READ_ONLY);
+		root = rootPtr.getRootId();
+		keyIdx = 0;
+	}
+
+	/**
+	 * Read the next tuple matching the current key. Tuples below the current key are
+	 * skipped; the first tuple above it finishes that key and is kept for the next
+	 * one if it may still match.
+	 * 
+	 * @return the next matching tuple, or null if none exists
+	 */
+	@Override
+	protected Tuple readNext() throws TransactionAbortedException, DbException {
+		if (root == null)
+			return null;
+
+		while (keyIdx < keys.size()) {
+			Field key = keys.get(keyIdx);
+			if (curp == null) {
+				descend(key);
+			}
+			Tuple t = nextOnLeafLevel();
+			if (t == null) {
+				// ran off the right end of the tree, no later key can match either
+				keyIdx = keys.size();
+				return null;
+			}
+			Field tk = t.getField(f.keyField());
+			if (tk.compare(Op.EQUALS, key)) {
+				return t;
+			}
+			if (tk.compare(Op.GREATER_THAN, key)) {
+				pending = t;
+				keyIdx++;
+				if (keyIdx < keys.size()) {
+					reposition(keys.get(keyIdx));
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Decide whether the next key can be reached by continuing to scan the current
+	 * leaf, or needs a descent from the lowest ancestor that covers it.
+	 */
+	private void reposition(Field key) {
+		if (pending.getField(f.keyField()).compare(Op.GREATER_THAN_OR_EQ, key))
+			return;
+		Iterator<Tuple> last = curp.reverseIterator();
+		if (last.hasNext() && last.next().getField(f.keyField()).compare(Op.GREATER_THAN_OR_EQ, key)) {
+			pending = null;
+			return;
+		}
+		curp = null;
+		it = null;
+		pending = null;
+	}
+
+	/**
+	 * Find the left-most leaf page that may contain the given key, starting from the
+	 * lowest page on the current path whose subtree can contain it
+	 */
+	private void descend(Field key) throws DbException, TransactionAbortedException {
+		while (!path.isEmpty() && path.peek().upper != null
+				&& key.compare(Op.GREATER_THAN, path.peek().upper)) {
+			path.pop();
+		}
+
+		BTreePageId pid = root;
+		if (!path.isEmpty()) {
+			pid = route(path.peek(), key);
+		}
+		while (pid.pgcateg() == BTreePageId.INTERNAL) {
+			BTreeInternalPage page = (BTreeInternalPage) Database.getBufferPool().getPage(tid,
+					pid, Permissions.READ_ONLY);
+			Field upper = null;
+			if (!path.isEmpty()) {
+				upper = routeUpper;
+			}
+			PathEntry entry = new PathEntry(page, upper);
+			path.push(entry);
+			pid = route(entry, key);
+		}
+		curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
+		it = curp.iterator();
+		pending = null;
+	}
+
+	/**
+	 * Choose the child of an internal page on the path that may contain the key,
+	 * following the same rule as BTreeFile.findLeafPage()
+	 */
+	private BTreePageId route(PathEntry entry, Field key) {
+		Iterator<BTreeEntry> entries = entry.page.iterator();
+		BTreeEntry e = null;
+		while (entries.hasNext()) {
+			e = entries.next();
+			if (e.getKey().compare(Op.GREATER_THAN_OR_EQ, key)) {
+				routeUpper = e.getKey();
+				return e.getLeftChild();
+			}
+		}
+		routeUpper = entry.upper;
+		return e.getRightChild();
+	}
+
+	/**
+	 * Return the next tuple at the leaf level, following right sibling pointers
+	 */
+	private Tuple nextOnLeafLevel() throws TransactionAbortedException, DbException {
+		if (pending != null) {
+			Tuple t = pending;
+			pending = null;
+			return t;
+		}
+		while (!it.hasNext()) {
+			BTreePageId nextp = curp.getRightSiblingId();
+			if (nextp == null)
+				return null;
+			curp = (BTreeLeafPage) Database.getBufferPool().getPage(tid,
+					nextp, Permissions.READ_ONLY);
+			it = curp.iterator();
+		}
+		return it.next();
+	}
+
+	/**
+	 * rewind this iterator back to the first key
+	 */
+	public void rewind() throws DbException, TransactionAbortedException {
+		close();
+		open();
+	}
+
+	/**
+	 * close the iterator
+	 */
+	public void close() {
+		super.close();
+		path.clear();
+		root = null;
+		curp = null;
+		it = null;
+		pending = null;
+	}
+}
@@ -202,8 +202,9 @@ public class BTreeFileEncoder {
 			int numFields, Type[] typeAr, char fieldSeparator, int keyField) 
 					throws IOException, DbException, TransactionAbortedException {
 		// convert the inFile to HeapFile first.
-		HeapFileEncoder.convert(inFile, hFile, BufferPool.getPageSize(), numFields);
-		HeapFile heapf = Utility.openHeapFile(numFields, hFile);
+		TupleDesc td = new TupleDesc(typeAr);
+		HeapFileEncoder.convert(inFile, hFile, BufferPool.getPageSize(), numFields, typeAr, fieldSeparator);
+		HeapFile heapf = Utility.openHeapFile(numFields, null, hFile, td);
 
 		// read all the tuples from the heap file and sort them on the keyField
 		List<Tuple> tuples = new ArrayList<>();
@@ -218,7 +219,8 @@ public class BTreeFileEncoder {
 		tuples.sort(new TupleComparator(keyField));
 
 		// add the tuples to B+ tree file
-		BTreeFile bf = BTreeUtility.openBTreeFile(numFields, bFile, keyField);
+		BTreeFile bf = new BTreeFile(bFile, keyField, td);
+		Database.getCatalog().addTable(bf, UUID.randomUUID().toString());
 		Type keyType = typeAr[keyField];
 		int tableid = bf.getId();
 
@@ -230,11 +232,6 @@ public class BTreeFileEncoder {
 		int leafpointerbytes = 3 * BTreeLeafPage.INDEX_SIZE; 
 		int nrecords = (npagebytes * 8 - leafpointerbytes * 8) /  (nrecbytes * 8 + 1);  //floor comes for free
 
-		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
-		// pointerbytes: one extra child pointer, parent pointer, child page category
-		int internalpointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
-		int nentries = (npagebytes * 8 - internalpointerbytes * 8 - 1) /  (nentrybytes * 8 + 1);  //floor comes for free
-
 		List<List<BTreeEntry>> entries = new ArrayList<>();
 
 		// first add some bytes for the root pointer page
@@ -267,7 +264,7 @@ public class BTreeFileEncoder {
 
 				// update the parent by "copying up" the next key
 				BTreeEntry copyUpEntry = new BTreeEntry(page2.get(0).getField(keyField), leafPid, null);
-				updateEntries(entries, bf, copyUpEntry, 0, nentries, npagebytes, 
+				updateEntries(entries, bf, copyUpEntry, 0, npagebytes, 
 						keyType, tableid, keyField);
 
 				page1 = page2;
@@ -315,12 +312,12 @@ public class BTreeFileEncoder {
 
 			// update the parent by "copying up" the next key
 			BTreeEntry copyUpEntry = new BTreeEntry(lastPg.get(0).getField(keyField), secondToLastPid, lastPid);
-			updateEntries(entries, bf, copyUpEntry, 0, nentries, npagebytes, 
+			updateEntries(entries, bf, copyUpEntry, 0, npagebytes, 
 					keyType, tableid, keyField);
 		}
 
 		// Write out the remaining internal pages
-		cleanUpEntries(entries, bf, nentries, npagebytes, keyType, tableid, keyField);
+		cleanUpEntries(entries, bf, npagebytes, keyType, tableid, keyField);
 
 		// update the root pointer to point to the last page of the file
 		int root = bf.numPages();
@@ -394,16 +391,16 @@ public class BTreeFileEncoder {
 	 * 
 	 * @param entries - the list of remaining entries
 	 * @param bf - the BTreeFile
-	 * @param nentries - number of entries per page
 	 * @param npagebytes - number of bytes per page
 	 * @param keyType - the type of the key field
 	 * @param tableid - the table id of this BTreeFile
 	 * @param keyField - the index of the key field
 	 * @throws IOException
+	 * @throws DbException if the remaining entries cannot be split between two pages
 	 */
 	private static void cleanUpEntries(List<List<BTreeEntry>> entries,
-			BTreeFile bf, int nentries, int npagebytes, Type keyType, int tableid, 
-			int keyField) throws IOException {
+			BTreeFile bf, int npagebytes, Type keyType, int tableid, 
+			int keyField) throws IOException, DbException {
 		// As with the leaf pages, there are two options:
 		// 1. We have less than or equal to a full page of entries. Because of the way the code
 		//    was written, we know this must be the root page
@@ -414,7 +411,7 @@ public class BTreeFileEncoder {
 		for(int i = 0; i < entries.size(); i++) {
 			int childPageCategory = (i == 0 ? BTreePageId.LEAF : BTreePageId.INTERNAL);
 			int size = entries.get(i).size();
-			if(size <= nentries) {
+			if(entriesThatFit(entries.get(i), 0, npagebytes, keyType) == size) {
 				// write out a page of entries
 				byte[] internalPageBytes = convertToInternalPage(entries.get(i), npagebytes, keyType, childPageCategory);
 				BTreePageId internalPid = new BTreePageId(tableid, bf.numPages() + 1, BTreePageId.INTERNAL);
@@ -422,8 +419,9 @@ public class BTreeFileEncoder {
 			}
 			else {
 				// split the remaining entries in half
-                List<BTreeEntry> secondToLastPg = new ArrayList<>(entries.get(i).subList(0, size / 2));
-                List<BTreeEntry> lastPg = new ArrayList<>(entries.get(i).subList(size / 2 + 1, size));
+				int mid = splitPoint(entries.get(i), npagebytes, keyType);
+                List<BTreeEntry> secondToLastPg = new ArrayList<>(entries.get(i).subList(0, mid));
+                List<BTreeEntry> lastPg = new ArrayList<>(entries.get(i).subList(mid + 1, size));
 
 				// write out the last two pages of entries
 				byte[] secondToLastPageBytes = convertToInternalPage(secondToLastPg, npagebytes, keyType, childPageCategory);
@@ -435,8 +433,8 @@ public class BTreeFileEncoder {
 				bf.writePage(new BTreeInternalPage(lastPid, lastPageBytes, keyField));
 
 				// update the parent by "pushing up" the next key
-				BTreeEntry pushUpEntry = new BTreeEntry(entries.get(i).get(size/2).getKey(), secondToLastPid, lastPid);
-				updateEntries(entries, bf, pushUpEntry, i+1, nentries, npagebytes, 
+				BTreeEntry pushUpEntry = new BTreeEntry(entries.get(i).get(mid).getKey(), secondToLastPid, lastPid);
+				updateEntries(entries, bf, pushUpEntry, i+1, npagebytes, 
 						keyType, tableid, keyField);
 			}
 
@@ -450,7 +448,6 @@ public class BTreeFileEncoder {
 	 * @param bf - the BTreefile
 	 * @param e - the new entry 
 	 * @param level - the level of the new entry (0 is closest to the leaf pages)
-	 * @param nentries - number of entries per page
 	 * @param npagebytes - number of bytes per page
 	 * @param keyType - the type of the key field
 	 * @param tableid - the table id of this BTreeFile
@@ -458,7 +455,7 @@ public class BTreeFileEncoder {
 	 * @throws IOException
 	 */
 	private static void updateEntries(List<List<BTreeEntry>> entries,
-			BTreeFile bf, BTreeEntry e, int level, int nentries, int npagebytes, Type keyType, 
+			BTreeFile bf, BTreeEntry e, int level, int npagebytes, Type keyType, 
 			int tableid, int keyField) throws IOException {
 		while(entries.size() <= level) {
 			entries.add(new ArrayList<>());
@@ -470,7 +467,11 @@ public class BTreeFileEncoder {
 		if(size > 0) {
 			BTreeEntry prev = entries.get(level).get(size-1);
 			entries.get(level).set(size-1, new BTreeEntry(prev.getKey(), prev.getLeftChild(), e.getLeftChild()));
-			if(size == nentries * 2 + 1) {
+			// keep no more entries than fill two pages and the key between them
+			int nentries = entriesThatFit(entries.get(level), 0, npagebytes, keyType);
+			List<BTreeEntry> withNew = new ArrayList<>(entries.get(level));
+			withNew.add(e);
+			if(size > nentries && entriesThatFit(withNew, nentries + 1, npagebytes, keyType) < withNew.size() - nentries - 1) {
 				// write out a page of entries
                 ArrayList<BTreeEntry> pageEntries = new ArrayList<>(entries.get(level).subList(0, nentries));
 				byte[] internalPageBytes = convertToInternalPage(pageEntries, npagebytes, keyType, childPageCategory);
@@ -479,7 +480,7 @@ public class BTreeFileEncoder {
 
 				// update the parent by "pushing up" the next key
 				BTreeEntry pushUpEntry = new BTreeEntry(entries.get(level).get(nentries).getKey(), internalPid, null);
-				updateEntries(entries, bf, pushUpEntry, level + 1, nentries, npagebytes, 
+				updateEntries(entries, bf, pushUpEntry, level + 1, npagebytes, 
 						keyType, tableid, keyField);
                 List<BTreeEntry> remainingEntries = new ArrayList<>(entries.get(level).subList(nentries + 1, size));
 				entries.get(level).clear();
@@ -489,6 +490,105 @@ public class BTreeFileEncoder {
 		entries.get(level).add(e);
 	}
 
+	/**
+	 * Count how many entries, starting at a given one, fit on a single internal
+	 * page. Entries with string keys take the bytes of their actual keys (see
+	 * {@link #convertToInternalPage}); others take a fixed-width slot.
+	 * 
+	 * @param entries - the entries, in key order
+	 * @param from - the index of the first entry of the page
+	 * @param npagebytes - number of bytes per page
+	 * @param keyType - the type of the key field
+	 * @return the number of entries from index from that fit on one page
+	 */
+	private static int entriesThatFit(List<BTreeEntry> entries, int from, int npagebytes, Type keyType) {
+		int remaining = entries.size() - from;
+		if (keyType != Type.STRING_TYPE) {
+			int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
+			// pointerbytes: one extra child pointer, parent pointer, child page category
+			int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1;
+			int nentries = (npagebytes * 8 - pointerbytes * 8 - 1) / (nentrybytes * 8 + 1);
+			return Math.min(nentries, remaining);
+		}
+		int nentries = maxVariableLengthEntries(npagebytes);
+		int used = variableLengthPageOverhead(npagebytes);
+		int n = 0;
+		while (n < remaining && n < nentries) {
+			used += variableLengthEntrySize(entries.get(from + n));
+			if (used > npagebytes)
+				break;
+			n++;
+		}
+		return n;
+	}
+
+	/**
+	 * Choose the entry to push up when splitting a list of entries that overflows
+	 * one internal page between two: the one nearest the middle, by bytes for
+	 * string keys, such that the entries on both sides of it fit on a page.
+	 * 
+	 * @param entries - the entries, in key order
+	 * @param npagebytes - number of bytes per page
+	 * @param keyType - the type of the key field
+	 * @return the index of the entry to push up
+	 * @throws DbException if no split leaves both halves fitting on a page
+	 */
+	private static int splitPoint(List<BTreeEntry> entries, int npagebytes, Type keyType) throws DbException {
+		int size = entries.size();
+		int first = entriesThatFit(entries, 0, npagebytes, keyType);
+		int mid = size / 2;
+		if (keyType == Type.STRING_TYPE) {
+			int total = 0;
+			for (BTreeEntry e : entries)
+				total += variableLengthEntrySize(e);
+			int bytes = 0;
+			mid = 0;
+			while (mid < size - 1 && bytes + variableLengthEntrySize(entries.get(mid)) <= total / 2)
+				bytes += variableLengthEntrySize(entries.get(mid++));
+		}
+		// move the split towards whichever half overflows, within what fits on the left
+		mid = Math.min(mid, first);
+		while (mid < size && entriesThatFit(entries, mid + 1, npagebytes, keyType) < size - mid - 1) {
+			if (mid == first)
+				throw new DbException("internal page entries do not fit on two pages");
+			mid++;
+		}
+		if (mid >= size)
+			throw new DbException("internal page entries do not fit on two pages");
+		return mid;
+	}
+
+	/**
+	 * @return the most entries a page with variable-length keys can hold, one
+	 * header bit each: as many as it holds of the smallest possible entry, an
+	 * empty key (one length byte) plus a child pointer
+	 */
+	private static int maxVariableLengthEntries(int npagebytes) {
+		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1;
+		return (npagebytes * 8 - pointerbytes * 8 - 1) / ((1 + BTreeInternalPage.INDEX_SIZE) * 8 + 1);
+	}
+
+	/**
+	 * @return the bytes of a page with variable-length keys taken before its
+	 * entries: the parent pointer, child category, header and first child pointer
+	 */
+	private static int variableLengthPageOverhead(int npagebytes) {
+		int nentries = maxVariableLengthEntries(npagebytes);
+		int nheaderbytes = (nentries + 1) / 8;
+		if (nheaderbytes * 8 < nentries + 1)
+			nheaderbytes++;  //ceiling
+		return BTreeInternalPage.INDEX_SIZE + 1 + nheaderbytes + BTreeInternalPage.INDEX_SIZE;
+	}
+
+	/**
+	 * @return the bytes an entry with a string key takes on a page with
+	 * variable-length keys: its right child pointer, a length byte and the key
+	 */
+	private static int variableLengthEntrySize(BTreeEntry e) {
+		String key = ((StringField) e.getKey()).getValue();
+		return BTreeInternalPage.INDEX_SIZE + 1 + Math.min(key.length(), Type.STRING_LEN);
+	}
+
 	/**
 	 * Convert a set of tuples to a byte array in the format of a BTreeLeafPage
 	 * 
@@ -621,6 +721,9 @@ public class BTreeFileEncoder {
 	public static byte[] convertToInternalPage(List<BTreeEntry> entries, int npagebytes,
 			Type keyType, int childPageCategory)
 					throws IOException {
+		if (keyType == Type.STRING_TYPE) {
+			return convertToVariableLengthInternalPage(entries, npagebytes, childPageCategory);
+		}
 		int nentrybytes = keyType.getLen() + BTreeInternalPage.INDEX_SIZE;
 		// pointerbytes: one extra child pointer, parent pointer, child page category
 		int pointerbytes = 2 * BTreeLeafPage.INDEX_SIZE + 1; 
@@ -694,6 +797,58 @@ public class BTreeFileEncoder {
 
 	}
 
+	/**
+	 * Convert a set of entries with string keys to a byte array in the variable-length
+	 * format of a BTreeInternalPage: only used slots are written, each as a child pointer
+	 * followed by a one byte key length and the key bytes.
+	 * 
+	 * @param entries - the set of entries
+	 * @param npagebytes - number of bytes per page
+	 * @param childPageCategory - the category of the child pages (either internal or leaf)
+	 * @return a byte array which can be passed to the BTreeInternalPage constructor
+	 * @throws IOException
+	 */
+	private static byte[] convertToVariableLengthInternalPage(List<BTreeEntry> entries, int npagebytes,
+			int childPageCategory) throws IOException {
+		int nentries = maxVariableLengthEntries(npagebytes);
+		int nheaderbytes = (nentries + 1) / 8;
+		if (nheaderbytes * 8 < nentries + 1)
+			nheaderbytes++;  //ceiling
+
+		entries.sort(new EntryComparator());
+		int entrycount = entries.size();
+		if (entriesThatFit(entries, 0, npagebytes, Type.STRING_TYPE) < entrycount)
+			throw new IllegalArgumentException(entrycount + " entries do not fit on one internal page");
+		int used = variableLengthPageOverhead(npagebytes);
+		for (BTreeEntry e : entries)
+			used += variableLengthEntrySize(e);
+
+		ByteArrayOutputStream baos = new ByteArrayOutputStream(npagebytes);
+		DataOutputStream dos = new DataOutputStream(baos);
+		dos.writeInt(0); // parent pointer
+		dos.writeByte((byte) childPageCategory);
+
+		byte[] header = new byte[nheaderbytes];
+		for (int i = 0; i < entrycount + 1; i++)
+			header[i / 8] |= (1 << (i % 8));
+		dos.write(header);
+
+		dos.writeInt(entries.get(0).getLeftChild().getPageNumber());
+		for (int e = 0; e < entrycount; e++) {
+			String key = ((StringField) entries.get(e).getKey()).getValue();
+			if (key.length() > Type.STRING_LEN)
+				key = key.substring(0, Type.STRING_LEN);
+			dos.writeInt(entries.get(e).getRightChild().getPageNumber());
+			dos.writeByte(key.length());
+			dos.writeBytes(key);
+		}
+
+		// pad the rest of the page with zeroes
+		dos.write(new byte[npagebytes - used]);
+
+		return baos.toByteArray();
+	}
+
 	/**
 	 * Create a byte array in the format of a BTreeRootPtrPage
 	 * 
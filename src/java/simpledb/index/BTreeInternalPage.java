@@ -13,6 +13,7 @@ import simpledb.storage.BufferPool;
 import simpledb.storage.Field;
 import simpledb.storage.IntField;
 import simpledb.storage.RecordId;
+import simpledb.storage.StringField;
 
 /**
  * Each instance of BTreeInternalPage stores data for one page of a BTreeFile and 
@@ -27,6 +28,7 @@ public class BTreeInternalPage extends BTreePage {
 	private final Field[] keys;
 	private final int[] children;
 	private final int numSlots;
+	private final boolean variableLengthKeys;
 	
 	private int childCategory; // either leaf or internal
 
@@ -43,7 +45,8 @@ public class BTreeInternalPage extends BTreePage {
 
         assert null == upperBound || null == prev || (prev.compare(Op.LESS_THAN_OR_EQ, upperBound));
 
-        assert !checkOccupancy || depth <= 0 || (getNumEntries() >= getMaxEntries() / 2);
+        // variable-length pages are rebalanced on bytes rather than on slots, see isLessThanHalfFull()
+        assert !checkOccupancy || depth <= 0 || variableLengthKeys || (getNumEntries() >= getMaxEntries() / 2);
 	}
 	
 	/**
@@ -62,6 +65,11 @@ public class BTreeInternalPage extends BTreePage {
 	 * <p>
 	 *      ceiling((no. entry slots + 1) / 8)
 	 * <p>
+	 * Pages keyed on a {@link Type#STRING_TYPE} field use a variable-length layout
+	 * instead: after the header, each used slot stores its child pointer followed
+	 * (for slots other than 0) by a one byte key length and the key bytes. Empty
+	 * slots take no space, so the fanout depends on the actual key lengths rather
+	 * than on {@link Type#STRING_LEN}.
 	 * @see Database#getCatalog
 	 * @see Catalog#getTupleDesc
 	 * @see BufferPool#getPageSize()
@@ -72,6 +80,7 @@ public class BTreeInternalPage extends BTreePage {
 	 */
 	public BTreeInternalPage(BTreePageId id, byte[] data, int key) throws IOException {
 		super(id, key);
+		this.variableLengthKeys = td.getFieldType(keyField) == Type.STRING_TYPE;
 		this.numSlots = getMaxEntries() + 1;
 		DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
 
@@ -92,6 +101,13 @@ public class BTreeInternalPage extends BTreePage {
 			header[i] = dis.readByte();
 
 		keys = new Field[numSlots];
+		children = new int[numSlots];
+		if (variableLengthKeys) {
+			readVariableLengthEntries(dis);
+			dis.close();
+			setBeforeImage();
+			return;
+		}
 		try{
 			// allocate and read the keys of this page
 			// start from 1 because the first key slot is not used
@@ -103,7 +119,6 @@ public class BTreeInternalPage extends BTreePage {
 			e.printStackTrace();
 		}
 
-		children = new int[numSlots];
 		try{
 			// allocate and read the child pointers of this page
 			for (int i=0; i<children.length; i++)
@@ -120,6 +135,12 @@ public class BTreeInternalPage extends BTreePage {
 	 * Retrieve the maximum number of entries this page can hold. (The number of keys)
  	 */
 	public int getMaxEntries() {        
+		if (variableLengthKeys) {
+			// the smallest possible entry is an empty key (just its length byte) and a child pointer
+			int bitsPerEntryIncludingHeader = (1 + INDEX_SIZE) * 8 + 1;
+			int extraBits = 2 * INDEX_SIZE * 8 + 8 + 1;
+			return (BufferPool.getPageSize()*8 - extraBits) / bitsPerEntryIncludingHeader;
+		}
 		int keySize = td.getFieldType(keyField).getLen();
 		// keySize就是Entry的值， Index_SIZE就是一个指针, 额外1 bit是header里存这个entry的bit.
 		// PS: 为什么不是两个指针, 一个entry不是有两个指针吗？  因为InternalPage的底层是Field数组和Int数组, 而不是entry
@@ -201,6 +222,62 @@ public class BTreeInternalPage extends BTreePage {
 		return f;
 	}
 
+	/**
+	 * Read the packed entries of a page with variable-length keys. Only used slots
+	 * are present on disk, in slot order.
+	 */
+	private void readVariableLengthEntries(DataInputStream dis) throws IOException {
+		keys[0] = null;
+		for (int i=0; i<numSlots; i++) {
+			if (!isSlotUsed(i)) {
+				children[i] = -1;
+				continue;
+			}
+			children[i] = dis.readInt();
+			if (i > 0) {
+				byte[] bs = new byte[dis.readUnsignedByte()];
+				dis.readFully(bs);
+				keys[i] = new StringField(new String(bs), Type.STRING_LEN);
+			}
+		}
+	}
+
+	/**
+	 * @return the number of bytes a key occupies in the variable-length layout
+	 */
+	private static int variableKeySize(Field key) {
+		return 1 + Math.min(((StringField) key).getValue().length(), Type.STRING_LEN);
+	}
+
+	/**
+	 * @return the number of bytes of the largest possible entry in the variable-length layout
+	 */
+	private static int maxVariableEntrySize() {
+		return INDEX_SIZE + 1 + Type.STRING_LEN;
+	}
+
+	/**
+	 * @return the number of bytes taken by the parent pointer, child category and header
+	 */
+	private int getFixedSize() {
+		return INDEX_SIZE + 1 + header.length;
+	}
+
+	/**
+	 * @return the number of bytes taken by the entries of a page with variable-length keys
+	 */
+	private int getEntryBytes() {
+		int bytes = 0;
+		for (int i=0; i<numSlots; i++) {
+			if (isSlotUsed(i)) {
+				bytes += INDEX_SIZE;
+				if (i > 0)
+					bytes += variableKeySize(keys[i]);
+			}
+		}
+		return bytes;
+	}
+
 	/**
 	 * Read child pointers from the source file.
 	 */
@@ -273,6 +350,11 @@ public class BTreeInternalPage extends BTreePage {
             }
         }
 
+		if (variableLengthKeys) {
+			writeVariableLengthEntries(dos);
+			return baos.toByteArray();
+		}
+
 		// create the keys
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
@@ -344,6 +426,31 @@ public class BTreeInternalPage extends BTreePage {
 		return baos.toByteArray();
 	}
 
+	/**
+	 * Write the used slots of a page with variable-length keys, followed by zero padding.
+	 * @see #readVariableLengthEntries(DataInputStream)
+	 */
+	private void writeVariableLengthEntries(DataOutputStream dos) {
+		try {
+			for (int i=0; i<numSlots; i++) {
+				if (!isSlotUsed(i))
+					continue;
+				dos.writeInt(children[i]);
+				if (i > 0) {
+					String s = ((StringField) keys[i]).getValue();
+					if (s.length() > Type.STRING_LEN)
+						s = s.substring(0, Type.STRING_LEN);
+					dos.writeByte(s.length());
+					dos.writeBytes(s);
+				}
+			}
+			dos.write(new byte[BufferPool.getPageSize() - getFixedSize() - getEntryBytes()]);
+			dos.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+
 	/**
 	 * Delete the specified entry (key + 1 child pointer) from the page. The recordId
 	 * is used to find the specified entry, so it must not be null. After deletion, the 
@@ -440,6 +547,10 @@ public class BTreeInternalPage extends BTreePage {
 				break;
 			}	
 		}
+		if(variableLengthKeys && getFixedSize() + getEntryBytes() - variableKeySize(keys[rid.getTupleNumber()])
+				+ variableKeySize(e.getKey()) > BufferPool.getPageSize()) {
+			throw new DbException("attempt to update entry with key " + e.getKey() + " which does not fit on the page");
+		}
 		children[rid.getTupleNumber()] = e.getRightChild().getPageNumber();
 		keys[rid.getTupleNumber()] = e.getKey();
 	}
@@ -468,7 +579,7 @@ public class BTreeInternalPage extends BTreePage {
 			throw new DbException("child page category mismatch in insertEntry");
 
 		// if this is the first entry, add it and return
-		if(getNumEmptySlots() == getMaxEntries()) {
+		if(getNumEntries() == 0) {
 			children[0] = e.getLeftChild().getPageNumber();
 			children[1] = e.getRightChild().getPageNumber();
 			keys[1] = e.getKey();
@@ -478,6 +589,9 @@ public class BTreeInternalPage extends BTreePage {
 			return;
 		}
 
+		if (getNumEmptySlots() == 0)
+			throw new DbException("called insertEntry on page with no empty slots.");
+
 		// find the first empty slot, starting from 1
 		int emptySlot = -1;
 		for (int i=1; i<numSlots; i++) {
@@ -573,13 +687,28 @@ public class BTreeInternalPage extends BTreePage {
 	 * Returns the number of entries (keys) currently stored on this page
 	 */
 	public int getNumEntries() {
-		return numSlots - getNumEmptySlots() - 1;
+		return numSlots - getNumFreeSlots() - 1;
 	}
 	
 	/**
-	 * Returns the number of empty slots on this page.
+	 * Returns the number of empty slots on this page. For pages with variable-length
+	 * keys this is the number of worst-case entries which are guaranteed to fit in the
+	 * remaining bytes, keeping one worst-case entry in reserve so that an existing key
+	 * can always be replaced by a longer one.
 	 */
 	public int getNumEmptySlots() {
+		int cnt = getNumFreeSlots();
+		if (variableLengthKeys) {
+			int freeBytes = BufferPool.getPageSize() - getFixedSize() - getEntryBytes() - maxVariableEntrySize();
+			cnt = Math.min(cnt, Math.max(0, freeBytes / maxVariableEntrySize()));
+		}
+		return cnt;
+	}
+
+	/**
+	 * Returns the number of unused key slots in the header.
+	 */
+	private int getNumFreeSlots() {
 		int cnt = 0;
 		// start from 1 because the first key slot is not used
 		// since a node with m keys has m+1 pointers
@@ -589,6 +718,34 @@ public class BTreeInternalPage extends BTreePage {
 		return cnt;
 	}
 
+	/**
+	 * Returns true if this page is below minimum occupancy and should steal from or
+	 * merge with a sibling. Pages with variable-length keys are measured in bytes.
+	 */
+	public boolean isLessThanHalfFull() {
+		if (variableLengthKeys) {
+			return getEntryBytes() < (BufferPool.getPageSize() - getFixedSize()) / 2;
+		}
+		int maxEmptySlots = getMaxEntries() - getMaxEntries()/2; // ceiling
+		return getNumEmptySlots() > maxEmptySlots;
+	}
+
+	/**
+	 * Returns true if this page is a sibling at minimum occupancy which can be merged
+	 * with the given page, i.e. all of its entries plus the key pulled down from the
+	 * parent fit on a single page.
+	 * @param other - the page which is less than half full
+	 */
+	public boolean canMergeWith(BTreeInternalPage other) {
+		if (variableLengthKeys) {
+			return getNumEntries() + other.getNumEntries() + 1 <= getMaxEntries() &&
+					getFixedSize() + getEntryBytes() + other.getEntryBytes() + 2 * maxVariableEntrySize()
+					<= BufferPool.getPageSize();
+		}
+		int maxEmptySlots = getMaxEntries() - getMaxEntries()/2; // ceiling
+		return getNumEmptySlots() >= maxEmptySlots;
+	}
+
 	/**
 	 * Returns true if associated slot on this page is filled.
 	 */
@@ -179,8 +179,7 @@ public class BTreeLeafPage extends BTreePage {
 		t.setRecordId(rid);
 		try {
 			for (int j=0; j<td.numFields(); j++) {
-				Field f = td.getFieldType(j).parse(dis);
-				t.setField(j, f);
+				t.readField(j, dis);
 			}
 		} catch (java.text.ParseException e) {
 			e.printStackTrace();
@@ -254,9 +253,8 @@ public class BTreeLeafPage extends BTreePage {
 
 			// non-empty slot
 			for (int j=0; j<td.numFields(); j++) {
-				Field f = tuples[i].getField(j);
 				try {
-					f.serialize(dos);
+					tuples[i].writeField(j, dos);
 
 				} catch (IOException e) {
 					e.printStackTrace();
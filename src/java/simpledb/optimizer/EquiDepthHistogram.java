@@ -0,0 +1,475 @@
+package simpledb.optimizer;
+
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An equi-depth histogram with a list of most common values (MCVs), built
+ * from a sample of a column's values.
+ * <p>
+ * The values that are much more frequent than the average are kept in the
+ * MCV list with their exact sample counts, so that the selectivity of an
+ * equality predicate on a skewed column is right for the values that matter
+ * most. The remaining values are split into buckets holding about the same
+ * number of values each; a bucket records its lowest and highest value, its
+ * number of values and its number of distinct values. A value never spans
+ * two buckets. Within a bucket, values are assumed to be spread uniformly
+ * over its range and its distinct values equally frequent.
+ * <p>
+ * Values are compared as whole keys: an INT_TYPE column's ints or a
+ * STRING_TYPE column's full strings. Strings are interpolated within a
+ * bucket by the characters that follow the bucket bounds' common prefix.
+ *
+ * @param <T>
+ *            Integer or String, for INT_TYPE or STRING_TYPE columns
+ */
+public class EquiDepthHistogram<T extends Comparable<T>> {
+
+    /**
+     * A value is a most common value if it occurs at least this many times
+     * as often as the average value of the sample
+     */
+    static final double MCV_FACTOR = 1.25;
+
+    private final Type type;
+    // the most common values, in ascending order, and their counts
+    private final List<T> mcvs;
+    private final int[] mcvCounts;
+    // the buckets, in ascending order
+    private final List<T> lows;
+    private final List<T> highs;
+    private int[] counts;
+    private int[] distinct;
+    // the number of values in the histogram
+    private int total;
+
+    private EquiDepthHistogram(Type type, List<T> mcvs, int[] mcvCounts, List<T> lows, List<T> highs,
+            int[] counts, int[] distinct, int total) {
+        this.type = type;
+        this.mcvs = mcvs;
+        this.mcvCounts = mcvCounts;
+        this.lows = lows;
+        this.highs = highs;
+        this.counts = counts;
+        this.distinct = distinct;
+        this.total = total;
+    }
+
+    /**
+     * Create a copy of a histogram, which can be changed independently
+     */
+    public EquiDepthHistogram(EquiDepthHistogram<T> other) {
+        this(other.type, new ArrayList<>(other.mcvs), other.mcvCounts.clone(), new ArrayList<>(other.lows),
+                new ArrayList<>(other.highs), other.counts.clone(), other.distinct.clone(), other.total);
+    }
+
+    /**
+     * Build the histogram of a sample of an INT_TYPE column
+     *
+     * @param values
+     *            the sample; the first n values are used, and reordered
+     * @param n
+     *            the number of values in the sample
+     * @param buckets
+     *            the most buckets to use, and the most MCVs to keep
+     */
+    public static EquiDepthHistogram<Integer> ofInts(int[] values, int n, int buckets) {
+        Arrays.sort(values, 0, n);
+        List<Integer> sorted = new ArrayList<>(n);
+        for (int i = 0; i < n; i++) {
+            sorted.add(values[i]);
+        }
+        return build(Type.INT_TYPE, sorted, buckets);
+    }
+
+    /**
+     * Build the histogram of a sample of a STRING_TYPE column
+     *
+     * @param values
+     *            the sample; the first n values are used
+     * @param n
+     *            the number of values in the sample
+     * @param buckets
+     *            the most buckets to use, and the most MCVs to keep
+     */
+    public static EquiDepthHistogram<String> ofStrings(String[] values, int n, int buckets) {
+        List<String> sorted = new ArrayList<>(Arrays.asList(values).subList(0, n));
+        Collections.sort(sorted);
+        return build(Type.STRING_TYPE, sorted, buckets);
+    }
+
+    private static <T extends Comparable<T>> EquiDepthHistogram<T> build(Type type, List<T> sorted, int buckets) {
+        if (buckets <= 0)
+            throw new IllegalArgumentException("need at least one bucket");
+        int n = sorted.size();
+        // the distinct values and their counts
+        List<T> runs = new ArrayList<>();
+        List<Integer> runCounts = new ArrayList<>();
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || sorted.get(i).compareTo(sorted.get(i - 1)) != 0) {
+                runs.add(sorted.get(i));
+                runCounts.add(1);
+            } else {
+                runCounts.set(runs.size() - 1, runCounts.get(runs.size() - 1) + 1);
+            }
+        }
+
+        // the most frequent values above the threshold, up to one per bucket
+        double threshold = Math.max(2, MCV_FACTOR * n / Math.max(1, runs.size()));
+        List<Integer> candidates = new ArrayList<>();
+        for (int r = 0; r < runs.size(); r++) {
+            if (runCounts.get(r) >= threshold)
+                candidates.add(r);
+        }
+        candidates.sort((a, b) -> runCounts.get(b) - runCounts.get(a));
+        boolean[] isMcv = new boolean[runs.size()];
+        for (int r : candidates.subList(0, Math.min(buckets, candidates.size()))) {
+            isMcv[r] = true;
+        }
+        List<T> mcvs = new ArrayList<>();
+        List<Integer> mcvCounts = new ArrayList<>();
+        int rest = 0;
+        int restDistinct = 0;
+        for (int r = 0; r < runs.size(); r++) {
+            if (isMcv[r]) {
+                mcvs.add(runs.get(r));
+                mcvCounts.add(runCounts.get(r));
+            } else {
+                rest += runCounts.get(r);
+                restDistinct++;
+            }
+        }
+
+        // the other values, in buckets of about rest / nb values
+        int nb = Math.min(buckets, restDistinct);
+        List<T> lows = new ArrayList<>();
+        List<T> highs = new ArrayList<>();
+        List<Integer> counts = new ArrayList<>();
+        List<Integer> distinct = new ArrayList<>();
+        long seen = 0;
+        for (int r = 0; r < runs.size(); r++) {
+            if (isMcv[r])
+                continue;
+            int b = lows.size() - 1;
+            if (b < 0 || seen >= (long) rest * (b + 1) / nb) {
+                lows.add(runs.get(r));
+                highs.add(runs.get(r));
+                counts.add(0);
+                distinct.add(0);
+                b++;
+            }
+            highs.set(b, runs.get(r));
+            counts.set(b, counts.get(b) + runCounts.get(r));
+            distinct.set(b, distinct.get(b) + 1);
+            seen += runCounts.get(r);
+        }
+        return new EquiDepthHistogram<>(type, mcvs, toArray(mcvCounts), lows, highs, toArray(counts),
+                toArray(distinct), n);
+    }
+
+    private static int[] toArray(List<Integer> l) {
+        int[] a = new int[l.size()];
+        for (int i = 0; i < a.length; i++) {
+            a[i] = l.get(i);
+        }
+        return a;
+    }
+
+    /**
+     * Widen the range of the histogram to include values seen outside the
+     * sample, e.g. the minimum and maximum of a whole column
+     */
+    void widen(T min, T max) {
+        if (lows.isEmpty())
+            return;
+        if (min.compareTo(lows.get(0)) < 0)
+            lows.set(0, min);
+        int last = highs.size() - 1;
+        if (max.compareTo(highs.get(last)) > 0)
+            highs.set(last, max);
+    }
+
+    /**
+     * @return the index of the first bucket whose highest value is at least
+     *         v, or the number of buckets if there is none
+     */
+    private int bucketOf(T v) {
+        int lo = 0;
+        int hi = highs.size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (highs.get(mid).compareTo(v) < 0)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Add a value to the histogram. A value outside every bucket widens the
+     * nearest bucket. A value that widens its bucket, or lands in an empty
+     * one, is counted as a new distinct value; a value within the bucket's
+     * range is assumed to be one the bucket already has.
+     */
+    public void addValue(T v) {
+        total++;
+        int m = Collections.binarySearch(mcvs, v);
+        if (m >= 0) {
+            mcvCounts[m]++;
+            return;
+        }
+        if (highs.isEmpty()) {
+            lows.add(v);
+            highs.add(v);
+            counts = new int[] { 1 };
+            distinct = new int[] { 1 };
+            return;
+        }
+        int b = bucketOf(v);
+        if (b == highs.size()) {
+            b--;
+            highs.set(b, v);
+            distinct[b]++;
+        } else if (v.compareTo(lows.get(b)) < 0) {
+            lows.set(b, v);
+            distinct[b]++;
+        } else if (counts[b] == 0) {
+            distinct[b]++;
+        }
+        counts[b]++;
+    }
+
+    /**
+     * Remove a value that was added to the histogram
+     */
+    public void removeValue(T v) {
+        int m = Collections.binarySearch(mcvs, v);
+        if (m >= 0) {
+            if (mcvCounts[m] > 0) {
+                mcvCounts[m]--;
+                total--;
+            }
+            return;
+        }
+        int b = bucketOf(v);
+        if (b < highs.size() && v.compareTo(lows.get(b)) >= 0 && counts[b] > 0) {
+            counts[b]--;
+            // every distinct value has at least one occurrence
+            distinct[b] = Math.min(distinct[b], counts[b]);
+            total--;
+        }
+    }
+
+    /**
+     * @return the estimated number of values equal to v
+     */
+    private double countEqual(T v) {
+        int m = Collections.binarySearch(mcvs, v);
+        if (m >= 0)
+            return mcvCounts[m];
+        int b = bucketOf(v);
+        if (b == highs.size() || v.compareTo(lows.get(b)) < 0 || distinct[b] == 0)
+            return 0;
+        return (double) counts[b] / distinct[b];
+    }
+
+    /**
+     * @return the estimated number of values less than v
+     */
+    private double countLess(T v) {
+        double c = 0;
+        for (int m = 0; m < mcvs.size() && mcvs.get(m).compareTo(v) < 0; m++) {
+            c += mcvCounts[m];
+        }
+        int b = bucketOf(v);
+        for (int i = 0; i < b; i++) {
+            c += counts[i];
+        }
+        if (b < highs.size() && v.compareTo(lows.get(b)) > 0)
+            c += counts[b] * position(lows.get(b), highs.get(b), v);
+        return c;
+    }
+
+    /**
+     * @return the fraction of the range [lo, hi] that is below v, for
+     *         lo < v <= hi
+     */
+    private double position(T lo, T hi, T v) {
+        if (type == Type.INT_TYPE) {
+            long l = (Integer) lo;
+            return ((Integer) v - l) / ((Integer) hi - l + 1.0);
+        }
+        String l = (String) lo;
+        String h = (String) hi;
+        String s = (String) v;
+        int prefix = 0;
+        while (prefix < l.length() && prefix < h.length() && l.charAt(prefix) == h.charAt(prefix)) {
+            prefix++;
+        }
+        double pl = suffixValue(l, prefix);
+        double ph = suffixValue(h, prefix);
+        if (ph <= pl)
+            return 0.5;
+        return Math.max(0, Math.min(1, (suffixValue(s, prefix) - pl) / (ph - pl)));
+    }
+
+    /**
+     * @return the characters of s from the given position, read as a
+     *         fraction in base 65536
+     */
+    private static double suffixValue(String s, int from) {
+        double v = 0;
+        double scale = 1;
+        for (int i = from; i < s.length() && i < from + 4; i++) {
+            scale /= 65536;
+            v += s.charAt(i) * scale;
+        }
+        return v;
+    }
+
+    /**
+     * Estimate the selectivity of a particular predicate and operand on the
+     * column
+     *
+     * @param op
+     *            the operator
+     * @param v
+     *            the value
+     * @return the estimated fraction of the column's values that satisfy
+     *         <tt>value op v</tt>
+     */
+    public double estimateSelectivity(Predicate.Op op, T v) {
+        if (total <= 0)
+            return 0.0;
+        double eq = countEqual(v) / total;
+        double s;
+        switch (op) {
+            case EQUALS:
+            case LIKE:
+                s = eq;
+                break;
+            case NOT_EQUALS:
+                s = 1 - eq;
+                break;
+            case LESS_THAN:
+                s = countLess(v) / total;
+                break;
+            case LESS_THAN_OR_EQ:
+                s = countLess(v) / total + eq;
+                break;
+            case GREATER_THAN:
+                s = 1 - countLess(v) / total - eq;
+                break;
+            case GREATER_THAN_OR_EQ:
+                s = 1 - countLess(v) / total;
+                break;
+            default:
+                return 1.0;
+        }
+        return Math.max(0, Math.min(1, s));
+    }
+
+    /**
+     * @return the expected selectivity of an equality predicate on the
+     *         column whose operand is the value of a random tuple
+     */
+    public double avgSelectivity() {
+        if (total <= 0)
+            return 1.0;
+        double s = 0;
+        for (int c : mcvCounts) {
+            s += ((double) c / total) * ((double) c / total);
+        }
+        for (int b = 0; b < counts.length; b++) {
+            if (distinct[b] > 0) {
+                double f = (double) counts[b] / distinct[b] / total;
+                s += distinct[b] * f * f;
+            }
+        }
+        return s;
+    }
+
+    /**
+     * @return the estimated number of distinct values in the histogram
+     */
+    public int distinctValues() {
+        int d = mcvs.size();
+        for (int c : distinct) {
+            d += c;
+        }
+        return d;
+    }
+
+    /**
+     * Write the histogram to a stream, to be read back with {@link #read}
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(total);
+        out.writeInt(mcvs.size());
+        for (int m = 0; m < mcvs.size(); m++) {
+            writeValue(out, mcvs.get(m));
+            out.writeInt(mcvCounts[m]);
+        }
+        out.writeInt(highs.size());
+        for (int b = 0; b < highs.size(); b++) {
+            writeValue(out, lows.get(b));
+            writeValue(out, highs.get(b));
+            out.writeInt(counts[b]);
+            out.writeInt(distinct[b]);
+        }
+    }
+
+    private void writeValue(DataOutputStream out, T v) throws IOException {
+        if (type == Type.INT_TYPE)
+            out.writeInt((Integer) v);
+        else
+            out.writeUTF((String) v);
+    }
+
+    /**
+     * Read a histogram of a column of the given type written by
+     * {@link #write}
+     */
+    static <T extends Comparable<T>> EquiDepthHistogram<T> read(Type type, DataInputStream in) throws IOException {
+        int total = in.readInt();
+        int nm = in.readInt();
+        List<T> mcvs = new ArrayList<>(nm);
+        int[] mcvCounts = new int[nm];
+        for (int m = 0; m < nm; m++) {
+            mcvs.add(readValue(type, in));
+            mcvCounts[m] = in.readInt();
+        }
+        int nb = in.readInt();
+        List<T> lows = new ArrayList<>(nb);
+        List<T> highs = new ArrayList<>(nb);
+        int[] counts = new int[nb];
+        int[] distinct = new int[nb];
+        for (int b = 0; b < nb; b++) {
+            lows.add(readValue(type, in));
+            highs.add(readValue(type, in));
+            counts[b] = in.readInt();
+            distinct[b] = in.readInt();
+        }
+        return new EquiDepthHistogram<>(type, mcvs, mcvCounts, lows, highs, counts, distinct, total);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T readValue(Type type, DataInputStream in) throws IOException {
+        if (type == Type.INT_TYPE)
+            return (T) Integer.valueOf(in.readInt());
+        return (T) in.readUTF();
+    }
+
+    public String toString() {
+        return String.format("EquiDepthHistogram(mcvs=%d, buckets=%d, values=%d)", mcvs.size(), highs.size(), total);
+    }
+}
@@ -0,0 +1,137 @@
+package simpledb.optimizer;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+/**
+ * A HyperLogLog sketch, which estimates the number of distinct values added
+ * to it in a fixed amount of memory.
+ * <p>
+ * Each value is hashed to 64 bits; the first {@link #PRECISION} bits choose
+ * one of 2^PRECISION registers, which keeps the longest run of leading zeros
+ * seen in the remaining bits. With 4096 registers of a byte each, the
+ * standard error of an estimate is about 1.6%. Small counts are estimated by
+ * linear counting of the empty registers.
+ * <p>
+ * Sketches of the same values are equal whatever order the values were added
+ * in, and two sketches can be merged into the sketch of the union of their
+ * values, so the sketches of parts of a table built separately, e.g. by
+ * parallel scans, combine into the sketch of the whole table.
+ */
+public class HyperLogLog {
+
+    /** The number of hash bits that choose a register */
+    public static final int PRECISION = 12;
+
+    private static final int M = 1 << PRECISION;
+
+    private static final double ALPHA = 0.7213 / (1 + 1.079 / M);
+
+    private final byte[] registers;
+
+    // the last estimate, or -1 if the registers have changed since
+    private long estimate = -1;
+
+    /**
+     * Create an empty sketch
+     */
+    public HyperLogLog() {
+        registers = new byte[M];
+    }
+
+    /**
+     * Create a copy of a sketch, which can be changed independently
+     */
+    public HyperLogLog(HyperLogLog other) {
+        registers = other.registers.clone();
+        estimate = other.estimate;
+    }
+
+    /**
+     * Add an int value to the sketch
+     */
+    public void addInt(int v) {
+        addHash(mix(v));
+    }
+
+    /**
+     * Add a string value to the sketch
+     */
+    public void addString(String s) {
+        // 64-bit FNV-1a over the string's chars
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h ^= s.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        addHash(mix(h));
+    }
+
+    private void addHash(long hash) {
+        int index = (int) (hash >>> (64 - PRECISION));
+        int rank = Long.numberOfLeadingZeros((hash << PRECISION) | (1L << (PRECISION - 1))) + 1;
+        if (rank > registers[index]) {
+            registers[index] = (byte) rank;
+            estimate = -1;
+        }
+    }
+
+    /** The finalizer of MurmurHash3, which spreads every input bit over the output */
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Add all the values of another sketch to this one
+     */
+    public void merge(HyperLogLog other) {
+        for (int i = 0; i < M; i++) {
+            if (other.registers[i] > registers[i]) {
+                registers[i] = other.registers[i];
+                estimate = -1;
+            }
+        }
+    }
+
+    /**
+     * @return the estimated number of distinct values added to the sketch
+     */
+    public long estimate() {
+        if (estimate >= 0)
+            return estimate;
+        double sum = 0;
+        int zeros = 0;
+        for (byte r : registers) {
+            sum += 1.0 / (1L << r);
+            if (r == 0)
+                zeros++;
+        }
+        double e = ALPHA * M * M / sum;
+        if (e <= 2.5 * M && zeros > 0)
+            e = M * Math.log((double) M / zeros);
+        estimate = Math.round(e);
+        return estimate;
+    }
+
+    /**
+     * Write the sketch to a stream, to be read back with {@link #read}
+     */
+    void write(DataOutputStream out) throws IOException {
+        out.write(registers);
+    }
+
+    /**
+     * Read a sketch written by {@link #write}
+     */
+    static HyperLogLog read(DataInputStream in) throws IOException {
+        HyperLogLog h = new HyperLogLog();
+        in.readFully(h.registers);
+        return h;
+    }
+}
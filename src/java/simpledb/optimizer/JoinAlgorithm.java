@@ -0,0 +1,20 @@
+package simpledb.optimizer;
+
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.Join;
+import simpledb.execution.SortMergeJoin;
+
+/** The physical operators a {@link LogicalJoinNode} can be executed with */
+public enum JoinAlgorithm {
+    /** A {@link Join}, which rescans its right child for every left tuple */
+    NESTED_LOOP,
+    /** A {@link HashEquiJoin}, which builds a hash table of its left child */
+    HASH,
+    /** A {@link SortMergeJoin}, which sorts the children that are not
+     * already in order of the join field */
+    SORT_MERGE,
+    /** An {@link IndexNestedLoopJoin}, which probes the B+ tree of its
+     * right child */
+    INDEX
+}
@@ -3,6 +3,9 @@ package simpledb.optimizer;
 import simpledb.common.Database;
 import simpledb.ParsingException;
 import simpledb.execution.*;
+import simpledb.index.BTreeFile;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFile;
 import simpledb.storage.TupleDesc;
 
 import java.util.*;
@@ -19,6 +22,61 @@ public class JoinOptimizer {
     final LogicalPlan p;
     final List<LogicalJoinNode> joins;
 
+    /** The default number of tables up to which joins are ordered exhaustively */
+    public static final int DEFAULT_EXHAUSTIVE_TABLES = 16;
+
+    /** The default time, in milliseconds, spent ordering the joins of a larger query */
+    public static final long DEFAULT_PLANNING_BUDGET = 100;
+
+    /**
+     * The number of tables up to which bushy plans are considered; the plans
+     * of larger queries join one table at a time
+     */
+    public static final int BUSHY_TABLES = 10;
+
+    private static volatile int exhaustiveTables = DEFAULT_EXHAUSTIVE_TABLES;
+
+    private static volatile long planningBudget = DEFAULT_PLANNING_BUDGET;
+
+    /**
+     * Set the number of tables up to which the joins of queries planned from
+     * now on are ordered exhaustively, by dynamic programming; the joins of
+     * queries with more tables are ordered by a heuristic search
+     *
+     * @param tables
+     *            the number of tables, at least 1 and at most
+     *            {@link PlanCache#MAX_TABLES}
+     */
+    public static void setExhaustiveTables(int tables) {
+        if (tables < 1 || tables > PlanCache.MAX_TABLES)
+            throw new IllegalArgumentException("exhaustive join ordering is limited to 1 to "
+                    + PlanCache.MAX_TABLES + " tables: " + tables);
+        exhaustiveTables = tables;
+    }
+
+    public static int getExhaustiveTables() {
+        return exhaustiveTables;
+    }
+
+    /**
+     * Set the time the heuristic search for a join order may take, for
+     * queries planned from now on with more than
+     * {@link #getExhaustiveTables()} tables. When it runs out, the best
+     * order found so far is used.
+     *
+     * @param millis
+     *            the budget, in milliseconds
+     */
+    public static void setPlanningBudget(long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException("planning budget must not be negative: " + millis);
+        planningBudget = millis;
+    }
+
+    public static long getPlanningBudget() {
+        return planningBudget;
+    }
+
     /**
      * Constructor
      * 
@@ -49,6 +107,31 @@ public class JoinOptimizer {
      */
     public static OpIterator instantiateJoin(LogicalJoinNode lj,
                                              OpIterator plan1, OpIterator plan2) throws ParsingException {
+        return instantiateJoin(lj, plan1, plan2, false);
+    }
+
+    /**
+     * Return best iterator for computing a given logical join, as
+     * {@link #instantiateJoin(LogicalJoinNode, OpIterator, OpIterator)}. An
+     * equality join is made a {@link SortMergeJoin} if its output is wanted in
+     * the order of the join field, or if both children are already in that
+     * order; otherwise it is executed with the operator the optimizer chose
+     * (see {@link LogicalJoinNode#algorithm}), or a {@link HashEquiJoin} if
+     * it chose none or the right child cannot be probed by key.
+     *
+     * @param lj
+     *            The join being considered
+     * @param plan1
+     *            The left join node's child
+     * @param plan2
+     *            The right join node's child
+     * @param orderedOutput
+     *            Whether the join's output should be in ascending order of
+     *            the join field
+     */
+    public static OpIterator instantiateJoin(LogicalJoinNode lj,
+                                             OpIterator plan1, OpIterator plan2,
+                                             boolean orderedOutput) throws ParsingException {
 
         int t1id = 0, t2id = 0;
         OpIterator j;
@@ -73,18 +156,16 @@ public class JoinOptimizer {
 
         JoinPredicate p = new JoinPredicate(t1id, lj.p, t2id);
 
-        if (lj.p == Predicate.Op.EQUALS) {
-
-            try {
-                // dynamically load HashEquiJoin -- if it doesn't exist, just
-                // fall back on regular join
-                Class<?> c = Class.forName("simpledb.execution.HashEquiJoin");
-                java.lang.reflect.Constructor<?> ct = c.getConstructors()[0];
-                j = (OpIterator) ct
-                        .newInstance(new Object[] { p, plan1, plan2 });
-            } catch (Exception e) {
-                j = new Join(p, plan1, plan2);
-            }
+        boolean sortedInputs = SortMergeJoin.isSortedOn(plan1, t1id)
+                && SortMergeJoin.isSortedOn(plan2, t2id);
+        if (lj.p == Predicate.Op.EQUALS && !(lj instanceof LogicalSubplanJoinNode)
+                && (orderedOutput || sortedInputs || lj.algorithm == JoinAlgorithm.SORT_MERGE)) {
+            j = new SortMergeJoin(p, plan1, plan2);
+        } else if (lj.algorithm == JoinAlgorithm.INDEX && lj.p == Predicate.Op.EQUALS
+                && IndexNestedLoopJoin.canProbe(plan2, t2id)) {
+            j = new IndexNestedLoopJoin(p, plan1, plan2);
+        } else if (lj.p == Predicate.Op.EQUALS && lj.algorithm != JoinAlgorithm.NESTED_LOOP) {
+            j = new HashEquiJoin(p, plan1, plan2);
         } else {
             j = new Join(p, plan1, plan2);
         }
@@ -101,6 +182,11 @@ public class JoinOptimizer {
      * the amount of data that must be read over the course of the query, as
      * well as the number of CPU opertions performed by your join. Assume that
      * the cost of a single predicate application is roughly 1.
+     * <p>
+     * The join is costed with the operator in {@link LogicalJoinNode#algorithm}
+     * if there is one; otherwise an equality join is costed as a hash join, or
+     * an index join if that is cheaper, and any other join as a nested-loop
+     * join over inputs that are not tables.
      * 
      * 
      * @param j
@@ -126,16 +212,72 @@ public class JoinOptimizer {
             // You do not need to implement proper support for these for Lab 3.
             return card1 + cost1 + cost2;
         } else {
-            // Insert your code here.
-            // HINT: You may need to use the variable "j" if you implemented
-            // a join algorithm that's more complicated than a basic
-            // nested-loops join.
-            double ioCost = card1 * cost2 + cost1;
-            double cpuCost = card1 * card2;
-            return ioCost + cpuCost;
+            Plan left = new Plan();
+            left.card = card1;
+            left.cost = cost1;
+            left.width = tupleWidth(j.t1Alias);
+            Plan right = new Plan();
+            right.card = card2;
+            right.cost = cost2;
+            right.width = tupleWidth(j.t2Alias);
+            right.plan = Collections.emptyList();
+            if (j.algorithm != null)
+                return estimateJoinCost(j, j.algorithm, left, right);
+            if (j.p != Predicate.Op.EQUALS)
+                return estimateJoinCost(j, JoinAlgorithm.NESTED_LOOP, left, right);
+            return Math.min(estimateJoinCost(j, JoinAlgorithm.HASH, left, right),
+                    estimateJoinCost(j, JoinAlgorithm.INDEX, left, right));
         }
     }
 
+    /**
+     * Estimate the cost of a join that probes the B+ tree on the right-hand
+     * side's join field instead of scanning it (see
+     * {@link IndexNestedLoopJoin}). The left-hand side is read once; its keys
+     * are looked up in batches of {@link IndexNestedLoopJoin#BATCH_SIZE}, and
+     * each key costs at most one root-to-leaf descent. Keys of one batch share
+     * a single walk of the tree, so a batch never reads more than one descent
+     * plus every page of the file.
+     *
+     * @param j
+     *            A LogicalJoinNode representing the join operation being
+     *            performed.
+     * @param card1
+     *            Estimated cardinality of the left-hand side of the query
+     * @param cost1
+     *            Estimated cost of one full scan of the table on the left-hand
+     *            side of the query
+     * @param cost2
+     *            Estimated cost of one full scan of the table on the right-hand
+     *            side of the query
+     * @return An estimate of the cost of this join, or Double.MAX_VALUE if the
+     *         right-hand side cannot be probed by key
+     */
+    public double estimateIndexJoinCost(LogicalJoinNode j, int card1,
+            double cost1, double cost2) {
+        if (j instanceof LogicalSubplanJoinNode || j.p != Predicate.Op.EQUALS
+                || j.t2Alias == null || p.getTableId(j.t2Alias) == null)
+            return Double.MAX_VALUE;
+        DbFile f = Database.getCatalog().getDatabaseFile(p.getTableId(j.t2Alias));
+        if (!(f instanceof BTreeFile))
+            return Double.MAX_VALUE;
+        BTreeFile bf = (BTreeFile) f;
+        TupleDesc td = bf.getTupleDesc();
+        if (!td.getFieldName(bf.keyField()).equals(j.f2PureName))
+            return Double.MAX_VALUE;
+
+        int pages = Math.max(1, bf.numPages());
+        double pageCost = cost2 / pages;
+        int keyLen = td.getFieldType(bf.keyField()).getLen();
+        int fanout = Math.max(2, BufferPool.getPageSize() / (keyLen + 4));
+        double depth = 1 + Math.ceil(Math.log(pages) / Math.log(fanout));
+        double batches = Math.ceil((double) card1 / IndexNestedLoopJoin.BATCH_SIZE);
+
+        double ioCost = Math.min(card1 * depth, batches * (depth + pages)) * pageCost;
+        double cpuCost = card1 * depth;
+        return cost1 + ioCost + cpuCost;
+    }
+
     /**
      * Estimate the cardinality of a join. The cardinality of a join is the
      * number of tuples produced by the join.
@@ -170,15 +312,58 @@ public class JoinOptimizer {
 
     /**
      * Estimate the join cardinality of two tables.
+     * <p>
+     * An equality join on a primary key produces at most one tuple for each
+     * tuple of the other side. Otherwise an equality join produces
+     * card1 * card2 / max(ndv1, ndv2) tuples, where ndv is the number of
+     * distinct values of a join field, from its table's distinct-value
+     * sketch, but no more than its side's cardinality; without statistics
+     * it is taken to be the larger cardinality. A range join produces 30% of
+     * the cross product.
      * */
     public static int estimateTableJoinCardinality(Predicate.Op joinOp,
                                                    String table1Alias, String table2Alias, String field1PureName,
                                                    String field2PureName, int card1, int card2, boolean t1pkey,
                                                    boolean t2pkey, Map<String, TableStats> stats,
                                                    Map<String, Integer> tableAliasToId) {
-        int card = 1;
-        // some code goes here
-        return card <= 0 ? 1 : card;
+        double card;
+        if (joinOp == Predicate.Op.EQUALS) {
+            if (t1pkey && t2pkey) {
+                card = Math.min(card1, card2);
+            } else if (t1pkey) {
+                card = card2;
+            } else if (t2pkey) {
+                card = card1;
+            } else {
+                int ndv1 = Math.min(card1, distinctValues(table1Alias, field1PureName, stats, tableAliasToId));
+                int ndv2 = Math.min(card2, distinctValues(table2Alias, field2PureName, stats, tableAliasToId));
+                card = (double) card1 * card2 / Math.max(1, Math.max(ndv1, ndv2));
+            }
+        } else if (joinOp == Predicate.Op.NOT_EQUALS) {
+            card = (double) card1 * card2;
+        } else {
+            card = 0.3 * card1 * card2;
+        }
+        return card < 1 ? 1 : (int) Math.min(card, Integer.MAX_VALUE);
+    }
+
+    /**
+     * @return the estimated number of distinct values of a field of a table,
+     *         or Integer.MAX_VALUE if it has no statistics
+     */
+    private static int distinctValues(String tableAlias, String fieldPureName, Map<String, TableStats> stats,
+                                      Map<String, Integer> tableAliasToId) {
+        Integer tableId = tableAliasToId.get(tableAlias);
+        if (tableId == null)
+            return Integer.MAX_VALUE;
+        TableStats s = stats.get(Database.getCatalog().getTableName(tableId));
+        if (s == null)
+            return Integer.MAX_VALUE;
+        try {
+            return s.distinctValues(Database.getCatalog().getTupleDesc(tableId).fieldNameToIndex(fieldPureName));
+        } catch (NoSuchElementException e) {
+            return Integer.MAX_VALUE;
+        }
     }
 
     /**
@@ -215,6 +400,26 @@ public class JoinOptimizer {
     /**
      * Compute a logical, reasonably efficient join on the specified tables. See
      * PS4 for hints on how this should be implemented.
+     * <p>
+     * For a query of up to {@link #getExhaustiveTables()} tables, the best
+     * plan is found by dynamic programming over the sets of tables that are
+     * connected by joins, smallest first: the best plan for a set joins the
+     * best plans of two parts of it. Sets of tables are bitmasks, and their
+     * best plans are kept in a {@link PlanCache} indexed by mask. Only
+     * connected sets are enumerated, so no plan with a cross product is
+     * considered. Queries of up to {@link #BUSHY_TABLES} tables may get bushy
+     * plans, which join two plans of several tables each; larger ones get
+     * left-deep plans, which join one table at a time. Larger queries still
+     * are ordered by a greedy search and iterative improvement within the
+     * planning budget (see {@link #setPlanningBudget}). A query of more than
+     * 64 tables, or whose tables are not all connected by joins, keeps its
+     * joins in the order given. Joins with subqueries are done last.
+     * <p>
+     * Each join of the plan is a copy of one of the query's joins, with the
+     * operator chosen to execute it and the estimated cost of the plan up to
+     * it (see {@link LogicalJoinNode#algorithm}). The joins of a bushy plan
+     * are listed as the joins of its left part, then those of its right
+     * part, then the joins between the two.
      * 
      * @param stats
      *            Statistics for each table involved in the join, referenced by
@@ -226,8 +431,8 @@ public class JoinOptimizer {
      * @param explain
      *            Indicates whether your code should explain its query plan or
      *            simply execute it
-     * @return A List<LogicalJoinNode> that stores joins in the left-deep
-     *         order in which they should be executed.
+     * @return A List<LogicalJoinNode> that stores joins in the order in which
+     *         they should be executed.
      * @throws ParsingException
      *             when stats or filter selectivities is missing a table in the
      *             join, or or when another internal error occurs
@@ -237,174 +442,563 @@ public class JoinOptimizer {
             Map<String, Double> filterSelectivities, boolean explain)
             throws ParsingException {
 
-        // some code goes here
-        //Replace the following
-        return joins;
+        // number the tables; joins with subqueries are done last
+        List<LogicalJoinNode> subplanJoins = new ArrayList<>();
+        List<LogicalJoinNode> tableJoins = new ArrayList<>();
+        aliases = new HashMap<>();
+        names = new ArrayList<>();
+        for (LogicalJoinNode j : joins) {
+            if (j instanceof LogicalSubplanJoinNode) {
+                subplanJoins.add(j);
+                continue;
+            }
+            tableJoins.add(j);
+            for (String alias : new String[] { j.t1Alias, j.t2Alias }) {
+                if (!aliases.containsKey(alias)) {
+                    aliases.put(alias, names.size());
+                    names.add(alias);
+                }
+            }
+        }
+        int n = names.size();
+        if (n > Long.SIZE)
+            return joins;
+
+        // the joins touching each table, and the tables adjacent to each
+        List<List<LogicalJoinNode>> touching = new ArrayList<>();
+        adjacent = new long[n];
+        for (int i = 0; i < n; i++) {
+            touching.add(new ArrayList<>());
+        }
+        for (LogicalJoinNode j : tableJoins) {
+            int a = aliases.get(j.t1Alias);
+            int b = aliases.get(j.t2Alias);
+            touching.get(b).add(j);
+            if (b != a)
+                touching.get(a).add(j.swapInnerOuter());
+            adjacent[a] |= 1L << b;
+            adjacent[b] |= 1L << a;
+        }
+        joinsOf = new TableJoins[n];
+        for (int i = 0; i < n; i++) {
+            joinsOf[i] = new TableJoins(touching.get(i));
+        }
+
+        base = new Plan[n];
+        for (int i = 0; i < n; i++) {
+            TableStats s = tableStats(stats, names.get(i));
+            Double sel = filterSelectivities.get(names.get(i));
+            if (sel == null)
+                throw new ParsingException("No filter selectivity for table " + names.get(i));
+            base[i] = new Plan();
+            base[i].cost = s.estimateScanCost();
+            base[i].card = s.estimateTableCardinality(sel);
+            base[i].plan = new ArrayList<>();
+            base[i].width = Database.getCatalog().getTupleDesc(p.getTableId(names.get(i))).getSize();
+            base[i].pages = s.totalPages();
+        }
+
+        PlanCache pc;
+        List<LogicalJoinNode> order;
+        if (n <= exhaustiveTables) {
+            pc = new PlanCache(n);
+            order = orderExhaustively(stats, pc);
+        } else {
+            pc = new PlanCache();
+            order = orderHeuristically(stats, pc);
+        }
+        if (order == null) {
+            // the tables are not all connected by joins; cross products are
+            // not considered, so leave the joins as they are
+            return joins;
+        }
+        order = new ArrayList<>(order);
+        order.addAll(subplanJoins);
+        if (explain)
+            printJoins(order, pc, stats, filterSelectivities);
+        return order;
+    }
+
+    /**
+     * Find the best plan by dynamic programming over the connected sets of
+     * tables, in ascending order of mask, so that the subsets of a set come
+     * before it. The plan is bushy if the query has at most
+     * {@link #BUSHY_TABLES} tables, left-deep otherwise.
+     *
+     * @return the best plan, or null if the tables are not all connected
+     */
+    private List<LogicalJoinNode> orderExhaustively(Map<String, TableStats> stats, PlanCache pc) {
+        int n = names.size();
+        Plan[] plans = new Plan[1 << n];
+        for (int i = 0; i < n; i++) {
+            plans[1 << i] = base[i];
+        }
+
+        long[] sets = connectedSubsets(adjacent);
+        Arrays.sort(sets);
+        for (long set : sets) {
+            if (Long.bitCount(set) < 2)
+                continue;
+            Plan best = null;
+            if (n <= BUSHY_TABLES) {
+                // every split into two connected parts, each once: the part
+                // with the lowest table is tried as both the left and the
+                // right input
+                long lowest = set & -set;
+                for (long sub = (set - 1) & set; sub != 0; sub = (sub - 1) & set) {
+                    long other = set ^ sub;
+                    if ((sub & lowest) == 0 || plans[(int) sub] == null || plans[(int) other] == null)
+                        continue;
+                    Plan cc = computeCostAndCardOfSubplan(stats, sub, plans[(int) sub], other,
+                            plans[(int) other], best == null ? Double.MAX_VALUE : best.cost);
+                    if (cc != null)
+                        best = cc;
+                }
+            } else {
+                for (int v = 0; v < n; v++) {
+                    long rest = set & ~(1L << v);
+                    if ((set & (1L << v)) == 0 || (adjacent[v] & rest) == 0 || plans[(int) rest] == null)
+                        continue;
+                    Plan cc = computeCostAndCardOfSubplan(stats, rest, plans[(int) rest], 1L << v, base[v],
+                            best == null ? Double.MAX_VALUE : best.cost);
+                    if (cc != null)
+                        best = cc;
+                }
+            }
+            plans[(int) set] = best;
+        }
+        for (int set = 1; set < plans.length; set++) {
+            if (plans[set] != null)
+                pc.addPlan(set, plans[set].cost, plans[set].card, plans[set].plan);
+        }
+        return n == 0 ? null : pc.getOrder((1L << n) - 1);
+    }
+
+    /**
+     * Find a good left-deep plan for a query with too many tables to
+     * enumerate, within the planning budget. Plans are built greedily from
+     * each table in turn, always joining next the table that is cheapest to
+     * add, and the cheapest is then improved by moving single tables to
+     * other places in the order while there is time left. The greedy plan
+     * from the first table is always finished, whatever the budget.
+     *
+     * @return the best plan found, or null if the tables are not all
+     *         connected
+     */
+    private List<LogicalJoinNode> orderHeuristically(Map<String, TableStats> stats, PlanCache pc) {
+        int n = names.size();
+        long deadline = System.nanoTime() + planningBudget * 1000000;
+
+        // a plan is a sequence of tables, with the plan of each of its
+        // prefixes
+        int[] bestSeq = null;
+        Plan[] bestPlans = new Plan[n];
+        int[] seq = new int[n];
+        Plan[] plans = new Plan[n];
+
+        for (int start = 0; start < n && (bestSeq == null || System.nanoTime() < deadline); start++) {
+            seq[0] = start;
+            plans[0] = base[start];
+            long rest = 1L << start;
+            int k;
+            for (k = 1; k < n; k++) {
+                Plan next = null;
+                double limit = bestSeq == null ? Double.MAX_VALUE : bestPlans[n - 1].cost;
+                for (int t = 0; t < n; t++) {
+                    if ((rest & (1L << t)) != 0 || (adjacent[t] & rest) == 0)
+                        continue;
+                    Plan cc = computeCostAndCardOfSubplan(stats, rest, plans[k - 1], 1L << t, base[t],
+                            next == null ? limit : next.cost);
+                    if (cc != null) {
+                        next = cc;
+                        seq[k] = t;
+                    }
+                }
+                if (next == null)
+                    break;
+                plans[k] = next;
+                rest |= 1L << seq[k];
+            }
+            if (k < n)
+                continue;
+            int[] s = bestSeq == null ? new int[n] : bestSeq;
+            bestSeq = seq;
+            seq = s;
+            Plan[] p = bestPlans;
+            bestPlans = plans;
+            plans = p;
+        }
+        if (bestSeq == null)
+            return null;
+
+        Random r = new Random(n);
+        while (n > 2 && System.nanoTime() < deadline) {
+            // move the table at position i to position j
+            int i = r.nextInt(n);
+            int j = r.nextInt(n - 1);
+            if (j >= i)
+                j++;
+            System.arraycopy(bestSeq, 0, seq, 0, n);
+            if (i < j)
+                System.arraycopy(bestSeq, i + 1, seq, i, j - i);
+            else
+                System.arraycopy(bestSeq, j, seq, j + 1, i - j);
+            seq[j] = bestSeq[i];
+            int from = Math.min(i, j);
+            System.arraycopy(bestPlans, 0, plans, 0, from);
+            if (!extend(stats, seq, plans, from, bestPlans[n - 1].cost))
+                continue;
+            int[] s = bestSeq;
+            bestSeq = seq;
+            seq = s;
+            Plan[] p = bestPlans;
+            bestPlans = plans;
+            plans = p;
+        }
+
+        long set = 0;
+        for (int k = 0; k < n; k++) {
+            set |= 1L << bestSeq[k];
+            pc.addPlan(set, bestPlans[k].cost, bestPlans[k].card, bestPlans[k].plan);
+        }
+        return bestPlans[n - 1].plan;
+    }
+
+    /**
+     * Compute the plans of the prefixes of a sequence of tables from
+     * position from on, given those before it.
+     *
+     * @return false if a table is not joined to any table before it, or the
+     *         cost of the plan reaches limit
+     */
+    private boolean extend(Map<String, TableStats> stats, int[] seq, Plan[] plans, int from, double limit) {
+        if (from == 0) {
+            plans[0] = base[seq[0]];
+            from = 1;
+        }
+        long rest = 0;
+        for (int k = 0; k < from; k++) {
+            rest |= 1L << seq[k];
+        }
+        for (int k = from; k < seq.length; k++) {
+            int t = seq[k];
+            Plan cc = computeCostAndCardOfSubplan(stats, rest, plans[k - 1], 1L << t, base[t], limit);
+            if (cc == null)
+                return false;
+            plans[k] = cc;
+            rest |= 1L << t;
+        }
+        return true;
+    }
+
+    // the state of the query being ordered: the aliases of its tables, and
+    // the numbers of the tables by alias, table i having bit i in the masks
+    // of a PlanCache
+    private List<String> names;
+    private Map<String, Integer> aliases;
+
+    // the joins of each table, and the mask of the tables it is joined with
+    private TableJoins[] joinsOf;
+    private long[] adjacent;
+
+    // the plan that scans each table
+    private Plan[] base;
+
+    /**
+     * The joins between a table and others, both ways round, with the
+     * masks of the other tables and whether the fields of each side are
+     * their table's primary key
+     */
+    private class TableJoins {
+        // the joins, with the table on the right
+        final LogicalJoinNode[] joins;
+        // the same joins, with the table on the left
+        final LogicalJoinNode[] swapped;
+        final long[] others;
+        final boolean[] pkeys;
+        final boolean[] otherPkeys;
+
+        TableJoins(List<LogicalJoinNode> tableJoins) {
+            int n = tableJoins.size();
+            joins = tableJoins.toArray(new LogicalJoinNode[n]);
+            swapped = new LogicalJoinNode[n];
+            others = new long[n];
+            pkeys = new boolean[n];
+            otherPkeys = new boolean[n];
+            for (int i = 0; i < n; i++) {
+                swapped[i] = joins[i].swapInnerOuter();
+                others[i] = 1L << aliases.get(joins[i].t1Alias);
+                pkeys[i] = isPkey(joins[i].t2Alias, joins[i].f2PureName);
+                otherPkeys[i] = isPkey(joins[i].t1Alias, joins[i].f1PureName);
+            }
+        }
+    }
+
+    /**
+     * The best plan found for a set of tables, with what the cost model
+     * needs to know about its output
+     */
+    private static class Plan extends CostCard {
+        // whether one of its joins is on a primary key
+        boolean pkey;
+        // the bytes of one of its tuples
+        int width;
+        // the pages of its table, if it scans a single table, else -1
+        int pages = -1;
+        // its last join, if that determines the order of its output
+        LogicalJoinNode top;
+
+        /**
+         * @return true if the output is known to be in ascending order of
+         *         the given quantified field
+         */
+        boolean sortedOn(String field) {
+            return top != null && top.algorithm == JoinAlgorithm.SORT_MERGE
+                    && (top.f1QuantifiedName.equals(field) || top.f2QuantifiedName.equals(field));
+        }
+    }
+
+    /**
+     * Enumerate the connected subgraphs of a join graph, as in the DPccp
+     * algorithm of Moerkotte and Neumann: starting from each table in turn,
+     * grow the set by subsets of its neighbours, excluding tables with lower
+     * numbers than the start and the neighbours already tried, so that each
+     * connected set is produced exactly once.
+     *
+     * @param adjacent
+     *            for each table, the mask of the tables it is joined with
+     * @return the masks of all connected sets of tables
+     */
+    static long[] connectedSubsets(long[] adjacent) {
+        int n = adjacent.length;
+        long[] out = new long[16];
+        int size = 0;
+        Deque<long[]> stack = new ArrayDeque<>();
+        for (int i = n - 1; i >= 0; i--) {
+            long start = 1L << i;
+            stack.push(new long[] { start, (start << 1) - 1 });
+            while (!stack.isEmpty()) {
+                long[] top = stack.pop();
+                long set = top[0];
+                long excluded = top[1];
+                if (size == out.length)
+                    out = Arrays.copyOf(out, 2 * size);
+                out[size++] = set;
+                long neighbours = 0;
+                for (long s = set; s != 0; s &= s - 1) {
+                    neighbours |= adjacent[Long.numberOfTrailingZeros(s)];
+                }
+                neighbours &= ~excluded;
+                for (long sub = neighbours; sub != 0; sub = (sub - 1) & neighbours) {
+                    stack.push(new long[] { set | sub, excluded | neighbours });
+                }
+            }
+        }
+        return Arrays.copyOf(out, size);
+    }
+
+    private TableStats tableStats(Map<String, TableStats> stats, String alias) throws ParsingException {
+        Integer id = this.p.getTableId(alias);
+        if (id == null)
+            throw new ParsingException("Unknown table " + alias);
+        TableStats s = stats.get(Database.getCatalog().getTableName(id));
+        if (s == null)
+            throw new ParsingException("No statistics for table " + alias);
+        return s;
     }
 
     // ===================== Private Methods =================================
 
     /**
-     * This is a helper method that computes the cost and cardinality of joining
-     * joinToRemove to joinSet (joinSet should contain joinToRemove), given that
-     * all of the subsets of size joinSet.size() - 1 have already been computed
-     * and stored in PlanCache pc.
+     * This is a helper method that computes the cost and cardinality of
+     * joining the plans of two disjoint sets of tables. One of the joins
+     * between the sets is performed, with whichever side as the outer and
+     * whichever operator is cheapest; any other joins between them follow
+     * it.
      * 
      * @param stats
      *            table stats for all of the tables, referenced by table names
      *            rather than alias (see {@link #orderJoins})
-     * @param filterSelectivities
-     *            the selectivities of the filters over each of the tables
-     *            (where tables are indentified by their alias or name if no
-     *            alias is given)
-     * @param joinToRemove
-     *            the join to remove from joinSet
-     * @param joinSet
-     *            the set of joins being considered
+     * @param leftSet
+     *            the mask of the tables of one side
+     * @param left
+     *            the plan that joins them
+     * @param rightSet
+     *            the mask of the tables of the other side
+     * @param right
+     *            the plan that joins them
      * @param bestCostSoFar
-     *            the best way to join joinSet so far (minimum of previous
-     *            invocations of computeCostAndCardOfSubplan for this joinSet,
-     *            from returned CostCard)
-     * @param pc
-     *            the PlanCache for this join; should have subplans for all
-     *            plans of size joinSet.size()-1
-     * @return A {@link CostCard} objects desribing the cost, cardinality,
-     *         optimal subplan
-     * @throws ParsingException
-     *             when stats, filterSelectivities, or pc object is missing
-     *             tables involved in join
+     *            the cost of the best way found so far to join the two sets
+     * @return A {@link Plan} desribing the cost, cardinality and optimal
+     *         subplan, or null if it is no cheaper than bestCostSoFar or the
+     *         sets are not joined
      */
-    @SuppressWarnings("unchecked")
-    private CostCard computeCostAndCardOfSubplan(
+    private Plan computeCostAndCardOfSubplan(
             Map<String, TableStats> stats,
-            Map<String, Double> filterSelectivities,
-            LogicalJoinNode joinToRemove, Set<LogicalJoinNode> joinSet,
-            double bestCostSoFar, PlanCache pc) throws ParsingException {
-
-        LogicalJoinNode j = joinToRemove;
-
-        List<LogicalJoinNode> prevBest;
-
-        if (this.p.getTableId(j.t1Alias) == null)
-            throw new ParsingException("Unknown table " + j.t1Alias);
-        if (this.p.getTableId(j.t2Alias) == null)
-            throw new ParsingException("Unknown table " + j.t2Alias);
-
-        String table1Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t1Alias));
-        String table2Name = Database.getCatalog().getTableName(
-                this.p.getTableId(j.t2Alias));
-        String table1Alias = j.t1Alias;
-        String table2Alias = j.t2Alias;
-
-        Set<LogicalJoinNode> news = new HashSet<>(joinSet);
-        news.remove(j);
-
-        double t1cost, t2cost;
-        int t1card, t2card;
-        boolean leftPkey, rightPkey;
-
-        if (news.isEmpty()) { // base case -- both are base relations
-            prevBest = new ArrayList<>();
-            t1cost = stats.get(table1Name).estimateScanCost();
-            t1card = stats.get(table1Name).estimateTableCardinality(
-                    filterSelectivities.get(j.t1Alias));
-            leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            t2cost = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateScanCost();
-            t2card = table2Alias == null ? 0 : stats.get(table2Name)
-                    .estimateTableCardinality(
-                            filterSelectivities.get(j.t2Alias));
-            rightPkey = table2Alias != null && isPkey(table2Alias,
-                    j.f2PureName);
-        } else {
-            // news is not empty -- figure best way to join j to news
-            prevBest = pc.getOrder(news);
-
-            // possible that we have not cached an answer, if subset
-            // includes a cross product
-            if (prevBest == null) {
-                return null;
-            }
-
-            double prevBestCost = pc.getCost(news);
-            int bestCard = pc.getCard(news);
-
-            // estimate cost of right subtree
-            if (doesJoin(prevBest, table1Alias)) { // j.t1 is in prevBest
-                t1cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                // zihe: 如果t1表已经在之前join过了，那么这时就join t2表
-                t1card = bestCard;
-                leftPkey = hasPkey(prevBest);
-
-                t2cost = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateScanCost();
-                t2card = j.t2Alias == null ? 0 : stats.get(table2Name)
-                        .estimateTableCardinality(
-                                filterSelectivities.get(j.t2Alias));
-                rightPkey = j.t2Alias != null && isPkey(j.t2Alias,
-                        j.f2PureName);
-            } else if (doesJoin(prevBest, j.t2Alias)) { // j.t2 is in prevbest
-                                                        // (both
-                // shouldn't be)
-                t2cost = prevBestCost; // left side just has cost of whatever
-                                       // left
-                // subtree is
-                // zihe: 如果t2在之前join过了，那么就join t1表
-                t2card = bestCard;
-                rightPkey = hasPkey(prevBest);
-                t1cost = stats.get(table1Name).estimateScanCost();
-                t1card = stats.get(table1Name).estimateTableCardinality(
-                        filterSelectivities.get(j.t1Alias));
-                leftPkey = isPkey(j.t1Alias, j.f1PureName);
-
-            } else {
-                // don't consider this plan if one of j.t1 or j.t2
-                // isn't a table joined in prevBest (cross product)
-                return null;
+            long leftSet, Plan left, long rightSet, Plan right,
+            double bestCostSoFar) {
+
+        LogicalJoinNode best = null, bestOriginal = null;
+        JoinAlgorithm bestAlgorithm = null;
+        double bestCost = bestCostSoFar;
+        boolean bestSwapped = false, bestLeftPkey = false, bestRightPkey = false;
+        List<LogicalJoinNode> others = new ArrayList<>();
+        for (long s = rightSet; s != 0; s &= s - 1) {
+            TableJoins tableJoins = joinsOf[Long.numberOfTrailingZeros(s)];
+            for (int i = 0; i < tableJoins.joins.length; i++) {
+                if ((leftSet & tableJoins.others[i]) == 0)
+                    continue;
+                LogicalJoinNode j = tableJoins.joins[i];
+                others.add(j);
+                boolean leftPkey = left.plan.isEmpty() ? tableJoins.otherPkeys[i] : left.pkey;
+                boolean rightPkey = right.plan.isEmpty() ? tableJoins.pkeys[i] : right.pkey;
+                for (boolean swap : new boolean[] { false, true }) {
+                    LogicalJoinNode oriented = swap ? tableJoins.swapped[i] : j;
+                    Plan outer = swap ? right : left;
+                    Plan inner = swap ? left : right;
+                    for (JoinAlgorithm a : JoinAlgorithm.values()) {
+                        double cost = estimateJoinCost(oriented, a, outer, inner);
+                        if (cost < bestCost) {
+                            best = oriented;
+                            bestOriginal = j;
+                            bestAlgorithm = a;
+                            bestCost = cost;
+                            bestSwapped = swap;
+                            bestLeftPkey = swap ? rightPkey : leftPkey;
+                            bestRightPkey = swap ? leftPkey : rightPkey;
+                        }
+                    }
+                }
             }
         }
+        if (best == null)
+            return null;
 
-        // case where prevbest is left
-        double cost1 = estimateJoinCost(j, t1card, t2card, t1cost, t2cost);
+        Plan outer = bestSwapped ? right : left;
+        Plan inner = bestSwapped ? left : right;
+        Plan cc = new Plan();
+        cc.cost = bestCost;
+        double card = estimateJoinCardinality(best, outer.card, inner.card, bestLeftPkey, bestRightPkey, stats);
+        // the other joins between the sides filter the output of the chosen one
+        for (LogicalJoinNode j : others) {
+            if (j != bestOriginal)
+                card *= joinSelectivity(j, stats);
+        }
+        cc.card = card < 1 ? 1 : (int) card;
+        cc.pkey = left.pkey || right.pkey || bestLeftPkey || bestRightPkey;
+        cc.width = left.width + right.width;
+        // the joins of each side come first, then the one between them
+        cc.plan = new ArrayList<>(left.plan.size() + right.plan.size() + others.size());
+        cc.plan.addAll(left.plan);
+        cc.plan.addAll(right.plan);
+        LogicalJoinNode chosen = best.withAlgorithm(bestAlgorithm, bestCost);
+        cc.plan.add(chosen);
+        for (LogicalJoinNode j : others) {
+            if (j != bestOriginal)
+                cc.plan.add(j);
+        }
+        if (others.size() == 1)
+            cc.top = chosen;
+        return cc;
+    }
 
-        LogicalJoinNode j2 = j.swapInnerOuter();
-        double cost2 = estimateJoinCost(j2, t2card, t1card, t2cost, t1cost);
-        if (cost2 < cost1) {
-            boolean tmp;
-            j = j2;
-            cost1 = cost2;
-            tmp = rightPkey;
-            rightPkey = leftPkey;
-            leftPkey = tmp;
+    /**
+     * Estimate the fraction of the pairs of tuples of its tables that a join
+     * predicate passes: for an equality, one over the larger number of
+     * distinct values of the two fields, as in
+     * {@link #estimateTableJoinCardinality}.
+     */
+    private double joinSelectivity(LogicalJoinNode j, Map<String, TableStats> stats) {
+        if (j instanceof LogicalSubplanJoinNode)
+            return 1.0;
+        Map<String, Integer> tableAliasToId = p.getTableAliasToIdMapping();
+        if (j.p == Predicate.Op.EQUALS) {
+            int ndv1 = Math.min(base[aliases.get(j.t1Alias)].card,
+                    distinctValues(j.t1Alias, j.f1PureName, stats, tableAliasToId));
+            int ndv2 = Math.min(base[aliases.get(j.t2Alias)].card,
+                    distinctValues(j.t2Alias, j.f2PureName, stats, tableAliasToId));
+            return 1.0 / Math.max(1, Math.max(ndv1, ndv2));
+        } else if (j.p == Predicate.Op.NOT_EQUALS) {
+            return 1.0;
         }
-        if (cost1 >= bestCostSoFar)
-            return null;
+        return 0.3;
+    }
 
-        CostCard cc = new CostCard();
+    /**
+     * Estimate the cost of a join of two plans with the given operator. The
+     * cost of an operator is that of reading its inputs as it does, plus one
+     * per tuple it compares or hashes, plus the cost of writing to disk and
+     * reading back what does not fit in memory: spilled partitions of a
+     * {@link HashEquiJoin}, and the runs of an {@link ExternalSort} before a
+     * {@link SortMergeJoin}. A nested-loop {@link Join} rescans its inner
+     * input for each outer tuple, unless that is a table that fits in the
+     * buffer pool, when it is read only once.
+     *
+     * @return the estimated cost, or Double.MAX_VALUE if the operator cannot
+     *         execute the join
+     */
+    private double estimateJoinCost(LogicalJoinNode j, JoinAlgorithm a, Plan left, Plan right) {
+        double card1 = left.card, card2 = right.card;
+        double cost1 = left.cost, cost2 = right.cost;
+        if (a != JoinAlgorithm.NESTED_LOOP && j.p != Predicate.Op.EQUALS)
+            return Double.MAX_VALUE;
+        switch (a) {
+        case NESTED_LOOP:
+            boolean cached = right.pages >= 0 && right.pages <= Database.getBufferPool().getNumPages();
+            return cost1 + (cached ? cost2 : card1 * cost2) + card1 * card2;
+        case HASH:
+            double spill = 0;
+            if (card1 > HashEquiJoin.MAP_SIZE) {
+                double spilled = 1 - HashEquiJoin.MAP_SIZE / card1;
+                spill = spilled * (card1 * spillCost(left.width) + card2 * spillCost(right.width));
+            }
+            return cost1 + cost2 + card1 + card2 + spill;
+        case SORT_MERGE:
+            double sort1 = left.sortedOn(j.f1QuantifiedName) ? 0 : sortCost(card1, left.width);
+            double sort2 = right.sortedOn(j.f2QuantifiedName) ? 0 : sortCost(card2, right.width);
+            return cost1 + cost2 + sort1 + sort2 + card1 + card2;
+        case INDEX:
+            if (!right.plan.isEmpty())
+                return Double.MAX_VALUE;
+            return estimateIndexJoinCost(j, left.card, cost1, cost2);
+        default:
+            return Double.MAX_VALUE;
+        }
+    }
 
-        cc.card = estimateJoinCardinality(j, t1card, t2card, leftPkey,
-                rightPkey, stats);
-        cc.cost = cost1;
-        cc.plan = new ArrayList<>(prevBest);
-        cc.plan.add(j); // prevbest is left -- add new join to end
-        return cc;
+    /**
+     * @return the cost of writing a tuple of the given width to disk and
+     *         reading it back
+     */
+    private static double spillCost(int width) {
+        return 2.0 * TableStats.IOCOSTPERPAGE * width / BufferPool.getPageSize();
     }
 
     /**
-     * Return true if the specified table is in the list of joins, false
-     * otherwise
+     * @return the cost of sorting card tuples of the given width with an
+     *         {@link ExternalSort}: the comparisons, and a write and read of
+     *         every tuple for each merge pass if they do not fit in memory
      */
-    private boolean doesJoin(List<LogicalJoinNode> joinlist, String table) {
-        for (LogicalJoinNode j : joinlist) {
-            if (j.t1Alias.equals(table)
-                    || (j.t2Alias != null && j.t2Alias.equals(table)))
-                return true;
+    private static double sortCost(double card, int width) {
+        if (card < 2)
+            return card;
+        double cost = card * Math.log(card) / Math.log(2);
+        double inMemory = (double) ExternalSort.DEFAULT_BUFFER_PAGES * BufferPool.getPageSize() / Math.max(1, width);
+        if (card > inMemory) {
+            double runs = Math.ceil(card / inMemory);
+            double passes = Math.max(1, Math.ceil(Math.log(runs) / Math.log(ExternalSort.DEFAULT_BUFFER_PAGES - 1)));
+            cost += passes * card * spillCost(width);
         }
-        return false;
+        return cost;
+    }
+
+    /**
+     * @return the bytes of a tuple of the table with the given alias, or 0 if
+     *         there is no such table
+     */
+    private int tupleWidth(String alias) {
+        Integer id = alias == null ? null : p.getTableId(alias);
+        return id == null ? 0 : Database.getCatalog().getTupleDesc(id).getSize();
     }
 
     /**
@@ -420,21 +1014,7 @@ public class JoinOptimizer {
         int tid1 = p.getTableId(tableAlias);
         String pkey1 = Database.getCatalog().getPrimaryKey(tid1);
 
-        return pkey1.equals(field);
-    }
-
-    /**
-     * Return true if a primary key field is joined by one of the joins in
-     * joinlist
-     */
-    private boolean hasPkey(List<LogicalJoinNode> joinlist) {
-        for (LogicalJoinNode j : joinlist) {
-            if (isPkey(j.t1Alias, j.f1PureName)
-                    || (j.t2Alias != null && isPkey(j.t2Alias, j.f2PureName)))
-                return true;
-        }
-        return false;
-
+        return field.equals(pkey1);
     }
 
     /**
@@ -473,13 +1053,22 @@ public class JoinOptimizer {
 
         // int k;
         DefaultMutableTreeNode root = null, treetop = null;
-        HashSet<LogicalJoinNode> pathSoFar = new HashSet<>();
+        // the mask of the tables of the subplan each table is in so far
+        Map<String, Long> subplans = new HashMap<>();
+        long pathSoFar = 0;
         boolean neither;
 
         System.out.println(js);
         for (LogicalJoinNode j : js) {
-            pathSoFar.add(j);
-            System.out.println("PATH SO FAR = " + pathSoFar);
+            pathSoFar = 0;
+            for (String alias : new String[] { j.t1Alias, j.t2Alias }) {
+                if (alias != null && aliases.containsKey(alias))
+                    pathSoFar |= subplans.getOrDefault(alias, 1L << aliases.get(alias));
+            }
+            for (long s = pathSoFar; s != 0; s &= s - 1) {
+                subplans.put(names.get(Long.numberOfTrailingZeros(s)), pathSoFar);
+            }
+            System.out.println("PATH SO FAR = " + Long.toBinaryString(pathSoFar));
 
             String table1Name = Database.getCatalog().getTableName(
                     this.p.getTableId(j.t1Alias));
@@ -531,10 +1120,12 @@ public class JoinOptimizer {
             m.put(j.t2Alias, root);
 
             // unless this table doesn't join with other tables,
-            // all tables are accessed from root
+            // all tables of its subplan are accessed from root
             if (!neither) {
                 for (String key : m.keySet()) {
-                    m.put(key, root);
+                    Long subplan = subplans.get(key);
+                    if (subplan == null || (subplan & pathSoFar) != 0)
+                        m.put(key, root);
                 }
             }
 
@@ -22,11 +22,24 @@ public class LogicalFilterNode {
     public final String fieldPureName;
     
     public final String fieldQuantifiedName;
+
+    /** The number of the statement parameter that gives the constant, from 0, or -1 if c does */
+    public final int param;
     
     public LogicalFilterNode(String table, String field, Predicate.Op pred, String constant) {
+        this(table, field, pred, constant, -1);
+    }
+
+    /** Create a filter whose constant is a parameter of a prepared statement, given when it is executed */
+    public LogicalFilterNode(String table, String field, Predicate.Op pred, int param) {
+        this(table, field, pred, null, param);
+    }
+
+    private LogicalFilterNode(String table, String field, Predicate.Op pred, String constant, int param) {
         tableAlias = table;
         p = pred;
         c = constant;
+        this.param = param;
         String[] tmps = field.split("[.]");
         if (tmps.length>1)
             fieldPureName = tmps[tmps.length-1];
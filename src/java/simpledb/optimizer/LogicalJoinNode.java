@@ -25,6 +25,14 @@ public class LogicalJoinNode {
     /** The join predicate */
     public Predicate.Op p;
 
+    /** The operator the optimizer chose to execute the join with, or null to
+     * let {@link JoinOptimizer#instantiateJoin} pick one by the predicate */
+    public JoinAlgorithm algorithm = null;
+
+    /** The optimizer's estimate of the cost of the plan up to and including
+     * this join, or 0 if it made none */
+    public double estimatedCost = 0;
+
     public LogicalJoinNode() {
     }
 
@@ -46,6 +54,22 @@ public class LogicalJoinNode {
         this.f2QuantifiedName = t2Alias+"."+this.f2PureName;
     }
     
+    /** Return a copy of this join, to be executed with the given algorithm
+     * at the given estimated cost */
+    public LogicalJoinNode withAlgorithm(JoinAlgorithm algorithm, double estimatedCost) {
+        LogicalJoinNode j = new LogicalJoinNode();
+        j.t1Alias = t1Alias;
+        j.t2Alias = t2Alias;
+        j.f1PureName = f1PureName;
+        j.f1QuantifiedName = f1QuantifiedName;
+        j.f2PureName = f2PureName;
+        j.f2QuantifiedName = f2QuantifiedName;
+        j.p = p;
+        j.algorithm = algorithm;
+        j.estimatedCost = estimatedCost;
+        return j;
+    }
+
     /** Return a new LogicalJoinNode with the inner and outer (t1.f1
      * and t2.f2) tables swapped. */
     public LogicalJoinNode swapInnerOuter() {
@@ -28,17 +28,23 @@ public class LogicalPlan {
     private List<LogicalJoinNode> joins;
     private final List<LogicalScanNode> tables;
     private final List<LogicalFilterNode> filters;
-    private final Map<String, OpIterator> subplanMap;
     private final Map<String,Integer> tableMap;
 
     private final List<LogicalSelectListNode> selectList;
-    private String groupByField = null;
+    private final List<String> groupByFields = new ArrayList<>();
     private boolean hasAgg = false;
     private String aggOp;
     private String aggField;
-    private boolean oByAsc, hasOrderBy = false;
-    private String oByField;
+    private boolean hasOrderBy = false;
+    private final List<String> oByFields = new ArrayList<>();
+    private final List<Boolean> oByAscs = new ArrayList<>();
+    private int limit = -1, offset = 0;
     private String query;
+    // whether physicalPlan orders the joins only once, and the order it chose
+    private boolean reuseJoinOrder = false;
+    private volatile List<LogicalJoinNode> orderedJoins = null;
+    // how many workers physicalPlan scans large heap files with
+    private int workers = Exchange.DEFAULT_WORKERS;
 //    private Query owner;
 
     /** Constructor -- generate an empty logical plan */
@@ -46,7 +52,6 @@ public class LogicalPlan {
         joins = new ArrayList<>();
         filters = new ArrayList<>();
         tables = new ArrayList<>();
-        subplanMap = new HashMap<>();
         tableMap = new HashMap<>();
 
         selectList = new ArrayList<>();
@@ -108,6 +113,57 @@ public class LogicalPlan {
         filters.add(lf);
     }
 
+    /** Add a filter whose constant is a parameter of a prepared
+     *   statement, to be given to {@link #physicalPlan(TransactionId, Map, boolean, List)}
+     *   @param field The name of the over which the filter applies, as in {@link #addFilter}
+     *   @param p The predicate for the filter
+     *   @param param The number of the parameter, from 0
+     *   @throws ParsingException if field is not in one of the tables
+     *   added via {@link #addScan} or if field is ambiguous
+     */
+    public void addParameterFilter(String field, Predicate.Op p, int param) throws ParsingException {
+        field = disambiguateName(field);
+        String table = field.split("[.]")[0];
+
+        filters.add(new LogicalFilterNode(table, field.split("[.]")[1], p, param));
+    }
+
+    /** @return true if the plan joins with a subquery, whose physical plan was
+        made when it was added */
+    public boolean hasSubqueries() {
+        for (LogicalJoinNode j : joins) {
+            if (j instanceof LogicalSubplanJoinNode)
+                return true;
+        }
+        return false;
+    }
+
+    /** Make {@link #physicalPlan} order the joins only the first time it is
+        called, with the statistics and constants it is given then, and reuse
+        that order afterwards without consulting statistics, so that a plan
+        can be executed many times with different parameters.
+        @param reuse whether to reuse the first join order
+    */
+    public void setReuseJoinOrder(boolean reuse) {
+        this.reuseJoinOrder = reuse;
+        this.orderedJoins = null;
+    }
+
+    /** Set how many workers {@link #physicalPlan} scans large heap files
+        with; with one worker it does not insert an {@link Exchange}.  Plans
+        that feed an Insert or a Delete must use one, since the workers would
+        read pages the modification is changing.
+        @param workers the number of scan workers, at least one
+    */
+    public void setWorkers(int workers) {
+        this.workers = Math.max(1, workers);
+    }
+
+    /** @return how many workers {@link #physicalPlan} scans with */
+    public int getWorkers() {
+        return workers;
+    }
+
     /** Add a join between two fields of two different tables.  
      *  @param joinField1 The name of the first join field; this can
      *  be a fully qualified name (e.g., tableName.field or
@@ -190,35 +246,55 @@ public class LogicalPlan {
     
     /** Add an aggregate over the field with the specified grouping to
         the query.  SimpleDb only supports a single aggregate
-        expression and GROUP BY field.
+        expression.
         @param op the aggregation operator
         @param afield the field to aggregate over
-        @param gfield the field to group by
+        @param gfield the field to group by, or null if there is no grouping
      * @throws ParsingException 
     */
     public void addAggregate(String op, String afield, String gfield) throws ParsingException {
+        addAggregate(op, afield, gfield == null ? Collections.emptyList() : Collections.singletonList(gfield));
+    }
+
+    /** Add an aggregate over the field, grouped by several fields, to the query.
+        @param op the aggregation operator
+        @param afield the field to aggregate over
+        @param gfields the fields to group by; empty if there is no grouping
+     * @throws ParsingException 
+    */
+    public void addAggregate(String op, String afield, List<String> gfields) throws ParsingException {
         afield=disambiguateName(afield);
-        if (gfield!=null)
-            gfield=disambiguateName(gfield);
+        groupByFields.clear();
+        for (String gfield : gfields)
+            groupByFields.add(disambiguateName(gfield));
         aggOp = op;
         aggField = afield;
-        groupByField = gfield;
         hasAgg = true;
     }
 
-    /** Add an ORDER BY expression in the specified order on the specified field.  SimpleDb only supports
-        a single ORDER BY field.
+    /** Add an ORDER BY expression in the specified order on the specified field.  Each call adds
+        a field to the ORDER BY list, which orders ties on the fields added before it.
         @param field the field to order by
         @param asc true if should be ordered in ascending order, false for descending order
      * @throws ParsingException 
     */
     public void addOrderBy(String field, boolean asc) throws ParsingException {
         field=disambiguateName(field);
-        oByField = field;
-        oByAsc = asc;
+        oByFields.add(field);
+        oByAscs.add(asc);
         hasOrderBy = true;
     }
 
+    /** Add a LIMIT ... OFFSET clause: return at most limit tuples, after skipping the first offset.
+        With an ORDER BY, only the first limit + offset tuples are sorted, by a {@link TopN}.
+        @param limit the maximum number of tuples to return, or -1 for no limit
+        @param offset the number of tuples to skip
+    */
+    public void setLimit(int limit, int offset) {
+        this.limit = limit;
+        this.offset = offset;
+    }
+
     /** Given a name of a field, try to figure out what table it belongs to by looking
      *   through all of the tables added via {@link #addScan}. 
      *  @return A fully qualified name of the form tableAlias.name.  If the name parameter is already qualified
@@ -288,7 +364,21 @@ public class LogicalPlan {
      *  @return A OpIterator representing this plan.
      */ 
     public OpIterator physicalPlan(TransactionId t, Map<String,TableStats> baseTableStats, boolean explain) throws ParsingException {
+        return physicalPlan(t, baseTableStats, explain, Collections.emptyList());
+    }
+
+    /** Convert this LogicalPlan into a physicalPlan, as {@link #physicalPlan(TransactionId, Map, boolean)},
+     *   with the given constants for the filters added by {@link #addParameterFilter}.  Several
+     *   physical plans may be made from one LogicalPlan at the same time.
+     *  @param params the constants of the parameters, by number
+     *  @throws ParsingException if the logical plan is not valid, or a parameter is missing
+     *  @return A OpIterator representing this plan.
+     */
+    public OpIterator physicalPlan(TransactionId t, Map<String,TableStats> baseTableStats, boolean explain,
+                                   List<String> params) throws ParsingException {
         Iterator<LogicalScanNode> tableIt = tables.iterator();
+        Map<String,OpIterator> subplanMap = new HashMap<>();
+        List<LogicalJoinNode> joins = this.orderedJoins;
         Map<String,String> equivMap = new HashMap<>();
         Map<String,Double> filterSelectivities = new HashMap<>();
         Map<String,TableStats> statsMap = new HashMap<>();
@@ -324,10 +414,20 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field in filter expression " + lf.fieldQuantifiedName);
             }
-            if (ftyp == Type.INT_TYPE)
-                f = new IntField(new Integer(lf.c));
-            else
-                f = new StringField(lf.c, Type.STRING_LEN);
+            String c = lf.c;
+            if (lf.param >= 0) {
+                if (lf.param >= params.size())
+                    throw new ParsingException("No value for parameter " + (lf.param + 1));
+                c = params.get(lf.param);
+            }
+            try {
+                if (ftyp == Type.INT_TYPE)
+                    f = new IntField(Integer.parseInt(c));
+                else
+                    f = new StringField(c, Type.STRING_LEN);
+            } catch (NumberFormatException e) {
+                throw new ParsingException("Value " + c + " of " + lf.fieldQuantifiedName + " is not an integer");
+            }
 
             Predicate p = null;
             try {
@@ -335,7 +435,13 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            // test the predicate inside the scan, so rejected tuples never leave the file iterator
+            if (subplan instanceof SeqScan)
+                ((SeqScan) subplan).addPredicate(p);
+            else
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (joins != null)
+                continue;
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
@@ -344,12 +450,30 @@ public class LogicalPlan {
 
             //s.addSelectivityFactor(estimateFilterSelectivity(lf,statsMap));
         }
-        
-        JoinOptimizer jo = new JoinOptimizer(this,joins);
 
-        joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+        // scan large heap files, with their filters, in parallel
+        if (workers > 1) {
+            for (Map.Entry<String, OpIterator> e : subplanMap.entrySet()) {
+                OpIterator subplan = e.getValue();
+                if (!Exchange.canParallelize(subplan))
+                    continue;
+                HeapFile file = (HeapFile) Database.getCatalog().getDatabaseFile(getTableId(e.getKey()));
+                if (file.numPages() >= Exchange.MIN_PARALLEL_PAGES)
+                    e.setValue(new Exchange(subplan, workers, false));
+            }
+        }
+        
+        if (joins == null) {
+            JoinOptimizer jo = new JoinOptimizer(this,this.joins);
+            joins = jo.orderJoins(statsMap,filterSelectivities,explain);
+            if (reuseJoinOrder)
+                orderedJoins = joins;
+            else
+                this.joins = joins;
+        }
 
-        for (LogicalJoinNode lj : joins) {
+        for (int ji = 0; ji < joins.size(); ji++) {
+            LogicalJoinNode lj = joins.get(ji);
             OpIterator plan1;
             OpIterator plan2;
             boolean isSubqueryJoin = lj instanceof LogicalSubplanJoinNode;
@@ -367,6 +491,24 @@ public class LogicalPlan {
 
             plan1 = subplanMap.get(t1name);
 
+            // both tables are already in one subplan, joined through others
+            // (the join graph has a cycle): the predicate just filters it
+            if (!isSubqueryJoin && t1name.equals(t2name)) {
+                if (plan1 == null)
+                    throw new ParsingException("Unknown table in WHERE clause " + lj.t1Alias);
+                TupleDesc td = plan1.getTupleDesc();
+                JoinPredicate jp;
+                try {
+                    jp = new JoinPredicate(td.fieldNameToIndex(lj.f1QuantifiedName), lj.p,
+                            td.fieldNameToIndex(lj.f2QuantifiedName));
+                } catch (NoSuchElementException e) {
+                    throw new ParsingException("Unknown field in join " + lj.f1QuantifiedName
+                            + " " + lj.p + " " + lj.f2QuantifiedName);
+                }
+                subplanMap.put(t1name, new FieldFilter(jp, plan1));
+                continue;
+            }
+
             if (isSubqueryJoin) {
                 plan2 = ((LogicalSubplanJoinNode) lj).subPlan;
                 if (plan2 == null)
@@ -381,7 +523,14 @@ public class LogicalPlan {
                 throw new ParsingException("Unknown table in WHERE clause " + lj.t2Alias);
 
             OpIterator j;
-            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2);
+            // the last join can produce the ORDER BY order itself if it sorts
+            // on the ordering field
+            boolean orderedOutput = ji == joins.size() - 1 && hasOrderBy && oByFields.size() == 1
+                    && oByAscs.get(0) && !hasAgg
+                    && (oByFields.get(0).equals(lj.f1QuantifiedName) || oByFields.get(0).equals(lj.f2QuantifiedName));
+            j = JoinOptimizer.instantiateJoin(lj, plan1, plan2, orderedOutput);
+            if (lj.estimatedCost > 0 && j instanceof Operator)
+                ((Operator) j).setEstimatedCost(lj.estimatedCost);
             subplanMap.put(t1name, j);
 
             if (!isSubqueryJoin) {
@@ -413,7 +562,7 @@ public class LogicalPlan {
         for (int i = 0; i < selectList.size(); i++) {
             LogicalSelectListNode si = selectList.get(i);
             if (si.aggOp != null) {
-                outFields.add(groupByField!=null?1:0);
+                outFields.add(groupByFields.size());
                 TupleDesc td = node.getTupleDesc();
 //                int  id;
                 try {
@@ -425,16 +574,17 @@ public class LogicalPlan {
                 outTypes.add(Type.INT_TYPE);  //the type of all aggregate functions is INT
 
             } else if (hasAgg) {
-                    if (groupByField == null) {
+                    int gid = groupByFields.indexOf(si.fname);
+                    if (gid < 0) {
                         throw new ParsingException("Field " + si.fname + " does not appear in GROUP BY list");
                     }
-                    outFields.add(0);
+                    outFields.add(gid);
                     TupleDesc td = node.getTupleDesc();
                     int  id;
                     try {
-                        id = td.fieldNameToIndex(groupByField);
+                        id = td.fieldNameToIndex(si.fname);
                     } catch (NoSuchElementException e) {
-                        throw new ParsingException("Unknown field " +  groupByField + " in GROUP BY statement");
+                        throw new ParsingException("Unknown field " +  si.fname + " in GROUP BY statement");
                     }
                     outTypes.add(td.getFieldType(id));
             } else if (si.fname.equals("null.*")) {
@@ -461,9 +611,12 @@ public class LogicalPlan {
             TupleDesc td = node.getTupleDesc();
             Aggregate aggNode;
             try {
+                int[] gfields = new int[groupByFields.size()];
+                for (int i = 0; i < gfields.length; i++)
+                    gfields[i] = td.fieldNameToIndex(groupByFields.get(i));
                 aggNode = new Aggregate(node,
                                         td.fieldNameToIndex(aggField),
-                                        groupByField == null?Aggregator.NO_GROUPING:td.fieldNameToIndex(groupByField),
+                                        gfields,
                                 getAggOp(aggOp));
             } catch (NoSuchElementException | IllegalArgumentException e) {
                 throw new simpledb.ParsingException(e);
@@ -472,8 +625,22 @@ public class LogicalPlan {
         }
 
         if (hasOrderBy) {
-            node = new OrderBy(node.getTupleDesc().fieldNameToIndex(oByField), oByAsc, node);
+            int[] oByIndexes = new int[oByFields.size()];
+            boolean[] oByAsc = new boolean[oByFields.size()];
+            for (int i = 0; i < oByIndexes.length; i++) {
+                oByIndexes[i] = node.getTupleDesc().fieldNameToIndex(oByFields.get(i));
+                oByAsc[i] = oByAscs.get(i);
+            }
+            if (oByIndexes.length == 1 && oByAsc[0] && SortMergeJoin.isSortedOn(node, oByIndexes[0])) {
+                // already in order
+            } else if (limit >= 0) {
+                node = new TopN(oByIndexes, oByAsc, (int) Math.min(Integer.MAX_VALUE, (long) limit + offset), node);
+            } else {
+                node = new OrderBy(oByIndexes, oByAsc, node);
+            }
         }
+        if (limit >= 0 || offset > 0)
+            node = new Limit(limit, offset, node);
 
         return new Project(outFields, outTypes, node);
     }
@@ -12,12 +12,15 @@ public class QueryPlanVisualizer {
 
     static final String JOIN = "⨝";
     static final String HASH_JOIN = "⨝(hash)";
+    static final String INDEX_JOIN = "⨝(index)";
+    static final String MERGE_JOIN = "⨝(merge)";
     static final String SELECT = "σ";
     static final String PROJECT = "π";
     static final String RENAME = "ρ";
     static final String SCAN = "scan";
     static final String ORDERBY = "o";
     static final String GROUPBY = "g";
+    static final String LIMIT = "limit";
     static final String SPACE = "  ";
 
     private int calculateQueryPlanTreeDepth(OpIterator root) {
@@ -29,7 +32,8 @@ public class QueryPlanVisualizer {
         Operator o = (Operator) root;
         OpIterator[] children = o.getChildren();
 
-        if (o instanceof Join || o instanceof HashEquiJoin) {
+        if (o instanceof Join || o instanceof HashEquiJoin || o instanceof IndexNestedLoopJoin
+                || o instanceof SortMergeJoin) {
             int d1 = this.calculateQueryPlanTreeDepth(children[0]);
             int d2 = this.calculateQueryPlanTreeDepth(children[1]);
             return Math.max(d1, d2) + 3;
@@ -58,6 +62,46 @@ public class QueryPlanVisualizer {
 
     }
 
+    /**
+     * @return the optimizer's estimated cost of a join, to follow its
+     *         cardinality, or nothing if it made no estimate
+     */
+    private static String costText(double cost) {
+        return cost > 0 ? String.format(",cost:%.0f", cost) : "";
+    }
+
+    private void buildEquiJoinNode(SubTreeDescriptor thisNode, String symbol,
+                                   JoinPredicate jp, TupleDesc td, int card, double cost,
+                                   OpIterator[] children, int queryPlanDepth,
+                                   int currentDepth, int adjustDepth,
+                                   int currentStartPosition,
+                                   int parentUpperBarStartShift) {
+        String field1 = td.getFieldName(jp.getField1());
+        String field2 = td.getFieldName(jp.getField2()
+                + children[0].getTupleDesc().numFields());
+        thisNode.text = String.format("%1$s(%2$s),card:%3$d", symbol, field1
+                + jp.getOperator() + field2, card) + costText(cost);
+        int upBarShift = parentUpperBarStartShift;
+        if (symbol.length() / 2 > parentUpperBarStartShift)
+            upBarShift = symbol.length() / 2;
+        SubTreeDescriptor left = this.buildTree(queryPlanDepth,
+                currentDepth + 3 + adjustDepth, children[0],
+                currentStartPosition, upBarShift);
+        SubTreeDescriptor right = this.buildTree(queryPlanDepth,
+                currentDepth + 3 + adjustDepth, children[1],
+                currentStartPosition + left.width + SPACE.length(), 0);
+        thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
+        thisNode.textStartPosition = thisNode.upBarPosition
+                - symbol.length() / 2;
+        thisNode.width = Math.max(
+                left.width + right.width + SPACE.length(),
+                thisNode.textStartPosition + thisNode.text.length()
+                        - currentStartPosition);
+        thisNode.leftChild = left;
+        thisNode.rightChild = right;
+        thisNode.height = currentDepth;
+    }
+
     private SubTreeDescriptor buildTree(int queryPlanDepth, int currentDepth,
                                         OpIterator queryPlan, int currentStartPosition,
                                         int parentUpperBarStartShift) {
@@ -78,6 +122,12 @@ public class QueryPlanVisualizer {
                 alias = "";
             thisNode.text = String
                     .format("%1$s(%2$s)", SCAN, tableName + alias);
+            // the predicates pushed into the scan
+            for (Predicate p : s.getPredicates()) {
+                thisNode.text += String.format(",%1$s(%2$s)", SELECT, s
+                        .getTupleDesc().getFieldName(p.getField())
+                        + p.getOp() + p.getOperand());
+            }
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -117,7 +167,8 @@ public class QueryPlanVisualizer {
                 String field2 = td.getFieldName(jp.getField2()
                         + children[0].getTupleDesc().numFields());
                 thisNode.text = String.format("%1$s(%2$s),card:%3$d", JOIN,
-                        field1 + jp.getOperator() + field2,j.getEstimatedCardinality());
+                        field1 + jp.getOperator() + field2,j.getEstimatedCardinality())
+                        + costText(j.getEstimatedCost());
                 int upBarShift = parentUpperBarStartShift;
                 if (JOIN.length() / 2 > parentUpperBarStartShift)
                     upBarShift = JOIN.length() / 2;
@@ -140,32 +191,22 @@ public class QueryPlanVisualizer {
                 thisNode.height = currentDepth;
             } else if (plan instanceof HashEquiJoin) {
                 HashEquiJoin j = (HashEquiJoin) plan;
-                JoinPredicate jp = j.getJoinPredicate();
-                TupleDesc td = j.getTupleDesc();
-                String field1 = td.getFieldName(jp.getField1());
-                String field2 = td.getFieldName(jp.getField2()
-                        + children[0].getTupleDesc().numFields());
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", HASH_JOIN, field1
-                        + jp.getOperator() + field2,j.getEstimatedCardinality());
-                int upBarShift = parentUpperBarStartShift;
-                if (HASH_JOIN.length() / 2 > parentUpperBarStartShift)
-                    upBarShift = HASH_JOIN.length() / 2;
-                SubTreeDescriptor left = this.buildTree(queryPlanDepth,
-                        currentDepth + 3 + adjustDepth, children[0],
-                        currentStartPosition, upBarShift);
-                SubTreeDescriptor right = this.buildTree(queryPlanDepth,
-                        currentDepth + 3 + adjustDepth, children[1],
-                        currentStartPosition + left.width + SPACE.length(), 0);
-                thisNode.upBarPosition = (left.upBarPosition + right.upBarPosition) / 2;
-                thisNode.textStartPosition = thisNode.upBarPosition
-                        - HASH_JOIN.length() / 2;
-                thisNode.width = Math.max(
-                        left.width + right.width + SPACE.length(),
-                        thisNode.textStartPosition + thisNode.text.length()
-                                - currentStartPosition);
-                thisNode.leftChild = left;
-                thisNode.rightChild = right;
-                thisNode.height = currentDepth;
+                this.buildEquiJoinNode(thisNode, HASH_JOIN, j.getJoinPredicate(),
+                        j.getTupleDesc(), j.getEstimatedCardinality(), j.getEstimatedCost(), children,
+                        queryPlanDepth, currentDepth, adjustDepth,
+                        currentStartPosition, parentUpperBarStartShift);
+            } else if (plan instanceof SortMergeJoin) {
+                SortMergeJoin j = (SortMergeJoin) plan;
+                this.buildEquiJoinNode(thisNode, MERGE_JOIN, j.getJoinPredicate(),
+                        j.getTupleDesc(), j.getEstimatedCardinality(), j.getEstimatedCost(), children,
+                        queryPlanDepth, currentDepth, adjustDepth,
+                        currentStartPosition, parentUpperBarStartShift);
+            } else if (plan instanceof IndexNestedLoopJoin) {
+                IndexNestedLoopJoin j = (IndexNestedLoopJoin) plan;
+                this.buildEquiJoinNode(thisNode, INDEX_JOIN, j.getJoinPredicate(),
+                        j.getTupleDesc(), j.getEstimatedCardinality(), j.getEstimatedCost(), children,
+                        queryPlanDepth, currentDepth, adjustDepth,
+                        currentStartPosition, parentUpperBarStartShift);
             }
             else if (plan instanceof Aggregate) {
                 Aggregate a = (Aggregate) plan;
@@ -179,8 +220,11 @@ public class QueryPlanVisualizer {
                             a.aggregateOp(), a.aggregateFieldName(),a.getEstimatedCardinality());
                     alignTxt = td.getFieldName(0);
                 } else {
+                    StringBuilder gfields = new StringBuilder();
+                    for (int i = 0; i < a.groupFields().length; i++)
+                        gfields.append(i == 0 ? "" : ",").append(td.getFieldName(i));
                     thisNode.text = String.format("%1$s(%2$s), %3$s(%4$s),card:%5$d",
-                            GROUPBY, a.groupFieldName(), a.aggregateOp(),
+                            GROUPBY, gfields.toString(), a.aggregateOp(),
                             a.aggregateFieldName(),a.getEstimatedCardinality());
                     alignTxt = GROUPBY;
                 }
@@ -198,13 +242,18 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof Filter) {
-                Filter f = (Filter) plan;
-                Predicate p = f.getPredicate();
-                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, children[0]
-                        .getTupleDesc().getFieldName(p.getField())
-                        + p.getOp()
-                        + p.getOperand(),f.getEstimatedCardinality());
+            } else if (plan instanceof Filter || plan instanceof FieldFilter) {
+                TupleDesc ctd = children[0].getTupleDesc();
+                String cond;
+                if (plan instanceof Filter) {
+                    Predicate p = ((Filter) plan).getPredicate();
+                    cond = ctd.getFieldName(p.getField()) + p.getOp() + p.getOperand();
+                } else {
+                    JoinPredicate p = ((FieldFilter) plan).getPredicate();
+                    cond = ctd.getFieldName(p.getField1()) + p.getOperator() + ctd.getFieldName(p.getField2());
+                }
+                thisNode.text = String.format("%1$s(%2$s),card:%3$d", SELECT, cond,
+                        plan.getEstimatedCardinality());
                 int upBarShift = parentUpperBarStartShift;
                 if (SELECT.length() / 2 > parentUpperBarStartShift)
                     upBarShift = SELECT.length() / 2;
@@ -219,13 +268,23 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
-            } else if (plan instanceof OrderBy) {
-                OrderBy o = (OrderBy) plan;
-                thisNode.text = String.format(
-                        "%1$s(%2$s),card:%3$d",
-                        ORDERBY,
-                        children[0].getTupleDesc().getFieldName(
-                                o.getOrderByField()),o.getEstimatedCardinality());
+            } else if (plan instanceof OrderBy || plan instanceof TopN) {
+                int[] ofields = plan instanceof OrderBy ? ((OrderBy) plan).getOrderByFields()
+                        : ((TopN) plan).getOrderByFields();
+                StringBuilder onames = new StringBuilder();
+                for (int i = 0; i < ofields.length; i++)
+                    onames.append(i == 0 ? "" : ",").append(children[0].getTupleDesc().getFieldName(ofields[i]));
+                if (plan instanceof OrderBy) {
+                    OrderBy o = (OrderBy) plan;
+                    thisNode.text = String.format(
+                            "%1$s(%2$s),card:%3$d",
+                            ORDERBY, onames.toString(), o.getEstimatedCardinality());
+                } else {
+                    TopN o = (TopN) plan;
+                    thisNode.text = String.format(
+                            "%1$s(%2$s),top:%3$d,card:%4$d",
+                            ORDERBY, onames.toString(), o.getN(), o.getEstimatedCardinality());
+                }
                 int upBarShift = parentUpperBarStartShift;
                 if (ORDERBY.length() / 2 > parentUpperBarStartShift)
                     upBarShift = ORDERBY.length() / 2;
@@ -240,6 +299,24 @@ public class QueryPlanVisualizer {
                                 - currentStartPosition);
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
+            } else if (plan instanceof Limit) {
+                Limit l = (Limit) plan;
+                thisNode.text = String.format("%1$s(%2$d,%3$d),card:%4$d", LIMIT,
+                        l.getLimit(), l.getOffset(), l.getEstimatedCardinality());
+                int upBarShift = parentUpperBarStartShift;
+                if (LIMIT.length() / 2 > parentUpperBarStartShift)
+                    upBarShift = LIMIT.length() / 2;
+                SubTreeDescriptor child = this.buildTree(queryPlanDepth,
+                        currentDepth + 2 + adjustDepth, children[0],
+                        currentStartPosition, upBarShift);
+                thisNode.upBarPosition = child.upBarPosition;
+                thisNode.textStartPosition = thisNode.upBarPosition
+                        - LIMIT.length() / 2;
+                thisNode.width = Math.max(child.width,
+                        thisNode.textStartPosition + thisNode.text.length()
+                                - currentStartPosition);
+                thisNode.leftChild = child;
+                thisNode.height = currentDepth;
             } else if (plan instanceof Project) {
                 Project p = (Project) plan;
                 StringBuilder fields = new StringBuilder();
@@ -263,7 +340,8 @@ public class QueryPlanVisualizer {
                 thisNode.leftChild = child;
                 thisNode.height = currentDepth;
             }
-            else if (plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
+            else if (plan instanceof Exchange
+                    || plan.getClass().getSuperclass().getSuperclass().getSimpleName().equals("Exchange")) {
                 String name="Exchange";
                 int card=0;
                 try {
@@ -0,0 +1,145 @@
+package simpledb.optimizer;
+
+import simpledb.common.Database;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+/**
+ * StatsMaintainer keeps the statistics in {@link TableStats#getStatsMap()} up
+ * to date as tuples are inserted and deleted, instead of recomputing them.
+ * <p>
+ * The buffer pool reports every tuple a transaction inserts or deletes; the
+ * tuples are kept per transaction and per table until the transaction
+ * completes. (Under NO STEAL a transaction's changes fit in the buffer pool,
+ * so keeping them here costs no more than that.) On commit they are applied
+ * with {@link TableStats#withChanges}, which builds new statistics and
+ * leaves the old ones untouched, and the new statistics replace the old in
+ * the stats map in one atomic step, so a planner always sees a consistent
+ * TableStats object. On abort they are dropped.
+ * <p>
+ * Delta updates neither rebalance histogram buckets nor find new most
+ * common values, so once a table's modifications since it was sampled pass {@link #DRIFT_THRESHOLD}
+ * of its size, the table is sampled again on a background thread. Changes
+ * committed while a table is being sampled again may be counted twice or not
+ * at all; the next re-sample corrects them. After a re-sample the statistics
+ * file, if there is one, is rewritten.
+ * <p>
+ * Only tables that already have statistics are maintained.
+ */
+public class StatsMaintainer {
+
+    /**
+     * The fraction of a table's tuples that may change before its statistics
+     * are sampled again
+     */
+    public static final double DRIFT_THRESHOLD = 0.2;
+
+    // the changes of running transactions, by transaction and table name
+    private static final ConcurrentMap<TransactionId, Map<String, Changes>> pending = new ConcurrentHashMap<>();
+
+    // the re-samples in progress, by table name
+    private static final ConcurrentMap<String, Future<?>> resamples = new ConcurrentHashMap<>();
+
+    private static final ExecutorService resampler = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "stats-resampler");
+        t.setDaemon(true);
+        return t;
+    });
+
+    /** The tuples a transaction inserted into and deleted from one table */
+    private static class Changes {
+        final List<Tuple> inserted = new ArrayList<>();
+        final List<Tuple> deleted = new ArrayList<>();
+    }
+
+    private StatsMaintainer() {
+    }
+
+    /**
+     * Record that a transaction inserted or deleted a tuple
+     *
+     * @param tid
+     *            the transaction that changed the table
+     * @param tableId
+     *            the table the tuple was inserted into or deleted from
+     * @param t
+     *            the tuple
+     * @param insert
+     *            true if the tuple was inserted, false if deleted
+     */
+    public static void recordChange(TransactionId tid, int tableId, Tuple t, boolean insert) {
+        String name = Database.getCatalog().getTableName(tableId);
+        if (!TableStats.getStatsMap().containsKey(name))
+            return;
+        Changes c = pending.computeIfAbsent(tid, k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(name, k -> new Changes());
+        synchronized (c) {
+            if (insert)
+                c.inserted.add(t);
+            else
+                c.deleted.add(t);
+        }
+    }
+
+    /**
+     * Apply the changes of a committed transaction to the statistics of the
+     * tables it changed, or drop the changes of an aborted one
+     *
+     * @param tid
+     *            the transaction that completed
+     * @param commit
+     *            true if the transaction committed
+     */
+    public static void transactionComplete(TransactionId tid, boolean commit) {
+        Map<String, Changes> changes = pending.remove(tid);
+        if (changes == null || !commit)
+            return;
+        for (Map.Entry<String, Changes> e : changes.entrySet()) {
+            Changes c = e.getValue();
+            TableStats updated = TableStats.getStatsMap().computeIfPresent(e.getKey(),
+                    (name, old) -> old.withChanges(c.inserted, c.deleted));
+            if (updated != null && updated.drift() > DRIFT_THRESHOLD)
+                resample(e.getKey());
+        }
+    }
+
+    /**
+     * Sample a table again in the background, unless that is already
+     * scheduled
+     */
+    private static void resample(String name) {
+        FutureTask<Void> task = new FutureTask<Void>(() -> {
+            int tableId = Database.getCatalog().getTableId(name);
+            TableStats.setTableStats(name, new TableStats(tableId, TableStats.IOCOSTPERPAGE));
+            TableStats.saveStatistics();
+            return null;
+        }) {
+            @Override
+            protected void done() {
+                resamples.remove(name, this);
+            }
+        };
+        if (resamples.putIfAbsent(name, task) == null)
+            resampler.execute(task);
+    }
+
+    /**
+     * Wait for a re-sample of a table that is in progress, if any, to finish
+     */
+    public static void waitForResample(String name) throws InterruptedException, ExecutionException {
+        Future<?> f = resamples.get(name);
+        if (f != null)
+            f.get();
+    }
+}
@@ -3,20 +3,45 @@ package simpledb.optimizer;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.execution.Exchange;
 import simpledb.execution.Predicate;
-import simpledb.execution.SeqScan;
 import simpledb.storage.*;
-import simpledb.transaction.Transaction;
-import simpledb.transaction.TransactionAbortedException;
-import simpledb.transaction.TransactionId;
 
+import java.io.*;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * TableStats represents statistics (e.g., histograms) about base tables in a
  * query. 
+ * <p>
+ * Statistics are computed from a sample of the table's pages rather than
+ * from all of its tuples. By default a table of at most
+ * {@link #MIN_SAMPLE_PAGES} pages is read in full; of a larger one, a fraction
+ * (the sample rate) of its pages is chosen by reservoir sampling over the
+ * page numbers, and the chosen pages are read once, in file order, straight
+ * from disk without going through the buffer pool. The tuples read feed a
+ * reservoir of at most {@link #MAX_SAMPLE_TUPLES} tuples, kept column by
+ * column, from which every column's {@link EquiDepthHistogram} is built, so
+ * memory use does not grow with the table. The number of tuples is extrapolated from the
+ * sampled pages.
+ * <p>
+ * A TableStats object is not changed once it is published in the stats map:
+ * {@link StatsMaintainer} replaces it with updated statistics as
+ * transactions that insert or delete tuples commit.
+ * <p>
+ * Statistics can be kept in a statistics file next to the catalog, so that
+ * startup only computes those of tables that changed since it was written;
+ * see {@link #computeStatistics(File)}.
  * 
  * This class is not needed in implementing lab1 and lab2.
  */
@@ -26,12 +51,17 @@ public class TableStats {
 
     static final int IOCOSTPERPAGE = 1000;
 
+    // changed whenever statistics are replaced, but not by the delta updates
+    // of StatsMaintainer
+    private static final AtomicLong version = new AtomicLong();
+
     public static TableStats getTableStats(String tablename) {
         return statsMap.get(tablename);
     }
 
     public static void setTableStats(String tablename, TableStats stats) {
         statsMap.put(tablename, stats);
+        version.incrementAndGet();
     }
     
     public static void setStatsMap(Map<String,TableStats> s)
@@ -43,25 +73,289 @@ public class TableStats {
         } catch (NoSuchFieldException | IllegalAccessException | IllegalArgumentException | SecurityException e) {
             e.printStackTrace();
         }
+        version.incrementAndGet();
+    }
 
+    /**
+     * @return the version of the statistics, which changes whenever a
+     *         table's statistics are computed, loaded or set, but not when
+     *         they are updated for the tuples a transaction changed
+     */
+    public static long getVersion() {
+        return version.get();
     }
 
     public static Map<String, TableStats> getStatsMap() {
         return statsMap;
     }
 
+    /**
+     * Compute the statistics of every table in the catalog, several tables
+     * at a time
+     */
     public static void computeStatistics() {
-        Iterator<Integer> tableIt = Database.getCatalog().tableIdIterator();
+        List<Integer> tableIds = new ArrayList<>();
+        Database.getCatalog().tableIdIterator().forEachRemaining(tableIds::add);
+        computeStatistics(tableIds);
+    }
 
+    /**
+     * Load the statistics of the tables in the catalog from a statistics
+     * file, and compute those of tables that are missing from it or have
+     * changed since it was written, rewriting the file if any were computed.
+     * The file is also rewritten whenever a table's statistics are sampled
+     * again.
+     *
+     * @param file
+     *            the statistics file, usually {@link #STATS_FILE} next to the
+     *            catalog file
+     */
+    public static void computeStatistics(File file) {
+        statsFile = file;
+        Set<String> loaded = loadStatistics(file);
+        List<Integer> tableIds = new ArrayList<>();
+        Iterator<Integer> it = Database.getCatalog().tableIdIterator();
+        while (it.hasNext()) {
+            int tableid = it.next();
+            if (!loaded.contains(Database.getCatalog().getTableName(tableid)))
+                tableIds.add(tableid);
+        }
+        if (!loaded.isEmpty())
+            System.out.println("Loaded stats of " + loaded.size() + " tables from " + file);
+        if (!tableIds.isEmpty()) {
+            computeStatistics(tableIds);
+            saveStatistics();
+        }
+    }
+
+    private static void computeStatistics(List<Integer> tableIds) {
         System.out.println("Computing table stats.");
-        while (tableIt.hasNext()) {
-            int tableid = tableIt.next();
-            TableStats s = new TableStats(tableid, IOCOSTPERPAGE);
-            setTableStats(Database.getCatalog().getTableName(tableid), s);
+        ExecutorService pool = Executors.newFixedThreadPool(
+                Math.max(1, Math.min(tableIds.size(), Exchange.DEFAULT_WORKERS)));
+        try {
+            List<Future<TableStats>> stats = new ArrayList<>();
+            for (int tableid : tableIds) {
+                stats.add(pool.submit(() -> new TableStats(tableid, IOCOSTPERPAGE)));
+            }
+            for (int i = 0; i < tableIds.size(); i++) {
+                try {
+                    setTableStats(Database.getCatalog().getTableName(tableIds.get(i)), stats.get(i).get());
+                } catch (ExecutionException e) {
+                    e.getCause().printStackTrace();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            pool.shutdown();
         }
         System.out.println("Done.");
     }
 
+    /** The name of the statistics file, kept next to the catalog file */
+    public static final String STATS_FILE = "stats.dat";
+
+    private static final int STATS_MAGIC = 0x53444253;
+
+    /** The format version of the statistics file; files of other versions are ignored */
+    static final int STATS_VERSION = 3;
+
+    // the statistics file set by computeStatistics(File), if any
+    private static volatile File statsFile = null;
+
+    /**
+     * Write the statistics in the stats map to the statistics file that was
+     * last passed to {@link #computeStatistics(File)}, if any
+     */
+    public static void saveStatistics() {
+        File file = statsFile;
+        if (file == null)
+            return;
+        try {
+            saveStatistics(file);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Write the statistics in the stats map of tables in the catalog to a
+     * file. The file starts with
+     * a magic number, the format version and the number of tables; each
+     * table follows as its name, the length of its entry and the entry, so
+     * that entries that are out of date can be skipped when reading. The
+     * file is written to a temporary file first and then renamed, so
+     * readers never see a partly written file.
+     */
+    public static synchronized void saveStatistics(File file) throws IOException {
+        List<Map.Entry<String, TableStats>> tables = new ArrayList<>();
+        for (Map.Entry<String, TableStats> e : statsMap.entrySet()) {
+            try {
+                if (Database.getCatalog().getTableId(e.getKey()) == e.getValue().tableId)
+                    tables.add(e);
+            } catch (NoSuchElementException ignored) {
+            }
+        }
+        File tmp = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)))) {
+            out.writeInt(STATS_MAGIC);
+            out.writeInt(STATS_VERSION);
+            out.writeInt(tables.size());
+            for (Map.Entry<String, TableStats> e : tables) {
+                ByteArrayOutputStream entry = new ByteArrayOutputStream();
+                e.getValue().write(new DataOutputStream(entry));
+                out.writeUTF(e.getKey());
+                out.writeInt(entry.size());
+                entry.writeTo(out);
+            }
+        }
+        Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read the statistics of the tables in the catalog from a file written
+     * by {@link #saveStatistics(File)} into the stats map. Tables whose
+     * schema or heap file has changed since the file was written are
+     * skipped, as is the whole file if it is missing, of another version, or
+     * unreadable.
+     *
+     * @return the names of the tables whose statistics were read
+     */
+    public static Set<String> loadStatistics(File file) {
+        Set<String> loaded = new HashSet<>();
+        if (!file.exists())
+            return loaded;
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != STATS_MAGIC || in.readInt() != STATS_VERSION)
+                return loaded;
+            int n = in.readInt();
+            for (int i = 0; i < n; i++) {
+                String name = in.readUTF();
+                byte[] entry = new byte[in.readInt()];
+                in.readFully(entry);
+                int tableid;
+                try {
+                    tableid = Database.getCatalog().getTableId(name);
+                } catch (NoSuchElementException e) {
+                    continue;
+                }
+                if (!(Database.getCatalog().getDatabaseFile(tableid) instanceof HeapFile))
+                    continue;
+                TableStats stats = read(tableid, new DataInputStream(new ByteArrayInputStream(entry)));
+                if (stats != null) {
+                    setTableStats(name, stats);
+                    loaded.add(name);
+                }
+            }
+        } catch (IOException e) {
+            System.out.println("Ignoring unreadable stats file " + file + ": " + e);
+        }
+        return loaded;
+    }
+
+    /**
+     * Write the statistics, and the length and modification time of the
+     * heap file they describe
+     */
+    private void write(DataOutputStream out) throws IOException {
+        File f = dbFile.getFile();
+        out.writeLong(f.length());
+        out.writeLong(f.lastModified());
+        out.writeInt(tupleDesc.numFields());
+        for (int i = 0; i < tupleDesc.numFields(); i++) {
+            out.writeByte(tupleDesc.getFieldType(i).ordinal());
+        }
+        out.writeInt(totalTuple);
+        out.writeInt(totalPages);
+        out.writeInt(sampledPages);
+        out.writeInt(sampleSize);
+        out.writeInt(sampledTuples);
+        out.writeLong(modifications);
+        out.writeLong(sketchTuples);
+        for (HyperLogLog sketch : sketches) {
+            sketch.write(out);
+        }
+        for (int i = 0; i < tupleDesc.numFields(); i++) {
+            if (tupleDesc.getFieldType(i) == Type.INT_TYPE)
+                integerIntHistogramMap.get(i).write(out);
+            else
+                stringHistogramMap.get(i).write(out);
+        }
+    }
+
+    /**
+     * Read statistics written by {@link #write}
+     *
+     * @return the statistics, or null if the table's heap file or schema
+     *         has changed since they were written
+     */
+    private static TableStats read(int tableid, DataInputStream in) throws IOException {
+        HeapFile f = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
+        TupleDesc td = f.getTupleDesc();
+        if (in.readLong() != f.getFile().length() || in.readLong() != f.getFile().lastModified())
+            return null;
+        if (in.readInt() != td.numFields())
+            return null;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (in.readByte() != td.getFieldType(i).ordinal())
+                return null;
+        }
+        return new TableStats(f, in);
+    }
+
+    private TableStats(HeapFile f, DataInputStream in) throws IOException {
+        this.dbFile = f;
+        this.ioCostPerPage = IOCOSTPERPAGE;
+        this.tableId = f.getId();
+        this.tupleDesc = f.getTupleDesc();
+        this.totalTuple = in.readInt();
+        this.totalPages = in.readInt();
+        this.sampledPages = in.readInt();
+        this.sampleSize = in.readInt();
+        this.sampledTuples = in.readInt();
+        this.modifications = in.readLong();
+        this.sketchTuples = in.readLong();
+        this.sketches = new HyperLogLog[tupleDesc.numFields()];
+        for (int i = 0; i < sketches.length; i++)
+            this.sketches[i] = HyperLogLog.read(in);
+        this.integerIntHistogramMap = new HashMap<>();
+        this.stringHistogramMap = new HashMap<>();
+        for (int i = 0; i < tupleDesc.numFields(); i++) {
+            if (tupleDesc.getFieldType(i) == Type.INT_TYPE)
+                integerIntHistogramMap.put(i, EquiDepthHistogram.read(Type.INT_TYPE, in));
+            else
+                stringHistogramMap.put(i, EquiDepthHistogram.read(Type.STRING_TYPE, in));
+        }
+    }
+
+    /** Default fraction of the pages of a large table that its statistics are computed from */
+    public static final double DEFAULT_SAMPLE_RATE = 0.1;
+
+    /** Tables of at most this many pages are read in full */
+    public static final int MIN_SAMPLE_PAGES = 1024;
+
+    /** The most tuples kept in memory while computing the statistics of a table */
+    public static final int MAX_SAMPLE_TUPLES = 1 << 17;
+
+    private static volatile double sampleRate = DEFAULT_SAMPLE_RATE;
+
+    /**
+     * Set the fraction of the pages of large tables that statistics computed
+     * from now on are based on
+     *
+     * @param rate
+     *            the sample rate, in (0, 1]
+     */
+    public static void setSampleRate(double rate) {
+        if (!(rate > 0 && rate <= 1))
+            throw new IllegalArgumentException("sample rate must be in (0, 1]: " + rate);
+        sampleRate = rate;
+    }
+
+    public static double getSampleRate() {
+        return sampleRate;
+    }
+
     /**
      * Number of bins for the histogram. Feel free to increase this value over
      * 100, though our tests assume that you have at least 100 bins in your
@@ -69,9 +363,9 @@ public class TableStats {
      */
     static final int NUM_HIST_BINS = 100;
 
-    private Map<Integer, StringHistogram> stringHistogramMap;
+    private Map<Integer, EquiDepthHistogram<String>> stringHistogramMap;
 
-    private Map<Integer, IntHistogram> integerIntHistogramMap;
+    private Map<Integer, EquiDepthHistogram<Integer>> integerIntHistogramMap;
 
     HeapFile dbFile;
 
@@ -83,12 +377,30 @@ public class TableStats {
 
     private int totalPages;
 
+    private int sampledPages;
+
+    // the number of tuples in the histograms
+    private int sampleSize;
+
+    // the number of tuples inserted or deleted since the table was sampled
+    private long modifications;
+
+    // the number of tuples in the table when it was sampled
+    private int sampledTuples;
+
+    // the distinct-value sketch of each field, of the tuples read when the
+    // table was sampled and those inserted since
+    private HyperLogLog[] sketches;
+
+    // the number of tuples added to the sketches
+    private long sketchTuples;
+
     private TupleDesc tupleDesc;
 
-    private List<Tuple> tupleList;
     /**
      * Create a new TableStats object, that keeps track of statistics on each
-     * column of a table
+     * column of a table, from a sample of its pages at the current sample
+     * rate
      * 
      * @param tableid
      *            The table over which to compute statistics
@@ -97,77 +409,255 @@ public class TableStats {
      *            sequential-scan IO and disk seeks.
      */
     public TableStats(int tableid, int ioCostPerPage) {
-        // For this function, you'll have to get the
-        // DbFile for the table in question,
-        // then scan through its tuples and calculate
-        // the values that you need.
-        // You should try to do this reasonably efficiently, but you don't
-        // necessarily have to (for example) do everything
-        // in a single scan of the table.
-        // some code goes here
+        this(tableid, ioCostPerPage, sampleRateFor((HeapFile) Database.getCatalog().getDatabaseFile(tableid)));
+    }
+
+    /**
+     * @return the fraction of a table's pages to sample by default: all of a
+     *         small table, else the sample rate but at least
+     *         {@link #MIN_SAMPLE_PAGES} pages
+     */
+    private static double sampleRateFor(HeapFile f) {
+        int n = f.numPages();
+        return n <= MIN_SAMPLE_PAGES ? 1.0 : Math.max(sampleRate, (double) MIN_SAMPLE_PAGES / n);
+    }
+
+    /**
+     * Create a new TableStats object, that keeps track of statistics on each
+     * column of a table
+     *
+     * @param tableid
+     *            The table over which to compute statistics
+     * @param ioCostPerPage
+     *            The cost per page of IO. This doesn't differentiate between
+     *            sequential-scan IO and disk seeks.
+     * @param sampleRate
+     *            The fraction of the table's pages to read, in (0, 1]
+     */
+    public TableStats(int tableid, int ioCostPerPage, double sampleRate) {
+        if (!(sampleRate > 0 && sampleRate <= 1))
+            throw new IllegalArgumentException("sample rate must be in (0, 1]: " + sampleRate);
         this.dbFile = (HeapFile) Database.getCatalog().getDatabaseFile(tableid);
         this.ioCostPerPage = ioCostPerPage;
         this.totalPages = this.dbFile.numPages();
         this.tableId = tableid;
         this.tupleDesc = this.dbFile.getTupleDesc();
-        this.tupleList = new ArrayList<>();
         this.integerIntHistogramMap = new HashMap<>();
         this.stringHistogramMap = new HashMap<>();
-        // key for filed index, value for all values in this field
-        HashMap<Integer, Integer> minimum = new HashMap<>();
-        HashMap<Integer, Integer> maximum = new HashMap<>();
-        DbFileIterator tupleIt = dbFile.iterator(new TransactionId());
-        int numFields = tupleDesc.numFields();
-        for (int i = 0; i < numFields; i++) {
-            minimum.put(i, Integer.MAX_VALUE);
-            maximum.put(i, Integer.MIN_VALUE);
-        }
-        try {
-            tupleIt.open();
-        while (tupleIt.hasNext()) {
-            this.totalTuple++;
-            Tuple tuple = tupleIt.next();
-            tupleList.add(tuple);
-            for (int i = 0; i < numFields; i++) {
-                    Field field = tuple.getField(i);
-                    if (!(field instanceof IntField)) {
-                        continue;
-                    }
-                    IntField intField = (IntField) field;
-                    int value = intField.getValue();
-                    Integer curMin = minimum.get(i);
-                    Integer curMax = maximum.get(i);
-                    if (value < curMin) {
-                        minimum.put(i, value);
-                    }
-                    if (value > curMax) {
-                        maximum.put(i, value);
-                    }
+
+        Random random = new Random(tableid);
+        int[] pages = samplePages(totalPages, sampleRate, random);
+        int tuplesPerPage = (BufferPool.getPageSize() * 8) / (tupleDesc.getSize() * 8 + 1);
+        Sample sample = new Sample(tupleDesc,
+                (int) Math.min(MAX_SAMPLE_TUPLES, (long) pages.length * tuplesPerPage), random);
+        for (int pgno : pages) {
+            HeapPage page = (HeapPage) dbFile.readPage(new HeapPageId(dbFile.getId(), pgno));
+            if (page == null)
+                continue;
+            Iterator<Tuple> it = page.iterator();
+            while (it.hasNext()) {
+                sample.add(it.next());
             }
-        }} catch (Exception e) {
-            e.printStackTrace();
         }
+        this.sampledPages = pages.length;
+        if (pages.length == totalPages)
+            this.totalTuple = (int) sample.seen;
+        else
+            this.totalTuple = (int) Math.round((double) sample.seen * totalPages / pages.length);
+        this.sampleSize = sample.size;
+        this.sampledTuples = totalTuple;
+        this.sketches = sample.sketches;
+        this.sketchTuples = sample.seen;
 
-        for (int i = 0; i < numFields; i++) {
+        for (int i = 0; i < tupleDesc.numFields(); i++) {
             Type fieldType = this.tupleDesc.getFieldType(i);
-            Iterator<Tuple> iterator = tupleList.iterator();
             if (fieldType.equals(Type.INT_TYPE)) {
-                IntHistogram intHistogram = new IntHistogram(NUM_HIST_BINS, minimum.get(i), maximum.get(i));
+                EquiDepthHistogram<Integer> intHistogram =
+                        EquiDepthHistogram.ofInts(sample.ints[i], sample.size, NUM_HIST_BINS);
+                if (sample.seen > 0)
+                    intHistogram.widen(sample.mins[i], sample.maxs[i]);
                 integerIntHistogramMap.put(i, intHistogram);
-                while (iterator.hasNext()) {
-                    Tuple tuple = iterator.next();
-                    IntField field = (IntField) tuple.getField(i);
-                    intHistogram.addValue(field.getValue());
-                }
             } else if (fieldType.equals(Type.STRING_TYPE)) {
-                StringHistogram stringHistogram = new StringHistogram(NUM_HIST_BINS);
-                stringHistogramMap.put(i, stringHistogram);
-                while (iterator.hasNext()) {
-                    Tuple tuple = iterator.next();
-                    StringField field = (StringField) tuple.getField(i);
-                    stringHistogram.addValue(field.getValue());
+                stringHistogramMap.put(i, EquiDepthHistogram.ofStrings(sample.strings[i], sample.size, NUM_HIST_BINS));
+            }
+        }
+    }
+
+    /**
+     * Copy another TableStats object, with histograms that can be changed
+     * independently of the original's
+     */
+    private TableStats(TableStats other) {
+        this.dbFile = other.dbFile;
+        this.ioCostPerPage = other.ioCostPerPage;
+        this.totalPages = other.totalPages;
+        this.tableId = other.tableId;
+        this.tupleDesc = other.tupleDesc;
+        this.totalTuple = other.totalTuple;
+        this.sampledPages = other.sampledPages;
+        this.sampleSize = other.sampleSize;
+        this.modifications = other.modifications;
+        this.sampledTuples = other.sampledTuples;
+        this.sketches = new HyperLogLog[other.sketches.length];
+        for (int i = 0; i < sketches.length; i++)
+            this.sketches[i] = new HyperLogLog(other.sketches[i]);
+        this.sketchTuples = other.sketchTuples;
+        this.integerIntHistogramMap = new HashMap<>();
+        for (Map.Entry<Integer, EquiDepthHistogram<Integer>> e : other.integerIntHistogramMap.entrySet())
+            this.integerIntHistogramMap.put(e.getKey(), new EquiDepthHistogram<>(e.getValue()));
+        this.stringHistogramMap = new HashMap<>();
+        for (Map.Entry<Integer, EquiDepthHistogram<String>> e : other.stringHistogramMap.entrySet())
+            this.stringHistogramMap.put(e.getKey(), new EquiDepthHistogram<>(e.getValue()));
+    }
+
+    /**
+     * Apply the tuples inserted into and deleted from the table by a
+     * committed transaction. This object is left unchanged, so planners
+     * holding it keep a consistent view.
+     * <p>
+     * The histograms hold a uniform sample of the table, so each changed
+     * tuple is added to or removed from them with the probability that a
+     * tuple of the table is in the sample. New values are counted in the
+     * nearest bucket; they only become most common values when the table
+     * is sampled again. Every inserted tuple is added to the distinct-value
+     * sketches; deleted tuples cannot be taken out of them.
+     *
+     * @param inserted
+     *            the tuples inserted into the table
+     * @param deleted
+     *            the tuples deleted from the table
+     * @return new statistics for the table
+     */
+    public TableStats withChanges(List<Tuple> inserted, List<Tuple> deleted) {
+        TableStats stats = new TableStats(this);
+        double fraction = totalTuple == 0 ? 1.0 : Math.min(1.0, (double) sampleSize / totalTuple);
+        Random random = ThreadLocalRandom.current();
+        for (Tuple t : inserted) {
+            for (int i = 0; i < stats.sketches.length; i++) {
+                if (tupleDesc.getFieldType(i) == Type.INT_TYPE)
+                    stats.sketches[i].addInt(t.getInt(i));
+                else
+                    stats.sketches[i].addString(t.getString(i));
+            }
+            if (fraction >= 1.0 || random.nextDouble() < fraction) {
+                stats.sampleSize++;
+                for (Map.Entry<Integer, EquiDepthHistogram<Integer>> e : stats.integerIntHistogramMap.entrySet())
+                    e.getValue().addValue(t.getInt(e.getKey()));
+                for (Map.Entry<Integer, EquiDepthHistogram<String>> e : stats.stringHistogramMap.entrySet())
+                    e.getValue().addValue(t.getString(e.getKey()));
+            }
+        }
+        for (Tuple t : deleted) {
+            if (stats.sampleSize > 0 && (fraction >= 1.0 || random.nextDouble() < fraction)) {
+                stats.sampleSize--;
+                for (Map.Entry<Integer, EquiDepthHistogram<Integer>> e : stats.integerIntHistogramMap.entrySet())
+                    e.getValue().removeValue(t.getInt(e.getKey()));
+                for (Map.Entry<Integer, EquiDepthHistogram<String>> e : stats.stringHistogramMap.entrySet())
+                    e.getValue().removeValue(t.getString(e.getKey()));
+            }
+        }
+        stats.totalTuple = Math.max(0, totalTuple + inserted.size() - deleted.size());
+        stats.totalPages = dbFile.numPages();
+        stats.modifications += inserted.size() + deleted.size();
+        stats.sketchTuples += inserted.size();
+        return stats;
+    }
+
+    /**
+     * @return the number of tuples inserted or deleted since the table was
+     *         sampled, relative to its size then
+     */
+    public double drift() {
+        return (double) modifications / Math.max(1, sampledTuples);
+    }
+
+    /**
+     * Choose the pages of a table to sample by reservoir sampling over its
+     * page numbers
+     *
+     * @return the chosen page numbers, in ascending order
+     */
+    static int[] samplePages(int numPages, double sampleRate, Random random) {
+        int k = (int) Math.min(numPages, Math.max(1, Math.ceil(sampleRate * numPages)));
+        int[] pages = new int[k];
+        for (int p = 0; p < numPages; p++) {
+            if (p < pages.length) {
+                pages[p] = p;
+            } else {
+                int j = random.nextInt(p + 1);
+                if (j < pages.length)
+                    pages[j] = p;
+            }
+        }
+        Arrays.sort(pages);
+        return pages;
+    }
+
+    /**
+     * A reservoir sample of a bounded number of tuples, kept column by
+     * column, plus the minimum and maximum of every int column and a
+     * distinct-value sketch of every column over all the tuples added
+     */
+    private static class Sample {
+        final int capacity;
+        final Random random;
+        final int[][] ints;
+        final String[][] strings;
+        final int[] mins;
+        final int[] maxs;
+        final HyperLogLog[] sketches;
+        int size = 0;
+        long seen = 0;
+
+        Sample(TupleDesc td, int capacity, Random random) {
+            this.capacity = capacity;
+            this.random = random;
+            int n = td.numFields();
+            ints = new int[n][];
+            strings = new String[n][];
+            mins = new int[n];
+            maxs = new int[n];
+            Arrays.fill(mins, Integer.MAX_VALUE);
+            Arrays.fill(maxs, Integer.MIN_VALUE);
+            sketches = new HyperLogLog[n];
+            for (int i = 0; i < n; i++) {
+                sketches[i] = new HyperLogLog();
+                if (td.getFieldType(i) == Type.INT_TYPE)
+                    ints[i] = new int[capacity];
+                else
+                    strings[i] = new String[capacity];
+            }
+        }
+
+        void add(Tuple t) {
+            seen++;
+            for (int i = 0; i < ints.length; i++) {
+                if (ints[i] != null) {
+                    int v = t.getInt(i);
+                    if (v < mins[i])
+                        mins[i] = v;
+                    if (v > maxs[i])
+                        maxs[i] = v;
+                    sketches[i].addInt(v);
+                } else {
+                    sketches[i].addString(t.getString(i));
                 }
             }
+            int slot;
+            if (size < capacity) {
+                slot = size++;
+            } else {
+                long j = (long) (random.nextDouble() * seen);
+                if (j >= size)
+                    return;
+                slot = (int) j;
+            }
+            for (int i = 0; i < ints.length; i++) {
+                if (ints[i] != null)
+                    ints[i][slot] = t.getInt(i);
+                else
+                    strings[i][slot] = t.getString(i);
+            }
         }
     }
 
@@ -232,22 +722,58 @@ public class TableStats {
     public double estimateSelectivity(int field, Predicate.Op op, Field constant) {
         if (constant instanceof IntField) {
             IntField intField = (IntField) constant;
-            IntHistogram intHistogram = this.integerIntHistogramMap.get(field);
+            EquiDepthHistogram<Integer> intHistogram = this.integerIntHistogramMap.get(field);
             return intHistogram.estimateSelectivity(op, intField.getValue());
         } else if (constant instanceof StringField) {
             StringField stringField = (StringField) constant;
-            StringHistogram stringHistogram = this.stringHistogramMap.get(stringField);
+            EquiDepthHistogram<String> stringHistogram = this.stringHistogramMap.get(field);
             return stringHistogram.estimateSelectivity(op, stringField.getValue());
         }
         return 1.0;
     }
 
+    /**
+     * Estimate the number of distinct values of a field in the table.
+     * <p>
+     * The field's sketch counts the distinct values of the tuples read when
+     * the table was sampled, plus those inserted since. If those are fewer
+     * than the table's tuples, the count is scaled up by how nearly unique
+     * they were: d distinct values in n tuples of a table of N tuples give
+     * d + (N - n) (d / n)^2, so a key column scales with the table and a
+     * column of a few repeated values does not. Deleted tuples are still
+     * counted, but the estimate is never more than the table's tuples.
+     *
+     * @param field
+     *            the index of the field
+     * @return the estimated number of distinct values, at least 1
+     */
+    public int distinctValues(int field) {
+        double d = sketches[field].estimate();
+        double n = Math.max(1, sketchTuples);
+        if (n < totalTuple)
+            d += (totalTuple - n) * (d / n) * (d / n);
+        return (int) Math.max(1, Math.min(d, totalTuple));
+    }
+
     /**
      * return the total number of tuples in this table
      * */
     public int totalTuples() {
-        // some code goes here
-        return 0;
+        return totalTuple;
+    }
+
+    /**
+     * @return the number of pages of this table
+     */
+    public int totalPages() {
+        return totalPages;
+    }
+
+    /**
+     * @return the number of pages the statistics were computed from
+     */
+    public int sampledPages() {
+        return sampledPages;
     }
 
 }
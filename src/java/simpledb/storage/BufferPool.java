@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.common.Permissions;
 import simpledb.common.DbException;
 import simpledb.common.DeadlockException;
+import simpledb.optimizer.StatsMaintainer;
 import simpledb.transaction.LockManager;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
@@ -33,6 +34,7 @@ public class BufferPool {
 
     LRUCache cache;
     LockManager lockManager;
+    private final int numPages;
 
     /** Default number of pages passed to the constructor. This is used by
     other classes. BufferPool should use the numPages argument to the
@@ -47,6 +49,14 @@ public class BufferPool {
     public BufferPool(int numPages) {
         this.cache = new LRUCache(numPages);
         this.lockManager = new LockManager();
+        this.numPages = numPages;
+    }
+
+    /**
+     * @return the number of pages this buffer pool caches
+     */
+    public int getNumPages() {
+        return numPages;
     }
     
     public static int getPageSize() {
@@ -93,17 +103,31 @@ public class BufferPool {
             if (duration > 500) throw new TransactionAbortedException();
         }
 
-        Page page = this.cache.get(pid);
+        Page page;
+        synchronized (this) {
+            page = this.cache.get(pid);
+        }
         if (page == null) {
             page = loadAndCache(pid);
         }
         return page;
     }
 
+    /**
+     * Read a page from disk and add it to the cache. The read happens outside
+     * the BufferPool's monitor so that the workers of a parallel scan can read
+     * pages concurrently; if another thread cached the page meanwhile, its
+     * copy is kept.
+     */
     public Page loadAndCache(PageId pid) {
         DbFile dbFile = Database.getCatalog().getDatabaseFile(pid.getTableId());
         Page page = dbFile.readPage(pid);
-        this.cache.put(page.getId(), page);
+        synchronized (this) {
+            Page cached = this.cache.get(pid);
+            if (cached != null)
+                return cached;
+            this.cache.put(page.getId(), page);
+        }
         return page;
     }
 
@@ -158,11 +182,13 @@ public class BufferPool {
             //如果提交失败，回滚，将脏页的原页面写回磁盘
             recoverPages(tid);
         }
+        StatsMaintainer.transactionComplete(tid, commit);
         lockManager.completeTransaction(tid);
     }
 
-    public void recoverPages(TransactionId tid) {
-        for (Page value : this.cache.values()) {
+    public synchronized void recoverPages(TransactionId tid) {
+        // discardPage removes from the cache, so iterate over a copy
+        for (Page value : new ArrayList<>(this.cache.values())) {
             if (tid.equals(value.isDirty())) {
                 discardPage(value.getId());
             }
@@ -188,10 +214,13 @@ public class BufferPool {
         throws DbException, IOException, TransactionAbortedException {
         DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
         List<Page> pages = dbFile.insertTuple(tid, t);
-        for (Page page : pages) {
-            page.markDirty(true, tid);
-            this.cache.put(page.getId(), page);
+        synchronized (this) {
+            for (Page page : pages) {
+                page.markDirty(true, tid);
+                this.cache.put(page.getId(), page);
+            }
         }
+        StatsMaintainer.recordChange(tid, tableId, t, true);
     }
 
     /**
@@ -210,12 +239,16 @@ public class BufferPool {
     public  void deleteTuple(TransactionId tid, Tuple t)
         throws DbException, IOException, TransactionAbortedException {
 //        Database.getCatalog().getDatabaseFile()
-        DbFile dbFile = Database.getCatalog().getDatabaseFile(t.getRecordId().getPageId().getTableId());
+        int tableId = t.getRecordId().getPageId().getTableId();
+        DbFile dbFile = Database.getCatalog().getDatabaseFile(tableId);
         List<Page> pages = dbFile.deleteTuple(tid, t);
-        for (Page page : pages) {
-//            page.markDirty(true, tid);
-            this.cache.put(page.getId(), page);
+        synchronized (this) {
+            for (Page page : pages) {
+//                page.markDirty(true, tid);
+                this.cache.put(page.getId(), page);
+            }
         }
+        StatsMaintainer.recordChange(tid, tableId, t, false);
     }
 
     /**
@@ -260,7 +293,8 @@ public class BufferPool {
     /** Write all pages of the specified transaction to disk.
      */
     public synchronized  void flushPages(TransactionId tid) throws IOException {
-        for (Page value : this.cache.values()) {
+        List<Page> pages = new ArrayList<>(this.cache.values());
+        for (Page value : pages) {
             if (value.isDirty() == tid) {
                 flushPage(value.getId());
             }
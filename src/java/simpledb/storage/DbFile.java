@@ -3,6 +3,8 @@ package simpledb.storage;
 
 import simpledb.common.DbException;
 import simpledb.common.Catalog;
+import simpledb.execution.ExpressionCompiler;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -73,6 +75,23 @@ public interface DbFile {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over the tuples stored in this DbFile that satisfy
+     * every one of the given predicates, so that scans need no separate
+     * filter. Files that can test tuples as their pages are read, or skip
+     * pages that cannot match, should override this; by default the tuples of
+     * {@link #iterator(TransactionId)} are tested one by one.
+     *
+     * @param predicates the conjunction of predicates over the fields of
+     *        this file's TupleDesc; if empty, every tuple is returned
+     * @return an iterator over the matching tuples
+     */
+    default DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+        DbFileIterator it = iterator(tid);
+        ExpressionCompiler.TupleFilter filter = ExpressionCompiler.compileAll(predicates, getTupleDesc());
+        return filter == null ? it : new FilteredDbFileIterator(it, filter);
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
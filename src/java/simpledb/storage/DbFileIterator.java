@@ -1,5 +1,6 @@
 package simpledb.storage;
 import simpledb.common.DbException;
+import simpledb.execution.TupleBatch;
 import simpledb.transaction.TransactionAbortedException;
 
 import java.util.*;
@@ -30,6 +31,24 @@ public interface DbFileIterator{
     Tuple next()
         throws DbException, TransactionAbortedException, NoSuchElementException;
 
+    /**
+     * Appends the next tuples to a batch, until the batch is full or there
+     * are no more tuples. Iterators that hold their tuples in memory override
+     * this to copy them into the batch in bulk.
+     *
+     * @param b the batch to fill
+     * @return the number of tuples appended
+     */
+    default int fillBatch(TupleBatch b)
+        throws DbException, TransactionAbortedException {
+        int n = 0;
+        while (!b.isFull() && hasNext()) {
+            b.add(next());
+            n++;
+        }
+        return n;
+    }
+
     /**
      * Resets the iterator to the start.
      * @throws DbException When rewind is unsupported.
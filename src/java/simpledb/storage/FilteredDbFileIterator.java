@@ -0,0 +1,45 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.execution.ExpressionCompiler;
+import simpledb.transaction.TransactionAbortedException;
+
+/**
+ * A DbFileIterator returning the tuples of another that pass a filter; the
+ * default way a {@link DbFile} applies the predicates of a scan.
+ */
+class FilteredDbFileIterator extends AbstractDbFileIterator {
+
+    private final DbFileIterator child;
+    private final ExpressionCompiler.TupleFilter filter;
+
+    FilteredDbFileIterator(DbFileIterator child, ExpressionCompiler.TupleFilter filter) {
+        this.child = child;
+        this.filter = filter;
+    }
+
+    public void open() throws DbException, TransactionAbortedException {
+        child.open();
+    }
+
+    @Override
+    protected Tuple readNext() throws DbException, TransactionAbortedException {
+        while (child.hasNext()) {
+            Tuple t = child.next();
+            if (filter.test(t))
+                return t;
+        }
+        return null;
+    }
+
+    public void rewind() throws DbException, TransactionAbortedException {
+        super.close();
+        child.rewind();
+    }
+
+    @Override
+    public void close() {
+        super.close();
+        child.close();
+    }
+}
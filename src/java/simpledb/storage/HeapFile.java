@@ -5,6 +5,9 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Permissions;
+import simpledb.execution.ExpressionCompiler;
+import simpledb.execution.Predicate;
+import simpledb.execution.TupleBatch;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -161,7 +164,41 @@ public class HeapFile implements DbFile {
 
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
-        return new HeapFileIterator(this, tid);
+        return new HeapFileIterator(this, tid, 0, Integer.MAX_VALUE, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of a range of pages of this file,
+     * such as one morsel of a parallel scan.
+     *
+     * @param tid
+     *            the transaction reading the pages
+     * @param start
+     *            the first page to read
+     * @param end
+     *            one past the last page to read; pages past the end of the
+     *            file are ignored
+     */
+    public DbFileIterator iterator(TransactionId tid, int start, int end) {
+        return new HeapFileIterator(this, tid, start, end, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of a range of pages of this file
+     * that pass the given filter. Each page's tuples are tested as the page is
+     * read, so pages without a match are skipped whole.
+     *
+     * @param filter
+     *            the test tuples must pass, or null to return every tuple
+     * @see #iterator(TransactionId, int, int)
+     */
+    public DbFileIterator iterator(TransactionId tid, int start, int end, ExpressionCompiler.TupleFilter filter) {
+        return new HeapFileIterator(this, tid, start, end, filter);
+    }
+
+    @Override
+    public DbFileIterator iterator(TransactionId tid, List<Predicate> predicates) {
+        return iterator(tid, 0, Integer.MAX_VALUE, ExpressionCompiler.compileAll(predicates, getTupleDesc()));
     }
 
     private static final class HeapFileIterator implements DbFileIterator {
@@ -169,26 +206,47 @@ public class HeapFile implements DbFile {
         private final TransactionId tid;
 
         /**
-         * 存储了堆文件迭代器
+         * 当前页中待返回的元组，以及下一个元组的下标
          */
-        private Iterator<Tuple> tupleIterator;
+        private List<Tuple> pageTuples;
+        private int pos;
         private int index;
 
-        public HeapFileIterator(HeapFile file,TransactionId tid){
+        /**
+         * 扫描的页范围 [start, end)
+         */
+        private final int start;
+        private final int end;
+
+        /**
+         * 只返回通过该过滤的元组，null 表示全部返回
+         */
+        private final ExpressionCompiler.TupleFilter filter;
+
+        public HeapFileIterator(HeapFile file,TransactionId tid, int start, int end, ExpressionCompiler.TupleFilter filter){
             this.heapFile = file;
             this.tid = tid;
+            this.start = start;
+            this.end = end;
+            this.filter = filter;
         }
+
+        private int limit() {
+            return Math.min(end, heapFile.numPages());
+        }
+
         @Override
         public void open() throws DbException, TransactionAbortedException {
-            index = 0;
-            tupleIterator = getTupleIterator(index);
+            index = start;
+            pageTuples = index < limit() ? getPageTuples(index) : Collections.emptyList();
+            pos = 0;
         }
 
-        private Iterator<Tuple> getTupleIterator(int pageNumber) throws TransactionAbortedException, DbException{
+        private List<Tuple> getPageTuples(int pageNumber) throws TransactionAbortedException, DbException{
             if(pageNumber >= 0 && pageNumber < heapFile.numPages()){
                 HeapPageId pid = new HeapPageId(heapFile.getId(),pageNumber);
                 HeapPage page = (HeapPage)Database.getBufferPool().getPage(tid, pid, Permissions.READ_ONLY);
-                return page.iterator();
+                return page.tupleList(filter);
             }else{
                 throw new DbException(String.format("heapFile %d  does not exist in page[%d]!", pageNumber,heapFile.getId()));
             }
@@ -198,14 +256,15 @@ public class HeapFile implements DbFile {
         public boolean hasNext() throws DbException, TransactionAbortedException {
             // TODO Auto-generated method stub
 
-            if(tupleIterator == null){
+            if(pageTuples == null){
                 return false;
             }
 
-            while(!tupleIterator.hasNext()){
+            while(pos >= pageTuples.size()){
                 index++;
-                if(index < heapFile.numPages()){
-                    tupleIterator = getTupleIterator(index);
+                if(index < limit()){
+                    pageTuples = getPageTuples(index);
+                    pos = 0;
                 }else{
                     return false;
                 }
@@ -216,10 +275,25 @@ public class HeapFile implements DbFile {
 
         @Override
         public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-            if(tupleIterator == null || !tupleIterator.hasNext()){
+            if(pageTuples == null || pos >= pageTuples.size()){
                 throw new NoSuchElementException();
             }
-            return tupleIterator.next();
+            return pageTuples.get(pos++);
+        }
+
+        /**
+         * 直接从当前页的元组列表整段拷贝到批中
+         */
+        @Override
+        public int fillBatch(TupleBatch b) throws DbException, TransactionAbortedException {
+            int n = 0;
+            while (!b.isFull() && hasNext()) {
+                int cnt = Math.min(pageTuples.size() - pos, b.remaining());
+                b.addAll(pageTuples, pos, pos + cnt);
+                pos += cnt;
+                n += cnt;
+            }
+            return n;
         }
 
         @Override
@@ -230,7 +304,7 @@ public class HeapFile implements DbFile {
 
         @Override
         public void close() {
-            tupleIterator = null;
+            pageTuples = null;
         }
 
     }
@@ -4,6 +4,7 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Debug;
 import simpledb.common.Catalog;
+import simpledb.execution.ExpressionCompiler;
 import simpledb.transaction.TransactionId;
 
 import java.lang.reflect.Array;
@@ -51,8 +52,18 @@ public class HeapPage implements Page {
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()));
+    }
+
+    /**
+     * Create a HeapPage of a file that is not in the catalog, such as a
+     * {@link TempHeapFile}, whose tuples are described by the given TupleDesc.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, byte[] data, TupleDesc td) throws IOException {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.td = td;
         this.numSlots = getNumTuples();
         this.dirty = false;
         DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
@@ -154,8 +165,7 @@ public class HeapPage implements Page {
         t.setRecordId(rid);
         try {
             for (int j=0; j<td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+                t.readField(j, dis);
             }
         } catch (java.text.ParseException e) {
             e.printStackTrace();
@@ -208,9 +218,8 @@ public class HeapPage implements Page {
 
             // non-empty slot
             for (int j=0; j<td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
                 try {
-                    f.serialize(dos);
+                    tuples[i].writeField(j, dos);
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
@@ -390,13 +399,34 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
+        return tupleList(null).iterator();
+    }
+
+    /**
+     * @param filter the test tuples must pass to be returned, or null to
+     *        return every tuple
+     * @return an iterator over the tuples on this page that pass the filter,
+     *         tested as the page is read so that the others are never handed
+     *         to the caller
+     */
+    public Iterator<Tuple> iterator(ExpressionCompiler.TupleFilter filter) {
+        return tupleList(filter).iterator();
+    }
+
+    /**
+     * @param filter the test tuples must pass to be returned, or null to
+     *        return every tuple
+     * @return the tuples in used slots of this page that pass the filter, in
+     *         slot order
+     */
+    List<Tuple> tupleList(ExpressionCompiler.TupleFilter filter) {
         List<Tuple> tuples = new ArrayList<>();
-        for(int i=0;i<numSlots;i++){
-            if(isSlotUsed(i)){
+        for (int i = 0; i < numSlots; i++) {
+            if (isSlotUsed(i) && (filter == null || filter.test(this.tuples[i]))) {
                 tuples.add(this.tuples[i]);
             }
         }
-        return tuples.iterator();
+        return tuples;
     }
 
 }
@@ -55,20 +55,28 @@ public class IntField implements Field {
 
         IntField iVal = (IntField) val;
 
+        return compare(value, op, iVal.value);
+    }
+
+    /**
+     * Compare two int values with the semantics of {@link #compare(Predicate.Op, Field)},
+     * without wrapping them in IntFields.
+     */
+    public static boolean compare(int a, Predicate.Op op, int b) {
         switch (op) {
             case EQUALS:
             case LIKE:
-                return value == iVal.value;
+                return a == b;
             case NOT_EQUALS:
-                return value != iVal.value;
+                return a != b;
             case GREATER_THAN:
-                return value > iVal.value;
+                return a > b;
             case GREATER_THAN_OR_EQ:
-                return value >= iVal.value;
+                return a >= b;
             case LESS_THAN:
-                return value < iVal.value;
+                return a < b;
             case LESS_THAN_OR_EQ:
-                return value <= iVal.value;
+                return a <= b;
         }
 
         return false;
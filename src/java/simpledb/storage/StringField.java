@@ -19,6 +19,13 @@ public class StringField implements Field {
 		return value;
 	}
 
+	/**
+	 * @return the maximum size of this string
+	 */
+	public int getMaxSize() {
+		return maxSize;
+	}
+
 	/**
 	 * Constructor.
 	 * 
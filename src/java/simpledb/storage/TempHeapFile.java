@@ -0,0 +1,219 @@
+package simpledb.storage;
+
+import simpledb.common.DbException;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * TempHeapFile is a HeapFile used by operators to spill intermediate results
+ * (such as the sorted runs of an external sort) to disk. It is written once,
+ * by appending tuples, and then read back sequentially any number of times.
+ * <p>
+ * Pages use the ordinary HeapPage format, but the file is not registered in
+ * the catalog and its pages never go through the BufferPool: it is private to
+ * the operator that created it, so there is nothing to lock, and spilled pages
+ * must not evict the pages of real tables. The backing file is deleted by
+ * {@link #delete()}, or when the JVM exits.
+ *
+ * @see HeapPage#HeapPage
+ */
+public class TempHeapFile extends HeapFile {
+
+    private final int tuplesPerPage;
+    private final int headerSize;
+
+    private transient DataOutputStream out;
+    private transient byte[] header;
+    private transient ByteArrayOutputStream slots;
+    private transient int numInPage = 0;
+    private int numTuples = 0;
+
+    /**
+     * Create an empty temporary file for tuples with the given TupleDesc
+     *
+     * @param td
+     *            the TupleDesc of the tuples that will be appended
+     */
+    public TempHeapFile(TupleDesc td) throws IOException {
+        super(File.createTempFile("spill", ".dat"), td);
+        getFile().deleteOnExit();
+        this.tuplesPerPage = (int) Math.floor((BufferPool.getPageSize() * 8.0) / (td.getSize() * 8.0 + 1.0));
+        this.headerSize = (int) Math.ceil(tuplesPerPage / 8.0);
+        this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(getFile())));
+        this.header = new byte[headerSize];
+        this.slots = new ByteArrayOutputStream(tuplesPerPage * td.getSize());
+    }
+
+    /**
+     * @return the number of tuples per page of this file
+     */
+    public int getTuplesPerPage() {
+        return tuplesPerPage;
+    }
+
+    /**
+     * @return the number of tuples appended to this file
+     */
+    public int getNumTuples() {
+        return numTuples;
+    }
+
+    /**
+     * Append a tuple to the end of the file. Unlike {@link HeapPage#insertTuple},
+     * the tuple itself is not modified.
+     *
+     * @param t
+     *            the tuple to append
+     */
+    public void append(Tuple t) throws DbException {
+        if (out == null)
+            throw new DbException("append to a temp heap file that was already finished");
+        try {
+            DataOutputStream dos = new DataOutputStream(slots);
+            for (int i = 0; i < getTupleDesc().numFields(); i++) {
+                t.writeField(i, dos);
+            }
+            header[numInPage / 8] |= (byte) (1 << (numInPage % 8));
+            numInPage++;
+            numTuples++;
+            if (numInPage == tuplesPerPage)
+                flushPage();
+        } catch (IOException e) {
+            throw new DbException("could not write to temp heap file: " + e.getMessage());
+        }
+    }
+
+    private void flushPage() throws IOException {
+        out.write(header);
+        slots.writeTo(out);
+        int used = headerSize + slots.size();
+        out.write(new byte[BufferPool.getPageSize() - used]);
+        Arrays.fill(header, (byte) 0);
+        slots.reset();
+        numInPage = 0;
+    }
+
+    /**
+     * Write out the last, partially filled page and close the file for writing.
+     * The file can be read once it is finished.
+     */
+    public void finish() throws DbException {
+        if (out == null)
+            return;
+        try {
+            if (numInPage > 0)
+                flushPage();
+            out.close();
+        } catch (IOException e) {
+            throw new DbException("could not write to temp heap file: " + e.getMessage());
+        } finally {
+            out = null;
+            header = null;
+            slots = null;
+        }
+    }
+
+    /**
+     * Delete the backing file
+     */
+    public void delete() {
+        if (out != null) {
+            try {
+                out.close();
+            } catch (IOException ignored) {
+            }
+            out = null;
+        }
+        getFile().delete();
+    }
+
+    // see DbFile.java for javadocs
+    public Page readPage(PageId pid) {
+        try (RandomAccessFile r = new RandomAccessFile(getFile(), "r")) {
+            return readPage(r, pid.getPageNumber());
+        } catch (IOException e) {
+            throw new IllegalArgumentException("could not read page " + pid.getPageNumber() + " of temp heap file", e);
+        }
+    }
+
+    private HeapPage readPage(RandomAccessFile r, int pgno) throws IOException {
+        byte[] data = new byte[BufferPool.getPageSize()];
+        r.seek((long) pgno * BufferPool.getPageSize());
+        r.readFully(data);
+        return new HeapPage(new HeapPageId(getId(), pgno), data, getTupleDesc());
+    }
+
+    // see DbFile.java for javadocs
+    public List<Page> insertTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("temp heap files are append-only, use append()");
+    }
+
+    // see DbFile.java for javadocs
+    public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t) throws DbException {
+        throw new DbException("temp heap files are append-only");
+    }
+
+    /**
+     * Return an iterator over the tuples of this file in the order they were
+     * appended. The pages are read directly from disk, not through the
+     * BufferPool, so the transaction id is not used.
+     */
+    public DbFileIterator iterator(TransactionId tid) {
+        return new TempHeapFileIterator();
+    }
+
+    private class TempHeapFileIterator extends AbstractDbFileIterator {
+
+        private RandomAccessFile r = null;
+        private Iterator<Tuple> it = null;
+        private int pgno = 0;
+
+        public void open() throws DbException {
+            if (out != null)
+                throw new DbException("reading a temp heap file that is not finished");
+            try {
+                r = new RandomAccessFile(getFile(), "r");
+            } catch (FileNotFoundException e) {
+                throw new DbException("temp heap file was deleted");
+            }
+            pgno = 0;
+            it = null;
+        }
+
+        @Override
+        protected Tuple readNext() throws DbException {
+            if (r == null)
+                return null;
+            while (it == null || !it.hasNext()) {
+                if (pgno >= numPages())
+                    return null;
+                try {
+                    it = readPage(r, pgno++).iterator();
+                } catch (IOException e) {
+                    throw new DbException("could not read temp heap file: " + e.getMessage());
+                }
+            }
+            return it.next();
+        }
+
+        public void rewind() throws DbException, TransactionAbortedException {
+            close();
+            open();
+        }
+
+        public void close() {
+            super.close();
+            if (r != null) {
+                try {
+                    r.close();
+                } catch (IOException ignored) {
+                }
+            }
+            r = null;
+            it = null;
+        }
+    }
+}
@@ -1,18 +1,28 @@
 package simpledb.storage;
 
-import com.sun.javadoc.FieldDoc;
+import simpledb.common.Type;
 
-import java.io.File;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Arrays;
+import java.text.ParseException;
 import java.util.Iterator;
-import java.util.List;
+import java.util.NoSuchElementException;
 
 /**
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * Values are stored flat rather than as one Field object per column: INT_TYPE
+ * values live in an int array and strings are kept as plain Strings. The
+ * primitive accessors ({@link #getInt}, {@link #setInt}, {@link #getString},
+ * {@link #copyField}) read and write them without allocating;
+ * {@link #getField} still works everywhere by returning a Field view of the
+ * value, and remembers the StringField it builds so that later calls return
+ * the same object. Fields that do not match the layout of their column (for instance a
+ * StringField of a non-standard length) are stored as they are.
  */
 public class Tuple implements Serializable {
 
@@ -20,7 +30,18 @@ public class Tuple implements Serializable {
 
     private TupleDesc td;
 
-    private List<Field> fields;
+    // the value of each INT_TYPE column
+    private final int[] ints;
+
+    // the String of each STRING_TYPE column, or a Field stored as is; null if
+    // every column of the TupleDesc is an INT_TYPE column
+    private Object[] refs;
+
+    // bit i is set once field i has been set
+    private final long[] present;
+
+    // the number of fields set by addField
+    private int added = 0;
 
     private RecordId recordId;
 
@@ -33,7 +54,15 @@ public class Tuple implements Serializable {
      */
     public Tuple(TupleDesc td) {
         this.td = td;
-        this.fields = new ArrayList<>(td.numFields());
+        int n = td.numFields();
+        this.ints = new int[n];
+        this.present = new long[(n + 63) >>> 6];
+        for (int i = 0; i < n; i++) {
+            if (td.getFieldType(i) != Type.INT_TYPE) {
+                this.refs = new Object[n];
+                break;
+            }
+        }
     }
 
     /**
@@ -61,6 +90,20 @@ public class Tuple implements Serializable {
         this.recordId = rid;
     }
 
+    private boolean isSet(int i) {
+        return (present[i >>> 6] & (1L << i)) != 0;
+    }
+
+    private void markSet(int i) {
+        present[i >>> 6] |= 1L << i;
+    }
+
+    private Object[] refs() {
+        if (refs == null)
+            refs = new Object[ints.length];
+        return refs;
+    }
+
     /**
      * Change the value of the ith field of this tuple.
      *
@@ -70,16 +113,87 @@ public class Tuple implements Serializable {
      *            new value for the field.
      */
     public void setField(int i, Field f) {
-        if (fields.size() <= i) {
-            fields.add(f);
+        if (f == null) {
+            present[i >>> 6] &= ~(1L << i);
+            if (refs != null)
+                refs[i] = null;
             return;
         }
-        fields.set(i, f);
+        Type type = td.getFieldType(i);
+        if (type == Type.INT_TYPE && f instanceof IntField) {
+            setInt(i, ((IntField) f).getValue());
+        } else if (type == Type.STRING_TYPE && f instanceof StringField
+                && ((StringField) f).getMaxSize() == Type.STRING_LEN) {
+            setString(i, ((StringField) f).getValue());
+        } else {
+            refs()[i] = f;
+            markSet(i);
+        }
+    }
+
+    /**
+     * Set the next field of this tuple, starting from the first one.
+     *
+     * @param f
+     *            value of the field.
+     */
+    public void addField(Field f) {
+        setField(added++, f);
+    }
+
+    /**
+     * Set the ith field of this tuple, which must be an INT_TYPE field.
+     */
+    public void setInt(int i, int v) {
+        ints[i] = v;
+        if (refs != null)
+            refs[i] = null;
+        markSet(i);
+    }
+
+    /**
+     * Set the ith field of this tuple, which must be a STRING_TYPE field.
+     * The value is truncated to {@link Type#STRING_LEN} characters.
+     */
+    public void setString(int i, String s) {
+        refs()[i] = s.length() > Type.STRING_LEN ? s.substring(0, Type.STRING_LEN) : s;
+        markSet(i);
+    }
+
+    /**
+     * @return the value of the ith field, which must be an INT_TYPE field
+     */
+    public int getInt(int i) {
+        if (refs != null && refs[i] != null)
+            return ((IntField) refs[i]).getValue();
+        return ints[i];
     }
 
-    public void addField( Field f) {
-        fields.add(f);
+    /**
+     * @return the value of the ith field, which must be a STRING_TYPE field
+     */
+    public String getString(int i) {
+        Object o = refs[i];
+        return o instanceof StringField ? ((StringField) o).getValue() : (String) o;
+    }
+
+    /**
+     * Set the ith field of this tuple to the jth field of another tuple
+     * without materializing it as a Field.
+     */
+    public void copyField(int i, Tuple src, int j) {
+        Object o = src.refs == null ? null : src.refs[j];
+        if (o == null) {
+            if (!src.isSet(j))
+                setField(i, null);
+            else
+                setInt(i, src.ints[j]);
+        } else {
+            refs()[i] = o;
+            markSet(i);
+        }
     }
+
     /**
      * @return the value of the ith field, or null if it has not been set.
      *
@@ -87,8 +201,74 @@ public class Tuple implements Serializable {
      *            field index to return. Must be a valid index.
      */
     public Field getField(int i) {
+        if (!isSet(i))
+            return null;
+        Object o = refs == null ? null : refs[i];
+        if (o == null)
+            return new IntField(ints[i]);
+        if (o instanceof String) {
+            // the StringField stands for the same value, so concurrent
+            // readers that race on this store see equal fields
+            StringField f = new StringField((String) o, Type.STRING_LEN);
+            refs[i] = f;
+            return f;
+        }
+        return (Field) o;
+    }
 
-        return fields.get(i);
+    /**
+     * Read the ith field of this tuple from its on-disk format, as written by
+     * {@link #writeField}.
+     */
+    public void readField(int i, DataInputStream dis) throws ParseException {
+        if (td.getFieldType(i) == Type.INT_TYPE) {
+            try {
+                setInt(i, dis.readInt());
+            } catch (IOException e) {
+                throw new ParseException("couldn't parse", 0);
+            }
+        } else {
+            setField(i, td.getFieldType(i).parse(dis));
+        }
+    }
+
+    /**
+     * Write the ith field of this tuple in its on-disk format (see
+     * {@link Field#serialize}).
+     */
+    public void writeField(int i, DataOutputStream dos) throws IOException {
+        Object o = refs == null ? null : refs[i];
+        if (o == null && td.getFieldType(i) == Type.INT_TYPE)
+            dos.writeInt(ints[i]);
+        else
+            getField(i).serialize(dos);
+    }
+
+    /**
+     * Returns the concatenation of two tuples, as produced by joins.
+     *
+     * @param td
+     *            the TupleDesc of the result; the merge of the two tuples'
+     *            TupleDescs
+     */
+    public static Tuple merge(TupleDesc td, Tuple t1, Tuple t2) {
+        Tuple t = new Tuple(td);
+        int n1 = t1.ints.length, n2 = t2.ints.length;
+        System.arraycopy(t1.ints, 0, t.ints, 0, n1);
+        System.arraycopy(t2.ints, 0, t.ints, n1, n2);
+        if (t1.refs != null)
+            System.arraycopy(t1.refs, 0, t.refs(), 0, n1);
+        if (t2.refs != null)
+            System.arraycopy(t2.refs, 0, t.refs(), n1, n2);
+        for (int i = 0; i < n1; i++) {
+            if (t1.isSet(i))
+                t.markSet(i);
+        }
+        for (int i = 0; i < n2; i++) {
+            if (t2.isSet(i))
+                t.markSet(n1 + i);
+        }
+        return t;
     }
 
     /**
@@ -100,7 +280,13 @@ public class Tuple implements Serializable {
      * where \t is any whitespace (except a newline)
      */
     public String toString() {
-        return "";
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < ints.length; i++) {
+            if (i > 0)
+                sb.append('\t');
+            sb.append(getField(i));
+        }
+        return sb.toString();
     }
 
     /**
@@ -109,7 +295,19 @@ public class Tuple implements Serializable {
      * */
     public Iterator<Field> fields()
     {
-        return this.fields.iterator();
+        return new Iterator<Field>() {
+            private int i = 0;
+
+            public boolean hasNext() {
+                return i < ints.length;
+            }
+
+            public Field next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                return getField(i++);
+            }
+        };
     }
 
     /**
@@ -117,6 +315,6 @@ public class Tuple implements Serializable {
      * */
     public void resetTupleDesc(TupleDesc td)
     {
-        // some code goes here
+        this.td = td;
     }
 }
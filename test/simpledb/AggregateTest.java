@@ -191,6 +191,31 @@ public class AggregateTest extends SimpleDbTestBase {
     TestUtil.matchAllTuples(min, op);
   }
 
+  /**
+   * Unit test for Aggregate.getNext() grouping by two fields of different
+   * types
+   */
+  @Test public void multiColumnGroupBy() throws Exception {
+    OpIterator scan = TestUtil.createTupleList(3,
+        new Object[] { "a", 1, 2,
+                    "a", 1, 4,
+                    "a", 2, 6,
+                    "b", 1, 2,
+                    "b", 1, 4,
+                    "a", 2, 1 });
+    Aggregate op = new Aggregate(scan, 2, new int[] { 0, 1 },
+        Aggregator.Op.SUM);
+    assertEquals(new TupleDesc(new Type[]{ Type.STRING_TYPE, Type.INT_TYPE, Type.INT_TYPE }),
+        op.getTupleDesc());
+    op.open();
+    OpIterator expected = TestUtil.createTupleList(3,
+        new Object[] { "a", 1, 6,
+                    "a", 2, 7,
+                    "b", 1, 6 });
+    expected.open();
+    TestUtil.matchAllTuples(expected, op);
+  }
+
   /**
    * JUnit suite target
    */
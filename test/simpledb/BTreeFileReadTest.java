@@ -1,6 +1,7 @@
 package simpledb;
 
 import simpledb.common.Database;
+import simpledb.common.Type;
 import simpledb.common.Utility;
 import simpledb.execution.IndexPredicate;
 import simpledb.index.*;
@@ -8,6 +9,7 @@ import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.execution.Predicate.Op;
 
+import java.io.File;
 import java.util.*;
 
 import org.junit.After;
@@ -207,6 +209,101 @@ public class BTreeFileReadTest extends SimpleDbTestBase {
 
 	}
 
+	/**
+	 * Unit test for BTreeFile.indexIterator() with a list of keys
+	 */
+	@Test public void multiKeyIndexIterator() throws Exception {
+		// keys 1 .. 20000, with key 7000 repeated across more than one leaf page
+		List<List<Integer>> tuples = new ArrayList<>();
+		for (int i = 1; i <= 20000; i++) {
+			tuples.add(Arrays.asList(i, i));
+		}
+		for (int i = 0; i < 1000; i++) {
+			tuples.add(Arrays.asList(7000, -i));
+		}
+		File hFile = File.createTempFile("table", ".dat");
+		hFile.deleteOnExit();
+		File bFile = File.createTempFile("table_index", ".dat");
+		bFile.deleteOnExit();
+		BTreeFile bigFile = BTreeFileEncoder.convert(tuples, hFile, bFile, BufferPool.getPageSize(),
+				2, new Type[]{Type.INT_TYPE, Type.INT_TYPE}, ',', 0);
+
+		List<Field> keys = new ArrayList<>();
+		for (int k : new int[]{19999, 7000, 3, 4, 7000, 25000, -1, 500, 501, 12345}) {
+			keys.add(new IntField(k));
+		}
+		DbFileIterator it = bigFile.indexIterator(tid, keys);
+		it.open();
+		List<Integer> found = new ArrayList<>();
+		while (it.hasNext()) {
+			found.add(((IntField) it.next().getField(0)).getValue());
+		}
+		List<Integer> expected = new ArrayList<>(Arrays.asList(3, 4, 500, 501));
+		expected.addAll(Collections.nCopies(1001, 7000));
+		expected.addAll(Arrays.asList(12345, 19999));
+		assertEquals(expected, found);
+
+		// rewinding starts again from the first key
+		it.rewind();
+		assertTrue(it.hasNext());
+		assertEquals(new IntField(3), it.next().getField(0));
+		it.close();
+
+		// no keys, no tuples
+		it = bigFile.indexIterator(tid, new ArrayList<>());
+		it.open();
+		assertFalse(it.hasNext());
+		it.close();
+	}
+
+	/**
+	 * Bulk loading a B+ tree keyed on a string field packs its internal pages
+	 * by the bytes of the actual keys, so short keys give a high fanout, and
+	 * every key remains reachable
+	 */
+	@Test public void bulkLoadStringKeys() throws Exception {
+		File inFile = File.createTempFile("table", ".txt");
+		inFile.deleteOnExit();
+		try (java.io.PrintWriter out = new java.io.PrintWriter(inFile)) {
+			for (int i = 0; i < 20000; i++) {
+				out.println(String.format("k%06d,%d", i, i));
+			}
+		}
+		File hFile = File.createTempFile("table", ".dat");
+		hFile.deleteOnExit();
+		File bFile = File.createTempFile("table_index", ".dat");
+		bFile.deleteOnExit();
+		BTreeFile stringFile = BTreeFileEncoder.convert(inFile, hFile, bFile, BufferPool.getPageSize(),
+				2, new Type[]{Type.STRING_TYPE, Type.INT_TYPE}, ',', 0);
+
+		// walk down the left edge of the tree, then along the leaves
+		BTreeRootPtrPage rootPtr = (BTreeRootPtrPage) stringFile.readPage(BTreeRootPtrPage.getId(stringFile.getId()));
+		BTreePageId pid = rootPtr.getRootId();
+		int depth = 1;
+		while (pid.pgcateg() == BTreePageId.INTERNAL) {
+			pid = ((BTreeInternalPage) stringFile.readPage(pid)).iterator().next().getLeftChild();
+			depth++;
+		}
+		int leaves = 0;
+		for (; pid != null; leaves++) {
+			pid = ((BTreeLeafPage) stringFile.readPage(pid)).getRightSiblingId();
+		}
+		// about 670 leaves under a root and a few internal pages; fixed-width
+		// string keys would need at least 23 internal pages below the root
+		assertEquals(3, depth);
+		assertTrue(stringFile.numPages() - leaves < 10);
+
+		for (int i = 0; i < 20000; i += 997) {
+			DbFileIterator it = stringFile.indexIterator(tid, new IndexPredicate(Op.EQUALS,
+					new StringField(String.format("k%06d", i), Type.STRING_LEN)));
+			it.open();
+			assertTrue(it.hasNext());
+			assertEquals(new IntField(i), it.next().getField(1));
+			assertFalse(it.hasNext());
+			it.close();
+		}
+	}
+
 	/**
 	 * JUnit suite target
 	 */
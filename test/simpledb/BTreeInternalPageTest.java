@@ -10,6 +10,8 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 import simpledb.storage.BufferPool;
 import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 
@@ -321,6 +323,38 @@ public class BTreeInternalPageTest extends SimpleDbTestBase {
 		}
 	}
 
+	/**
+	 * Unit test for BTreeInternalPage with variable-length string keys
+	 */
+	@Test public void variableLengthStringKeys() throws Exception {
+		Database.getCatalog().addTable(new SkeletonFile(-2,
+				new TupleDesc(new Type[]{Type.STRING_TYPE, Type.INT_TYPE})), SystemTestUtil.getUUID());
+		BTreePageId spid = new BTreePageId(-2, -1, BTreePageId.INTERNAL);
+		BTreeInternalPage page = new BTreeInternalPage(spid, BTreeInternalPage.createEmptyPageData(), 0);
+
+		// a fixed-width string key page holds only (4096*8 - 73) / (136*8 + 1) = 30 entries
+		List<BTreeEntry> entries = new ArrayList<>();
+		for (int i = 0; page.getNumEmptySlots() > 0; i++) {
+			BTreeEntry e = new BTreeEntry(new StringField(String.format("k%05d", i), Type.STRING_LEN),
+					new BTreePageId(-2, i + 1, BTreePageId.LEAF), new BTreePageId(-2, i + 2, BTreePageId.LEAF));
+			page.insertEntry(e);
+			entries.add(e);
+		}
+		assertTrue(entries.size() > 300);
+
+		// the page survives a round trip through its on-disk format
+		BTreeInternalPage copy = new BTreeInternalPage(spid, page.getPageData(), 0);
+		assertEquals(entries.size(), copy.getNumEntries());
+		Iterator<BTreeEntry> it = copy.iterator();
+		for (BTreeEntry e : entries) {
+			BTreeEntry next = it.next();
+			assertEquals(e.getKey(), next.getKey());
+			assertEquals(e.getLeftChild(), next.getLeftChild());
+			assertEquals(e.getRightChild(), next.getRightChild());
+		}
+		assertFalse(it.hasNext());
+	}
+
 	/**
 	 * JUnit suite target
 	 */
@@ -0,0 +1,113 @@
+package simpledb;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+import simpledb.execution.Predicate.Op;
+import simpledb.optimizer.EquiDepthHistogram;
+import simpledb.optimizer.IntHistogram;
+
+public class EquiDepthHistogramTest {
+
+	/**
+	 * On a skewed column, equality estimates of values drawn from the column
+	 * are far closer than a fixed-width histogram's, and exact for the most
+	 * common values.
+	 */
+	@Test public void zipfEqualsTest() {
+		int rows = 100000;
+		int[] column = HistogramAccuracyBenchmark.zipf(rows, 2000, 1.2, 1);
+		int[] sorted = column.clone();
+		Arrays.sort(sorted);
+
+		IntHistogram fixed = new IntHistogram(100, sorted[0], sorted[rows - 1]);
+		for (int v : column)
+			fixed.addValue(v);
+		EquiDepthHistogram<Integer> h = EquiDepthHistogram.ofInts(column.clone(), rows, 100);
+
+		double fixedWorst = 0, worst = 0;
+		for (int i = 0; i < 1000; i++) {
+			int v = column[(i * 7919) % rows];
+			int actual = HistogramAccuracyBenchmark.countLess(sorted, v + 1)
+					- HistogramAccuracyBenchmark.countLess(sorted, v);
+			double q = HistogramAccuracyBenchmark.qError(h.estimateSelectivity(Op.EQUALS, v) * rows, actual);
+			fixedWorst = Math.max(fixedWorst,
+					HistogramAccuracyBenchmark.qError(fixed.estimateSelectivity(Op.EQUALS, v) * rows, actual));
+			worst = Math.max(worst, q);
+			if (actual > rows / 100)
+				Assert.assertEquals(actual, h.estimateSelectivity(Op.EQUALS, v) * rows, 0.5);
+		}
+		Assert.assertTrue(worst < 20);
+		Assert.assertTrue(worst * 10 < fixedWorst);
+	}
+
+	/**
+	 * Range estimates on a uniform column are close to the truth, and the
+	 * estimates of all the operators agree with each other.
+	 */
+	@Test public void uniformRangeTest() {
+		int[] values = new int[10000];
+		for (int i = 0; i < values.length; i++)
+			values[i] = (i * 37) % 1000;
+		EquiDepthHistogram<Integer> h = EquiDepthHistogram.ofInts(values, values.length, 100);
+
+		for (int v = -10; v <= 1010; v += 17) {
+			double expected = Math.max(0, Math.min(1000, v)) / 1000.0;
+			double lt = h.estimateSelectivity(Op.LESS_THAN, v);
+			Assert.assertEquals(expected, lt, 0.01);
+			Assert.assertEquals(1.0, lt + h.estimateSelectivity(Op.GREATER_THAN_OR_EQ, v), 1e-9);
+			Assert.assertEquals(h.estimateSelectivity(Op.LESS_THAN_OR_EQ, v),
+					lt + h.estimateSelectivity(Op.EQUALS, v), 1e-9);
+		}
+		Assert.assertEquals(0.001, h.estimateSelectivity(Op.EQUALS, 500), 1e-6);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.EQUALS, 1000), 0.0);
+		Assert.assertEquals(0.001, h.avgSelectivity(), 1e-6);
+	}
+
+	/**
+	 * Strings are compared as whole keys, not by their first characters.
+	 */
+	@Test public void longPrefixStringTest() {
+		String[] values = new String[5000];
+		for (int i = 0; i < values.length; i++)
+			values[i] = String.format("customer#%06d", i % 1000);
+		for (int i = 3; i < 500; i++)
+			values[i] = "customer#000999";
+		EquiDepthHistogram<String> h = EquiDepthHistogram.ofStrings(values, values.length, 50);
+
+		Assert.assertEquals(502.0 / 5000, h.estimateSelectivity(Op.EQUALS, "customer#000999"), 1e-9);
+		Assert.assertEquals(4.0 / 5000, h.estimateSelectivity(Op.EQUALS, "customer#000123"), 0.001);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.EQUALS, "customer#"), 0.0);
+		Assert.assertEquals(0.4, h.estimateSelectivity(Op.LESS_THAN, "customer#000500"), 0.02);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.LESS_THAN, "customer#000000"), 0.0);
+	}
+
+	/**
+	 * Values added to and removed from a histogram are counted, new values
+	 * do not inflate equality estimates, and a copy is not affected.
+	 */
+	@Test public void addRemoveTest() {
+		int[] values = new int[1000];
+		for (int i = 0; i < values.length; i++)
+			values[i] = i;
+		EquiDepthHistogram<Integer> h = EquiDepthHistogram.ofInts(values, values.length, 10);
+		EquiDepthHistogram<Integer> copy = new EquiDepthHistogram<>(h);
+
+		for (int i = 0; i < 1000; i++)
+			h.addValue(2000 + i);
+		Assert.assertEquals(0.45, h.estimateSelectivity(Op.LESS_THAN, 900), 1e-9);
+		Assert.assertEquals(0.0, h.estimateSelectivity(Op.GREATER_THAN, 2999), 1e-9);
+		// the added values widen the last bucket, so each is a new distinct value
+		Assert.assertEquals(0.0005, h.estimateSelectivity(Op.EQUALS, 2500), 1e-9);
+		Assert.assertEquals(0.0005, h.estimateSelectivity(Op.EQUALS, 950), 1e-9);
+		for (int i = 0; i < 1000; i++)
+			h.removeValue(2000 + i);
+		Assert.assertEquals(0.9, h.estimateSelectivity(Op.LESS_THAN, 900), 1e-9);
+		Assert.assertEquals(0.001, h.estimateSelectivity(Op.EQUALS, 500), 1e-9);
+
+		Assert.assertEquals(1.0, copy.estimateSelectivity(Op.LESS_THAN, 1000), 1e-9);
+		Assert.assertEquals(0.0, copy.estimateSelectivity(Op.GREATER_THAN, 999), 1e-9);
+	}
+}
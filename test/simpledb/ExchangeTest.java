@@ -0,0 +1,214 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import Zql.ZDelete;
+import Zql.ZStatement;
+import Zql.ZqlParser;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Exchange;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+public class ExchangeTest extends SimpleDbTestBase {
+
+  private HeapFile f;
+  private List<List<Integer>> tuples;
+  private TransactionId tid;
+
+  @Before public void setUp() throws Exception {
+    tuples = new ArrayList<>();
+    f = SystemTestUtil.createRandomHeapFile(3, 20000, 1000, null, tuples);
+    assertTrue(f.numPages() > 2 * Exchange.MORSEL_PAGES);
+    tid = new TransactionId();
+  }
+
+  @After public void tearDown() throws Exception {
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  private static List<List<Integer>> drain(OpIterator it) throws Exception {
+    List<List<Integer>> out = new ArrayList<>();
+    while (it.hasNext()) {
+      out.add(SystemTestUtil.tupleToList(it.next()));
+    }
+    return out;
+  }
+
+  private static List<List<Integer>> sorted(List<List<Integer>> rows) {
+    List<List<Integer>> out = new ArrayList<>(rows);
+    out.sort(Comparator.comparing(Object::toString));
+    return out;
+  }
+
+  /**
+   * Without order preservation, the exchange returns the same tuples as a
+   * serial scan
+   */
+  @Test public void unordered() throws Exception {
+    Exchange ex = new Exchange(new SeqScan(tid, f.getId()), 4, false);
+    ex.open();
+    assertEquals(sorted(tuples), sorted(drain(ex)));
+    ex.close();
+  }
+
+  /**
+   * With order preservation, the exchange returns the tuples in the order of
+   * a serial scan
+   */
+  @Test public void ordered() throws Exception {
+    Exchange ex = new Exchange(new SeqScan(tid, f.getId()), 4, true);
+    ex.open();
+    assertEquals(tuples, drain(ex));
+    ex.close();
+  }
+
+  /**
+   * Filters and projections below the exchange are run by the workers
+   */
+  @Test public void fragment() throws Exception {
+    OpIterator plan = new Project(Arrays.asList(2, 0), new Type[] { Type.INT_TYPE, Type.INT_TYPE },
+        new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(300)),
+            new SeqScan(tid, f.getId())));
+    assertTrue(Exchange.canParallelize(plan));
+    List<List<Integer>> expected = new ArrayList<>();
+    for (List<Integer> t : tuples) {
+      if (t.get(1) < 300)
+        expected.add(Arrays.asList(t.get(2), t.get(0)));
+    }
+    Exchange ex = new Exchange(plan, 3, true);
+    ex.open();
+    assertEquals(expected, drain(ex));
+    ex.close();
+  }
+
+  /**
+   * Rewinding restarts the workers; closing early stops them
+   */
+  @Test public void rewindAndClose() throws Exception {
+    Exchange ex = new Exchange(new SeqScan(tid, f.getId()), 4, true);
+    ex.open();
+    for (int i = 0; i < 10; i++) {
+      assertEquals(tuples.get(i), SystemTestUtil.tupleToList(ex.next()));
+    }
+    ex.rewind();
+    assertEquals(tuples, drain(ex));
+    assertFalse(ex.hasNext());
+    ex.rewind();
+    assertTrue(ex.hasNext());
+    ex.close();
+  }
+
+  /**
+   * A page range limits a SeqScan to some of the file's pages
+   */
+  @Test public void pageRange() throws Exception {
+    SeqScan first = new SeqScan(tid, f.getId());
+    first.setPageRange(0, 1);
+    first.open();
+    List<List<Integer>> page0 = drain(first);
+    first.close();
+    int n = page0.size();
+    assertTrue(n > 0);
+    assertEquals(tuples.subList(0, n), page0);
+
+    SeqScan rest = new SeqScan(tid, f.getId());
+    rest.setPageRange(1, f.numPages() + 10);
+    rest.open();
+    assertEquals(tuples.subList(n, tuples.size()), drain(rest));
+    rest.close();
+
+    SeqScan none = new SeqScan(tid, f.getId());
+    none.setPageRange(f.numPages(), f.numPages() + 1);
+    none.open();
+    assertFalse(none.hasNext());
+    none.close();
+  }
+
+  private static boolean containsExchange(OpIterator it) {
+    if (it instanceof Exchange)
+      return true;
+    if (it instanceof Operator) {
+      for (OpIterator child : ((Operator) it).getChildren()) {
+        if (containsExchange(child))
+          return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * A DELETE with a WHERE clause on a table large enough to scan in
+   * parallel scans it serially, and deletes exactly the matching tuples
+   */
+  @Test public void parallelDelete() throws Exception {
+    Database.resetBufferPool(200);
+    List<List<Integer>> rows = new ArrayList<>();
+    HeapFile big = SystemTestUtil.createRandomHeapFile(2, 40000, 1000, null, rows, "c");
+    assertTrue(big.numPages() >= Exchange.MIN_PARALLEL_PAGES);
+    Database.getCatalog().addTable(big, "big");
+    TableStats.setTableStats("big", new TableStats(big.getId(), 1));
+    Parser p = new Parser();
+    p.setWorkers(4);
+
+    // a query over the same table does scan in parallel
+    OpIterator select = p.generateLogicalPlan(tid, "SELECT * FROM big WHERE big.c0 < 500;")
+        .physicalPlan(tid, TableStats.getStatsMap(), false);
+    assertTrue(containsExchange(select));
+
+    int expected = 0;
+    for (List<Integer> row : rows) {
+      if (row.get(0) < 500)
+        expected++;
+    }
+    ZStatement stmt = new ZqlParser(new ByteArrayInputStream(
+        "DELETE FROM big WHERE big.c0 < 500;".getBytes(StandardCharsets.UTF_8))).readStatement();
+    OpIterator delete = p.handleDeleteStatement((ZDelete) stmt, tid).getPhysicalPlan();
+    assertFalse(containsExchange(delete));
+    delete.open();
+    assertEquals(expected, delete.next().getInt(0));
+    delete.close();
+
+    SeqScan scan = new SeqScan(tid, big.getId());
+    scan.open();
+    int left = 0;
+    while (scan.hasNext()) {
+      assertTrue(scan.next().getInt(0) >= 500);
+      left++;
+    }
+    scan.close();
+    assertEquals(rows.size() - expected, left);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExchangeTest.class);
+  }
+}
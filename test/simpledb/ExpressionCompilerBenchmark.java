@@ -0,0 +1,109 @@
+package simpledb;
+
+import simpledb.common.Type;
+import simpledb.execution.ExpressionCompiler;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares interpreted and compiled expressions (see {@link ExpressionCompiler})
+ * over tuples held in memory. Each expression is run for a number of warmup
+ * rounds before the measured ones so that both versions are JIT compiled.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.ExpressionCompilerBenchmark [tuples] [rounds]
+ */
+public class ExpressionCompilerBenchmark {
+
+    interface Body {
+        long run();
+    }
+
+    private static void time(String name, int n, int rounds, Body body) {
+        long sink = 0;
+        for (int i = 0; i < rounds; i++) {
+            sink += body.run();
+        }
+        long best = Long.MAX_VALUE;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            sink += body.run();
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        System.out.printf("%-28s %8.2f ns/tuple  (%d)%n", name, (double) best / n, sink);
+    }
+
+    public static void main(String[] args) {
+        int n = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE });
+        Random r = new Random(42);
+        Tuple[] tuples = new Tuple[n];
+        for (int i = 0; i < n; i++) {
+            tuples[i] = new Tuple(td);
+            for (int j = 0; j < 3; j++) {
+                tuples[i].setInt(j, r.nextInt(1000));
+            }
+        }
+
+        Predicate p = new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500));
+        ExpressionCompiler.TupleFilter f = ExpressionCompiler.compile(p, td);
+        time("filter, interpreted", n, rounds, () -> {
+            long c = 0;
+            for (Tuple t : tuples)
+                if (p.filter(t)) c++;
+            return c;
+        });
+        time("filter, compiled", n, rounds, () -> {
+            long c = 0;
+            for (Tuple t : tuples)
+                if (f.test(t)) c++;
+            return c;
+        });
+
+        JoinPredicate jp = new JoinPredicate(0, Predicate.Op.EQUALS, 2);
+        ExpressionCompiler.JoinFilter jf = ExpressionCompiler.compile(jp, td, td);
+        time("join predicate, interpreted", n, rounds, () -> {
+            long c = 0;
+            for (int i = 1; i < n; i++)
+                if (jp.filter(tuples[i - 1], tuples[i])) c++;
+            return c;
+        });
+        time("join predicate, compiled", n, rounds, () -> {
+            long c = 0;
+            for (int i = 1; i < n; i++)
+                if (jf.test(tuples[i - 1], tuples[i])) c++;
+            return c;
+        });
+
+        TupleDesc outTd = new TupleDesc(new Type[] { Type.INT_TYPE, Type.INT_TYPE });
+        List<Integer> cols = Arrays.asList(2, 0);
+        ExpressionCompiler.Projector proj = ExpressionCompiler.compile(cols, outTd);
+        time("projection, interpreted", n, rounds, () -> {
+            long c = 0;
+            for (Tuple t : tuples) {
+                // as in Project.fetchNext
+                Tuple out = new Tuple(outTd);
+                out.setRecordId(t.getRecordId());
+                for (int i = 0; i < outTd.numFields(); i++) {
+                    out.copyField(i, t, cols.get(i));
+                }
+                c += out.getInt(0);
+            }
+            return c;
+        });
+        time("projection, compiled", n, rounds, () -> {
+            long c = 0;
+            for (Tuple t : tuples)
+                c += proj.project(t).getInt(0);
+            return c;
+        });
+    }
+}
@@ -0,0 +1,132 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.After;
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.ExpressionCompiler;
+import simpledb.execution.Filter;
+import simpledb.execution.Join;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.Arrays;
+
+public class ExpressionCompilerTest extends SimpleDbTestBase {
+
+  final int[] vals = new int[] { -1, 0, 1 };
+
+  @After public void enable() {
+    ExpressionCompiler.setEnabled(true);
+  }
+
+  /**
+   * Compiled filters agree with Predicate.filter for every operator
+   */
+  @Test public void compiledFilter() {
+    TupleDesc td = Utility.getTupleDesc(1);
+    for (Predicate.Op op : Predicate.Op.values()) {
+      Predicate p = new Predicate(0, op, TestUtil.getField(0));
+      ExpressionCompiler.TupleFilter f = ExpressionCompiler.compile(p, td);
+      assertNotNull(f);
+      for (int i : vals) {
+        Tuple t = Utility.getHeapTuple(i);
+        assertEquals(op + " " + i, p.filter(t), f.test(t));
+      }
+    }
+  }
+
+  /**
+   * Compiled join predicates agree with JoinPredicate.filter for every
+   * operator
+   */
+  @Test public void compiledJoinFilter() {
+    TupleDesc td = Utility.getTupleDesc(1);
+    for (Predicate.Op op : Predicate.Op.values()) {
+      JoinPredicate p = new JoinPredicate(0, op, 0);
+      ExpressionCompiler.JoinFilter f = ExpressionCompiler.compile(p, td, td);
+      assertNotNull(f);
+      for (int i : vals) {
+        for (int j : vals) {
+          Tuple t1 = Utility.getHeapTuple(i);
+          Tuple t2 = Utility.getHeapTuple(j);
+          assertEquals(op + " " + i + " " + j, p.filter(t1, t2), f.test(t1, t2));
+        }
+      }
+    }
+  }
+
+  /**
+   * Compiled projections copy the selected fields
+   */
+  @Test public void compiledProjection() {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+    Tuple t = new Tuple(td);
+    t.setField(0, new IntField(1));
+    t.setField(1, new StringField("b", Type.STRING_LEN));
+    t.setField(2, new IntField(3));
+    TupleDesc outTd = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    ExpressionCompiler.Projector p = ExpressionCompiler.compile(Arrays.asList(2, 1), outTd);
+    Tuple out = p.project(t);
+    assertEquals(new IntField(3), out.getField(0));
+    assertEquals(new StringField("b", Type.STRING_LEN), out.getField(1));
+  }
+
+  /**
+   * Expressions without a kernel, or compiled while compilation is off, are
+   * left to the interpreter
+   */
+  @Test public void fallback() {
+    TupleDesc td = new TupleDesc(new Type[] { Type.STRING_TYPE });
+    Predicate p = new Predicate(0, Predicate.Op.LIKE, new StringField("a", Type.STRING_LEN));
+    assertNull(ExpressionCompiler.compile(p, td));
+
+    ExpressionCompiler.setEnabled(false);
+    assertNull(ExpressionCompiler.compile(
+        new Predicate(0, Predicate.Op.EQUALS, TestUtil.getField(0)), Utility.getTupleDesc(1)));
+  }
+
+  /**
+   * Operators return the same tuples whether their expressions are compiled
+   * or interpreted
+   */
+  @Test public void operatorsMatchInterpreter() throws Exception {
+    for (boolean compile : new boolean[] { true, false }) {
+      ExpressionCompiler.setEnabled(compile);
+      Filter filter = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, TestUtil.getField(2)),
+          new TestUtil.MockScan(-5, 5, 2));
+      OpIterator expected = TestUtil.createTupleList(2, new int[] { 3, 3, 4, 4 });
+      filter.open();
+      expected.open();
+      TestUtil.matchAllTuples(expected, filter);
+
+      OpIterator left = TestUtil.createTupleList(1, new int[] { 1, 2, 3 });
+      OpIterator right = TestUtil.createTupleList(1, new int[] { 2, 3, 4 });
+      Join join = new Join(new JoinPredicate(0, Predicate.Op.LESS_THAN, 0), left, right);
+      OpIterator joined = TestUtil.createTupleList(2,
+          new int[] { 1, 2, 1, 3, 1, 4, 2, 3, 2, 4, 3, 4 });
+      join.open();
+      joined.open();
+      TestUtil.matchAllTuples(joined, join);
+    }
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExpressionCompilerTest.class);
+  }
+}
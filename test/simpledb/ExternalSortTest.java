@@ -0,0 +1,127 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.execution.ExternalSort;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.Comparator;
+import java.util.Random;
+
+public class ExternalSortTest extends SimpleDbTestBase {
+
+  private static final Comparator<Tuple> BY_FIRST_FIELD = Comparator.comparingInt(
+      t -> ((IntField) t.getField(0)).getValue());
+
+  private OpIterator randomTuples(int n) {
+    Random r = new Random(42);
+    int[] data = new int[n * 2];
+    for (int i = 0; i < n; i++) {
+      data[2 * i] = r.nextInt(1000);
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  private int checkSorted(ExternalSort sort) throws Exception {
+    int count = 0;
+    int prev = Integer.MIN_VALUE;
+    while (sort.hasNext()) {
+      int v = ((IntField) sort.next().getField(0)).getValue();
+      assertTrue(v >= prev);
+      prev = v;
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Input that fits in the budget is sorted without spilling
+   */
+  @Test public void inMemory() throws Exception {
+    ExternalSort sort = new ExternalSort(randomTuples(100), BY_FIRST_FIELD, 3);
+    sort.open();
+    assertEquals(0, sort.getNumRuns());
+    assertEquals(100, checkSorted(sort));
+    sort.close();
+  }
+
+  /**
+   * Input larger than the budget is spilled to runs and merged, over more
+   * than one pass when there are more runs than the merge fan-in
+   */
+  @Test public void spilled() throws Exception {
+    ExternalSort sort = new ExternalSort(randomTuples(20000), BY_FIRST_FIELD, 3);
+    sort.open();
+    assertTrue(sort.getNumRuns() > 0);
+    assertTrue(sort.getNumRuns() <= 2);
+    assertEquals(20000, checkSorted(sort));
+
+    sort.rewind();
+    assertEquals(20000, checkSorted(sort));
+    sort.close();
+    assertFalse(sort.hasNext());
+  }
+
+  /**
+   * The merge is stable: tuples with equal keys come out in input order,
+   * also when the runs are merged over several passes
+   */
+  @Test public void stableMerge() throws Exception {
+    ExternalSort sort = new ExternalSort(randomTuples(20000), BY_FIRST_FIELD, 5);
+    sort.open();
+    assertTrue(sort.getNumRuns() > 0);
+    int prevKey = Integer.MIN_VALUE;
+    int prevPos = -1;
+    int count = 0;
+    while (sort.hasNext()) {
+      Tuple t = sort.next();
+      int key = t.getInt(0);
+      int pos = t.getInt(1);
+      assertTrue(key >= prevKey);
+      if (key == prevKey)
+        assertTrue(pos > prevPos);
+      prevKey = key;
+      prevPos = pos;
+      count++;
+    }
+    assertEquals(20000, count);
+    sort.close();
+  }
+
+  /**
+   * OrderBy sorts input larger than its memory budget
+   */
+  @Test public void orderBySpills() throws Exception {
+    OrderBy ob = new OrderBy(0, false, randomTuples(20000), 3);
+    ob.open();
+    int prev = Integer.MAX_VALUE;
+    int count = 0;
+    while (ob.hasNext()) {
+      int v = ob.next().getInt(0);
+      assertTrue(v <= prev);
+      prev = v;
+      count++;
+    }
+    assertEquals(20000, count);
+    ob.rewind();
+    assertTrue(ob.hasNext());
+    ob.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ExternalSortTest.class);
+  }
+}
@@ -0,0 +1,208 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Exchange;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+public class HashEquiJoinTest extends SimpleDbTestBase {
+
+  final int width1 = 2;
+  final int width2 = 3;
+  OpIterator scan1;
+  OpIterator scan2;
+  OpIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 1, 2, 3,
+                    2, 3, 4,
+                    3, 4, 5,
+                    4, 5, 6,
+                    5, 6, 7 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    5, 6, 5, 6, 7 });
+  }
+
+  /**
+   * Unit test for HashEquiJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    assertEquals(expected, op.getTupleDesc());
+  }
+
+  /**
+   * Unit test for HashEquiJoin.getNext() using an = predicate
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, scan1, scan2);
+    op.open();
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  private static Map<Integer, Integer> countByKey(OpIterator it, int field) throws Exception {
+    Map<Integer, Integer> counts = new HashMap<>();
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      counts.merge(((IntField) t.getField(field)).getValue(), 1, Integer::sum);
+    }
+    return counts;
+  }
+
+  /**
+   * A build side much larger than the memory budget is partitioned to disk
+   * and every match is still found
+   */
+  @Test public void spilledJoin() throws Exception {
+    int n = 5000;
+    int[] build = new int[n * width1];
+    for (int i = 0; i < n; i++) {
+      build[i * width1] = i % 1000;     // every key 5 times
+      build[i * width1 + 1] = i;
+    }
+    int[] probe = new int[2000 * width2];
+    for (int i = 0; i < 2000; i++) {
+      probe[i * width2] = i;            // keys 0 .. 999 match
+    }
+    OpIterator probeScan = TestUtil.createTupleList(width2, probe);
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    HashEquiJoin op = new HashEquiJoin(pred, TestUtil.createTupleList(width1, build), probeScan, 100);
+    op.open();
+    Map<Integer, Integer> counts = countByKey(op, 0);
+    assertEquals(1000, counts.size());
+    for (int c : counts.values())
+      assertEquals(5, c);
+
+    op.rewind();
+    assertEquals(1000, countByKey(op, 0).size());
+    op.close();
+  }
+
+  /**
+   * A single key with more tuples than the budget cannot be split by
+   * repartitioning and is joined in chunks
+   */
+  @Test public void skewedJoin() throws Exception {
+    int[] build = new int[300 * width1];
+    int[] probe = new int[] { 7, 0, 0,
+                              8, 0, 0,
+                              7, 1, 1 };
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    for (int i = 0; i < 300; i++)
+      build[i * width1] = 7;
+    HashEquiJoin op = new HashEquiJoin(pred, TestUtil.createTupleList(width1, build),
+        TestUtil.createTupleList(width2, probe), 50);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+      count++;
+    }
+    assertEquals(600, count);
+    assertTrue(TestUtil.checkExhausted(op));
+  }
+
+  /**
+   * With an Exchange as the probe side, the join is built and probed in
+   * parallel and returns the same tuples as the serial join; a build side
+   * over the budget falls back to the serial join
+   */
+  @Test public void parallelJoin() throws Exception {
+    HeapFile build = SystemTestUtil.createRandomHeapFile(2, 2000, 1000, null, new ArrayList<>());
+    HeapFile probe = SystemTestUtil.createRandomHeapFile(2, 30000, 1000, null, new ArrayList<>());
+    TransactionId tid = new TransactionId();
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+
+    HashEquiJoin serial = new HashEquiJoin(pred, new SeqScan(tid, build.getId()), new SeqScan(tid, probe.getId()));
+    serial.open();
+    Map<Integer, Integer> expected = countByKey(serial, 0);
+    serial.close();
+    assertTrue(expected.size() > 0);
+
+    for (int budget : new int[] { HashEquiJoin.MAP_SIZE, 500 }) {
+      Exchange probeSide = new Exchange(new SeqScan(tid, probe.getId()), 4, false);
+      HashEquiJoin op = new HashEquiJoin(pred, new Exchange(new SeqScan(tid, build.getId()), 4, false),
+          probeSide, budget);
+      op.open();
+      assertEquals(expected, countByKey(op, 0));
+      op.rewind();
+      assertEquals(expected, countByKey(op, 0));
+      op.close();
+      assertEquals(probe.getTupleDesc(), probeSide.getTupleDesc());
+    }
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * A parallel build that goes over the budget stops reading there, and the
+   * serial join reads each build tuple exactly once: the ones already read,
+   * then the rest of the build side
+   */
+  @Test public void parallelBuildOverBudget() throws Exception {
+    HeapFile build = SystemTestUtil.createRandomHeapFile(2, 50000, 100000, null, new ArrayList<>());
+    HeapFile probe = SystemTestUtil.createRandomHeapFile(2, 30000, 100000, null, new ArrayList<>());
+    TransactionId tid = new TransactionId();
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    assertTrue(new Exchange(new SeqScan(tid, build.getId()), 4, false).isParallel());
+
+    HashEquiJoin serial = new HashEquiJoin(pred, new SeqScan(tid, build.getId()), new SeqScan(tid, probe.getId()));
+    serial.open();
+    Map<Integer, Integer> expected = countByKey(serial, 0);
+    serial.close();
+    assertTrue(expected.size() > 0);
+
+    HashEquiJoin op = new HashEquiJoin(pred, new Exchange(new SeqScan(tid, build.getId()), 4, false),
+        new Exchange(new SeqScan(tid, probe.getId()), 4, false), 1000);
+    op.open();
+    assertEquals(expected, countByKey(op, 0));
+    op.rewind();
+    assertEquals(expected, countByKey(op, 0));
+    op.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HashEquiJoinTest.class);
+  }
+}
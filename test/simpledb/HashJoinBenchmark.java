@@ -0,0 +1,92 @@
+package simpledb;
+
+import simpledb.common.Database;
+import simpledb.common.Utility;
+import simpledb.execution.Exchange;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.execution.TupleBatch;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.transaction.TransactionId;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Times an equi-join of a large probe table against a smaller build table
+ * whose keys are unique, with HashEquiJoin running on 1, 4 and 16 threads
+ * (see {@link Exchange}). Every probe tuple matches one build tuple. The
+ * memory budget is large enough that the build side is never spilled, so
+ * the single-threaded run is the in-memory serial join.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.HashJoinBenchmark [probe rows] [build rows] [rounds]
+ */
+public class HashJoinBenchmark {
+
+    private static HeapFile createTable(int rows, int keys, boolean unique) throws IOException {
+        Random r = new Random(rows);
+        File text = File.createTempFile("bench", ".txt");
+        text.deleteOnExit();
+        try (BufferedWriter w = new BufferedWriter(new FileWriter(text))) {
+            for (int i = 0; i < rows; i++) {
+                w.write((unique ? i : r.nextInt(keys)) + "," + r.nextInt() + "\n");
+            }
+        }
+        File data = File.createTempFile("bench", ".dat");
+        data.deleteOnExit();
+        HeapFileEncoder.convert(text, data, BufferPool.getPageSize(), 2);
+        return Utility.openHeapFile(2, data);
+    }
+
+    private static long run(HeapFile probe, HeapFile build, int buildRows, int threads) throws Exception {
+        TransactionId tid = new TransactionId();
+        HashEquiJoin join = new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0),
+                new Exchange(new SeqScan(tid, build.getId()), threads, false),
+                new Exchange(new SeqScan(tid, probe.getId()), threads, false),
+                buildRows + 1);
+        long count = 0;
+        join.open();
+        TupleBatch b;
+        while ((b = join.nextBatch()) != null) {
+            count += b.size();
+        }
+        join.close();
+        Database.getBufferPool().transactionComplete(tid);
+        return count;
+    }
+
+    public static void main(String[] args) throws Exception {
+        int probeRows = args.length > 0 ? Integer.parseInt(args[0]) : 10_000_000;
+        int buildRows = args.length > 1 ? Integer.parseInt(args[1]) : 1_000_000;
+        int rounds = args.length > 2 ? Integer.parseInt(args[2]) : 3;
+
+        HeapFile build = createTable(buildRows, buildRows, true);
+        HeapFile probe = createTable(probeRows, buildRows, false);
+        System.out.printf("%d x %d rows, %d cores%n", probeRows, buildRows,
+                Runtime.getRuntime().availableProcessors());
+
+        double base = 0;
+        for (int threads : new int[] { 1, 4, 16 }) {
+            long best = Long.MAX_VALUE;
+            long count = 0;
+            for (int i = 0; i < rounds + 1; i++) {
+                long start = System.nanoTime();
+                count = run(probe, build, buildRows, threads);
+                // the first round only warms up
+                if (i > 0)
+                    best = Math.min(best, System.nanoTime() - start);
+            }
+            double ms = best / 1e6;
+            if (threads == 1)
+                base = ms;
+            System.out.printf("%2d threads %10.1f ms  %5.2fx  (%d tuples)%n", threads, ms, base / ms, count);
+        }
+    }
+}
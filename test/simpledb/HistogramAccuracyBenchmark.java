@@ -0,0 +1,126 @@
+package simpledb;
+
+import simpledb.execution.Predicate;
+import simpledb.optimizer.EquiDepthHistogram;
+import simpledb.optimizer.IntHistogram;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * Compares the accuracy of the fixed-width {@link IntHistogram} and the
+ * {@link EquiDepthHistogram} on Zipfian columns of increasing skew. Each
+ * histogram of 100 buckets estimates the number of rows equal to values
+ * drawn from the column, and the number less than random constants; the
+ * q-error of an estimate is max(estimate / actual, actual / estimate), with
+ * both at least one row. The equi-depth histogram is built from a sample of
+ * at most 131072 values, as TableStats would, the fixed-width one from every
+ * value.
+ * <p>
+ * Run with: java -cp bin/src:bin/test simpledb.HistogramAccuracyBenchmark [rows] [distinct values]
+ */
+public class HistogramAccuracyBenchmark {
+
+    private static final int BUCKETS = 100;
+    private static final int SAMPLE = 1 << 17;
+    private static final int QUERIES = 1000;
+
+    /**
+     * @return n values of a column with the given number of distinct values,
+     *         whose frequencies follow a Zipf distribution with exponent s;
+     *         the values are scattered at random over [0, 100 * distinct)
+     */
+    static int[] zipf(int n, int distinct, double s, long seed) {
+        Random r = new Random(seed);
+        double[] cdf = new double[distinct];
+        double sum = 0;
+        for (int k = 0; k < distinct; k++) {
+            sum += 1 / Math.pow(k + 1, s);
+            cdf[k] = sum;
+        }
+        int[] values = new int[distinct];
+        for (int k = 0; k < distinct; k++) {
+            values[k] = r.nextInt(100 * distinct);
+        }
+        int[] out = new int[n];
+        for (int i = 0; i < n; i++) {
+            int k = Arrays.binarySearch(cdf, r.nextDouble() * sum);
+            out[i] = values[k < 0 ? -k - 1 : k];
+        }
+        return out;
+    }
+
+    static double qError(double estimate, double actual) {
+        estimate = Math.max(1, estimate);
+        actual = Math.max(1, actual);
+        return Math.max(estimate / actual, actual / estimate);
+    }
+
+    /** The number of values of a sorted column less than v */
+    static int countLess(int[] sorted, int v) {
+        int lo = 0;
+        int hi = sorted.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (sorted[mid] < v)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    private static String summary(double[] q) {
+        Arrays.sort(q);
+        return String.format("median %8.2f  p95 %10.2f  max %12.2f", q[q.length / 2], q[q.length * 95 / 100],
+                q[q.length - 1]);
+    }
+
+    public static void main(String[] args) {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+        int distinct = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+        System.out.printf("%d rows, %d distinct values, %d buckets%n", rows, distinct, BUCKETS);
+
+        for (double s : new double[] { 0, 0.5, 1.0, 1.5, 2.0 }) {
+            int[] column = zipf(rows, distinct, s, 1);
+            int[] sorted = column.clone();
+            Arrays.sort(sorted);
+
+            IntHistogram fixed = new IntHistogram(BUCKETS, sorted[0], sorted[rows - 1]);
+            for (int v : column) {
+                fixed.addValue(v);
+            }
+            Random r = new Random(2);
+            int[] sample = new int[Math.min(SAMPLE, rows)];
+            for (int i = 0; i < rows; i++) {
+                if (i < sample.length) {
+                    sample[i] = column[i];
+                } else {
+                    int j = r.nextInt(i + 1);
+                    if (j < sample.length)
+                        sample[j] = column[i];
+                }
+            }
+            EquiDepthHistogram<Integer> equiDepth = EquiDepthHistogram.ofInts(sample, sample.length, BUCKETS);
+
+            double[][] eq = new double[2][QUERIES];
+            double[][] lt = new double[2][QUERIES];
+            for (int i = 0; i < QUERIES; i++) {
+                int v = column[r.nextInt(rows)];
+                int actual = countLess(sorted, v + 1) - countLess(sorted, v);
+                eq[0][i] = qError(fixed.estimateSelectivity(Predicate.Op.EQUALS, v) * rows, actual);
+                eq[1][i] = qError(equiDepth.estimateSelectivity(Predicate.Op.EQUALS, v) * rows, actual);
+
+                int c = sorted[0] + r.nextInt(sorted[rows - 1] - sorted[0] + 1);
+                actual = countLess(sorted, c);
+                lt[0][i] = qError(fixed.estimateSelectivity(Predicate.Op.LESS_THAN, c) * rows, actual);
+                lt[1][i] = qError(equiDepth.estimateSelectivity(Predicate.Op.LESS_THAN, c) * rows, actual);
+            }
+            System.out.printf("zipf s=%.1f%n", s);
+            System.out.printf("  =  fixed-width  %s%n", summary(eq[0]));
+            System.out.printf("  =  equi-depth   %s%n", summary(eq[1]));
+            System.out.printf("  <  fixed-width  %s%n", summary(lt[0]));
+            System.out.printf("  <  equi-depth   %s%n", summary(lt[1]));
+        }
+    }
+}
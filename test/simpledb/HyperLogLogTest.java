@@ -0,0 +1,49 @@
+package simpledb;
+
+import org.junit.Test;
+import org.junit.Assert;
+
+import simpledb.optimizer.HyperLogLog;
+
+public class HyperLogLogTest {
+
+	/**
+	 * Distinct counts are within a few percent, however often each value
+	 * is repeated, and small counts are close to exact.
+	 */
+	@Test public void estimateTest() {
+		for (int n : new int[] { 10, 1000, 100000, 1000000 }) {
+			HyperLogLog ints = new HyperLogLog();
+			HyperLogLog strings = new HyperLogLog();
+			for (int rep = 0; rep < 3; rep++) {
+				for (int i = 0; i < n; i++) {
+					ints.addInt(i * 7);
+					strings.addString("key-" + i);
+				}
+			}
+			Assert.assertEquals(n, ints.estimate(), Math.max(1, n * 0.05));
+			Assert.assertEquals(n, strings.estimate(), Math.max(1, n * 0.05));
+		}
+		Assert.assertEquals(0, new HyperLogLog().estimate());
+	}
+
+	/**
+	 * Merging the sketches of two parts gives the sketch of the whole.
+	 */
+	@Test public void mergeTest() {
+		HyperLogLog a = new HyperLogLog();
+		HyperLogLog b = new HyperLogLog();
+		HyperLogLog all = new HyperLogLog();
+		for (int i = 0; i < 50000; i++) {
+			(i % 3 == 0 ? a : b).addInt(i);
+			all.addInt(i);
+		}
+		for (int i = 0; i < 10000; i++) {
+			a.addInt(i);
+		}
+		HyperLogLog merged = new HyperLogLog(a);
+		merged.merge(b);
+		Assert.assertEquals(all.estimate(), merged.estimate());
+		Assert.assertTrue(a.estimate() < merged.estimate());
+	}
+}
@@ -0,0 +1,143 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.execution.Filter;
+import simpledb.execution.IndexNestedLoopJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class IndexNestedLoopJoinTest extends SimpleDbTestBase {
+
+  final int width1 = 2;
+  final int width2 = 3;
+  TransactionId tid;
+  OpIterator scan1;
+  BTreeFile inner;
+  OpIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() throws Exception {
+    this.tid = new TransactionId();
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 1, 2,
+                    3, 4,
+                    5, 6,
+                    7, 8,
+                    3, 9 });
+    // rows (1, 2, 3), (2, 4, 6), ..., (5, 10, 15) keyed on the first column
+    this.inner = BTreeUtility.createBTreeFile(width2, 5, null, null, 0);
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 6, 9,
+                    3, 9, 3, 6, 9,
+                    5, 6, 5, 10, 15 });
+  }
+
+  private SeqScan innerScan() {
+    return new SeqScan(tid, inner.getId(), "t2");
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.canProbe()
+   */
+  @Test public void canProbe() {
+    assertTrue(IndexNestedLoopJoin.canProbe(innerScan(), 0));
+    assertFalse(IndexNestedLoopJoin.canProbe(innerScan(), 1));
+    assertTrue(IndexNestedLoopJoin.canProbe(new Filter(
+        new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(2)), innerScan()), 0));
+    assertFalse(IndexNestedLoopJoin.canProbe(scan1, 0));
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    IndexNestedLoopJoin op = new IndexNestedLoopJoin(pred, scan1, innerScan());
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(width1 + width2, actual.numFields());
+    assertEquals(Utility.getTupleDesc(width1 + width2).getSize(), actual.getSize());
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.getNext() using an = predicate
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    IndexNestedLoopJoin op = new IndexNestedLoopJoin(pred, scan1, innerScan());
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+      count++;
+    }
+    assertEquals(4, count);
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for IndexNestedLoopJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    IndexNestedLoopJoin op = new IndexNestedLoopJoin(pred, scan1, innerScan());
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    assertEquals(4, count);
+  }
+
+  /**
+   * Filters above the inner scan are applied to the probed tuples
+   */
+  @Test public void innerFilter() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    Filter filtered = new Filter(
+        new Predicate(1, Predicate.Op.GREATER_THAN, new IntField(4)), innerScan());
+    IndexNestedLoopJoin op = new IndexNestedLoopJoin(pred, scan1, filtered);
+    op.open();
+    int count = 0;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      assertTrue(((IntField) t.getField(width1 + 1)).getValue() > 4);
+      count++;
+    }
+    assertEquals(3, count);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IndexNestedLoopJoinTest.class);
+  }
+}
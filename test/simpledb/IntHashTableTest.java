@@ -0,0 +1,66 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.execution.IntHashTable;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+public class IntHashTableTest extends SimpleDbTestBase {
+
+  /**
+   * Keys get dense ids in the order they are first added, also across
+   * resizes
+   */
+  @Test public void addAndFind() {
+    IntHashTable table = new IntHashTable(4);
+    Map<Integer, Integer> ids = new HashMap<>();
+    Random r = new Random(1);
+    for (int i = 0; i < 10000; i++) {
+      int key = r.nextInt(5000) - 2500;
+      Integer expected = ids.get(key);
+      if (expected == null) {
+        expected = ids.size();
+        ids.put(key, expected);
+      }
+      assertEquals((int) expected, table.add(key));
+    }
+    assertEquals(ids.size(), table.size());
+    for (Map.Entry<Integer, Integer> e : ids.entrySet()) {
+      assertEquals((int) e.getValue(), table.find(e.getKey()));
+      assertEquals((int) e.getKey(), table.key(e.getValue()));
+    }
+    assertEquals(-1, table.find(2500));
+  }
+
+  /**
+   * Keys that collide in the low bits still get their own ids
+   */
+  @Test public void collisions() {
+    IntHashTable table = new IntHashTable();
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, table.add(i << 20));
+    }
+    for (int i = 0; i < 100; i++) {
+      assertEquals(i, table.find(i << 20));
+    }
+    assertEquals(-1, table.find(Integer.MIN_VALUE + 1));
+    table.clear();
+    assertEquals(0, table.size());
+    assertEquals(-1, table.find(0));
+    assertEquals(0, table.add(7));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IntHashTableTest.class);
+  }
+}
@@ -11,13 +11,17 @@ import org.junit.Test;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Utility;
+import simpledb.execution.OpIterator;
 import simpledb.execution.Predicate;
 import simpledb.optimizer.JoinOptimizer;
 import simpledb.optimizer.LogicalJoinNode;
+import simpledb.optimizer.LogicalPlan;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.BufferPool;
 import simpledb.storage.HeapFile;
 import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionAbortedException;
@@ -274,6 +278,39 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertTrue(cardinality == 800 || cardinality == 2000);
     }
 
+    /**
+     * Verify that equality joins on fields that are not keys are estimated
+     * from the fields' distinct values
+     */
+    @Test
+    public void distinctValueJoinCardinality() throws IOException {
+        List<List<Integer>> small = new ArrayList<>();
+        HeapFile fs = SystemTestUtil.createRandomHeapFile(2, 2000, 100, null, small, "c");
+        Database.getCatalog().addTable(fs, "small");
+        List<List<Integer>> big = new ArrayList<>();
+        HeapFile fb = SystemTestUtil.createRandomHeapFile(2, 20000, 1000, null, big, "c");
+        Database.getCatalog().addTable(fb, "big");
+        Map<String, TableStats> stats = new HashMap<>();
+        stats.put("small", new TableStats(fs.getId(), 1));
+        stats.put("big", new TableStats(fb.getId(), 1));
+        Assert.assertEquals(100, stats.get("small").distinctValues(0), 3);
+        Assert.assertEquals(1000, stats.get("big").distinctValues(1), 50);
+
+        int[] counts = new int[1000];
+        for (List<Integer> t : big)
+            counts[t.get(0)]++;
+        long actual = 0;
+        for (List<Integer> t : small)
+            actual += counts[t.get(0)];
+
+        Map<String, Integer> aliases = new HashMap<>();
+        aliases.put("s", fs.getId());
+        aliases.put("b", fb.getId());
+        int card = JoinOptimizer.estimateTableJoinCardinality(Predicate.Op.EQUALS, "s", "b", "c0", "c0",
+                2000, 20000, false, false, stats, aliases);
+        Assert.assertEquals(actual, card, actual * 0.1);
+    }
+
     /**
      * Determine whether the orderJoins implementation is doing a reasonable job
      * of ordering joins, and not taking an unreasonable amount of time to do so
@@ -528,6 +565,204 @@ public class JoinOptimizerTest extends SimpleDbTestBase {
         Assert.assertEquals(result.get(result.size() - 1).t2Alias, "bigTable");
     }
 
+    /**
+     * Order a 15-way join whose join graph is a star plus a ring, so that
+     * there are tens of thousands of connected sets of tables, and check
+     * that it takes well under a second once warmed up and never joins
+     * tables that have no join between them
+     */
+    @Test
+    public void denseOrderJoinsTest() throws IOException, ParsingException {
+        final int N = 15;
+        Map<String, TableStats> stats = new HashMap<>();
+        Map<String, Double> filterSelectivities = new HashMap<>();
+        JoinOptimizer j = starRingJoins(N, stats, filterSelectivities);
+
+        // the first run also warms up the JIT
+        List<LogicalJoinNode> result = j.orderJoins(stats, filterSelectivities, false);
+        long start = System.nanoTime();
+        Assert.assertEquals(result, j.orderJoins(stats, filterSelectivities, false));
+        long millis = (System.nanoTime() - start) / 1000000;
+        Assert.assertTrue("planning took " + millis + " ms", millis < 1000);
+        checkConnected(result, N);
+    }
+
+    /**
+     * Order a 40-way join, too large to order exhaustively, and check that
+     * the search stops close to its planning budget with a plan that never
+     * joins tables that have no join between them, and that costs no more
+     * than the plain greedy plan it starts from
+     */
+    @Test
+    public void largeOrderJoinsTest() throws IOException, ParsingException {
+        final int N = 40;
+        Map<String, TableStats> stats = new HashMap<>();
+        Map<String, Double> filterSelectivities = new HashMap<>();
+        JoinOptimizer j = starRingJoins(N, stats, filterSelectivities);
+        long budget = JoinOptimizer.getPlanningBudget();
+        try {
+            // with no budget, only the greedy plan from the first table is
+            // built
+            JoinOptimizer.setPlanningBudget(0);
+            List<LogicalJoinNode> greedy = j.orderJoins(stats, filterSelectivities, false);
+            checkConnected(greedy, N);
+
+            JoinOptimizer.setPlanningBudget(200);
+            long start = System.nanoTime();
+            List<LogicalJoinNode> result = j.orderJoins(stats, filterSelectivities, false);
+            long millis = (System.nanoTime() - start) / 1000000;
+            Assert.assertTrue("planning took " + millis + " ms", millis < 1000);
+            checkConnected(result, N);
+            double greedyCost = planCost(greedy);
+            Assert.assertTrue(greedyCost > 0);
+            Assert.assertTrue(planCost(result) <= greedyCost);
+        } finally {
+            JoinOptimizer.setPlanningBudget(budget);
+        }
+    }
+
+    /**
+     * Order a chain of four joins, a-b-c-d, where a and d are filtered down
+     * to a few tuples and the join of b and c multiplies its input. The best
+     * plan joins a with b and c with d first, then the two results: it is
+     * bushy, and every join in it carries the operator chosen for it and
+     * its estimated cost.
+     */
+    @Test
+    public void bushyOrderJoinsTest() throws IOException, ParsingException {
+        TransactionId tid = new TransactionId();
+        Map<String, TableStats> stats = new HashMap<>();
+        Map<String, Double> filterSelectivities = new HashMap<>();
+        List<List<Integer>> tuples = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            tuples.add(Arrays.asList(i, i % 10));
+        }
+        for (String name : new String[] { "a", "b", "c", "d" }) {
+            HeapFile f = createDuplicateHeapFile(tuples, 2, "c");
+            Database.getCatalog().addTable(f, name);
+            stats.put(name, new TableStats(f.getId(), 1));
+            filterSelectivities.put(name, name.equals("a") || name.equals("d") ? 0.01 : 1.0);
+        }
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        nodes.add(new LogicalJoinNode("b", "c", "c1", "c1", Predicate.Op.EQUALS));
+        nodes.add(new LogicalJoinNode("a", "b", "c0", "c0", Predicate.Op.EQUALS));
+        nodes.add(new LogicalJoinNode("c", "d", "c0", "c0", Predicate.Op.EQUALS));
+
+        Parser p = new Parser();
+        JoinOptimizer j = new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM a, b, c, d WHERE a.c0 = b.c0 AND b.c1 = c.c1 AND c.c0 = d.c0;"), nodes);
+        List<LogicalJoinNode> result = j.orderJoins(stats, filterSelectivities, false);
+
+        Assert.assertEquals(3, result.size());
+        Set<String> last = new HashSet<>(Arrays.asList(result.get(2).t1Alias, result.get(2).t2Alias));
+        Assert.assertEquals(new HashSet<>(Arrays.asList("b", "c")), last);
+        for (LogicalJoinNode node : result) {
+            Assert.assertNotNull(node.algorithm);
+            Assert.assertTrue(node.estimatedCost > 0);
+            Assert.assertTrue(node.estimatedCost <= result.get(2).estimatedCost);
+        }
+    }
+
+    /**
+     * Plan and run a query whose join graph is a cycle, t0-t1-t2-t0. The
+     * last join of the cycle is between tables that are already joined, so
+     * it must filter their join rather than join a subplan with itself.
+     */
+    @Test
+    public void cyclicJoinQueryTest() throws Exception {
+        TransactionId tid = new TransactionId();
+        List<List<List<Integer>>> tables = new ArrayList<>();
+        for (int i = 0; i < 3; i++) {
+            List<List<Integer>> tuples = new ArrayList<>();
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, 200, 10, null, tuples, "c");
+            Database.getCatalog().addTable(f, "t" + i);
+            TableStats.setTableStats("t" + i, new TableStats(f.getId(), 1));
+            tables.add(tuples);
+        }
+        int expected = 0;
+        for (List<Integer> a : tables.get(0))
+            for (List<Integer> b : tables.get(1))
+                for (List<Integer> c : tables.get(2))
+                    if (a.get(0).equals(b.get(0)) && b.get(1).equals(c.get(1)) && a.get(1).equals(c.get(0)))
+                        expected++;
+
+        LogicalPlan lp = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM t0, t1, t2 WHERE t0.c0 = t1.c0 AND t1.c1 = t2.c1 AND t0.c1 = t2.c0;");
+        OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        Assert.assertEquals(6, plan.getTupleDesc().numFields());
+        int count = 0;
+        plan.open();
+        while (plan.hasNext()) {
+            Tuple t = plan.next();
+            TupleDesc td = t.getTupleDesc();
+            Assert.assertEquals(t.getField(td.fieldNameToIndex("t0.c1")), t.getField(td.fieldNameToIndex("t2.c0")));
+            count++;
+        }
+        plan.close();
+        Assert.assertEquals(expected, count);
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Create n tables, where t0 is joined with every other table and the
+     * others are joined in a ring, and fill in their statistics and filter
+     * selectivities
+     *
+     * @return an optimizer for the joins of the tables
+     */
+    private JoinOptimizer starRingJoins(int n, Map<String, TableStats> stats,
+                                        Map<String, Double> filterSelectivities)
+            throws IOException, ParsingException {
+        TransactionId tid = new TransactionId();
+        List<LogicalJoinNode> nodes = new ArrayList<>();
+        StringBuilder from = new StringBuilder();
+        StringBuilder where = new StringBuilder();
+        for (int i = 0; i < n; i++) {
+            HeapFile f = SystemTestUtil.createRandomHeapFile(2, 100 * (i + 1), null, new ArrayList<>(), "c");
+            Database.getCatalog().addTable(f, "t" + i);
+            stats.put("t" + i, new TableStats(f.getId(), 1));
+            filterSelectivities.put("t" + i, 1.0);
+            from.append(i == 0 ? "" : ", ").append("t").append(i);
+        }
+        for (int i = 1; i < n; i++) {
+            nodes.add(new LogicalJoinNode("t0", "t" + i, "c0", "c0", Predicate.Op.EQUALS));
+            nodes.add(new LogicalJoinNode("t" + i, "t" + (i % (n - 1) + 1), "c1", "c1", Predicate.Op.EQUALS));
+            where.append(i == 1 ? "" : " AND ").append("t0.c0 = t").append(i).append(".c0 AND t")
+                    .append(i).append(".c1 = t").append(i % (n - 1) + 1).append(".c1");
+        }
+        Collections.shuffle(nodes, new Random(1));
+        Parser p = new Parser();
+        return new JoinOptimizer(p.generateLogicalPlan(tid,
+                "SELECT * FROM " + from + " WHERE " + where + ";"), nodes);
+    }
+
+    /**
+     * @return the estimated cost of a join order: that of its last chosen
+     *         join, since each join carries the cost of the plan up to it
+     */
+    private static double planCost(List<LogicalJoinNode> order) {
+        double cost = 0;
+        for (LogicalJoinNode node : order) {
+            cost = Math.max(cost, node.estimatedCost);
+        }
+        return cost;
+    }
+
+    /**
+     * Check that a join order of n tables joins them all, and that each join
+     * after the first joins a table that has already been joined
+     */
+    private static void checkConnected(List<LogicalJoinNode> result, int n) {
+        Assert.assertEquals(2 * (n - 1), result.size());
+        Set<String> joined = new HashSet<>();
+        for (LogicalJoinNode node : result) {
+            Assert.assertTrue(joined.isEmpty() || joined.contains(node.t1Alias) || joined.contains(node.t2Alias));
+            joined.add(node.t1Alias);
+            joined.add(node.t2Alias);
+        }
+        Assert.assertEquals(n, joined.size());
+    }
+
     /**
      * Test a join ordering with an inequality, to make sure the inequality gets
      * put as the outermost join
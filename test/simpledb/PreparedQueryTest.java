@@ -0,0 +1,164 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Query;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class PreparedQueryTest extends SimpleDbTestBase {
+
+    private static final String JOIN = "SELECT a.c0, b.c1 FROM a, b WHERE a.c0 = b.c0 AND a.c1 < ? AND b.c1 = ?;";
+
+    private List<List<Integer>> tuplesA;
+    private List<List<Integer>> tuplesB;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tuplesA = new ArrayList<>();
+        HeapFile a = SystemTestUtil.createRandomHeapFile(2, 500, 20, null, tuplesA, "c");
+        Database.getCatalog().addTable(a, "a");
+        TableStats.setTableStats("a", new TableStats(a.getId(), 1));
+        tuplesB = new ArrayList<>();
+        HeapFile b = SystemTestUtil.createRandomHeapFile(2, 500, 20, null, tuplesB, "c");
+        Database.getCatalog().addTable(b, "b");
+        TableStats.setTableStats("b", new TableStats(b.getId(), 1));
+    }
+
+    /** @return the number of tuples of the join with a.c1 < lt and b.c1 = eq */
+    private int expected(int lt, int eq) {
+        int n = 0;
+        for (List<Integer> ta : tuplesA) {
+            for (List<Integer> tb : tuplesB) {
+                if (ta.get(0).equals(tb.get(0)) && ta.get(1) < lt && tb.get(1) == eq)
+                    n++;
+            }
+        }
+        return n;
+    }
+
+    private static int count(Query q) throws Exception {
+        int n = 0;
+        q.start();
+        while (q.hasNext()) {
+            q.next();
+            n++;
+        }
+        q.close();
+        return n;
+    }
+
+    /**
+     * A prepared statement returns the right tuples for each set of values,
+     * and statements that differ only in white space share one plan, which
+     * is not made again
+     */
+    @Test
+    public void bindTest() throws Exception {
+        PreparedQuery pq = new Parser().prepare(JOIN);
+        Assert.assertEquals(2, pq.getParameterCount());
+
+        TransactionId tid = new TransactionId();
+        Query first = pq.bind(tid, 5, 3);
+        Assert.assertEquals(expected(5, 3), count(first));
+        long hits = Parser.getStatementCache().getHits();
+        long misses = Parser.getStatementCache().getMisses();
+        for (int v = 0; v < 20; v += 4) {
+            Query q = pq.bind(tid, 15 - v, "" + v);
+            Assert.assertSame(first.getLogicalPlan(), q.getLogicalPlan());
+            Assert.assertEquals(expected(15 - v, v), count(q));
+        }
+        PreparedQuery again = new Parser().prepare(JOIN.replace(" ", "\n  ").replace(";", " ; "));
+        Assert.assertEquals(pq.getSql(), again.getSql());
+        Assert.assertSame(first.getLogicalPlan(), again.bind(tid, 1, 1).getLogicalPlan());
+        Assert.assertEquals(hits + 7, Parser.getStatementCache().getHits());
+        Assert.assertEquals(misses, Parser.getStatementCache().getMisses());
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Plans made before statistics are replaced or a table is added are made
+     * again
+     */
+    @Test
+    public void invalidationTest() throws Exception {
+        PreparedQuery pq = new Parser().prepare(JOIN);
+        TransactionId tid = new TransactionId();
+        Query q = pq.bind(tid, 10, 2);
+        Assert.assertSame(q.getLogicalPlan(), pq.bind(tid, 10, 2).getLogicalPlan());
+
+        int a = Database.getCatalog().getTableId("a");
+        TableStats.setTableStats("a", new TableStats(a, 1));
+        Query afterStats = pq.bind(tid, 10, 2);
+        Assert.assertNotSame(q.getLogicalPlan(), afterStats.getLogicalPlan());
+        Assert.assertEquals(expected(10, 2), count(afterStats));
+
+        Database.getCatalog().addTable(SystemTestUtil.createRandomHeapFile(1, 1, null, null), "c");
+        Query afterCatalog = pq.bind(tid, 10, 2);
+        Assert.assertNotSame(afterStats.getLogicalPlan(), afterCatalog.getLogicalPlan());
+        Assert.assertEquals(expected(10, 2), count(afterCatalog));
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * The cache holds at most its capacity of plans, evicting the least
+     * recently used
+     */
+    @Test
+    public void evictionTest() throws Exception {
+        StatementCache cache = Parser.getStatementCache();
+        int capacity = cache.getCapacity();
+        try {
+            cache.clear();
+            cache.setCapacity(2);
+            Parser p = new Parser();
+            p.prepare("SELECT * FROM a WHERE a.c0 = ?");
+            p.prepare("SELECT * FROM b WHERE b.c0 = ?");
+            p.prepare("SELECT * FROM a WHERE a.c0 = ?");
+            p.prepare("SELECT * FROM a WHERE a.c1 = ?");
+            Assert.assertEquals(2, cache.size());
+            long misses = cache.getMisses();
+            p.prepare("SELECT * FROM a WHERE a.c0 = ?");
+            Assert.assertEquals(misses, cache.getMisses());
+            p.prepare("SELECT * FROM b WHERE b.c0 = ?");
+            Assert.assertEquals(misses + 1, cache.getMisses());
+        } finally {
+            cache.setCapacity(capacity);
+        }
+    }
+
+    /**
+     * Statements and values that cannot be executed are rejected
+     */
+    @Test
+    public void errorTest() throws Exception {
+        Parser p = new Parser();
+        TransactionId tid = new TransactionId();
+        PreparedQuery pq = p.prepare(JOIN);
+        for (Object[] params : new Object[][] { { 1 }, { 1, 2, 3 }, { "x", 2 }, { 1, null } }) {
+            try {
+                pq.bind(tid, params);
+                Assert.fail("bound " + Arrays.toString(params));
+            } catch (ParsingException expected) {
+            }
+        }
+        for (String sql : new String[] { "DELETE FROM a WHERE a.c0 = ?", "SELECT * FROM a WHERE a.c0 = '?1'",
+                "SELECT * FROM nosuchtable WHERE nosuchtable.c0 = ?" }) {
+            try {
+                p.prepare(sql);
+                Assert.fail("prepared " + sql);
+            } catch (ParsingException expected) {
+            }
+        }
+        Database.getBufferPool().transactionComplete(tid);
+    }
+}
@@ -0,0 +1,151 @@
+package simpledb;
+
+import java.util.*;
+
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.optimizer.LogicalPlan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+public class ScanPredicateTest extends SimpleDbTestBase {
+
+    private static final Predicate.Op[] OPS = { Predicate.Op.EQUALS, Predicate.Op.NOT_EQUALS,
+            Predicate.Op.GREATER_THAN, Predicate.Op.GREATER_THAN_OR_EQ, Predicate.Op.LESS_THAN,
+            Predicate.Op.LESS_THAN_OR_EQ };
+
+    private TransactionId tid;
+    private List<List<Integer>> heapTuples;
+    private HeapFile heap;
+    private List<List<Integer>> btreeTuples;
+    private BTreeFile btree;
+
+    @Before
+    public void setUp() throws Exception {
+        super.setUp();
+        tid = new TransactionId();
+        heapTuples = new ArrayList<>();
+        heap = SystemTestUtil.createRandomHeapFile(3, 3000, 50, null, heapTuples, "c");
+        btreeTuples = new ArrayList<>();
+        btree = BTreeUtility.createRandomBTreeFile(3, 3000, 50, null, btreeTuples, 0);
+    }
+
+    /** @return the rows of the table satisfying every predicate, sorted */
+    private static List<List<Integer>> expected(List<List<Integer>> tuples, List<Predicate> preds) {
+        List<List<Integer>> rows = new ArrayList<>();
+        for (List<Integer> row : tuples) {
+            boolean pass = true;
+            for (Predicate p : preds) {
+                pass &= new IntField(row.get(p.getField())).compare(p.getOp(), p.getOperand());
+            }
+            if (pass)
+                rows.add(row);
+        }
+        rows.sort(ROWS);
+        return rows;
+    }
+
+    /** @return the rows a scan returns, sorted */
+    private static List<List<Integer>> scan(OpIterator it) throws Exception {
+        List<List<Integer>> rows = new ArrayList<>();
+        it.open();
+        while (it.hasNext()) {
+            Tuple t = it.next();
+            List<Integer> row = new ArrayList<>();
+            for (int i = 0; i < t.getTupleDesc().numFields(); i++) {
+                row.add(((IntField) t.getField(i)).getValue());
+            }
+            rows.add(row);
+        }
+        it.close();
+        rows.sort(ROWS);
+        return rows;
+    }
+
+    private static final Comparator<List<Integer>> ROWS = (a, b) -> {
+        for (int i = 0; i < a.size(); i++) {
+            int c = Integer.compare(a.get(i), b.get(i));
+            if (c != 0)
+                return c;
+        }
+        return 0;
+    };
+
+    private void checkScans(DbFile f, List<List<Integer>> tuples, Random r) throws Exception {
+        for (int n = 0; n < 100; n++) {
+            List<Predicate> preds = new ArrayList<>();
+            int count = r.nextInt(4);
+            for (int i = 0; i < count; i++) {
+                preds.add(new Predicate(r.nextInt(3), OPS[r.nextInt(OPS.length)], new IntField(r.nextInt(50))));
+            }
+            SeqScan ss = new SeqScan(tid, f.getId(), "t");
+            for (Predicate p : preds) {
+                ss.addPredicate(p);
+            }
+            Assert.assertEquals(preds.toString(), expected(tuples, preds), scan(ss));
+        }
+    }
+
+    /**
+     * A scan of a heap file returns exactly the tuples satisfying the
+     * predicates pushed into it
+     */
+    @Test
+    public void heapFileTest() throws Exception {
+        checkScans(heap, heapTuples, new Random(7));
+    }
+
+    /**
+     * A scan of a B+ tree returns exactly the tuples satisfying the
+     * predicates pushed into it, including those bounding the key
+     */
+    @Test
+    public void btreeFileTest() throws Exception {
+        checkScans(btree, btreeTuples, new Random(11));
+        List<Predicate> range = Arrays.asList(
+                new Predicate(0, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(10)),
+                new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(20)),
+                new Predicate(0, Predicate.Op.LESS_THAN_OR_EQ, new IntField(30)),
+                new Predicate(1, Predicate.Op.NOT_EQUALS, new IntField(5)));
+        SeqScan ss = new SeqScan(tid, btree.getId(), "t");
+        range.forEach(ss::addPredicate);
+        Assert.assertEquals(expected(btreeTuples, range), scan(ss));
+    }
+
+    /**
+     * The filters of a query are pushed into the scans of its tables instead
+     * of being run as separate operators
+     */
+    @Test
+    public void planTest() throws Exception {
+        Database.getCatalog().addTable(heap, "h");
+        TableStats.setTableStats("h", new TableStats(heap.getId(), 1));
+        LogicalPlan lp = new LogicalPlan();
+        lp.addScan(heap.getId(), "h");
+        lp.addFilter("h.c1", Predicate.Op.LESS_THAN, "20");
+        lp.addFilter("h.c2", Predicate.Op.EQUALS, "3");
+        lp.addProjectField("*", null);
+        OpIterator plan = lp.physicalPlan(tid, TableStats.getStatsMap(), false);
+        while (!(plan instanceof SeqScan)) {
+            plan = ((simpledb.execution.Operator) plan).getChildren()[0];
+        }
+        Assert.assertEquals(2, ((SeqScan) plan).getPredicates().size());
+        List<Predicate> preds = Arrays.asList(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(20)),
+                new Predicate(2, Predicate.Op.EQUALS, new IntField(3)));
+        Assert.assertEquals(expected(heapTuples, preds), scan(plan));
+    }
+}
@@ -0,0 +1,112 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Type;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.SortKey;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+public class SortKeyTest extends SimpleDbTestBase {
+
+  private static final TupleDesc TD = new TupleDesc(
+      new Type[] { Type.STRING_TYPE, Type.INT_TYPE, Type.STRING_TYPE });
+  private static final String[] STRINGS = { "", "a", "ab", "a\0", "a\0b", "b", "\uffff", "ba" };
+
+  private List<Tuple> randomTuples(int n) {
+    Random r = new Random(3);
+    List<Tuple> tuples = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      Tuple t = new Tuple(TD);
+      t.setField(0, new StringField(STRINGS[r.nextInt(STRINGS.length)], Type.STRING_LEN));
+      int[] ints = { Integer.MIN_VALUE, -1, 0, 1, Integer.MAX_VALUE, r.nextInt() };
+      t.setField(1, new IntField(ints[r.nextInt(ints.length)]));
+      t.setField(2, new StringField(STRINGS[r.nextInt(STRINGS.length)], Type.STRING_LEN));
+      tuples.add(t);
+    }
+    return tuples;
+  }
+
+  private static int compareFields(Tuple a, Tuple b, int[] fields, boolean[] asc) {
+    for (int i = 0; i < fields.length; i++) {
+      int c;
+      if (TD.getFieldType(fields[i]) == Type.INT_TYPE)
+        c = Integer.compare(a.getInt(fields[i]), b.getInt(fields[i]));
+      else
+        c = a.getString(fields[i]).compareTo(b.getString(fields[i]));
+      if (c != 0)
+        return asc[i] ? c : -c;
+    }
+    return 0;
+  }
+
+  /**
+   * Comparing normalized keys as bytes gives the same order as comparing the
+   * fields, for every combination of fields and directions
+   */
+  @Test public void orderMatchesFields() {
+    List<Tuple> tuples = randomTuples(200);
+    int[][] fieldLists = { { 0 }, { 1 }, { 0, 1 }, { 1, 0, 2 }, { 2, 0 } };
+    for (int[] fields : fieldLists) {
+      for (int dirs = 0; dirs < (1 << fields.length); dirs++) {
+        boolean[] asc = new boolean[fields.length];
+        for (int i = 0; i < fields.length; i++)
+          asc[i] = (dirs & (1 << i)) == 0;
+        SortKey key = new SortKey(TD, fields, asc);
+        for (Tuple a : tuples) {
+          for (Tuple b : tuples) {
+            int expected = Integer.signum(compareFields(a, b, fields, asc));
+            assertEquals(expected, Integer.signum(SortKey.compare(key.encode(a), key.encode(b))));
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * OrderBy sorts on several fields, in mixed directions
+   */
+  @Test public void multiColumnOrderBy() throws Exception {
+    Random r = new Random(5);
+    int[] data = new int[3 * 1000];
+    for (int i = 0; i < data.length; i++)
+      data[i] = r.nextInt(10);
+    OpIterator child = TestUtil.createTupleList(3, data);
+    OrderBy ob = new OrderBy(new int[] { 1, 0 }, new boolean[] { false, true }, child);
+    ob.open();
+    Tuple prev = null;
+    int count = 0;
+    while (ob.hasNext()) {
+      Tuple t = ob.next();
+      if (prev != null) {
+        assertTrue(prev.getInt(1) >= t.getInt(1));
+        if (prev.getInt(1) == t.getInt(1))
+          assertTrue(prev.getInt(0) <= t.getInt(0));
+      }
+      prev = t;
+      count++;
+    }
+    assertEquals(1000, count);
+    ob.close();
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortKeyTest.class);
+  }
+}
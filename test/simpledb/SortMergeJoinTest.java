@@ -0,0 +1,139 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Utility;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.Predicate;
+import simpledb.execution.SortMergeJoin;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeScan;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+public class SortMergeJoinTest extends SimpleDbTestBase {
+
+  final int width1 = 2;
+  final int width2 = 3;
+  OpIterator scan1;
+  OpIterator scan2;
+  OpIterator eqJoin;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void createTupleLists() {
+    this.scan1 = TestUtil.createTupleList(width1,
+        new int[] { 7, 8,
+                    3, 4,
+                    5, 6,
+                    1, 2,
+                    3, 9 });
+    this.scan2 = TestUtil.createTupleList(width2,
+        new int[] { 4, 5, 6,
+                    3, 4, 5,
+                    1, 2, 3,
+                    5, 6, 7,
+                    3, 0, 0,
+                    2, 3, 4 });
+    this.eqJoin = TestUtil.createTupleList(width1 + width2,
+        new int[] { 1, 2, 1, 2, 3,
+                    3, 4, 3, 4, 5,
+                    3, 4, 3, 0, 0,
+                    3, 9, 3, 4, 5,
+                    3, 9, 3, 0, 0,
+                    5, 6, 5, 6, 7 });
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getTupleDesc()
+   */
+  @Test public void getTupleDesc() {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    TupleDesc expected = Utility.getTupleDesc(width1 + width2);
+    TupleDesc actual = op.getTupleDesc();
+    assertEquals(expected, actual);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.getNext() using an = predicate; the output
+   * comes out in order of the join field
+   */
+  @Test public void eqJoin() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    int count = 0;
+    int prev = Integer.MIN_VALUE;
+    while (op.hasNext()) {
+      Tuple t = op.next();
+      int key = ((IntField) t.getField(0)).getValue();
+      assertTrue(key >= prev);
+      assertEquals(t.getField(0), t.getField(width1));
+      prev = key;
+      count++;
+    }
+    assertEquals(6, count);
+    eqJoin.open();
+    TestUtil.matchAllTuples(eqJoin, op);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.rewind()
+   */
+  @Test public void rewind() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 0);
+    SortMergeJoin op = new SortMergeJoin(pred, scan1, scan2);
+    op.open();
+    while (op.hasNext()) {
+      assertNotNull(op.next());
+    }
+    assertTrue(TestUtil.checkExhausted(op));
+    op.rewind();
+    int count = 0;
+    while (op.hasNext()) {
+      op.next();
+      count++;
+    }
+    assertEquals(6, count);
+  }
+
+  /**
+   * Unit test for SortMergeJoin.isSortedOn()
+   */
+  @Test public void isSortedOn() throws Exception {
+    BTreeFile bf = BTreeUtility.createBTreeFile(width2, 10, null, null, 1);
+    BTreeScan bscan = new BTreeScan(new TransactionId(), bf.getId(), "t", null);
+    assertTrue(SortMergeJoin.isSortedOn(bscan, 1));
+    assertFalse(SortMergeJoin.isSortedOn(bscan, 0));
+    assertTrue(SortMergeJoin.isSortedOn(new OrderBy(1, true, scan1), 1));
+    assertFalse(SortMergeJoin.isSortedOn(new OrderBy(1, false, scan1), 1));
+    assertFalse(SortMergeJoin.isSortedOn(scan1, 0));
+
+    SortMergeJoin op = new SortMergeJoin(new JoinPredicate(1, Predicate.Op.EQUALS, 0), scan1, scan2);
+    assertTrue(SortMergeJoin.isSortedOn(op, 1));
+    assertTrue(SortMergeJoin.isSortedOn(op, width1));
+    assertFalse(SortMergeJoin.isSortedOn(op, 0));
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SortMergeJoinTest.class);
+  }
+}
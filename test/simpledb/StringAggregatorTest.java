@@ -9,6 +9,8 @@ import simpledb.common.Type;
 import simpledb.execution.Aggregator;
 import simpledb.execution.OpIterator;
 import simpledb.execution.StringAggregator;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 import static org.junit.Assert.assertEquals;
 import junit.framework.JUnit4TestAdapter;
@@ -109,6 +111,41 @@ public class StringAggregatorTest extends SimpleDbTestBase {
     }
   }
 
+  /**
+   * Test StringAggregator.partition() and merge(), as used by parallel
+   * aggregation: partial counts merged partition by partition add up
+   */
+  @Test public void partitionAndMerge() throws Exception {
+    scan1.open();
+    StringAggregator[] partials = new StringAggregator[] {
+        new StringAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT),
+        new StringAggregator(0, Type.INT_TYPE, 1, Aggregator.Op.COUNT) };
+    for (int i = 0; scan1.hasNext(); i++) {
+      partials[i % 2].mergeTupleIntoGroup(scan1.next());
+    }
+
+    Aggregator[] parts0 = partials[0].partition(2);
+    Aggregator[] parts1 = partials[1].partition(2);
+    List<Integer> results = new ArrayList<>();
+    for (int p = 0; p < 2; p++) {
+      parts0[p].merge(parts1[p]);
+      OpIterator it = parts0[p].iterator();
+      it.open();
+      while (it.hasNext()) {
+        Tuple t = it.next();
+        results.add(((IntField) t.getField(0)).getValue());
+        results.add(((IntField) t.getField(1)).getValue());
+      }
+    }
+    OpIterator expected = TestUtil.createTupleList(width1, new int[] { 1, 3, 3, 3, 5, 1 });
+    expected.open();
+    int[] flat = new int[results.size()];
+    for (int i = 0; i < flat.length; i++)
+      flat[i] = results.get(i);
+    assertEquals(6, flat.length);
+    TestUtil.matchAllTuples(expected, TestUtil.createTupleList(width1, flat));
+  }
+
   /**
    * JUnit suite target
    */
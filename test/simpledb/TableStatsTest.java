@@ -1,5 +1,6 @@
 package simpledb;
 
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
@@ -11,13 +12,16 @@ import org.junit.Assert;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.execution.Predicate;
+import simpledb.optimizer.StatsMaintainer;
 import simpledb.optimizer.TableStats;
 import simpledb.storage.Field;
 import simpledb.storage.HeapFile;
 import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
 
 public class TableStatsTest extends SimpleDbTestBase {
 	public static final int IO_COST = 71;
@@ -109,6 +113,92 @@ public class TableStatsTest extends SimpleDbTestBase {
 		Assert.assertEquals(0, s.estimateTableCardinality(0.0));
 	}
 	
+	/**
+	 * Statistics from a sample of the pages extrapolate the number of tuples
+	 * and still give reasonable selectivities
+	 */
+	@Test public void sampledStatsTest() {
+		TableStats s = new TableStats(this.tableId, IO_COST, 0.25);
+		Assert.assertEquals(25, s.sampledPages());
+		Assert.assertEquals(10200, s.totalTuples(), 200);
+		Assert.assertEquals(10200, s.estimateTableCardinality(1.0), 200);
+		for (int col = 0; col < 10; col++) {
+			Assert.assertEquals(1.0/32.0, s.estimateSelectivity(col, Predicate.Op.EQUALS, new IntField(16)), 0.02);
+			Assert.assertEquals(0.5, s.estimateSelectivity(col, Predicate.Op.GREATER_THAN, new IntField(16)), 0.1);
+		}
+
+		TableStats full = new TableStats(this.tableId, IO_COST);
+		Assert.assertEquals(f.numPages(), full.sampledPages());
+		Assert.assertEquals(10200, full.totalTuples());
+	}
+
+	/**
+	 * Verify that committed inserts update the published statistics without
+	 * changing the old ones, that aborted inserts are dropped, and that
+	 * enough changes cause the table to be sampled again.
+	 */
+	@Test public void maintainedStatsTest() throws Exception {
+		HeapFile hf = SystemTestUtil.createRandomHeapFile(2, 1000, 32, null, new ArrayList<>());
+		String name = SystemTestUtil.getUUID();
+		Database.getCatalog().addTable(hf, name);
+		TableStats before = new TableStats(hf.getId(), IO_COST);
+		TableStats.setTableStats(name, before);
+		double sel = before.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(5));
+
+		insert(hf.getId(), 100, true);
+		TableStats after = TableStats.getTableStats(name);
+		Assert.assertEquals(1000, before.totalTuples());
+		Assert.assertEquals(1100, after.totalTuples());
+		Assert.assertTrue(after.estimateSelectivity(0, Predicate.Op.EQUALS, new IntField(5)) > sel);
+
+		insert(hf.getId(), 50, false);
+		Assert.assertSame(after, TableStats.getTableStats(name));
+
+		insert(hf.getId(), 200, true);
+		StatsMaintainer.waitForResample(name);
+		TableStats resampled = TableStats.getTableStats(name);
+		Assert.assertEquals(1300, resampled.totalTuples());
+		Assert.assertEquals(0.0, resampled.drift(), 0.0);
+	}
+
+	/**
+	 * Verify that statistics written to a file read back the same, unless
+	 * the table has changed since.
+	 */
+	@Test public void statsFileTest() throws Exception {
+		TableStats s = new TableStats(this.tableId, IO_COST);
+		TableStats.setTableStats(tableName, s);
+		File file = File.createTempFile("stats", ".dat");
+		file.deleteOnExit();
+		TableStats.saveStatistics(file);
+
+		TableStats.getStatsMap().remove(tableName);
+		Assert.assertTrue(TableStats.loadStatistics(file).contains(tableName));
+		TableStats loaded = TableStats.getTableStats(tableName);
+		Assert.assertEquals(s.totalTuples(), loaded.totalTuples());
+		Assert.assertEquals(s.sampledPages(), loaded.sampledPages());
+		for (int col = 0; col < 10; col++) {
+			for (int v = -1; v <= 33; v++) {
+				Assert.assertEquals(s.estimateSelectivity(col, Predicate.Op.GREATER_THAN, new IntField(v)),
+						loaded.estimateSelectivity(col, Predicate.Op.GREATER_THAN, new IntField(v)), 0.0);
+			}
+		}
+
+		f.getFile().setLastModified(f.getFile().lastModified() + 1000);
+		Assert.assertFalse(TableStats.loadStatistics(file).contains(tableName));
+	}
+
+	private void insert(int tableId, int n, boolean commit) throws Exception {
+		TransactionId tid = new TransactionId();
+		for (int i = 0; i < n; i++) {
+			Tuple t = new Tuple(Database.getCatalog().getTupleDesc(tableId));
+			t.setField(0, new IntField(5));
+			t.setField(1, new IntField(i % 32));
+			Database.getBufferPool().insertTuple(tid, tableId, t);
+		}
+		Database.getBufferPool().transactionComplete(tid, commit);
+	}
+
 	/**
 	 * Verify that selectivity estimates do something reasonable.
 	 * Don't bother splitting this into N different functions for
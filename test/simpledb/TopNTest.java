@@ -0,0 +1,201 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.execution.Limit;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.OrderBy;
+import simpledb.execution.TopN;
+import simpledb.optimizer.OperatorCardinality;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+public class TopNTest extends SimpleDbTestBase {
+
+  private OpIterator randomTuples(int n) {
+    Random r = new Random(7);
+    int[] data = new int[n * 2];
+    for (int i = 0; i < n; i++) {
+      data[2 * i] = r.nextInt(50);
+      data[2 * i + 1] = i;
+    }
+    return TestUtil.createTupleList(2, data);
+  }
+
+  private List<Tuple> drain(OpIterator it, int max) throws Exception {
+    List<Tuple> out = new ArrayList<>();
+    while (out.size() < max && it.hasNext())
+      out.add(it.next());
+    return out;
+  }
+
+  private void assertSameTuples(List<Tuple> expected, List<Tuple> actual) {
+    assertEquals(expected.size(), actual.size());
+    for (int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).getInt(0), actual.get(i).getInt(0));
+      assertEquals(expected.get(i).getInt(1), actual.get(i).getInt(1));
+    }
+  }
+
+  /**
+   * TopN returns the first n tuples OrderBy would, ties in input order, in
+   * both directions
+   */
+  @Test public void matchesOrderBy() throws Exception {
+    for (boolean asc : new boolean[] { true, false }) {
+      for (int n : new int[] { 0, 1, 37, 1000, 5000 }) {
+        OrderBy ob = new OrderBy(0, asc, randomTuples(1000));
+        ob.open();
+        List<Tuple> expected = drain(ob, n);
+        ob.close();
+
+        TopN top = new TopN(0, asc, n, randomTuples(1000));
+        top.open();
+        assertSameTuples(expected, drain(top, Integer.MAX_VALUE));
+        top.rewind();
+        assertSameTuples(expected, drain(top, Integer.MAX_VALUE));
+        top.close();
+      }
+    }
+  }
+
+  /**
+   * Limit skips offset tuples and then returns at most limit of them
+   */
+  @Test public void limitAndOffset() throws Exception {
+    Limit l = new Limit(10, 5, randomTuples(100));
+    l.open();
+    List<Tuple> out = drain(l, Integer.MAX_VALUE);
+    assertEquals(10, out.size());
+    for (int i = 0; i < 10; i++)
+      assertEquals(i + 5, out.get(i).getInt(1));
+    l.rewind();
+    assertEquals(5, l.next().getInt(1));
+    l.close();
+
+    l = new Limit(-1, 95, randomTuples(100));
+    l.open();
+    assertEquals(5, drain(l, Integer.MAX_VALUE).size());
+    l.close();
+
+    l = new Limit(10, 200, randomTuples(100));
+    l.open();
+    assertFalse(l.hasNext());
+    l.close();
+  }
+
+  /**
+   * The parser accepts LIMIT ... OFFSET at the end of a query
+   */
+  @Test public void parseLimit() throws Exception {
+    List<List<Integer>> tuples = new ArrayList<>();
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 500, 100, null, tuples, "c");
+    Database.getCatalog().addTable(f, "t");
+    Map<String, TableStats> stats = new HashMap<>();
+    stats.put("t", new TableStats(f.getId(), 1));
+    TransactionId tid = new TransactionId();
+    Parser p = new Parser();
+
+    OpIterator plan = p.generateLogicalPlan(tid,
+        "SELECT t.c0 FROM t ORDER BY t.c0 DESC limit 20 OFFSET 3;").physicalPlan(tid, stats, false);
+    List<Integer> expected = new ArrayList<>();
+    for (List<Integer> t : tuples)
+      expected.add(t.get(0));
+    expected.sort((a, b) -> b - a);
+    plan.open();
+    List<Tuple> out = drain(plan, Integer.MAX_VALUE);
+    assertEquals(20, out.size());
+    for (int i = 0; i < 20; i++)
+      assertEquals((int) expected.get(i + 3), out.get(i).getInt(0));
+    plan.close();
+
+    plan = p.generateLogicalPlan(tid,
+        "SELECT t.c0, t.c1 FROM t ORDER BY t.c0, t.c1 DESC LIMIT 50;").physicalPlan(tid, stats, false);
+    tuples.sort((a, b) -> !a.get(0).equals(b.get(0)) ? a.get(0) - b.get(0) : b.get(1) - a.get(1));
+    plan.open();
+    out = drain(plan, Integer.MAX_VALUE);
+    assertEquals(50, out.size());
+    for (int i = 0; i < 50; i++) {
+      assertEquals((int) tuples.get(i).get(0), out.get(i).getInt(0));
+      assertEquals((int) tuples.get(i).get(1), out.get(i).getInt(1));
+    }
+    plan.close();
+
+    plan = p.generateLogicalPlan(tid, "SELECT * FROM t LIMIT 7").physicalPlan(tid, stats, false);
+    plan.open();
+    assertEquals(7, drain(plan, Integer.MAX_VALUE).size());
+    plan.close();
+
+    plan = p.generateLogicalPlan(tid, "SELECT * FROM t;").physicalPlan(tid, stats, false);
+    plan.open();
+    assertEquals(500, drain(plan, Integer.MAX_VALUE).size());
+    plan.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * Only the LIMIT clause of the first statement of a script is stripped
+   */
+  @Test public void firstStatementLimit() throws Exception {
+    assertEquals("SELECT * FROM t;",
+        Parser.firstStatement("SELECT * FROM t;\nSELECT * FROM t LIMIT 5;"));
+    assertEquals("SELECT * FROM t WHERE t.s = 'a;b';",
+        Parser.firstStatement("SELECT * FROM t WHERE t.s = 'a;b'; SELECT 1;"));
+    assertEquals("SELECT * FROM t", Parser.firstStatement("SELECT * FROM t"));
+  }
+
+  /**
+   * The estimated cardinality of a TopN or Limit is at most the number of
+   * tuples it can return
+   */
+  @Test public void limitCardinality() throws Exception {
+    HeapFile f = SystemTestUtil.createRandomHeapFile(2, 500, 100, null, new ArrayList<>(), "c");
+    Database.getCatalog().addTable(f, "t");
+    Map<String, TableStats> stats = new HashMap<>();
+    stats.put("t", new TableStats(f.getId(), 1));
+    TransactionId tid = new TransactionId();
+    Parser p = new Parser();
+
+    OpIterator plan = p.generateLogicalPlan(tid,
+        "SELECT t.c0 FROM t ORDER BY t.c0 LIMIT 20 OFFSET 3;").physicalPlan(tid, stats, false);
+    Map<String, Integer> aliases = new HashMap<>();
+    aliases.put("t", f.getId());
+    OperatorCardinality.updateOperatorCardinality((Operator) plan, aliases, stats);
+    boolean sawTopN = false;
+    for (OpIterator o = plan; o instanceof Operator; o = ((Operator) o).getChildren()[0]) {
+      int card = ((Operator) o).getEstimatedCardinality();
+      if (o instanceof Limit)
+        assertEquals(20, card);
+      if (o instanceof TopN) {
+        assertEquals(23, card);
+        sawTopN = true;
+      }
+    }
+    assertTrue(sawTopN);
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TopNTest.class);
+  }
+}
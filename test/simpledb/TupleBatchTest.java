@@ -0,0 +1,241 @@
+package simpledb;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Aggregate;
+import simpledb.execution.Aggregator;
+import simpledb.execution.BatchOpIterator;
+import simpledb.execution.Filter;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.execution.TupleBatch;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.util.*;
+
+public class TupleBatchTest extends SimpleDbTestBase {
+
+  final int width = 3;
+  final int rows = 5000;
+  List<List<Integer>> tuples;
+  HeapFile table;
+  TransactionId tid;
+
+  /**
+   * Initialize each unit test
+   */
+  @Before public void setUp() throws Exception {
+    tuples = new ArrayList<>();
+    table = SystemTestUtil.createRandomHeapFile(width, rows, 100, null, tuples);
+    tid = new TransactionId();
+  }
+
+  private int countRows(BatchOpIterator op) throws Exception {
+    int count = 0;
+    TupleBatch b;
+    while ((b = op.nextBatch()) != null) {
+      assertTrue(b.size() > 0);
+      count += b.size();
+    }
+    return count;
+  }
+
+  /**
+   * Tuples added to a batch come back unchanged
+   */
+  @Test public void addAndGetTuple() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    TupleBatch b = new TupleBatch(td, 4);
+    for (int i = 0; i < 4; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new IntField(i));
+      t.setField(1, new StringField("s" + i, Type.STRING_LEN));
+      b.add(t);
+    }
+    assertTrue(b.isFull());
+    assertEquals(4, b.size());
+    assertEquals(2, b.getIntColumn(0)[2]);
+    Tuple t = b.getTuple(3);
+    assertEquals(new IntField(3), t.getField(0));
+    assertEquals(new StringField("s3", Type.STRING_LEN), t.getField(1));
+  }
+
+  /**
+   * Runs of tuples are copied in column by column and handed back as the
+   * same tuples; merged rows match the tuples Tuple.merge builds
+   */
+  @Test public void addAllAndMerged() throws Exception {
+    TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+    List<Tuple> ts = new ArrayList<>();
+    for (int i = 0; i < 6; i++) {
+      Tuple t = new Tuple(td);
+      t.setField(0, new IntField(i));
+      t.setField(1, new StringField("s" + i, Type.STRING_LEN));
+      ts.add(t);
+    }
+    TupleBatch b = new TupleBatch(td, 4);
+    b.addAll(ts, 1, 4);
+    assertEquals(1, b.remaining());
+    assertEquals(3, b.getIntColumn(0)[2]);
+    assertTrue(b.getTuple(1) == ts.get(2));
+
+    TupleDesc combo = TupleDesc.merge(td, td);
+    TupleBatch m = new TupleBatch(combo, 4);
+    m.addMerged(ts.get(0), ts.get(5));
+    assertEquals(5, m.getIntColumn(2)[0]);
+    assertEquals(Tuple.merge(combo, ts.get(0), ts.get(5)).toString(), m.getTuple(0).toString());
+  }
+
+  /**
+   * Selections narrow the selected rows without moving them
+   */
+  @Test public void select() throws Exception {
+    OpIterator it = TestUtil.createTupleList(2,
+        new int[] { 1, 10,
+                    5, 20,
+                    3, 30,
+                    7, 40 });
+    it.open();
+    TupleBatch b = BatchOpIterator.fetchBatch(it);
+    b.select(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(2)));
+    assertEquals(3, b.size());
+    b.select(new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(30)));
+    assertEquals(2, b.size());
+    assertEquals(1, b.row(0));
+    assertEquals(2, b.row(1));
+    assertNull(BatchOpIterator.fetchBatch(it));
+  }
+
+  /**
+   * Projections share the columns and selection of the original batch
+   */
+  @Test public void project() throws Exception {
+    OpIterator it = TestUtil.createTupleList(3,
+        new int[] { 1, 2, 3,
+                    4, 5, 6 });
+    it.open();
+    TupleBatch b = BatchOpIterator.fetchBatch(it);
+    b.select(new Predicate(0, Predicate.Op.EQUALS, new IntField(4)));
+    TupleBatch p = b.project(Arrays.asList(2, 0), Utility.getTupleDesc(2));
+    assertEquals(1, p.size());
+    assertTrue(p.getIntColumn(0) == b.getIntColumn(2));
+    Tuple t = p.getTuple(p.row(0));
+    assertEquals(new IntField(6), t.getField(0));
+    assertEquals(new IntField(4), t.getField(1));
+  }
+
+  /**
+   * A scan, filter and projection read by batches return the same rows as
+   * the tuple-at-a-time plan
+   */
+  @Test public void filterProjectBatches() throws Exception {
+    Filter f = new Filter(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(50)),
+        new SeqScan(tid, table.getId(), "t"));
+    Project p = new Project(Arrays.asList(2, 0),
+        new Type[] { Type.INT_TYPE, Type.INT_TYPE }, f);
+
+    List<List<Integer>> expected = new ArrayList<>();
+    for (List<Integer> t : tuples) {
+      if (t.get(0) > 50)
+        expected.add(Arrays.asList(t.get(2), t.get(0)));
+    }
+
+    List<List<Integer>> actual = new ArrayList<>();
+    p.open();
+    TupleBatch b;
+    while ((b = p.nextBatch()) != null) {
+      for (int i = 0; i < b.size(); i++) {
+        actual.add(SystemTestUtil.tupleToList(b.getTuple(b.row(i))));
+      }
+    }
+    p.close();
+    assertEquals(expected, actual);
+
+    p.open();
+    SystemTestUtil.matchTuples(p, expected);
+  }
+
+  /**
+   * Aggregating batches matches the aggregate computed from the tuples
+   */
+  @Test public void aggregateBatches() throws Exception {
+    Filter f = new Filter(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(30)),
+        new SeqScan(tid, table.getId(), "t"));
+    Aggregate agg = new Aggregate(f, 2, 0, Aggregator.Op.SUM);
+
+    Map<Integer, Integer> sums = new HashMap<>();
+    for (List<Integer> t : tuples) {
+      if (t.get(1) < 30)
+        sums.merge(t.get(0), t.get(2), Integer::sum);
+    }
+    List<List<Integer>> expected = new ArrayList<>();
+    for (Map.Entry<Integer, Integer> e : sums.entrySet()) {
+      expected.add(Arrays.asList(e.getKey(), e.getValue()));
+    }
+    SystemTestUtil.matchTuples(agg, expected);
+    agg.close();
+
+    agg.open();
+    assertEquals(expected.size(), countRows(agg));
+  }
+
+  /**
+   * A hash join reads its children by batches and can produce batches
+   */
+  @Test public void hashJoinBatches() throws Exception {
+    JoinPredicate pred = new JoinPredicate(0, Predicate.Op.EQUALS, 1);
+    HashEquiJoin join = new HashEquiJoin(pred,
+        new Filter(new Predicate(2, Predicate.Op.GREATER_THAN_OR_EQ, new IntField(90)),
+            new SeqScan(tid, table.getId(), "t1")),
+        new SeqScan(tid, table.getId(), "t2"));
+
+    int expected = 0;
+    for (List<Integer> t1 : tuples) {
+      if (t1.get(2) < 90)
+        continue;
+      for (List<Integer> t2 : tuples) {
+        if (t1.get(0).equals(t2.get(1)))
+          expected++;
+      }
+    }
+
+    join.open();
+    int count = 0;
+    while (join.hasNext()) {
+      join.next();
+      count++;
+    }
+    assertEquals(expected, count);
+    join.rewind();
+    assertEquals(expected, countRows(join));
+    join.close();
+    Database.getBufferPool().transactionComplete(tid);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(TupleBatchTest.class);
+  }
+}
@@ -1,14 +1,23 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 
 import org.junit.Test;
 
+import simpledb.common.Type;
 import simpledb.common.Utility;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.util.Arrays;
+
 public class TupleTest extends SimpleDbTestBase {
 
     /**
@@ -31,6 +40,68 @@ public class TupleTest extends SimpleDbTestBase {
         assertEquals(new IntField(37), tup.getField(1));
     }
 
+    /**
+     * Unit test for the primitive accessors of Tuple
+     */
+    @Test public void primitiveFields() throws Exception {
+        TupleDesc td = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE });
+        Tuple tup = new Tuple(td);
+        assertNull(tup.getField(0));
+
+        tup.setInt(0, 7);
+        tup.setString(1, "seven");
+        tup.setField(2, new IntField(-3));
+        assertEquals(new IntField(7), tup.getField(0));
+        assertEquals(new StringField("seven", Type.STRING_LEN), tup.getField(1));
+        assertEquals(-3, tup.getInt(2));
+        assertEquals("seven", tup.getString(1));
+        // string fields are built once and then reused
+        assertTrue(tup.getField(1) == tup.getField(1));
+        assertEquals("seven", tup.getString(1));
+
+        // the on-disk format matches Field.serialize
+        ByteArrayOutputStream viaTuple = new ByteArrayOutputStream();
+        ByteArrayOutputStream viaFields = new ByteArrayOutputStream();
+        for (int i = 0; i < td.numFields(); i++) {
+            tup.writeField(i, new DataOutputStream(viaTuple));
+            tup.getField(i).serialize(new DataOutputStream(viaFields));
+        }
+        assertEquals(td.getSize(), viaTuple.size());
+        assertEquals(Arrays.toString(viaFields.toByteArray()),
+                Arrays.toString(viaTuple.toByteArray()));
+
+        Tuple read = new Tuple(td);
+        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(viaTuple.toByteArray()));
+        for (int i = 0; i < td.numFields(); i++) {
+            read.readField(i, dis);
+        }
+        assertEquals(tup.toString(), read.toString());
+    }
+
+    /**
+     * Unit test for Tuple.copyField() and Tuple.merge()
+     */
+    @Test public void copyAndMerge() {
+        TupleDesc td1 = new TupleDesc(new Type[] { Type.INT_TYPE, Type.STRING_TYPE });
+        TupleDesc td2 = Utility.getTupleDesc(1);
+        Tuple t1 = new Tuple(td1);
+        t1.setInt(0, 1);
+        t1.setString(1, "a");
+        Tuple t2 = new Tuple(td2);
+        t2.setInt(0, 2);
+
+        Tuple merged = Tuple.merge(TupleDesc.merge(td1, td2), t1, t2);
+        assertEquals(new IntField(1), merged.getField(0));
+        assertEquals(new StringField("a", Type.STRING_LEN), merged.getField(1));
+        assertEquals(new IntField(2), merged.getField(2));
+
+        Tuple projected = new Tuple(new TupleDesc(new Type[] { Type.STRING_TYPE, Type.INT_TYPE }));
+        projected.copyField(0, merged, 1);
+        projected.copyField(1, merged, 2);
+        assertEquals("a", projected.getString(0));
+        assertEquals(2, projected.getInt(1));
+    }
+
     /**
      * Unit test for Tuple.getTupleDesc()
      */
@@ -11,6 +11,7 @@ import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.execution.Aggregate;
 import simpledb.execution.Aggregator;
+import simpledb.execution.Exchange;
 import simpledb.execution.SeqScan;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
@@ -121,6 +122,23 @@ public class AggregateTest extends SimpleDbTestBase {
         doAggregate(Aggregator.Op.AVG, Aggregator.NO_GROUPING);
     }
 
+    /** Aggregate a table large enough for several morsels below an Exchange. */
+    @Test public void testParallel() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> createdTuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(
+                COLUMNS, 40 * ROWS, MAX_VALUE, null, createdTuples);
+        for (Aggregator.Op op : new Aggregator.Op[]{Aggregator.Op.MIN, Aggregator.Op.MAX,
+                Aggregator.Op.SUM, Aggregator.Op.AVG, Aggregator.Op.COUNT}) {
+            for (int groupColumn : new int[]{0, Aggregator.NO_GROUPING}) {
+                TransactionId tid = new TransactionId();
+                Exchange ex = new Exchange(new SeqScan(tid, table.getId(), ""), 4, false);
+                Aggregate ag = new Aggregate(ex, 1, groupColumn, op);
+                SystemTestUtil.matchTuples(ag, aggregate(createdTuples, op, groupColumn));
+                Database.getBufferPool().transactionComplete(tid);
+            }
+        }
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(AggregateTest.class);